@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.glencoesoftware.roitool;
+
+import java.util.concurrent.TimeUnit;
+
+import omero.model.EventI;
+import omero.model.IObject;
+import omero.model.PolygonI;
+import omero.model.RoiI;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import static omero.rtypes.rlong;
+
+/**
+ * Finds the LSIDs of a page of ROIs and shapes, each looked up several
+ * times as <code>MetadataConverter</code> does on export, with an
+ * {@link LsidCache} cleared after the page, as the export does, and by
+ * formatting every LSID with {@link String#format(String, Object...)}, as
+ * the export did before the cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LsidCacheBenchmark
+{
+    private static final String AUTHORITY = "export.openmicroscopy.org";
+
+    private static final String DATABASE_UUID =
+            "6e3b1a4f-2c1d-4f7e-9a8b-0c5d2e7f1a3b";
+
+    /** Number of ROIs and shapes in a page. */
+    @Param({"1000"})
+    public int objectCount;
+
+    /** Number of times each LSID is looked up. */
+    @Param({"1", "4"})
+    public int lookups;
+
+    private IObject[] objects;
+
+    private LsidCache cache;
+
+    private String lsidFormat;
+
+    @Setup
+    public void setUp()
+    {
+        objects = new IObject[objectCount];
+        for (int i = 0; i < objectCount; i++)
+        {
+            IObject object = i % 10 == 0
+                    ? new RoiI(rlong(i), true)
+                    : new PolygonI(rlong(i), true);
+            object.getDetails().setUpdateEvent(
+                    new EventI(rlong(1000 + i / 100), false));
+            objects[i] = object;
+        }
+        cache = new LsidCache(AUTHORITY, DATABASE_UUID);
+        lsidFormat = String.format(
+                "urn:lsid:%s:%%s:%s_%%s:%%s", AUTHORITY, DATABASE_UUID);
+    }
+
+    @Benchmark
+    public void cache(Blackhole blackhole)
+    {
+        for (int lookup = 0; lookup < lookups; lookup++)
+        {
+            for (IObject object : objects)
+            {
+                blackhole.consume(cache.apply(object));
+            }
+        }
+        cache.clear();
+    }
+
+    @Benchmark
+    public void format(Blackhole blackhole)
+    {
+        for (int lookup = 0; lookup < lookups; lookup++)
+        {
+            for (IObject object : objects)
+            {
+                blackhole.consume(formatLsid(object));
+            }
+        }
+    }
+
+    private String formatLsid(IObject object)
+    {
+        Class<?> type = object.getClass();
+        while (type.getSuperclass() != IObject.class)
+        {
+            type = type.getSuperclass();
+        }
+        final long objectId = object.getId().getValue();
+        final long updateId =
+                object.getDetails().getUpdateEvent().getId().getValue();
+        return String.format(
+                lsidFormat, type.getSimpleName(), objectId, updateId);
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.glencoesoftware.roitool;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parses and formats the points of a polygon with {@link PointsCodec} and,
+ * for comparison, by splitting the string and calling
+ * {@link Double#parseDouble(String)} and by appending each coordinate's
+ * {@link Double#toString(double)}.  Coordinates are written either to
+ * three decimal places or in full.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PointsCodecBenchmark
+{
+    @Param({"10", "1000"})
+    public int pointCount;
+
+    @Param({"fixed", "full"})
+    public String style;
+
+    private String points;
+
+    private double[] xy;
+
+    private final PointsCodec codec = new PointsCodec();
+
+    private final StringBuilder buffer = new StringBuilder();
+
+    @Setup
+    public void setUp()
+    {
+        Random random = new Random(42);
+        xy = new double[2 * pointCount];
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < xy.length; i++)
+        {
+            double value = random.nextDouble() * 10000;
+            if ("fixed".equals(style))
+            {
+                value = Math.round(value * 1000) / 1000.0;
+            }
+            xy[i] = value;
+            if (i > 0)
+            {
+                text.append(i % 2 == 0 ? ' ' : ',');
+            }
+            text.append(value);
+        }
+        points = text.toString();
+    }
+
+    @Benchmark
+    public double[] parseCodec()
+    {
+        codec.parse(points);
+        return codec.getCoordinates();
+    }
+
+    @Benchmark
+    public double[] parseSplit()
+    {
+        String[] pairs = points.trim().split("\\s+");
+        double[] coordinates = new double[2 * pairs.length];
+        for (int i = 0; i < pairs.length; i++)
+        {
+            String[] pair = pairs[i].split(",");
+            coordinates[2 * i] = Double.parseDouble(pair[0]);
+            coordinates[2 * i + 1] = Double.parseDouble(pair[1]);
+        }
+        return coordinates;
+    }
+
+    @Benchmark
+    public StringBuilder formatCodec()
+    {
+        codec.set(xy, pointCount);
+        buffer.setLength(0);
+        return codec.format(buffer, CoordinateFormat.SHORTEST);
+    }
+
+    @Benchmark
+    public StringBuilder formatToString()
+    {
+        buffer.setLength(0);
+        for (int i = 0; i < pointCount; i++)
+        {
+            if (i > 0)
+            {
+                buffer.append(' ');
+            }
+            buffer.append(xy[2 * i]).append(',').append(xy[2 * i + 1]);
+        }
+        return buffer;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.glencoesoftware.roitool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import omero.model.Polygon;
+import omero.model.PolygonI;
+import omero.model.Roi;
+import omero.model.RoiI;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import static omero.rtypes.rint;
+import static omero.rtypes.rstring;
+
+/**
+ * Reads the shapes of a fixed total of polygons through
+ * {@link ROIMetadata}, as <code>MetadataConverter</code> does on export,
+ * with the polygons spread over ROIs of different sizes.  The time per
+ * shape should not depend on the number of shapes in each ROI.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ROIMetadataBenchmark
+{
+    private static final int SHAPE_COUNT = 10000;
+
+    @Param({"1", "100", "10000"})
+    public int shapesPerRoi;
+
+    private List<Roi> rois;
+
+    private ROIMetadata metadata;
+
+    @Setup
+    public void setUp()
+    {
+        rois = new ArrayList<Roi>();
+        for (int i = 0; i < SHAPE_COUNT / shapesPerRoi; i++)
+        {
+            Roi roi = new RoiI();
+            for (int j = 0; j < shapesPerRoi; j++)
+            {
+                Polygon polygon = new PolygonI();
+                polygon.setPoints(rstring("0,0 " + j + ",0 " + j + "," + i));
+                polygon.setTheZ(rint(j % 10));
+                roi.addShape(polygon);
+            }
+            rois.add(roi);
+        }
+        metadata = new ROIMetadata(object -> "LSID", rois);
+    }
+
+    @Benchmark
+    public ROIMetadata construct()
+    {
+        return new ROIMetadata(object -> "LSID", rois);
+    }
+
+    @Benchmark
+    public void readShapes(Blackhole blackhole)
+    {
+        for (int roi = 0; roi < metadata.getROICount(); roi++)
+        {
+            int shapeCount = metadata.getShapeCount(roi);
+            for (int shape = 0; shape < shapeCount; shape++)
+            {
+                blackhole.consume(metadata.getShapeType(roi, shape));
+                blackhole.consume(metadata.getPolygonID(roi, shape));
+                blackhole.consume(metadata.getPolygonPoints(roi, shape));
+                blackhole.consume(metadata.getPolygonTheZ(roi, shape));
+                blackhole.consume(metadata.getPolygonText(roi, shape));
+                blackhole.consume(metadata.getPolygonStrokeWidth(roi, shape));
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.glencoesoftware.roitool;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import omero.model.Roi;
+import omero.model.RoiI;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Fills a {@link RoiTable} as an import does: each ROI is added once,
+ * looked up by every shape setter called for it and finally read back in
+ * first access order.  The same accesses through the
+ * <code>LinkedHashMap</code> which the import used before are measured
+ * for comparison.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RoiTableBenchmark
+{
+    @Param({"1000", "100000"})
+    public int roiCount;
+
+    /** Number of lookups of each ROI after it is added. */
+    @Param({"10"})
+    public int lookups;
+
+    private Roi[] rois;
+
+    @Setup
+    public void setUp()
+    {
+        rois = new Roi[roiCount];
+        for (int i = 0; i < roiCount; i++)
+        {
+            rois[i] = new RoiI();
+        }
+    }
+
+    @Benchmark
+    public void table(Blackhole blackhole)
+    {
+        RoiTable table = new RoiTable();
+        for (int i = 0; i < roiCount; i++)
+        {
+            if (table.get(i) == null)
+            {
+                table.put(i, rois[i]);
+            }
+            for (int lookup = 0; lookup < lookups; lookup++)
+            {
+                blackhole.consume(table.get(i));
+            }
+        }
+        for (int position = 0; position < table.size(); position++)
+        {
+            blackhole.consume(table.indexAt(position));
+        }
+        for (Roi roi : table.values())
+        {
+            blackhole.consume(roi);
+        }
+    }
+
+    @Benchmark
+    public void linkedHashMap(Blackhole blackhole)
+    {
+        Map<Integer, Roi> map = new LinkedHashMap<Integer, Roi>();
+        for (int i = 0; i < roiCount; i++)
+        {
+            if (map.get(i) == null)
+            {
+                map.put(i, rois[i]);
+            }
+            for (int lookup = 0; lookup < lookups; lookup++)
+            {
+                blackhole.consume(map.get(i));
+            }
+        }
+        for (int roiIndex : map.keySet())
+        {
+            blackhole.consume(roiIndex);
+        }
+        for (Roi roi : map.values())
+        {
+            blackhole.consume(roi);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.glencoesoftware.roitool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import omero.model.Rectangle;
+import omero.model.Roi;
+import omero.model.RoiI;
+import omero.model.Shape;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Resolves the type of shapes of every kind, mixed within each ROI, from
+ * the type table {@link ROIMetadata} fills as it is constructed, with
+ * {@link ShapeType#of(Shape)} and, for comparison, by walking the
+ * superclasses of each shape as <code>getShapeType</code> once did.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ShapeTypeBenchmark
+{
+    private static final int SHAPE_COUNT = 10000;
+
+    @Param({"1", "100"})
+    public int shapesPerRoi;
+
+    private List<Roi> rois;
+
+    private Shape[] shapes;
+
+    private ROIMetadata metadata;
+
+    @Setup
+    public void setUp()
+    {
+        ShapeType[] types = ShapeType.values();
+        rois = new ArrayList<Roi>();
+        shapes = new Shape[SHAPE_COUNT];
+        for (int i = 0; i < SHAPE_COUNT; i++)
+        {
+            if (i % shapesPerRoi == 0)
+            {
+                rois.add(new RoiI());
+            }
+            shapes[i] = types[i % types.length].newInstance();
+            rois.get(rois.size() - 1).addShape(shapes[i]);
+        }
+        metadata = new ROIMetadata(object -> "LSID", rois);
+    }
+
+    @Benchmark
+    public void typeTable(Blackhole blackhole)
+    {
+        for (int roi = 0; roi < metadata.getROICount(); roi++)
+        {
+            int shapeCount = metadata.getShapeCount(roi);
+            for (int shape = 0; shape < shapeCount; shape++)
+            {
+                blackhole.consume(metadata.getShapeType(roi, shape));
+            }
+        }
+    }
+
+    @Benchmark
+    public void classValue(Blackhole blackhole)
+    {
+        for (Shape shape : shapes)
+        {
+            blackhole.consume(ShapeType.of(shape).getName());
+        }
+    }
+
+    @Benchmark
+    public void superclassWalk(Blackhole blackhole)
+    {
+        for (Shape shape : shapes)
+        {
+            Class<? extends Shape> shapeClass = null;
+            Class<? extends Shape> currentClass = shape.getClass();
+            while (currentClass != Shape.class)
+            {
+                shapeClass = currentClass;
+                currentClass =
+                        currentClass.getSuperclass().asSubclass(Shape.class);
+            }
+            blackhole.consume(shapeClass == Rectangle.class
+                    ? "Rectangle" : shapeClass.getSimpleName());
+        }
+    }
+}
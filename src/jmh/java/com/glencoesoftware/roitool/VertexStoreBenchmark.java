@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.glencoesoftware.roitool;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Appends polygons of 60 vertices to a {@link VertexStore} and reads them
+ * back, as copied coordinates and as points strings, with the vertices
+ * kept on the heap, in direct buffers or spilled to a temporary file.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class VertexStoreBenchmark
+{
+    private static final int SHAPE_COUNT = 10000;
+
+    private static final int VERTICES_PER_SHAPE = 60;
+
+    @Param({"heap", "offHeap", "spill"})
+    public String storage;
+
+    private double[] xy;
+
+    private VertexStore store;
+
+    private final StringBuilder buffer = new StringBuilder();
+
+    @Setup
+    public void setUp()
+    {
+        Random random = new Random(42);
+        xy = new double[2 * VERTICES_PER_SHAPE];
+        for (int i = 0; i < xy.length; i++)
+        {
+            xy[i] = Math.round(random.nextDouble() * 10000000) / 1000.0;
+        }
+        store = fill();
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        store.close();
+    }
+
+    private VertexStore newStore()
+    {
+        switch (storage)
+        {
+            case "heap":
+                return new VertexStore();
+            case "offHeap":
+                return VertexStore.offHeap(Long.MAX_VALUE, null);
+            case "spill":
+                return VertexStore.offHeap(0, null);
+            default:
+                throw new IllegalArgumentException(storage);
+        }
+    }
+
+    private VertexStore fill()
+    {
+        VertexStore vertices = newStore();
+        for (int i = 0; i < SHAPE_COUNT; i++)
+        {
+            vertices.append(xy, VERTICES_PER_SHAPE);
+        }
+        return vertices;
+    }
+
+    @Benchmark
+    public long append()
+    {
+        try (VertexStore vertices = fill())
+        {
+            return vertices.size();
+        }
+    }
+
+    @Benchmark
+    public double[] get()
+    {
+        double[] copy = new double[2 * VERTICES_PER_SHAPE];
+        for (long index = 0; index < store.size();
+                index += VERTICES_PER_SHAPE)
+        {
+            store.get(index, copy, VERTICES_PER_SHAPE);
+        }
+        return copy;
+    }
+
+    @Benchmark
+    public void format(Blackhole blackhole)
+    {
+        for (long index = 0; index < store.size();
+                index += VERTICES_PER_SHAPE)
+        {
+            buffer.setLength(0);
+            blackhole.consume(store.format(buffer, index, VERTICES_PER_SHAPE,
+                                           CoordinateFormat.SHORTEST));
+        }
+    }
+}
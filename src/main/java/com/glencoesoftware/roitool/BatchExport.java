@@ -0,0 +1,328 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.glencoesoftware.roitool;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import omero.RLong;
+import omero.RType;
+import omero.ServerError;
+import omero.api.IQueryPrx;
+import omero.sys.ParametersI;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+
+@Command(
+    name = "batch-export",
+    description = "Export ROIs of many images to OME-XML files, one per " +
+                  "image, from an OMERO server"
+)
+
+public class BatchExport extends OMEROCommand implements Callable<Integer>
+{
+    private static final Logger log =
+            LoggerFactory.getLogger(BatchExport.class);
+
+    @Option(
+        names = "--help",
+        usageHelp = true,
+        description = "Display this help and exit"
+    )
+    boolean help;
+
+    @Parameters(
+        arity = "0..*",
+        description = "OMERO Image IDs to export ROIs from"
+    )
+    List<Long> imageIds = new ArrayList<Long>();
+
+    @Option(
+        names = "--dataset",
+        description = "Also export the images of this OMERO Dataset"
+    )
+    Long datasetId = null;
+
+    @Option(
+        names = "--project",
+        description = "Also export the images of this OMERO Project"
+    )
+    Long projectId = null;
+
+    @Option(
+        names = "--screen",
+        description = "Also export the images of this OMERO Screen"
+    )
+    Long screenId = null;
+
+    @Option(
+        names = "--output-dir",
+        description = "Directory to write <imageId>.ome.xml files to " +
+                      "(default: current directory)"
+    )
+    File outputDirectory = new File(".");
+
+    @Option(
+        names = "--workers",
+        description = "Number of images to export concurrently, each with " +
+                      "its own client joined to a single session " +
+                      "(default: 4)"
+    )
+    int workers = 4;
+
+    @Option(
+        names = "--page-size",
+        description = "Number of ROIs to fetch from the server per " +
+                      "query (default: " +
+                      OMEOMEROConverter.DEFAULT_PAGE_SIZE + ")"
+    )
+    int pageSize = OMEOMEROConverter.DEFAULT_PAGE_SIZE;
+
+    @Option(
+        names = "--images-per-query",
+        description = "Fetch the ROIs of up to this many images with a " +
+                      "single query rather than paging through each " +
+                      "image's ROIs; suited to many images with few ROIs " +
+                      "each (default: 0, one image per query)"
+    )
+    int imagesPerQuery = 0;
+
+    @Option(
+        names = "--coordinate-precision",
+        description = "Round shape coordinates to this many decimal " +
+                      "places (default: shortest exact form)"
+    )
+    Integer coordinatePrecision = null;
+
+    @Option(
+        names = "--simplify-tolerance",
+        description = "Drop polygon and polyline vertices lying within " +
+                      "this many pixels of the simplified outline"
+    )
+    Double simplifyTolerance = null;
+
+    @Override
+    public Integer call() throws Exception
+    {
+        // Shared by every worker; both are immutable
+        CoordinateFormat coordinates = coordinatePrecision == null
+                ? CoordinateFormat.SHORTEST
+                : CoordinateFormat.fixed(coordinatePrecision);
+        ShapeSimplifier simplifier = simplifyTolerance == null
+                ? null : new ShapeSimplifier(simplifyTolerance);
+        if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs())
+        {
+            log.error("Cannot create output directory: {}", outputDirectory);
+            return -1;
+        }
+        SessionPool pool = createSessionPool(Math.max(1, workers));
+        if (pool == null)
+        {
+            return -1;
+        }
+
+        ExecutorService executor = null;
+        try
+        {
+            LsidCache lsids;
+            List<Long> images;
+            ROIMetadataStoreClient client = pool.acquire();
+            try
+            {
+                lsids = ServerConfigCache.getDefault().getLsids(
+                        client.getServiceFactory(), server, port);
+                images = findImages(client.getIQuery());
+            }
+            finally
+            {
+                pool.release(client);
+            }
+            log.info("Exporting ROIs of {} images", images.size());
+            if (images.isEmpty())
+            {
+                return 0;
+            }
+
+            executor = Executors.newFixedThreadPool(pool.size());
+            int groupSize = imagesPerQuery > 0 ? imagesPerQuery : 1;
+            List<List<Long>> groups = new ArrayList<List<Long>>();
+            List<Future<Map<Long, Integer>>> results =
+                    new ArrayList<Future<Map<Long, Integer>>>();
+            for (int i = 0; i < images.size(); i += groupSize)
+            {
+                List<Long> group = images.subList(
+                        i, Math.min(images.size(), i + groupSize));
+                groups.add(group);
+                results.add(executor.submit(() -> exportImages(
+                        pool, lsids.fork(), coordinates, simplifier, group)));
+            }
+            int failures = 0;
+            for (int i = 0; i < groups.size(); i++)
+            {
+                try
+                {
+                    for (Map.Entry<Long, Integer> roiCount :
+                            results.get(i).get().entrySet())
+                    {
+                        log.info("Image:{}: {} ROIs exported",
+                                 roiCount.getKey(), roiCount.getValue());
+                    }
+                }
+                catch (ExecutionException e)
+                {
+                    for (long imageId : groups.get(i))
+                    {
+                        failures++;
+                        log.error("Image:{}: FAILED: {}",
+                                  imageId, e.getCause().toString());
+                    }
+                }
+            }
+            log.info("Exported ROIs of {} of {} images",
+                     images.size() - failures, images.size());
+            return failures == 0 ? 0 : -1;
+        }
+        finally
+        {
+            if (executor != null)
+            {
+                executor.shutdownNow();
+            }
+            pool.close();
+        }
+    }
+
+    /**
+     * Exports the ROIs of a group of images with a client borrowed from the
+     * pool.  Unless {@link #imagesPerQuery} is set the group holds a single
+     * image whose ROIs are fetched a page at a time.
+     * @param pool pool to borrow a client from
+     * @param lsids LSID cache for this export
+     * @param coordinates format of exported shape coordinates
+     * @param simplifier simplifier of exported polygons and polylines or
+     * <code>null</code> to keep every vertex
+     * @param imageIds OMERO Image IDs to export ROIs from
+     * @return number of ROIs exported per image
+     * @throws Exception if the ROIs could not be retrieved or written
+     */
+    private Map<Long, Integer> exportImages(
+            SessionPool pool, LsidCache lsids, CoordinateFormat coordinates,
+            ShapeSimplifier simplifier, List<Long> imageIds)
+                    throws Exception
+    {
+        ROIMetadataStoreClient client = pool.acquire();
+        try
+        {
+            if (imagesPerQuery > 0)
+            {
+                OMEOMEROConverter converter = new OMEOMEROConverter(client);
+                converter.setLsids(lsids);
+                converter.setCoordinateFormat(coordinates);
+                converter.setSimplifier(simplifier);
+                return converter.exportRoisToFiles(imageIds, outputDirectory);
+            }
+            long imageId = imageIds.get(0);
+            OMEOMEROConverter converter =
+                    new OMEOMEROConverter(imageId, client);
+            converter.setLsids(lsids);
+            converter.setPageSize(pageSize);
+            converter.setCoordinateFormat(coordinates);
+            converter.setSimplifier(simplifier);
+            return Collections.singletonMap(imageId, converter.exportRoisToFile(
+                    new File(outputDirectory, imageId + ".ome.xml")));
+        }
+        finally
+        {
+            pool.release(client);
+        }
+    }
+
+    /**
+     * Lists the images to export: those given explicitly followed by those
+     * of the given Dataset, Project and Screen, without duplicates.
+     * @param iQuery query service to expand containers with
+     * @return OMERO Image IDs
+     * @throws ServerError if the containers could not be expanded
+     */
+    private List<Long> findImages(IQueryPrx iQuery) throws ServerError
+    {
+        Set<Long> images = new LinkedHashSet<Long>(imageIds);
+        if (datasetId != null)
+        {
+            images.addAll(projectIds(iQuery,
+                    "SELECT l.child.id FROM DatasetImageLink l " +
+                    "WHERE l.parent.id = :id " +
+                    "ORDER BY l.child.id", datasetId));
+        }
+        if (projectId != null)
+        {
+            images.addAll(projectIds(iQuery,
+                    "SELECT DISTINCT dil.child.id " +
+                    "FROM ProjectDatasetLink pdl, DatasetImageLink dil " +
+                    "WHERE pdl.parent.id = :id " +
+                    "AND dil.parent.id = pdl.child.id " +
+                    "ORDER BY dil.child.id", projectId));
+        }
+        if (screenId != null)
+        {
+            images.addAll(projectIds(iQuery,
+                    "SELECT DISTINCT ws.image.id " +
+                    "FROM ScreenPlateLink spl, WellSample ws " +
+                    "WHERE spl.parent.id = :id " +
+                    "AND ws.well.plate.id = spl.child.id " +
+                    "ORDER BY ws.image.id", screenId));
+        }
+        return new ArrayList<Long>(images);
+    }
+
+    /**
+     * Runs a projection returning a single column of IDs.
+     * @param iQuery query service
+     * @param query HQL query with an <code>:id</code> parameter
+     * @param id value of the <code>:id</code> parameter
+     * @return See above.
+     * @throws ServerError if the query failed
+     */
+    private List<Long> projectIds(IQueryPrx iQuery, String query, long id)
+            throws ServerError
+    {
+        List<Long> ids = new ArrayList<Long>();
+        for (List<RType> row : iQuery.projection(
+                query, new ParametersI().addId(id),
+                OMEOMEROConverter.ALL_GROUPS_CONTEXT))
+        {
+            ids.add(((RLong) row.get(0)).getValue());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.glencoesoftware.roitool;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+
+@Command(
+    name = "batch-import",
+    description = "Import ROIs for many images from OME-XML files listed " +
+                  "in a manifest into an OMERO server"
+)
+
+public class BatchImport extends OMEROCommand implements Callable<Integer>
+{
+    private static final Logger log =
+            LoggerFactory.getLogger(BatchImport.class);
+
+    @Option(
+        names = "--help",
+        usageHelp = true,
+        description = "Display this help and exit"
+    )
+    boolean help;
+
+    @Parameters(
+        index = "0",
+        description = "Manifest listing one OMERO Image ID and OME-XML " +
+                      "file per line, separated by a tab (imageId<TAB>path) " +
+                      "or by a comma (imageId,path); relative paths are " +
+                      "resolved against the manifest's directory"
+    )
+    File manifest;
+
+    @Option(
+        names = "--workers",
+        description = "Number of images to import concurrently, each with " +
+                      "its own client joined to a single session " +
+                      "(default: 4)"
+    )
+    int workers = 4;
+
+    @Option(
+        names = "--stream",
+        description = "Parse the input files as streams rather than " +
+                      "into DOMs, saving ROIs in chunks as they are read"
+    )
+    boolean stream;
+
+    @Option(
+        names = "--batch-size",
+        description = "Maximum number of ROIs to save per server call; " +
+                      "0 saves all ROIs of an image in a single call " +
+                      "(default: 0). With --target-latency this is the " +
+                      "initial size."
+    )
+    int batchSize = 0;
+
+    @Option(
+        names = "--target-latency",
+        description = "Adapt the batch size so that each save call " +
+                      "completes within this many milliseconds"
+    )
+    long targetLatency = 0;
+
+    @Override
+    public Integer call() throws Exception
+    {
+        // Options which may be rejected are checked before connecting, so
+        // that a session is never opened only to be left behind
+        BatchSize size = BatchSize.of(batchSize, targetLatency);
+        List<Item> items = readManifest(manifest);
+        log.info("Importing ROIs for {} images", items.size());
+        if (items.isEmpty())
+        {
+            return 0;
+        }
+        SessionPool pool =
+                createSessionPool(Math.min(workers, items.size()));
+        if (pool == null)
+        {
+            return -1;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(pool.size());
+        try
+        {
+            List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+            for (Item item : items)
+            {
+                results.add(executor.submit(
+                        () -> importItem(pool, item, size.copy())));
+            }
+            int failures = 0;
+            for (int i = 0; i < items.size(); i++)
+            {
+                Item item = items.get(i);
+                try
+                {
+                    log.info("Image:{} {}: {} ROIs imported", item.imageId,
+                             item.input, results.get(i).get());
+                }
+                catch (ExecutionException e)
+                {
+                    failures++;
+                    log.error("Image:{} {}: FAILED: {}", item.imageId,
+                              item.input, e.getCause().toString());
+                }
+            }
+            log.info("Imported ROIs for {} of {} images",
+                     items.size() - failures, items.size());
+            return failures == 0 ? 0 : -1;
+        }
+        finally
+        {
+            executor.shutdownNow();
+            pool.close();
+        }
+    }
+
+    /**
+     * Imports the ROIs of one manifest entry with a client borrowed from
+     * the pool.
+     * @param pool pool to borrow a client from
+     * @param item manifest entry
+     * @param size batch size for this entry alone
+     * @return number of ROIs saved
+     * @throws Exception if the ROIs could not be read or saved
+     */
+    private int importItem(SessionPool pool, Item item, BatchSize size)
+            throws Exception
+    {
+        ROIMetadataStoreClient client = pool.acquire();
+        try
+        {
+            OMEOMEROConverter converter =
+                    new OMEOMEROConverter(item.imageId, client);
+            converter.setBatchSize(size);
+            long[] ids = stream
+                    ? converter.streamRoisFromFile(item.input)
+                    : converter.importRoisFromFile(item.input);
+            if (ids == null)
+            {
+                throw new IllegalStateException("ROIs could not be saved");
+            }
+            int saved = 0;
+            for (long id : ids)
+            {
+                if (id >= 0)
+                {
+                    saved++;
+                }
+            }
+            return saved;
+        }
+        finally
+        {
+            pool.release(client);
+        }
+    }
+
+    /**
+     * Reads a manifest of images and their OME-XML files, one per line.
+     * Each line holds an image ID and a path separated by a tab or, if the
+     * line has no tab, by the first comma.  A path may contain commas and
+     * a comma separated one may be enclosed in double quotes.  Blank lines
+     * and lines starting with <code>#</code> are skipped, as is a header
+     * line whose first column is not a number.
+     * @param manifest manifest file
+     * @return entries in manifest order
+     * @throws IOException if the manifest cannot be read or a line cannot
+     * be parsed
+     */
+    static List<Item> readManifest(File manifest) throws IOException
+    {
+        File base = manifest.getAbsoluteFile().getParentFile();
+        List<String> lines =
+                Files.readAllLines(manifest.toPath(), StandardCharsets.UTF_8);
+        List<Item> items = new ArrayList<Item>(lines.size());
+        boolean header = true;
+        for (int i = 0; i < lines.size(); i++)
+        {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#"))
+            {
+                continue;
+            }
+            boolean first = header;
+            header = false;
+            String imageId;
+            String path;
+            int tab = line.indexOf('\t');
+            if (tab >= 0)
+            {
+                imageId = line.substring(0, tab).trim();
+                path = line.substring(tab + 1).trim();
+            }
+            else
+            {
+                int comma = line.indexOf(',');
+                if (comma < 0)
+                {
+                    throw new IOException(String.format(
+                            "%s:%d: expected imageId and path separated " +
+                            "by a tab or a comma", manifest, i + 1));
+                }
+                imageId = line.substring(0, comma).trim();
+                path = line.substring(comma + 1).trim();
+                if (path.length() > 1 && path.startsWith("\"")
+                        && path.endsWith("\""))
+                {
+                    path = path.substring(1, path.length() - 1);
+                }
+            }
+            long id;
+            try
+            {
+                id = Long.parseLong(imageId);
+            }
+            catch (NumberFormatException e)
+            {
+                if (first)
+                {
+                    // Header
+                    continue;
+                }
+                throw new IOException(String.format(
+                        "%s:%d: invalid image ID: %s",
+                        manifest, i + 1, imageId));
+            }
+            File input = new File(path);
+            if (!input.isAbsolute())
+            {
+                input = new File(base, path);
+            }
+            items.add(new Item(id, input));
+        }
+        return items;
+    }
+
+    /**
+     * An image and the OME-XML file to import its ROIs from.
+     */
+    static class Item
+    {
+        final long imageId;
+
+        final File input;
+
+        Item(long imageId, File input)
+        {
+            this.imageId = imageId;
+            this.input = input;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.glencoesoftware.roitool;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Number of ROIs to send to the server per save call.  A fixed batch size
+ * never changes; an adaptive one grows while saves complete within a target
+ * latency and backs off when they are slower or fail.
+ */
+public class BatchSize
+{
+    private static final Logger log =
+            LoggerFactory.getLogger(BatchSize.class);
+
+    /** Initial size of an adaptive batch when none is given. */
+    public static final int DEFAULT_INITIAL_SIZE = 100;
+
+    /** Upper bound on the size of an adaptive batch. */
+    public static final int DEFAULT_MAXIMUM_SIZE = 10000;
+
+    private final long targetLatency;
+
+    private final int maximum;
+
+    private int size;
+
+    private BatchSize(int size, int maximum, long targetLatency)
+    {
+        this.size = size;
+        this.maximum = maximum;
+        this.targetLatency = targetLatency;
+    }
+
+    /**
+     * Creates a batch size from the <code>--batch-size</code> and
+     * <code>--target-latency</code> options of a command.
+     * @param size number of ROIs per save call, the initial number if the
+     * size adapts, or <code>0</code> for the default
+     * @param targetLatency save call round trip time, in milliseconds, to
+     * adapt the size to or <code>0</code> for a fixed size
+     * @return See above.
+     * @throws IllegalArgumentException if either value is negative
+     */
+    public static BatchSize of(int size, long targetLatency)
+    {
+        if (size < 0)
+        {
+            throw new IllegalArgumentException(
+                    "Batch size must not be negative: " + size);
+        }
+        if (targetLatency < 0)
+        {
+            throw new IllegalArgumentException(
+                    "Target latency must not be negative: " + targetLatency);
+        }
+        return targetLatency > 0 ? adaptive(size, targetLatency) : fixed(size);
+    }
+
+    /**
+     * Creates a batch size which never changes.
+     * @param size number of ROIs per save call or <code>0</code> to save
+     * all ROIs in a single call
+     * @return See above.
+     */
+    public static BatchSize fixed(int size)
+    {
+        return new BatchSize(size, size, 0);
+    }
+
+    /**
+     * Creates a batch size which adapts to the observed save latency.
+     * @param initial number of ROIs in the first save call or
+     * <code>0</code> for {@link #DEFAULT_INITIAL_SIZE}
+     * @param targetLatency save call round trip time, in milliseconds, to
+     * stay under
+     * @return See above.
+     */
+    public static BatchSize adaptive(int initial, long targetLatency)
+    {
+        if (initial <= 0)
+        {
+            initial = DEFAULT_INITIAL_SIZE;
+        }
+        return new BatchSize(
+                Math.min(initial, DEFAULT_MAXIMUM_SIZE),
+                DEFAULT_MAXIMUM_SIZE, targetLatency);
+    }
+
+    /**
+     * @return a batch size with the same settings which starts at this
+     * one's current size and adapts independently of it
+     */
+    public BatchSize copy()
+    {
+        return new BatchSize(size, maximum, targetLatency);
+    }
+
+    /**
+     * @return whether the size changes in response to save latency
+     */
+    public boolean isAdaptive()
+    {
+        return targetLatency > 0;
+    }
+
+    /**
+     * @return number of ROIs to send in the next save call or
+     * <code>0</code> to save all ROIs in a single call
+     */
+    public int get()
+    {
+        return size;
+    }
+
+    /**
+     * Records a successful save call.  The size is doubled while calls take
+     * less than half the target latency, grown by a quarter while they
+     * stay within it and reduced proportionally once they exceed it.
+     * @param batchSize number of ROIs that were saved
+     * @param latency round trip time of the save call, in milliseconds
+     */
+    public void succeeded(int batchSize, long latency)
+    {
+        if (!isAdaptive())
+        {
+            return;
+        }
+        int previous = size;
+        if (latency <= targetLatency / 2)
+        {
+            size = Math.min(maximum, Math.max(size, batchSize) * 2);
+        }
+        else if (latency <= targetLatency)
+        {
+            size = Math.min(maximum, size + Math.max(1, size / 4));
+        }
+        else
+        {
+            size = Math.max(1, (int) (batchSize * targetLatency / latency));
+        }
+        if (size != previous)
+        {
+            log.debug("Batch of {} took {} ms, batch size {} -> {}",
+                      batchSize, latency, previous, size);
+        }
+    }
+
+    /**
+     * Records a save call which failed because the batch was too large for
+     * the server to handle.  The size is halved.
+     * @param batchSize number of ROIs in the failed call
+     */
+    public void failed(int batchSize)
+    {
+        if (!isAdaptive())
+        {
+            return;
+        }
+        int previous = size;
+        size = Math.max(1, Math.min(size, batchSize) / 2);
+        log.info("Batch of {} failed, batch size {} -> {}",
+                 batchSize, previous, size);
+    }
+}
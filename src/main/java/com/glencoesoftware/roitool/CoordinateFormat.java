@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.glencoesoftware.roitool;
+
+/**
+ * Formats coordinates as plain decimals, either in the fewest digits which
+ * read back as the same double or rounded, half away from zero, to a fixed
+ * number of decimal places.  Trailing zeros are never written, so
+ * <code>2.0</code> is written as <code>2</code>.  Values too large or too
+ * small to be handled with exact integer arithmetic are written by
+ * {@link Double#toString(double)}.
+ * <p>
+ * Instances are immutable and may be shared between threads.
+ */
+public class CoordinateFormat
+{
+    /** Formats every value in the fewest digits which round trip. */
+    public static final CoordinateFormat SHORTEST = new CoordinateFormat(-1);
+
+    /**
+     * Formats every value by {@link Double#toString(double)}, so that
+     * <code>2.0</code> is written as such; used to reproduce points read
+     * in that form.
+     */
+    static final CoordinateFormat TO_STRING = new CoordinateFormat(-2);
+
+    /** Largest number of decimal places of a fixed precision. */
+    public static final int MAX_PRECISION = 15;
+
+    /** Largest magnitude a double holds every integer up to. */
+    private static final double MAX_EXACT = 1L << 53;
+
+    /** Powers of ten which both a long and a double represent exactly. */
+    private static final long[] POWERS_OF_TEN = new long[18];
+
+    static
+    {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++)
+        {
+            POWERS_OF_TEN[i] = 10 * POWERS_OF_TEN[i - 1];
+        }
+    }
+
+    /**
+     * Number of decimal places, <code>-1</code> for the shortest or
+     * <code>-2</code> for {@link Double#toString(double)}.
+     */
+    private final int precision;
+
+    private CoordinateFormat(int precision)
+    {
+        this.precision = precision;
+    }
+
+    /**
+     * @param precision number of decimal places, between <code>0</code> and
+     * {@link #MAX_PRECISION}
+     * @return a format rounding to that many decimal places
+     */
+    public static CoordinateFormat fixed(int precision)
+    {
+        if (precision < 0 || precision > MAX_PRECISION)
+        {
+            throw new IllegalArgumentException(
+                    "Precision must be between 0 and " + MAX_PRECISION +
+                    ": " + precision);
+        }
+        return new CoordinateFormat(precision);
+    }
+
+    /**
+     * @return whether values are rounded to a fixed number of decimal
+     * places
+     */
+    public boolean isFixed()
+    {
+        return precision >= 0;
+    }
+
+    /**
+     * @param value value to format
+     * @return See above.
+     */
+    public String format(double value)
+    {
+        return format(new StringBuilder(24), value).toString();
+    }
+
+    /**
+     * Appends a value to a buffer.
+     * @param buffer buffer to append to
+     * @param value value to format
+     * @return <code>buffer</code>
+     */
+    public StringBuilder format(StringBuilder buffer, double value)
+    {
+        if (this == TO_STRING)
+        {
+            return buffer.append(value);
+        }
+        if (precision >= 0)
+        {
+            double scaled = value * POWERS_OF_TEN[precision];
+            if (Math.abs(scaled) < MAX_EXACT)
+            {
+                return appendDecimal(
+                        buffer, round(scaled), precision);
+            }
+        }
+        return appendShortest(buffer, value);
+    }
+
+    /**
+     * Appends the fewest decimal places of a value which read back as the
+     * same double.  A decimal <code>m / 10^p</code> with <code>m</code> and
+     * <code>10^p</code> both exact doubles parses to the correctly rounded
+     * quotient, which is what the division here computes, so equality
+     * proves the round trip.
+     */
+    private static StringBuilder appendShortest(
+            StringBuilder buffer, double value)
+    {
+        if (value == 0)
+        {
+            return buffer.append('0');
+        }
+        double magnitude = Math.abs(value);
+        if (magnitude >= 1e-5 && magnitude < MAX_EXACT)
+        {
+            for (int places = 0; places < POWERS_OF_TEN.length; places++)
+            {
+                double scaled = value * POWERS_OF_TEN[places];
+                if (Math.abs(scaled) >= MAX_EXACT)
+                {
+                    break;
+                }
+                long mantissa = round(scaled);
+                if (mantissa / (double) POWERS_OF_TEN[places] == value)
+                {
+                    return appendDecimal(buffer, mantissa, places);
+                }
+            }
+        }
+        return buffer.append(value);
+    }
+
+    /**
+     * Rounds half away from zero, so that a negative value is written as
+     * its magnitude is.  {@link Math#round(double)} rounds half up, which
+     * would round <code>-0.5</code> to <code>0</code> but <code>0.5</code>
+     * to <code>1</code>.
+     */
+    private static long round(double value)
+    {
+        return value < 0 ? -Math.round(-value) : Math.round(value);
+    }
+
+    /**
+     * Appends <code>mantissa / 10^places</code>, without trailing zeros.
+     */
+    private static StringBuilder appendDecimal(
+            StringBuilder buffer, long mantissa, int places)
+    {
+        while (places > 0 && mantissa % 10 == 0)
+        {
+            mantissa /= 10;
+            places--;
+        }
+        if (mantissa < 0)
+        {
+            buffer.append('-');
+            mantissa = -mantissa;
+        }
+        long unit = POWERS_OF_TEN[places];
+        buffer.append(mantissa / unit);
+        if (places > 0)
+        {
+            buffer.append('.');
+            long fraction = mantissa % unit;
+            for (long digit = unit / 10; digit > fraction;
+                    digit /= 10)
+            {
+                buffer.append('0');
+            }
+            buffer.append(fraction);
+        }
+        return buffer;
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.glencoesoftware.roitool;
+
+import java.util.Arrays;
+
+import omero.RString;
+import omero.metadatastore.IObjectContainer;
+import omero.model.Polygon;
+import omero.model.Polyline;
+import omero.model.Shape;
+
+import static omero.rtypes.rstring;
+
+/**
+ * Polygons and polylines whose vertices are held in a {@link VertexStore}
+ * rather than as points strings on the model objects, keyed by the
+ * {@link ObjectRegistry} key of each shape.  The points strings of the
+ * shapes of a range of ROIs are only set while that range is marshalled
+ * for the server and are cleared again once it has been, so at most a
+ * batch's worth of them is on the heap at once.
+ * <p>
+ * If the vertices of a shape are deferred more than once the last wins; a
+ * points string set on the shape afterwards takes precedence over them.
+ */
+class DeferredPoints
+{
+    private static final int INITIAL_CAPACITY = 64;
+
+    /** Store of every deferred vertex; <code>null</code> until the first. */
+    private VertexStore vertices;
+
+    /** Keys of the shapes, in the order their vertices were deferred. */
+    private long[] keys = new long[INITIAL_CAPACITY];
+
+    /** First vertex of each shape in {@link #vertices}. */
+    private long[] offsets = new long[INITIAL_CAPACITY];
+
+    /** Vertices of each shape; <code>-1</code> once superseded. */
+    private int[] counts = new int[INITIAL_CAPACITY];
+
+    /** Format of the coordinates of each shape. */
+    private CoordinateFormat[] formats = new CoordinateFormat[INITIAL_CAPACITY];
+
+    private int size;
+
+    /** Shape of each entry, resolved by {@link #index}. */
+    private Shape[] shapes;
+
+    /** Entries grouped by the position of their ROI, in deferral order. */
+    private int[] order;
+
+    /** Start of the entries of each ROI position in {@link #order}. */
+    private int[] starts;
+
+    /** Formats the points of each shape. */
+    private final StringBuilder buffer = new StringBuilder();
+
+    /**
+     * Defers the vertices of a shape.
+     * @param key registry key of the polygon or polyline
+     * @param vertices store holding the vertices
+     * @param offset index of the first vertex in the store
+     * @param count number of vertices
+     * @param format format of the coordinates in the points string
+     * @throws IllegalArgumentException if other vertices were deferred to
+     * a different store
+     */
+    public void add(long key, VertexStore vertices, long offset, int count,
+                    CoordinateFormat format)
+    {
+        if (this.vertices == null)
+        {
+            this.vertices = vertices;
+        }
+        else if (this.vertices != vertices)
+        {
+            throw new IllegalArgumentException(
+                    "Vertices must all be held in the same store");
+        }
+        if (size == keys.length)
+        {
+            keys = Arrays.copyOf(keys, size * 2);
+            offsets = Arrays.copyOf(offsets, size * 2);
+            counts = Arrays.copyOf(counts, size * 2);
+            formats = Arrays.copyOf(formats, size * 2);
+        }
+        keys[size] = key;
+        offsets[size] = offset;
+        counts[size] = count;
+        formats[size] = format;
+        size++;
+    }
+
+    /**
+     * Appends the entries of another instance, keeping their order.
+     * @param other entries to append
+     */
+    public void addAll(DeferredPoints other)
+    {
+        for (int i = 0; i < other.size; i++)
+        {
+            add(other.keys[i], other.vertices, other.offsets[i],
+                other.counts[i], other.formats[i]);
+        }
+    }
+
+    /**
+     * @return number of shapes whose vertices are deferred
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Resolves the shapes of the entries and groups them by ROI, so that
+     * they may be filled a range of ROIs at a time.
+     * @param registry registry of the shapes
+     * @param rois ROIs in the order they are saved
+     */
+    public void index(ObjectRegistry registry, RoiTable rois)
+    {
+        int[] positions = new int[rois.bound()];
+        Arrays.fill(positions, -1);
+        for (int i = 0; i < rois.size(); i++)
+        {
+            positions[rois.indexAt(i)] = i;
+        }
+        shapes = new Shape[size];
+        starts = new int[rois.size() + 1];
+        int[] roiPositions = new int[size];
+        for (int i = 0; i < size; i++)
+        {
+            int roiIndex = ObjectRegistry.index(keys[i]);
+            IObjectContainer container = registry.get(keys[i]);
+            roiPositions[i] = -1;
+            if (container != null && roiIndex < positions.length
+                    && positions[roiIndex] >= 0)
+            {
+                shapes[i] = (Shape) container.sourceObject;
+                roiPositions[i] = positions[roiIndex];
+                starts[roiPositions[i] + 1]++;
+            }
+        }
+        for (int i = 0; i < rois.size(); i++)
+        {
+            starts[i + 1] += starts[i];
+        }
+        order = new int[starts[rois.size()]];
+        int[] next = Arrays.copyOf(starts, rois.size());
+        for (int i = 0; i < size; i++)
+        {
+            if (roiPositions[i] >= 0)
+            {
+                order[next[roiPositions[i]]++] = i;
+            }
+        }
+    }
+
+    /**
+     * Sets the points strings of the deferred shapes of a range of ROIs.
+     * Shapes which already have points keep them.
+     * @param from position of the first ROI
+     * @param to position after the last ROI
+     */
+    public void fill(int from, int to)
+    {
+        for (int roi = from; roi < to; roi++)
+        {
+            // Latest first, so that earlier entries for a shape are skipped
+            for (int i = starts[roi + 1] - 1; i >= starts[roi]; i--)
+            {
+                int entry = order[i];
+                if (counts[entry] < 0)
+                {
+                    continue;
+                }
+                if (getPoints(shapes[entry]) != null)
+                {
+                    counts[entry] = -1;
+                    continue;
+                }
+                buffer.setLength(0);
+                vertices.format(buffer, offsets[entry], counts[entry],
+                                formats[entry]);
+                setPoints(shapes[entry], rstring(buffer.toString()));
+            }
+        }
+        buffer.setLength(0);
+        buffer.trimToSize();
+    }
+
+    /**
+     * Clears the points strings set by {@link #fill(int, int)} on the
+     * shapes of a range of ROIs.
+     * @param from position of the first ROI
+     * @param to position after the last ROI
+     */
+    public void clear(int from, int to)
+    {
+        for (int i = starts[from]; i < starts[to]; i++)
+        {
+            int entry = order[i];
+            if (counts[entry] >= 0)
+            {
+                setPoints(shapes[entry], null);
+            }
+        }
+    }
+
+    private static RString getPoints(Shape shape)
+    {
+        if (shape instanceof Polygon)
+        {
+            return ((Polygon) shape).getPoints();
+        }
+        return ((Polyline) shape).getPoints();
+    }
+
+    private static void setPoints(Shape shape, RString points)
+    {
+        if (shape instanceof Polygon)
+        {
+            ((Polygon) shape).setPoints(points);
+        }
+        else
+        {
+            ((Polyline) shape).setPoints(points);
+        }
+    }
+}
@@ -55,9 +55,46 @@ public class Export extends OMEROCommand implements Callable<Integer>
     )
     File output;
 
+    @CommandLine.Option(
+            names = "--page-size",
+            description = "Number of ROIs to fetch from the server per " +
+                          "query (default: " +
+                          OMEOMEROConverter.DEFAULT_PAGE_SIZE + ")"
+    )
+    int pageSize = OMEOMEROConverter.DEFAULT_PAGE_SIZE;
+
+    @CommandLine.Option(
+            names = "--threads",
+            description = "Number of threads to write each page of ROIs " +
+                          "to XML on (default: 1)"
+    )
+    int threads = 1;
+
+    @CommandLine.Option(
+            names = "--coordinate-precision",
+            description = "Round shape coordinates to this many decimal " +
+                          "places (default: shortest exact form)"
+    )
+    Integer coordinatePrecision = null;
+
+    @CommandLine.Option(
+            names = "--simplify-tolerance",
+            description = "Drop polygon and polyline vertices lying within " +
+                          "this many pixels of the simplified outline"
+    )
+    Double simplifyTolerance = null;
+
     @Override
     public Integer call() throws Exception
     {
+        // Options which may be rejected are checked before connecting, so
+        // that a session is never opened only to be left behind
+        CoordinateFormat coordinates = coordinatePrecision == null
+                ? CoordinateFormat.SHORTEST
+                : CoordinateFormat.fixed(coordinatePrecision);
+        ShapeSimplifier simplifier = simplifyTolerance == null
+                ? null : new ShapeSimplifier(simplifyTolerance);
+
         OMEOMEROConverter converter = createConverter(imageId);
         if (converter == null)
         {
@@ -66,6 +103,10 @@ public class Export extends OMEROCommand implements Callable<Integer>
 
         try
         {
+            converter.setPageSize(pageSize);
+            converter.setThreads(Math.max(1, threads));
+            converter.setCoordinateFormat(coordinates);
+            converter.setSimplifier(simplifier);
             converter.exportRoisToFile(output);
         }
         finally
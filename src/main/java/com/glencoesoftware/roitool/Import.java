@@ -57,23 +57,101 @@ public class Import extends OMEROCommand implements Callable<Integer>
     )
     File input;
 
+    @Option(
+        names = "--stream",
+        description = "Parse the input file as a stream rather than " +
+                      "into a DOM, saving ROIs in chunks as they are read"
+    )
+    boolean stream;
+
+    @Option(
+        names = "--threads",
+        description = "Number of threads to convert ROIs on; ignored " +
+                      "with --stream (default: 1)"
+    )
+    int threads = 1;
+
+    @Option(
+        names = "--simplify-tolerance",
+        description = "Drop polygon and polyline vertices lying within " +
+                      "this many pixels of the simplified outline"
+    )
+    Double simplifyTolerance = null;
+
+    @Option(
+        names = "--off-heap-vertices",
+        description = "Keep polygon and polyline vertices outside the " +
+                      "heap, spilling to a temporary file beyond this " +
+                      "many megabytes; ignored with --stream"
+    )
+    Long offHeapVertices = null;
+
+    @Option(
+        names = "--spill-dir",
+        description = "Directory to spill vertices to with " +
+                      "--off-heap-vertices (default: java.io.tmpdir)"
+    )
+    File spillDir = null;
+
+    @Option(
+        names = "--batch-size",
+        description = "Maximum number of ROIs to save per server call; " +
+                      "0 saves all ROIs in a single call (default: 0). " +
+                      "With --target-latency this is the initial size."
+    )
+    int batchSize = 0;
+
+    @Option(
+        names = "--target-latency",
+        description = "Adapt the batch size so that each save call " +
+                      "completes within this many milliseconds"
+    )
+    long targetLatency = 0;
+
     @Override
     public Integer call() throws Exception
     {
+        // Options which may be rejected are checked before connecting, so
+        // that a session is never opened only to be left behind
+        BatchSize size = BatchSize.of(batchSize, targetLatency);
+        ShapeSimplifier simplifier = simplifyTolerance == null
+                ? null : new ShapeSimplifier(simplifyTolerance);
+
         OMEOMEROConverter converter = createConverter(imageId);
         if (converter == null)
         {
             return -1;
         }
 
+        long[] ids;
         try
         {
-            converter.importRoisFromFile(input);
+            converter.setBatchSize(size);
+            converter.setThreads(Math.max(1, threads));
+            converter.setSimplifier(simplifier);
+            if (offHeapVertices != null)
+            {
+                converter.setVertexStorage(
+                        Math.max(0, offHeapVertices) * 1024 * 1024, spillDir);
+            }
+            if (stream)
+            {
+                ids = converter.streamRoisFromFile(input);
+            }
+            else
+            {
+                ids = converter.importRoisFromFile(input);
+            }
         }
         finally
         {
             converter.close();
         }
+        if (ids == null)
+        {
+            log.error("ROIs could not be saved");
+            return -1;
+        }
         return 0;
     }
 
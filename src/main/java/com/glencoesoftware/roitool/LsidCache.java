@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.glencoesoftware.roitool;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import omero.ServerError;
+import omero.api.IConfigPrx;
+import omero.api.ServiceFactoryPrx;
+import omero.model.IObject;
+
+/**
+ * Finds the LSIDs of OMERO model objects, remembering each one so that an
+ * object whose ID is requested several times during conversion is only
+ * formatted once.  A cache may be used by several threads at once.  LSIDs
+ * are of the form
+ * <code>urn:lsid:authority:Type:uuid_id:updateEventId</code>.
+ * Ported from <code>org.openmicroscopy.client.downloader.XmlGenerator</code>
+ */
+public class LsidCache implements Function<IObject, String>
+{
+    /** Simple name of the root model type of each OMERO model class. */
+    private static final ClassValue<String> ROOT_TYPES =
+            new ClassValue<String>()
+    {
+        @Override
+        protected String computeValue(Class<?> type)
+        {
+            if (type == IObject.class || !IObject.class.isAssignableFrom(type))
+            {
+                throw new IllegalArgumentException(
+                        "must be of a specific model object type");
+            }
+            Class<?> rootType = type;
+            while (rootType.getSuperclass() != IObject.class)
+            {
+                rootType = rootType.getSuperclass();
+            }
+            return rootType.getSimpleName();
+        }
+    };
+
+    /** <code>urn:lsid:authority:</code> */
+    private final String prefix;
+
+    /** <code>:uuid_</code> */
+    private final String infix;
+
+    private final String authority;
+
+    private final String databaseUuid;
+
+    private final Map<Key, String> lsids = new ConcurrentHashMap<Key, String>();
+
+    /**
+     * @param authority value of <code>omero.db.authority</code>
+     * @param databaseUuid UUID of the OMERO database
+     */
+    public LsidCache(String authority, String databaseUuid)
+    {
+        this.authority = authority;
+        this.databaseUuid = databaseUuid;
+        this.prefix = "urn:lsid:" + authority + ':';
+        this.infix = ':' + databaseUuid + '_';
+    }
+
+    /**
+     * Creates a cache for the server a session is connected to.
+     * @param serviceFactory session to query the server's configuration with
+     * @return See above.
+     * @throws ServerError if the configuration could not be retrieved
+     */
+    public static LsidCache forSession(ServiceFactoryPrx serviceFactory)
+            throws ServerError
+    {
+        IConfigPrx iConfig = serviceFactory.getConfigService();
+        return new LsidCache(
+                iConfig.getConfigValue("omero.db.authority"),
+                iConfig.getDatabaseUuid());
+    }
+
+    /**
+     * @return value of <code>omero.db.authority</code>
+     */
+    public String getAuthority()
+    {
+        return authority;
+    }
+
+    /**
+     * @return UUID of the OMERO database
+     */
+    public String getDatabaseUuid()
+    {
+        return databaseUuid;
+    }
+
+    /**
+     * Creates a cache for the same server which remembers no LSIDs yet, for
+     * use by another export.
+     * @return See above.
+     */
+    public LsidCache fork()
+    {
+        return new LsidCache(authority, databaseUuid);
+    }
+
+    /**
+     * Find the LSID of the given OMERO model object.
+     * @param object an OMERO model object, hydrated with its update event
+     * @return the LSID for that object
+     */
+    @Override
+    public String apply(IObject object)
+    {
+        final String type = ROOT_TYPES.get(object.getClass());
+        final long objectId = object.getId().getValue();
+        final long updateId =
+                object.getDetails().getUpdateEvent().getId().getValue();
+        final Key key = new Key(type, objectId, updateId);
+        String lsid = lsids.get(key);
+        if (lsid == null)
+        {
+            lsid = new StringBuilder(prefix.length() + infix.length() + 48)
+                    .append(prefix).append(type).append(infix)
+                    .append(objectId).append(':').append(updateId)
+                    .toString();
+            lsids.put(key, lsid);
+        }
+        return lsid;
+    }
+
+    /**
+     * Forgets all remembered LSIDs.
+     */
+    public void clear()
+    {
+        lsids.clear();
+    }
+
+    /**
+     * Identifies a version of a model object.
+     */
+    private static final class Key
+    {
+        private final String type;
+
+        private final long id;
+
+        private final long updateId;
+
+        Key(String type, long id, long updateId)
+        {
+            this.type = type;
+            this.id = id;
+            this.updateId = updateId;
+        }
+
+        @Override
+        public boolean equals(Object other)
+        {
+            if (!(other instanceof Key))
+            {
+                return false;
+            }
+            final Key key = (Key) other;
+            return id == key.id && updateId == key.updateId
+                    && type.equals(key.type);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            int hash = type.hashCode();
+            hash = 31 * hash + Long.hashCode(id);
+            hash = 31 * hash + Long.hashCode(updateId);
+            return hash;
+        }
+    }
+}
@@ -35,7 +35,10 @@ import picocli.CommandLine.Option;
 @Command(
     subcommands = {
         Import.class,
-        Export.class
+        Export.class,
+        BatchImport.class,
+        BatchExport.class,
+        Serve.class
     }
 )
 public class Main implements Callable<Integer>
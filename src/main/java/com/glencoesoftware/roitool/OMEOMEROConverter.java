@@ -18,12 +18,25 @@
 
 package com.glencoesoftware.roitool;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.xml.stream.XMLStreamException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -37,14 +50,12 @@ import loci.common.services.ServiceFactory;
 import loci.formats.MissingLibraryException;
 import loci.formats.ome.OMEXMLMetadata;
 import loci.formats.services.OMEXMLService;
-import ome.specification.XMLWriter;
 import ome.system.Login;
-import ome.xml.meta.MetadataConverter;
-import ome.xml.model.OME;
 import omero.ServerError;
-import omero.api.IConfigPrx;
+import omero.api.ServiceFactoryPrx;
 import omero.model.IObject;
 import omero.model.Roi;
+import omero.model.Shape;
 import omero.sys.ParametersI;
 
 public class OMEOMEROConverter {
@@ -55,18 +66,92 @@ public class OMEOMEROConverter {
     public static final ImmutableMap<String, String> ALL_GROUPS_CONTEXT =
             ImmutableMap.of(Login.OMERO_GROUP, "-1");
 
+    /** Default number of ROIs fetched per query on export. */
+    public static final int DEFAULT_PAGE_SIZE = 1000;
+
+    /**
+     * Number of ROIs a streaming import reads before saving them, unless
+     * the batch size is larger.
+     */
+    public static final int STREAM_CHUNK_SIZE = 10000;
+
     private final long imageId;
 
     private final ROIMetadataStoreClient target;
 
+    /** Whether {@link #target} was created, and is closed, by this class. */
+    private final boolean ownsTarget;
+
     private final OMEXMLService omeXmlService;
 
-    private String lsidFormat;
+    private LsidCache lsids;
+
+    /** Address of the server {@link #target} was initialized with. */
+    private String server;
+
+    /** Port of the server {@link #target} was initialized with. */
+    private int port;
+
+    private BatchSize batchSize = BatchSize.fixed(0);
+
+    private int pageSize = DEFAULT_PAGE_SIZE;
+
+    /** Number of threads to convert ROIs on. */
+    private int threads = 1;
+
+    /** Format of exported shape coordinates. */
+    private CoordinateFormat coordinateFormat = CoordinateFormat.SHORTEST;
+
+    /** Simplifier of polygons and polylines, if they are simplified. */
+    private ShapeSimplifier simplifier;
+
+    /**
+     * Bytes of imported vertices kept in memory outside the heap before
+     * spilling to a file; <code>null</code> to keep them on the heap.
+     */
+    private Long vertexMemoryLimit;
+
+    /** Directory vertices are spilled to; <code>null</code> for default. */
+    private File spillDirectory;
 
     public OMEOMEROConverter(long imageId)
             throws ServerError, DependencyException {
         this.imageId = imageId;
         this.target = new ROIMetadataStoreClient();
+        this.ownsTarget = true;
+        ServiceFactory factory = new ServiceFactory();
+        this.omeXmlService = factory.getInstance(OMEXMLService.class);
+    }
+
+    /**
+     * Creates a converter which uses an already initialized metadata store
+     * client, such as one borrowed from a {@link SessionPool}.  The client
+     * is not logged out by {@link #close()}.
+     * @param imageId OMERO Image ID to import ROIs to
+     * @param target initialized metadata store client
+     */
+    public OMEOMEROConverter(long imageId, ROIMetadataStoreClient target)
+            throws DependencyException {
+        this(target, imageId);
+    }
+
+    /**
+     * Creates a converter for operations on several images, such as
+     * {@link #exportRoisToFiles(List, File)}, which uses an already
+     * initialized metadata store client.  The client is not logged out by
+     * {@link #close()}.
+     * @param target initialized metadata store client
+     */
+    public OMEOMEROConverter(ROIMetadataStoreClient target)
+            throws DependencyException {
+        this(target, -1L);
+    }
+
+    private OMEOMEROConverter(ROIMetadataStoreClient target, long imageId)
+            throws DependencyException {
+        this.imageId = imageId;
+        this.target = target;
+        this.ownsTarget = false;
         ServiceFactory factory = new ServiceFactory();
         this.omeXmlService = factory.getInstance(OMEXMLService.class);
     }
@@ -76,10 +161,8 @@ public class OMEOMEROConverter {
                    ServerError
     {
         target.initialize(username, password, server, port);
-        IConfigPrx iConfig = this.target.getServiceFactory().getConfigService();
-        this.lsidFormat = String.format("urn:lsid:%s:%%s:%s_%%s:%%s",
-                iConfig.getConfigValue("omero.db.authority"),
-                iConfig.getDatabaseUuid());
+        this.server = server;
+        this.port = port;
     }
 
     public void initialize(String server, int port, String sessionKey)
@@ -89,102 +172,509 @@ public class OMEOMEROConverter {
         initialize(sessionKey, sessionKey, server, port);
     }
 
-    public List<IObject> importRoisFromFile(File input)
+    /**
+     * Sets the number of ROIs saved per server call on import.
+     * @param batchSize number of ROIs per call
+     */
+    public void setBatchSize(BatchSize batchSize)
+    {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Sets the number of threads ROIs are converted on.  With more than one
+     * thread {@link #importRoisFromFile(File)} converts ranges of ROIs
+     * concurrently with {@link ROIConverter}, and {@link
+     * #exportRois(OutputStream)} writes ranges of each page of ROIs to XML
+     * concurrently.
+     * @param threads number of threads
+     */
+    public void setThreads(int threads)
+    {
+        if (threads < 1)
+        {
+            throw new IllegalArgumentException(
+                    "Number of threads must be positive: " + threads);
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * Sets the format exported shape coordinates are written in.
+     * @param coordinateFormat format of shape coordinates
+     */
+    public void setCoordinateFormat(CoordinateFormat coordinateFormat)
+    {
+        this.coordinateFormat = coordinateFormat;
+    }
+
+    /**
+     * Sets the simplifier applied to polygons and polylines before they
+     * are saved on import and before they are written on export.  Shapes
+     * read with {@link #importRoisFromFile(File)} are simplified in their
+     * vertex store before conversion, otherwise on as many threads as ROIs
+     * are converted on.
+     * @param simplifier simplifier or <code>null</code> to keep every
+     * vertex
+     */
+    public void setSimplifier(ShapeSimplifier simplifier)
+    {
+        this.simplifier = simplifier;
+    }
+
+    /**
+     * Keeps the vertices of polygons and polylines imported with
+     * {@link #importRoisFromFile(File)} outside the heap while they are
+     * converted and saved, spilling them to a memory-mapped temporary file
+     * once a limit is reached.
+     * @param memoryLimit most bytes of vertices to keep in direct memory
+     * or <code>null</code> to keep every vertex on the heap
+     * @param directory directory of the temporary file or
+     * <code>null</code> for the default temporary directory
+     * @see VertexStore#offHeap(long, File)
+     */
+    public void setVertexStorage(Long memoryLimit, File directory)
+    {
+        if (memoryLimit != null && memoryLimit < 0)
+        {
+            throw new IllegalArgumentException(
+                    "Memory limit must not be negative: " + memoryLimit);
+        }
+        this.vertexMemoryLimit = memoryLimit;
+        this.spillDirectory = directory;
+    }
+
+    public long[] importRoisFromFile(File input)
             throws IOException, MissingLibraryException
     {
         log.info("ROI import started");
+        // The vertices are formatted from the store as each batch is saved
+        try (VertexStore vertices = vertexMemoryLimit == null
+                ? new VertexStore()
+                : VertexStore.offHeap(vertexMemoryLimit, spillDirectory))
+        {
+            ROIColumns rois = readRois(input, vertices);
+            if (rois == null)
+            {
+                return null;
+            }
+            if (simplifier != null)
+            {
+                simplifier.simplify(rois);
+            }
+            log.info("Converting to OMERO metadata");
+            if (threads > 1)
+            {
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                try
+                {
+                    ROIConverter.convert(rois, target, pool);
+                }
+                finally
+                {
+                    pool.shutdown();
+                }
+            }
+            else
+            {
+                rois.writeTo(target);
+            }
+            log.info("ROI count: {}", rois.getROICount());
+            return saveToDB();
+        }
+    }
+
+    /**
+     * Reads the ROIs of an OME-XML file into columns and converts its
+     * structured annotations straight into the target store.  The document
+     * and its DOM may then be discarded before the OMERO model objects are
+     * built from the columns.
+     * @param input OME-XML file
+     * @param vertices store to hold the vertices of shapes
+     * @return the ROIs or <code>null</code> if the document could not be
+     * read
+     * @throws IOException if the file cannot be read
+     */
+    private ROIColumns readRois(File input, VertexStore vertices)
+            throws IOException
+    {
         String xml = new String(
                 Files.readAllBytes(input.toPath()), StandardCharsets.UTF_8);
-            log.debug("Importing OME-XML: {}", xml);
-
+        log.debug("Importing OME-XML: {}", xml);
         OMEXMLMetadata xmlMeta;
-        try {
+        try
+        {
             xmlMeta = omeXmlService.createOMEXMLMetadata(xml);
-            log.info("Converting to OMERO metadata");
-            MetadataConverter.convertMetadata(xmlMeta, target);
-            log.info("ROI count: {}", xmlMeta.getROICount());
-            log.debug("Containers: {}",
-                      target.countCachedContainers(null, null));
-            log.debug("References: {}",
-                      target.countCachedReferences(null, null));
-            target.postProcess();
+        }
+        catch (ServiceException s)
+        {
+            log.error("Exception creating OME-XML metadata", s);
+            return null;
+        }
+        ROIColumns rois = ROIColumns.read(xmlMeta, vertices);
+        ROIConverter.convertAnnotations(xmlMeta, target);
+        log.debug("Held {} ROIs, {} shapes and {} vertices in about {} bytes",
+                  rois.getROICount(), rois.countShapes(),
+                  rois.countVertices(), rois.estimateSize());
+        if (vertices.spilled() > 0)
+        {
+            log.info("Spilled {} of {} vertices to disk",
+                     vertices.spilled(), vertices.size());
+        }
+        return rois;
+    }
+
+    /**
+     * Imports ROIs from an OME-XML file without reading the whole document
+     * into memory.  ROIs and structured annotations are parsed with a StAX
+     * pull parser and fed into the metadata store as they are read.
+     * @param input OME-XML file
+     * @return IDs of the saved ROIs, indexed by ROI index in the file, or
+     * <code>null</code> if they could not be saved
+     * @throws IOException if the file cannot be read
+     * @throws XMLStreamException if the file is not valid OME-XML
+     */
+    public long[] streamRoisFromFile(File input)
+            throws IOException, XMLStreamException
+    {
+        try (InputStream in = new BufferedInputStream(
+                new FileInputStream(input)))
+        {
+            return streamRois(in);
+        }
+    }
+
+    /**
+     * Imports ROIs from an OME-XML stream as they are read.  ROIs are
+     * saved in chunks of {@link #STREAM_CHUNK_SIZE}, or of the batch size
+     * if it is larger, each chunk being saved in batches as usual.  The
+     * annotations are kept and saved with the first chunk linking to them.
+     * If a ROI refers to an annotation found later in the document, the
+     * ROIs are instead all saved at the end.  Should a chunk fail to
+     * save, the ROIs of earlier chunks stay saved.
+     * @param in OME-XML document; it is not closed by this method
+     * @return IDs of the saved ROIs, indexed by ROI index in the document,
+     * or <code>null</code> if they could not all be saved
+     * @throws XMLStreamException if the document is not valid OME-XML
+     * @see #streamRoisFromFile(File)
+     */
+    public long[] streamRois(InputStream in) throws XMLStreamException
+    {
+        log.info("ROI streaming import started");
+        final List<long[]> chunks = new ArrayList<long[]>();
+        int roiCount = new ROIStreamReader(target).read(
+                in, Math.max(STREAM_CHUNK_SIZE, batchSize.get()),
+                count -> saveChunk(count, chunks));
+        if (roiCount < 0)
+        {
+            return null;
+        }
+        log.info("ROI count: {}", roiCount);
+        int saved = 0;
+        for (long[] chunk : chunks)
+        {
+            saved += chunk.length;
+        }
+        if ((roiCount > saved || chunks.isEmpty())
+                && !saveChunk(roiCount - saved, chunks))
+        {
+            return null;
+        }
+        long[] ids = new long[roiCount];
+        int offset = 0;
+        for (long[] chunk : chunks)
+        {
+            System.arraycopy(chunk, 0, ids, offset, chunk.length);
+            offset += chunk.length;
+        }
+        return ids;
+    }
+
+    /**
+     * Saves the ROIs of the target store read by a streaming import so far
+     * and clears them from the store.
+     * @param roiCount number of ROIs in the store
+     * @param chunks IDs of the ROIs of each chunk saved so far, to which
+     * those of this chunk are added
+     * @return whether the ROIs were saved
+     */
+    private boolean saveChunk(int roiCount, List<long[]> chunks)
+    {
+        log.info("Saving {} ROIs read", roiCount);
+        simplifyShapes();
+        try
+        {
+            chunks.add(target.saveRoisAndClear(imageId, batchSize));
+            return true;
+        }
+        catch (Exception e)
+        {
+            log.error("Exception saving to DB", e);
+        }
+        return false;
+    }
+
+    /**
+     * Simplifies the polygons and polylines of the target store, if a
+     * simplifier is set.
+     */
+    private void simplifyShapes()
+    {
+        if (simplifier != null)
+        {
+            ForkJoinPool pool = createPool();
             try
             {
-                List<IObject> rois = target.saveToDB(imageId);
-                return rois;
+                simplifier.simplify(target.getShapes(), pool);
             }
-            catch (Exception e)
+            finally
             {
-                log.error("Exception saving to DB", e);
+                if (pool != null)
+                {
+                    pool.shutdown();
+                }
             }
         }
-        catch (ServiceException s)
+    }
+
+    private long[] saveToDB()
+    {
+        log.debug("Containers: {}",
+                  target.countCachedContainers());
+        log.debug("References: {}",
+                  target.countCachedReferences());
+        try
         {
-            log.error("Exception creating OME-XML metadata", s);
+            return target.saveToDB(imageId, batchSize);
+        }
+        catch (Exception e)
+        {
+            log.error("Exception saving to DB", e);
         }
         return null;
     }
 
-    public List<? extends IObject> exportRoisToFile(File file)
+    /**
+     * Sets the cache used to find the LSIDs of exported objects.  If none is
+     * set one is created on first export, from the server's configuration
+     * cached on disk if possible.
+     * @param lsids LSID cache for the server this converter is connected to
+     */
+    public void setLsids(LsidCache lsids)
+    {
+        this.lsids = lsids;
+    }
+
+    /**
+     * Sets the number of ROIs fetched from the server per query on export.
+     * @param pageSize number of ROIs per query
+     */
+    public void setPageSize(int pageSize)
+    {
+        if (pageSize < 1)
+        {
+            throw new IllegalArgumentException(
+                    "Page size must be positive: " + pageSize);
+        }
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Exports the image's ROIs to an OME-XML file.  ROIs are fetched a page
+     * at a time in ascending ID order and each page is converted and
+     * written before the next is fetched.
+     * @param file file to write
+     * @return number of ROIs exported
+     */
+    public int exportRoisToFile(File file)
             throws Exception {
-        log.info("ROI export started");
-        final OMEXMLMetadata xmlMeta = omeXmlService.createOMEXMLMetadata();
-        xmlMeta.createRoot();
-        List<Roi> rois = getRois();
-        log.info("Converting to OME-XML metadata");
-        omeXmlService.convertMetadata(
-                new ROIMetadata(this::getLsid, rois), xmlMeta);
-        log.info("ROI count: {}", xmlMeta.getROICount());
         log.info("Writing OME-XML to: {}", file.getAbsolutePath());
-        XMLWriter xmlWriter = new XMLWriter();
-        xmlWriter.writeFile(file, (OME) xmlMeta.getRoot(), false);
-        return rois;
+        try (OutputStream out = new BufferedOutputStream(
+                new FileOutputStream(file)))
+        {
+            return exportRois(out);
+        }
     }
 
     /**
-     * Find the LSID of the given OMERO model object.
-     * Ported from <code>org.openmicroscopy.client.downloader.XmlGenerator</code>
-     * @param object an OMERO model object, hydrated with its update event
-     * @return the LSID for that object
+     * Exports the image's ROIs to an OME-XML stream.
+     * @param out stream to write to; it is not closed by this method
+     * @return number of ROIs exported
+     * @see #exportRoisToFile(File)
      */
-    private String getLsid(IObject object) {
-        Class<? extends IObject> objectClass = object.getClass();
-        if (objectClass == IObject.class) {
-            throw new IllegalArgumentException(
-                    "must be of a specific model object type");
+    public int exportRois(OutputStream out)
+            throws Exception {
+        log.info("ROI export started");
+        int roiCount = 0;
+        initializeLsids();
+        ForkJoinPool pool = createPool();
+        try (ROIXMLWriter writer = new ROIXMLWriter(out, coordinateFormat))
+        {
+            writer.writeStartDocument();
+            RoiPager pager =
+                    new RoiPager(target.getIQuery(), imageId, pageSize);
+            List<Roi> rois;
+            while ((rois = pager.next()) != null)
+            {
+                simplify(rois, pool);
+                roiCount += write(writer, new ROIMetadata(lsids, rois), pool);
+                // A page's objects are not referenced by later pages, so
+                // its LSIDs need not outlive it
+                lsids.clear();
+                log.debug("Exported ROIs up to ID: {}", pager.getLastId());
+            }
+            writer.writeEndDocument();
+        }
+        finally
+        {
+            lsids.clear();
+            if (pool != null)
+            {
+                pool.shutdown();
+            }
+        }
+        log.info("ROI count: {}", roiCount);
+        return roiCount;
+    }
+
+    /**
+     * Exports the ROIs of several images, each to its own OME-XML file named
+     * <code>&lt;imageId&gt;.ome.xml</code>.  The ROIs of all the images are
+     * fetched with a single query, so the number of images should be
+     * bounded by the caller.
+     * @param imageIds OMERO Image IDs to export ROIs from
+     * @param directory directory to write the files to
+     * @return number of ROIs exported per image, in the order given
+     */
+    public Map<Long, Integer> exportRoisToFiles(
+            List<Long> imageIds, File directory) throws Exception
+    {
+        log.info("ROI export of {} images started", imageIds.size());
+        initializeLsids();
+        final Map<Long, List<Roi>> roisByImage = getRois(imageIds);
+        final Map<Long, Integer> roiCounts = new LinkedHashMap<Long, Integer>();
+        for (final Long id : imageIds)
+        {
+            List<Roi> rois = roisByImage.get(id);
+            if (rois == null)
+            {
+                rois = Collections.emptyList();
+            }
+            final File file = new File(directory, id + ".ome.xml");
+            log.debug("Writing {} ROIs of Image:{} to: {}",
+                      rois.size(), id, file.getAbsolutePath());
+            try (OutputStream out = new BufferedOutputStream(
+                    new FileOutputStream(file));
+                 ROIXMLWriter writer =
+                        new ROIXMLWriter(out, coordinateFormat))
+            {
+                simplify(rois, null);
+                writer.writeStartDocument();
+                roiCounts.put(id, writer.write(new ROIMetadata(lsids, rois)));
+                writer.writeEndDocument();
+            }
+            finally
+            {
+                lsids.clear();
+            }
+        }
+        return roiCounts;
+    }
+
+    /**
+     * @return a pool to simplify shapes and write ROIs to XML on or
+     * <code>null</code> if that is to be done on the calling thread
+     */
+    private ForkJoinPool createPool()
+    {
+        return threads > 1 ? new ForkJoinPool(threads) : null;
+    }
+
+    /**
+     * Simplifies the polygons and polylines of some ROIs, if a simplifier
+     * is set.
+     * @param rois ROIs to simplify the shapes of
+     * @param pool pool to simplify on or <code>null</code> to simplify on
+     * the calling thread
+     */
+    private void simplify(List<Roi> rois, ForkJoinPool pool)
+    {
+        if (simplifier == null)
+        {
+            return;
         }
-        while (objectClass.getSuperclass() != IObject.class) {
-            objectClass = objectClass.getSuperclass().asSubclass(IObject.class);
+        List<Shape> shapes = new ArrayList<Shape>();
+        for (Roi roi : rois)
+        {
+            shapes.addAll(roi.copyShapes());
+        }
+        simplifier.simplify(shapes, pool);
+    }
+
+    private int write(ROIXMLWriter writer, ROIMetadata page,
+                      ForkJoinPool pool) throws XMLStreamException
+    {
+        return pool == null ? writer.write(page) : writer.write(page, pool);
+    }
+
+    private void initializeLsids() throws ServerError
+    {
+        if (lsids == null)
+        {
+            lsids = server == null
+                    ? LsidCache.forSession(target.getServiceFactory())
+                    : ServerConfigCache.getDefault().getLsids(
+                            target.getServiceFactory(), server, port);
         }
-        final long objectId = object.getId().getValue();
-        final long updateId =
-                object.getDetails().getUpdateEvent().getId().getValue();
-        return String.format(
-                lsidFormat, objectClass.getSimpleName(), objectId, updateId);
     }
 
     /**
-     * Query the server for the given ROIs.
-     * Ported from <code>org.openmicroscopy.client.downloader.XmlGenerator</code>
-     * @return the ROIs, hydrated sufficiently for conversion to XML
+     * Query the server for the ROIs of several images at once.
+     * @param imageIds OMERO Image IDs
+     * @return the ROIs of each image which has any, in ascending ID order,
+     * hydrated sufficiently for conversion to XML
      * @throws ServerError if the ROIs could not be retrieved
      */
-    private List<Roi> getRois() throws ServerError {
-        final List<Roi> rois = new ArrayList<Roi>();
+    private Map<Long, List<Roi>> getRois(List<Long> imageIds)
+            throws ServerError {
+        final Map<Long, List<Roi>> rois = new HashMap<Long, List<Roi>>();
+        if (imageIds.isEmpty()) {
+            return rois;
+        }
         for (final IObject result : target.getIQuery().findAllByQuery(
                 "FROM Roi r " +
-                "JOIN FETCH r.shapes AS s " +
-                "WHERE r.image.id = :id",
-                new ParametersI().addId(imageId),
+                "LEFT OUTER JOIN FETCH r.shapes AS s " +
+                "WHERE r.image.id IN (:ids) " +
+                "ORDER BY r.image.id, r.id",
+                new ParametersI().addIds(imageIds),
                 ALL_GROUPS_CONTEXT)) {
-            rois.add((Roi) result);
+            final Roi roi = (Roi) result;
+            final long imageId = roi.getImage().getId().getValue();
+            List<Roi> imageRois = rois.get(imageId);
+            if (imageRois == null) {
+                imageRois = new ArrayList<Roi>();
+                rois.put(imageId, imageRois);
+            }
+            imageRois.add(roi);
         }
         return rois;
     }
 
+    /**
+     * Keeps the session open on the server when this converter is closed so
+     * that a later run can join it.
+     * @return key of the session
+     */
+    public String detachSession()
+    {
+        ServiceFactoryPrx serviceFactory = target.getServiceFactory();
+        serviceFactory.detachOnDestroy();
+        return serviceFactory.ice_getIdentity().name;
+    }
+
     public void close()
     {
-        if (this.target != null)
+        if (this.target != null && ownsTarget)
         {
             this.target.logout();
         }
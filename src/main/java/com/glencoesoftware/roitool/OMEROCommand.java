@@ -62,6 +62,15 @@ public abstract class OMEROCommand
     )
     String sessionKey = null;
 
+    @CommandLine.Option(
+            names = "--cache-session",
+            description = "Join the session cached by a previous run of " +
+                          "the same user against the same server, logging " +
+                          "in only if it has expired, and leave this run's " +
+                          "session open for later runs"
+    )
+    boolean cacheSession = false;
+
     /**
      * Creates an OME OMERO converter which will be initialized with the
      * server, port, and session key or username/password pair available to
@@ -79,10 +88,35 @@ public abstract class OMEROCommand
             throws ServerError, DependencyException,
                    CannotCreateSessionException, PermissionDeniedException
     {
+        String cachedKey = getCachedSessionKey();
+        if (cachedKey != null)
+        {
+            OMEOMEROConverter converter = new OMEOMEROConverter(imageId);
+            try
+            {
+                converter.initialize(server, port, cachedKey);
+                converter.detachSession();
+                log.info("Joined cached session");
+                return converter;
+            }
+            catch (CannotCreateSessionException | PermissionDeniedException
+                    | ServerError | Ice.LocalException e)
+            {
+                log.info("Cached session has expired, logging in");
+                converter.close();
+                SessionKeyCache.getDefault().remove(username, server, port);
+            }
+        }
+
         OMEOMEROConverter converter = new OMEOMEROConverter(imageId);
         if (username != null)
         {
             converter.initialize(username, password, server, port);
+            if (cacheSession)
+            {
+                SessionKeyCache.getDefault().put(
+                        username, server, port, converter.detachSession());
+            }
         }
         else if (sessionKey != null)
         {
@@ -95,4 +129,86 @@ public abstract class OMEROCommand
         }
         return converter;
     }
-}
\ No newline at end of file
+
+    /**
+     * Creates a pool of metadata store clients which will be initialized
+     * with the server, port, and session key or username/password pair
+     * available to this class
+     * @param size number of clients in the pool
+     * @return Initialized session pool
+     * @throws ServerError If there is an error communicating with OMERO
+     * during initialization
+     * @throws PermissionDeniedException
+     * @throws CannotCreateSessionException
+     */
+    public SessionPool createSessionPool(int size)
+            throws ServerError, CannotCreateSessionException,
+                   PermissionDeniedException
+    {
+        String cachedKey = getCachedSessionKey();
+        if (cachedKey != null)
+        {
+            SessionPool pool = new SessionPool(size);
+            try
+            {
+                pool.initialize(server, port, cachedKey);
+                pool.detachSession();
+                log.info("Joined cached session");
+                return pool;
+            }
+            catch (CannotCreateSessionException | PermissionDeniedException
+                    | ServerError | Ice.LocalException e)
+            {
+                log.info("Cached session has expired, logging in");
+                pool.close();
+                SessionKeyCache.getDefault().remove(username, server, port);
+            }
+        }
+
+        SessionPool pool = new SessionPool(size);
+        try
+        {
+            if (username != null)
+            {
+                pool.initialize(username, password, server, port);
+                if (cacheSession)
+                {
+                    SessionKeyCache.getDefault().put(
+                            username, server, port, pool.detachSession());
+                }
+            }
+            else if (sessionKey != null)
+            {
+                pool.initialize(server, port, sessionKey);
+            }
+            else
+            {
+                log.error(
+                    "No OMERO username/password or session key, can't run!");
+                pool.close();
+                return null;
+            }
+        }
+        catch (ServerError | CannotCreateSessionException
+                | PermissionDeniedException | RuntimeException e)
+        {
+            pool.close();
+            throw e;
+        }
+        return pool;
+    }
+
+    /**
+     * @return key of the session cached for the user name and server
+     * available to this class, or <code>null</code> if session caching is
+     * not enabled or there is none
+     */
+    private String getCachedSessionKey()
+    {
+        if (!cacheSession || username == null)
+        {
+            return null;
+        }
+        return SessionKeyCache.getDefault().get(username, server, port);
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.glencoesoftware.roitool;
+
+import java.util.Arrays;
+
+import omero.metadatastore.IObjectContainer;
+
+/**
+ * Model object containers keyed by the type and indexes of the object,
+ * packed into a single <code>long</code>, together with the references
+ * recorded against them.  Containers are kept in creation order and found
+ * through an open addressing hash table of positions, so neither a lookup
+ * nor a reference allocates a key object.
+ * <p>
+ * A key holds a type code in its top bits followed by up to two indexes
+ * of {@value #INDEX_BITS} bits each; objects with a single index leave the
+ * second at <code>0</code>.
+ */
+class ObjectRegistry
+{
+    /** Number of bits of each index in a key. */
+    static final int INDEX_BITS = 29;
+
+    /** Largest type code which can be packed into a key. */
+    static final int MAX_TYPE = (1 << (63 - 2 * INDEX_BITS)) - 1;
+
+    private static final long INDEX_MASK = (1L << INDEX_BITS) - 1;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    /** Keys in creation order. */
+    private long[] keys = new long[INITIAL_CAPACITY];
+
+    /** Containers in creation order. */
+    private IObjectContainer[] containers =
+            new IObjectContainer[INITIAL_CAPACITY];
+
+    /**
+     * Hash table of one more than the position of each key, <code>0</code>
+     * marking a free slot; its length is a power of two.
+     */
+    private int[] slots = new int[INITIAL_CAPACITY * 2];
+
+    private int size;
+
+    /** Keys of the referring objects, in the order references were made. */
+    private long[] referenceSources = new long[INITIAL_CAPACITY];
+
+    /** IDs of the referenced objects. */
+    private String[] referenceTargets = new String[INITIAL_CAPACITY];
+
+    private int referenceCount;
+
+    /**
+     * Packs the type and indexes of an object into a key.
+     * @param type type code, between <code>1</code> and {@link #MAX_TYPE}
+     * @param index first index of the object
+     * @param subIndex second index of the object or <code>0</code>
+     * @return See above.
+     */
+    static long key(int type, int index, int subIndex)
+    {
+        if (type < 1 || type > MAX_TYPE)
+        {
+            throw new IllegalArgumentException("Invalid type code: " + type);
+        }
+        if (index < 0 || index > INDEX_MASK
+                || subIndex < 0 || subIndex > INDEX_MASK)
+        {
+            throw new IllegalArgumentException(
+                    "Index out of range: " + index + ", " + subIndex);
+        }
+        return ((long) type << (2 * INDEX_BITS))
+                | ((long) index << INDEX_BITS) | subIndex;
+    }
+
+    /**
+     * @param key key of an object
+     * @return type code of the object
+     */
+    static int type(long key)
+    {
+        return (int) (key >>> (2 * INDEX_BITS));
+    }
+
+    /**
+     * @param key key of an object
+     * @return first index of the object
+     */
+    static int index(long key)
+    {
+        return (int) ((key >>> INDEX_BITS) & INDEX_MASK);
+    }
+
+    /**
+     * @param key key of an object
+     * @return second index of the object
+     */
+    static int subIndex(long key)
+    {
+        return (int) (key & INDEX_MASK);
+    }
+
+    /**
+     * @param key key of an object
+     * @return container of the object or <code>null</code> if there is none
+     */
+    public IObjectContainer get(long key)
+    {
+        int mask = slots.length - 1;
+        for (int slot = hash(key) & mask; slots[slot] != 0;
+                slot = (slot + 1) & mask)
+        {
+            int position = slots[slot] - 1;
+            if (keys[position] == key)
+            {
+                return containers[position];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds the container of an object which is not yet registered.
+     * @param key key of the object
+     * @param container container of the object
+     */
+    public void add(long key, IObjectContainer container)
+    {
+        if (size == keys.length)
+        {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+        // Keep the table at most half full
+        if (2 * (size + 1) > slots.length)
+        {
+            rehash(slots.length * 2);
+        }
+        keys[size] = key;
+        containers[size] = container;
+        size++;
+        insert(key, size);
+    }
+
+    /**
+     * Appends the containers and references of another registry, keeping
+     * their order.
+     * @param other registry with no keys in common with this one
+     * @throws IllegalArgumentException if a key is already registered
+     */
+    public void addAll(ObjectRegistry other)
+    {
+        for (int position = 0; position < other.size; position++)
+        {
+            long key = other.keys[position];
+            if (get(key) != null)
+            {
+                throw new IllegalArgumentException(
+                        "Object already registered: " + Long.toHexString(key));
+            }
+            add(key, other.containers[position]);
+        }
+        for (int position = 0; position < other.referenceCount; position++)
+        {
+            addReference(other.referenceSources[position],
+                         other.referenceTargets[position]);
+        }
+    }
+
+    /**
+     * @return number of containers
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * @param position position in creation order
+     * @return key of the container at that position
+     */
+    public long keyAt(int position)
+    {
+        checkPosition(position, size);
+        return keys[position];
+    }
+
+    /**
+     * @param position position in creation order
+     * @return container at that position
+     */
+    public IObjectContainer containerAt(int position)
+    {
+        checkPosition(position, size);
+        return containers[position];
+    }
+
+    /**
+     * Records a reference from an object to another object's ID.  The
+     * referring object need not be registered yet.
+     * @param source key of the referring object
+     * @param target ID of the referenced object
+     */
+    public void addReference(long source, String target)
+    {
+        if (referenceCount == referenceSources.length)
+        {
+            referenceSources =
+                    Arrays.copyOf(referenceSources, referenceCount * 2);
+            referenceTargets =
+                    Arrays.copyOf(referenceTargets, referenceCount * 2);
+        }
+        referenceSources[referenceCount] = source;
+        referenceTargets[referenceCount] = target;
+        referenceCount++;
+    }
+
+    /**
+     * @return number of references
+     */
+    public int referenceCount()
+    {
+        return referenceCount;
+    }
+
+    /**
+     * @param position position in the order references were made
+     * @return key of the referring object
+     */
+    public long referenceSourceAt(int position)
+    {
+        checkPosition(position, referenceCount);
+        return referenceSources[position];
+    }
+
+    /**
+     * @param position position in the order references were made
+     * @return ID of the referenced object
+     */
+    public String referenceTargetAt(int position)
+    {
+        checkPosition(position, referenceCount);
+        return referenceTargets[position];
+    }
+
+    private void rehash(int capacity)
+    {
+        slots = new int[capacity];
+        for (int position = 0; position < size; position++)
+        {
+            insert(keys[position], position + 1);
+        }
+    }
+
+    private void insert(long key, int value)
+    {
+        int mask = slots.length - 1;
+        int slot = hash(key) & mask;
+        while (slots[slot] != 0)
+        {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = value;
+    }
+
+    private static int hash(long key)
+    {
+        // Spread the index bits, which vary most, over the whole word
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static void checkPosition(int position, int size)
+    {
+        if (position < 0 || position >= size)
+        {
+            throw new IndexOutOfBoundsException(
+                    "Position: " + position + ", size: " + size);
+        }
+    }
+}
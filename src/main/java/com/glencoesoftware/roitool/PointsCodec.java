@@ -0,0 +1,387 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.glencoesoftware.roitool;
+
+import java.util.Arrays;
+
+/**
+ * Parses the <code>Points</code> of polygons and polylines, of the form
+ * <code>x1,y1 x2,y2 ...</code>, into a reusable buffer of coordinates and
+ * formats coordinates back into that form.  Once the buffer is large
+ * enough, parsing allocates nothing for coordinates written as plain
+ * decimals, with or without an exponent, of up to 18 significant digits;
+ * anything else falls back to {@link Double#parseDouble(String)}.
+ * <p>
+ * Any amount of whitespace may separate points, and may surround the
+ * comma within a point.  A codec is not safe for use by several threads
+ * at once.
+ */
+public class PointsCodec
+{
+    private static final int INITIAL_CAPACITY = 64;
+
+    /** Powers of ten which a double represents exactly. */
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /** Largest mantissa a double represents exactly. */
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    /** Most significant digits accumulated before falling back. */
+    private static final int MAX_DIGITS = 18;
+
+    /** x and y of each point, interleaved. */
+    private double[] coordinates = new double[INITIAL_CAPACITY];
+
+    private int pointCount;
+
+    /** Text being parsed and the position reached in it. */
+    private CharSequence text;
+
+    private int position;
+
+    /**
+     * Parses a points string, replacing the points held by this codec.
+     * @param points points string; <code>null</code> is treated as empty
+     * @return number of points parsed
+     * @throws NumberFormatException if the string is not a list of
+     * comma separated pairs of numbers; the points held are then undefined
+     */
+    public int parse(CharSequence points)
+    {
+        pointCount = 0;
+        if (points == null)
+        {
+            return 0;
+        }
+        text = points;
+        position = 0;
+        try
+        {
+            skipWhitespace();
+            while (position < text.length())
+            {
+                double x = parseNumber();
+                skipWhitespace();
+                expect(',');
+                skipWhitespace();
+                double y = parseNumber();
+                add(x, y);
+                int end = position;
+                skipWhitespace();
+                if (position == end && position < text.length())
+                {
+                    throw malformed("Expected whitespace");
+                }
+            }
+        }
+        finally
+        {
+            text = null;
+        }
+        return pointCount;
+    }
+
+    /**
+     * Replaces the points held by this codec.
+     * @param xy x and y of each point, interleaved
+     * @param count number of points
+     */
+    public void set(double[] xy, int count)
+    {
+        pointCount = 0;
+        ensureCapacity(count);
+        System.arraycopy(xy, 0, coordinates, 0, 2 * count);
+        pointCount = count;
+    }
+
+    /**
+     * @return number of points held
+     */
+    public int getPointCount()
+    {
+        return pointCount;
+    }
+
+    /**
+     * @return x and y of each point, interleaved; the array is reused by
+     * later calls and may be longer than twice {@link #getPointCount()}
+     */
+    public double[] getCoordinates()
+    {
+        return coordinates;
+    }
+
+    /**
+     * @param index index of a point
+     * @return x of the point
+     */
+    public double getX(int index)
+    {
+        checkIndex(index);
+        return coordinates[2 * index];
+    }
+
+    /**
+     * @param index index of a point
+     * @return y of the point
+     */
+    public double getY(int index)
+    {
+        checkIndex(index);
+        return coordinates[2 * index + 1];
+    }
+
+    /**
+     * Formats the points held, each coordinate in the fewest digits which
+     * read back as the same value.
+     * @return See above.
+     */
+    public String format()
+    {
+        return format(new StringBuilder(16 * pointCount),
+                      CoordinateFormat.SHORTEST).toString();
+    }
+
+    /**
+     * Appends the points held to a buffer.
+     * @param buffer buffer to append to
+     * @param coordinates format of each coordinate
+     * @return <code>buffer</code>
+     */
+    public StringBuilder format(
+            StringBuilder buffer, CoordinateFormat coordinates)
+    {
+        for (int i = 0; i < pointCount; i++)
+        {
+            if (i > 0)
+            {
+                buffer.append(' ');
+            }
+            coordinates.format(buffer, this.coordinates[2 * i]);
+            buffer.append(',');
+            coordinates.format(buffer, this.coordinates[2 * i + 1]);
+        }
+        return buffer;
+    }
+
+    private void add(double x, double y)
+    {
+        ensureCapacity(pointCount + 1);
+        coordinates[2 * pointCount] = x;
+        coordinates[2 * pointCount + 1] = y;
+        pointCount++;
+    }
+
+    private void ensureCapacity(int count)
+    {
+        if (2 * count > coordinates.length)
+        {
+            coordinates = Arrays.copyOf(coordinates,
+                    Math.max(2 * count, 2 * coordinates.length));
+        }
+    }
+
+    private void checkIndex(int index)
+    {
+        if (index < 0 || index >= pointCount)
+        {
+            throw new IndexOutOfBoundsException(
+                    "Index: " + index + ", points: " + pointCount);
+        }
+    }
+
+    private void skipWhitespace()
+    {
+        while (position < text.length()
+                && Character.isWhitespace(text.charAt(position)))
+        {
+            position++;
+        }
+    }
+
+    private void expect(char c)
+    {
+        if (position >= text.length() || text.charAt(position) != c)
+        {
+            throw malformed("Expected '" + c + "'");
+        }
+        position++;
+    }
+
+    /**
+     * Parses a number at the current position: an optional sign, digits
+     * with an optional decimal point and an optional exponent.  The value
+     * is computed exactly from an integer mantissa and a power of ten when
+     * both are small enough, otherwise the number is handed to
+     * {@link Double#parseDouble(String)}.
+     */
+    private double parseNumber()
+    {
+        final int start = position;
+        final int length = text.length();
+        boolean negative = false;
+        if (position < length
+                && (text.charAt(position) == '-'
+                    || text.charAt(position) == '+'))
+        {
+            negative = text.charAt(position) == '-';
+            position++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean exact = true;
+        boolean seenDigit = false;
+        boolean seenPoint = false;
+        for (; position < length; position++)
+        {
+            char c = text.charAt(position);
+            if (c >= '0' && c <= '9')
+            {
+                seenDigit = true;
+                if (mantissa == 0 && c == '0')
+                {
+                    // Leading zeros are not significant
+                    if (seenPoint)
+                    {
+                        scale--;
+                    }
+                }
+                else if (digits < MAX_DIGITS)
+                {
+                    mantissa = 10 * mantissa + (c - '0');
+                    digits++;
+                    if (seenPoint)
+                    {
+                        scale--;
+                    }
+                }
+                else
+                {
+                    exact = false;
+                    if (!seenPoint)
+                    {
+                        scale++;
+                    }
+                }
+            }
+            else if (c == '.' && !seenPoint)
+            {
+                seenPoint = true;
+            }
+            else
+            {
+                break;
+            }
+        }
+        if (!seenDigit)
+        {
+            return parseFallback(start);
+        }
+        if (position < length
+                && (text.charAt(position) == 'e'
+                    || text.charAt(position) == 'E'))
+        {
+            position++;
+            boolean negativeExponent = false;
+            if (position < length
+                    && (text.charAt(position) == '-'
+                        || text.charAt(position) == '+'))
+            {
+                negativeExponent = text.charAt(position) == '-';
+                position++;
+            }
+            int exponentStart = position;
+            int exponent = 0;
+            while (position < length && text.charAt(position) >= '0'
+                    && text.charAt(position) <= '9')
+            {
+                if (exponent < 10000)
+                {
+                    exponent = 10 * exponent + (text.charAt(position) - '0');
+                }
+                position++;
+            }
+            if (position == exponentStart)
+            {
+                throw malformed("Expected exponent");
+            }
+            scale += negativeExponent ? -exponent : exponent;
+        }
+        if (position < length && !isDelimiter(text.charAt(position)))
+        {
+            return parseFallback(start);
+        }
+        if (exact && mantissa < MAX_EXACT_MANTISSA
+                && scale >= -22 && scale <= 22)
+        {
+            double value = scale < 0
+                    ? mantissa / POWERS_OF_TEN[-scale]
+                    : mantissa * POWERS_OF_TEN[scale];
+            return negative ? -value : value;
+        }
+        if (mantissa == 0)
+        {
+            return negative ? -0.0 : 0.0;
+        }
+        return parseFallback(start);
+    }
+
+    /**
+     * Parses the number starting at a position with
+     * {@link Double#parseDouble(String)}, which also accepts forms such as
+     * <code>Infinity</code>.
+     */
+    private double parseFallback(int start)
+    {
+        position = start;
+        while (position < text.length()
+                && !isDelimiter(text.charAt(position)))
+        {
+            position++;
+        }
+        if (position == start)
+        {
+            throw malformed("Expected number");
+        }
+        try
+        {
+            return Double.parseDouble(
+                    text.subSequence(start, position).toString());
+        }
+        catch (NumberFormatException e)
+        {
+            throw malformed("Invalid number");
+        }
+    }
+
+    private static boolean isDelimiter(char c)
+    {
+        return c == ',' || Character.isWhitespace(c);
+    }
+
+    private NumberFormatException malformed(String message)
+    {
+        return new NumberFormatException(
+                message + " at offset " + position + " of points");
+    }
+}
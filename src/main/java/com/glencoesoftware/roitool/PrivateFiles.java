@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.glencoesoftware.roitool;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes files holding secrets, such as session keys, so that only their
+ * owner may read them.
+ */
+class PrivateFiles
+{
+    private static final Logger log =
+            LoggerFactory.getLogger(PrivateFiles.class);
+
+    private static final Set<PosixFilePermission> OWNER_ONLY =
+            PosixFilePermissions.fromString("rw-------");
+
+    private PrivateFiles()
+    {
+    }
+
+    /**
+     * Replaces the content of a file, creating it and its directory if
+     * needed.  The content is written to a temporary file readable only by
+     * its owner which is then moved into place, so that the file is never
+     * seen with other permissions or partly written.
+     * @param file file to write
+     * @param content new content of the file
+     * @throws IOException if the file could not be written
+     */
+    static void write(File file, byte[] content) throws IOException
+    {
+        File directory = file.getAbsoluteFile().getParentFile();
+        Files.createDirectories(directory.toPath());
+        Path temporary = Files.createTempFile(
+                directory.toPath(), file.getName(), ".tmp");
+        try
+        {
+            try
+            {
+                Files.setPosixFilePermissions(temporary, OWNER_ONLY);
+            }
+            catch (UnsupportedOperationException e)
+            {
+                // Not a POSIX file system; the temporary file is already
+                // created with restrictive permissions where supported
+                log.debug("Cannot set permissions of {}", temporary);
+            }
+            Files.write(temporary, content);
+            Files.move(temporary, file.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally
+        {
+            Files.deleteIfExists(temporary);
+        }
+    }
+}
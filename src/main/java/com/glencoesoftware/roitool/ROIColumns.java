@@ -0,0 +1,3134 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.glencoesoftware.roitool;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+import loci.formats.meta.DummyMetadata;
+import loci.formats.meta.MetadataRetrieve;
+import loci.formats.meta.MetadataStore;
+import ome.units.quantity.Length;
+import ome.units.unit.Unit;
+import ome.xml.model.AffineTransform;
+import ome.xml.model.enums.FillRule;
+import ome.xml.model.enums.FontFamily;
+import ome.xml.model.enums.FontStyle;
+import ome.xml.model.enums.Marker;
+import ome.xml.model.primitives.Color;
+import ome.xml.model.primitives.NonNegativeInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import omero.model.IObject;
+import omero.model.Roi;
+
+/**
+ * ROIs and their shapes held column by column in primitive arrays rather
+ * than as model objects.  Each shape is a row: its type, coordinates,
+ * plane indexes, packed colors and stroke width are kept in arrays indexed
+ * by row, and the points of all polygons and polylines in a
+ * {@link VertexStore} which each row holds an offset into.  Properties
+ * which are rarely set, such as fonts, markers, transforms and annotation
+ * references, are kept in a side object only for the shapes which have
+ * them, so the heap used grows by a fixed number of bytes per shape, and
+ * per vertex unless the store keeps its vertices outside the heap; see
+ * {@link #ROIColumns(VertexStore)} and {@link #estimateSize()}.
+ * <p>
+ * The columns are filled through the {@link MetadataStore} setters, so
+ * they may be read from OME-XML with {@link #read(MetadataRetrieve)} or
+ * {@link ROIStreamReader} and from OMERO with {@link #read(Function,
+ * List)}.  They are read back through the {@link MetadataRetrieve}
+ * getters, so they may be written to an OMERO store with
+ * {@link #writeTo(MetadataStore)} or to OME-XML with {@link ROIXMLWriter}.
+ * Structured annotations are not held, only references to them.
+ * <p>
+ * Points are parsed into the vertex store as they are set and read back
+ * as they were written: in their shortest exact form or as
+ * {@link Double#toString(double)} writes them, whichever reproduces the
+ * string, or else verbatim.  Points which cannot be parsed are only kept
+ * verbatim.  Once the vertices of a shape have been simplified its points
+ * are formatted from the store in the same form, or the shortest.
+ * {@link ROIConverter} hands the vertices of each shape straight to a
+ * {@link ROIMetadataStoreClient} instead, which only formats them as the
+ * shape is sent to the server.  Once filled the
+ * columns are not modified by the getters, so several threads may read
+ * them at once.
+ */
+public class ROIColumns extends DummyMetadata
+{
+    private static final Logger log =
+            LoggerFactory.getLogger(ROIColumns.class);
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    /** Columns of {@link #geometry}. */
+    private static final int X = 0;
+
+    private static final int Y = 1;
+
+    /** Width, x radius or second x coordinate, depending on shape type. */
+    private static final int A = 2;
+
+    /** Height, y radius or second y coordinate, depending on shape type. */
+    private static final int B = 3;
+
+    /** Bits of {@link #flags}. */
+    private static final byte HAS_FILL_COLOR = 1;
+
+    private static final byte HAS_STROKE_COLOR = 2;
+
+    private static final byte HAS_LOCKED = 4;
+
+    private static final byte LOCKED = 8;
+
+    /** Points were written as {@link Double#toString(double)} writes them. */
+    private static final byte POINTS_TO_STRING = 16;
+
+    /** Size of an object reference assumed by {@link #estimateSize()}. */
+    private static final int REFERENCE_SIZE = 4;
+
+    private static final ShapeType[] SHAPE_TYPES = ShapeType.values();
+
+    private int roiCount;
+
+    private String[] roiIds = new String[INITIAL_CAPACITY];
+
+    private String[] roiNames = new String[INITIAL_CAPACITY];
+
+    private String[] roiDescriptions = new String[INITIAL_CAPACITY];
+
+    /** Annotation references of each ROI; <code>null</code> if none. */
+    private String[][] roiAnnotationRefs = new String[INITIAL_CAPACITY][];
+
+    /** Row of each shape of each ROI; <code>-1</code> where unused. */
+    private int[][] roiShapes = new int[INITIAL_CAPACITY][];
+
+    private int[] shapeCounts = new int[INITIAL_CAPACITY];
+
+    private int rowCount;
+
+    /** {@link ShapeType} ordinal of each row. */
+    private byte[] types = new byte[INITIAL_CAPACITY];
+
+    private String[] shapeIds = new String[INITIAL_CAPACITY];
+
+    /** Coordinates of each row; <code>NaN</code> where unset. */
+    private double[][] geometry = new double[4][INITIAL_CAPACITY];
+
+    /** Plane indexes of each row; <code>-1</code> where unset. */
+    private int[] zIndexes = new int[INITIAL_CAPACITY];
+
+    private int[] tIndexes = new int[INITIAL_CAPACITY];
+
+    private int[] cIndexes = new int[INITIAL_CAPACITY];
+
+    /** Colors of each row, packed as RGBA. */
+    private int[] fillColors = new int[INITIAL_CAPACITY];
+
+    private int[] strokeColors = new int[INITIAL_CAPACITY];
+
+    private byte[] flags = new byte[INITIAL_CAPACITY];
+
+    /** Stroke width of each row; <code>NaN</code> where unset. */
+    private double[] strokeWidths = new double[INITIAL_CAPACITY];
+
+    /** One more than the index in {@link #units} of each stroke width. */
+    private byte[] strokeWidthUnits = new byte[INITIAL_CAPACITY];
+
+    /** Distinct units of stroke widths. */
+    private final List<Unit<Length>> units = new ArrayList<Unit<Length>>();
+
+    private String[] texts = new String[INITIAL_CAPACITY];
+
+    /** First vertex of each row in {@link #vertices}. */
+    private long[] vertexOffsets = new long[INITIAL_CAPACITY];
+
+    /** Vertices of each row; <code>-1</code> where points are unset. */
+    private int[] vertexCounts = new int[INITIAL_CAPACITY];
+
+    /** Rarely set properties of each row; <code>null</code> if none. */
+    private Extras[] extras = new Extras[INITIAL_CAPACITY];
+
+    /** Vertices of all rows. */
+    private final VertexStore vertices;
+
+    /** Parses points as they are set. */
+    private final PointsCodec points = new PointsCodec();
+
+    /** Formats points as they are set, to compare them with the original. */
+    private final StringBuilder buffer = new StringBuilder();
+
+    /** Whether a property set on a shape of another type has been logged. */
+    private boolean typeMismatchLogged;
+
+    /**
+     * Creates empty columns which keep their vertices on the heap.
+     */
+    public ROIColumns()
+    {
+        this(new VertexStore());
+    }
+
+    /**
+     * Creates empty columns which keep their vertices in a store, such as
+     * one created with {@link VertexStore#offHeap(long, java.io.File)}.
+     * The store is not closed by the columns.
+     * @param vertices store to append the vertices of shapes to
+     */
+    public ROIColumns(VertexStore vertices)
+    {
+        this.vertices = vertices;
+    }
+
+    /**
+     * Reads the ROIs and shapes of metadata, such as OME-XML metadata, into
+     * columns.
+     * @param src metadata to read
+     * @return See above.
+     */
+    public static ROIColumns read(MetadataRetrieve src)
+    {
+        return read(src, new VertexStore());
+    }
+
+    /**
+     * Reads the ROIs and shapes of metadata into columns which keep their
+     * vertices in a store.
+     * @param src metadata to read
+     * @param vertices store to append the vertices of shapes to
+     * @return See above.
+     */
+    public static ROIColumns read(MetadataRetrieve src, VertexStore vertices)
+    {
+        ROIColumns columns = new ROIColumns(vertices);
+        ROIConverter.convertROIs(
+                src, columns, 0, Math.max(0, src.getROICount()));
+        return columns;
+    }
+
+    /**
+     * Reads OMERO ROIs and their shapes into columns.
+     * @param lsids function giving the LSID of an OMERO model object
+     * @param rois ROIs with their shapes and annotation links loaded
+     * @return See above.
+     */
+    public static ROIColumns read(
+            Function<IObject, String> lsids, List<Roi> rois)
+    {
+        return read(new ROIMetadata(lsids, rois));
+    }
+
+    /**
+     * Writes the ROIs and shapes held to a metadata store, such as a
+     * {@link ROIMetadataStoreClient}.
+     * @param dest store to write to
+     */
+    public void writeTo(MetadataStore dest)
+    {
+        ROIConverter.convertROIs(this, dest, 0, roiCount);
+    }
+
+    /**
+     * @return number of shapes held
+     */
+    public int countShapes()
+    {
+        return rowCount;
+    }
+
+    /**
+     * @return number of polygon and polyline vertices held
+     */
+    public long countVertices()
+    {
+        return vertices.size();
+    }
+
+    /**
+     * Estimates the heap used by the columns and the vertex store, which
+     * excludes strings and the rarely set properties.
+     * @return approximate number of bytes
+     */
+    public long estimateSize()
+    {
+        // Byte, double and long, int and reference columns
+        long rowBytes = 3 + 6 * 8 + 6 * 4 + 3 * REFERENCE_SIZE;
+        long roiBytes = 4 + 5 * REFERENCE_SIZE;
+        long size = rowBytes * types.length + roiBytes * roiIds.length
+                + vertices.estimateSize();
+        for (int i = 0; i < roiCount; i++)
+        {
+            if (roiShapes[i] != null)
+            {
+                size += 4L * roiShapes[i].length;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @param ROIIndex index of a ROI
+     * @param shapeIndex index of a polygon or polyline within the ROI
+     * @return number of vertices of the shape or <code>-1</code> if it has
+     * no points held in the vertex store
+     */
+    public int getVertexCount(int ROIIndex, int shapeIndex)
+    {
+        int row = row(ROIIndex, shapeIndex, null);
+        return row < 0 ? -1 : vertexCounts[row];
+    }
+
+    /**
+     * @param ROIIndex index of a ROI
+     * @param shapeIndex index of a polygon or polyline within the ROI
+     * @return index of the first vertex of the shape in
+     * {@link #getVertexStore()} or <code>-1</code> if there is no such shape
+     */
+    public long getVertexOffset(int ROIIndex, int shapeIndex)
+    {
+        int row = row(ROIIndex, shapeIndex, null);
+        return row < 0 ? -1 : vertexOffsets[row];
+    }
+
+    /**
+     * @param ROIIndex index of a ROI
+     * @param shapeIndex index of a polygon or polyline within the ROI
+     * @return format which reproduces the points of the shape from its
+     * vertices or <code>null</code> if none does and they are kept verbatim
+     */
+    public CoordinateFormat getVertexFormat(int ROIIndex, int shapeIndex)
+    {
+        int row = row(ROIIndex, shapeIndex, null);
+        if (row < 0 || (extras[row] != null && extras[row].points != null))
+        {
+            return null;
+        }
+        return vertexFormat(row);
+    }
+
+    private CoordinateFormat vertexFormat(int row)
+    {
+        return (flags[row] & POINTS_TO_STRING) != 0
+                ? CoordinateFormat.TO_STRING : CoordinateFormat.SHORTEST;
+    }
+
+    /**
+     * @return store of every vertex held, with those of each shape
+     * consecutive
+     */
+    public VertexStore getVertexStore()
+    {
+        return vertices;
+    }
+
+    /**
+     * Shortens the points of a shape to the first of its vertices, after
+     * they have been simplified in place in the vertex store.  Points kept
+     * verbatim are dropped if any vertices were removed, so that they are
+     * formatted from the store.
+     * @param ROIIndex index of a ROI
+     * @param shapeIndex index of a polygon or polyline within the ROI
+     * @param count number of vertices to keep
+     */
+    void setVertexCount(int ROIIndex, int shapeIndex, int count)
+    {
+        int row = row(ROIIndex, shapeIndex, null);
+        if (row < 0 || count < 0 || count > vertexCounts[row])
+        {
+            throw new IllegalArgumentException(
+                    "Invalid vertex count: " + count);
+        }
+        if (count != vertexCounts[row] && extras[row] != null)
+        {
+            extras[row].points = null;
+        }
+        vertexCounts[row] = count;
+    }
+
+    @Override
+    public int getROICount()
+    {
+        return roiCount;
+    }
+
+    @Override
+    public void setROIID(String id, int ROIIndex)
+    {
+        addRoi(ROIIndex);
+        roiIds[ROIIndex] = id;
+    }
+
+    @Override
+    public String getROIID(int ROIIndex)
+    {
+        return hasRoi(ROIIndex) ? roiIds[ROIIndex] : null;
+    }
+
+    @Override
+    public void setROIName(String name, int ROIIndex)
+    {
+        addRoi(ROIIndex);
+        roiNames[ROIIndex] = name;
+    }
+
+    @Override
+    public String getROIName(int ROIIndex)
+    {
+        return hasRoi(ROIIndex) ? roiNames[ROIIndex] : null;
+    }
+
+    @Override
+    public void setROIDescription(String description, int ROIIndex)
+    {
+        addRoi(ROIIndex);
+        roiDescriptions[ROIIndex] = description;
+    }
+
+    @Override
+    public String getROIDescription(int ROIIndex)
+    {
+        return hasRoi(ROIIndex) ? roiDescriptions[ROIIndex] : null;
+    }
+
+    @Override
+    public void setROIAnnotationRef(String annotation, int ROIIndex,
+            int annotationRefIndex)
+    {
+        addRoi(ROIIndex);
+        roiAnnotationRefs[ROIIndex] = setRef(
+                roiAnnotationRefs[ROIIndex], annotationRefIndex, annotation);
+    }
+
+    @Override
+    public String getROIAnnotationRef(int ROIIndex, int annotationRefIndex)
+    {
+        return hasRoi(ROIIndex)
+                ? getRef(roiAnnotationRefs[ROIIndex], annotationRefIndex)
+                : null;
+    }
+
+    @Override
+    public int getROIAnnotationRefCount(int ROIIndex)
+    {
+        if (!hasRoi(ROIIndex))
+        {
+            return -1;
+        }
+        String[] refs = roiAnnotationRefs[ROIIndex];
+        return refs == null ? 0 : refs.length;
+    }
+
+    @Override
+    public int getShapeCount(int ROIIndex)
+    {
+        return hasRoi(ROIIndex) ? shapeCounts[ROIIndex] : -1;
+    }
+
+    @Override
+    public String getShapeType(int ROIIndex, int shapeIndex)
+    {
+        int row = row(ROIIndex, shapeIndex, null);
+        return row < 0 ? null : SHAPE_TYPES[types[row]].getName();
+    }
+
+    @Override
+    public int getShapeAnnotationRefCount(int ROIIndex, int shapeIndex)
+    {
+        int row = row(ROIIndex, shapeIndex, null);
+        if (row < 0)
+        {
+            return -1;
+        }
+        Extras extra = extras[row];
+        return extra == null || extra.annotationRefs == null
+                ? 0 : extra.annotationRefs.length;
+    }
+
+    private boolean hasRoi(int ROIIndex)
+    {
+        return ROIIndex >= 0 && ROIIndex < roiCount;
+    }
+
+    private void addRoi(int ROIIndex)
+    {
+        if (ROIIndex < 0)
+        {
+            throw new IllegalArgumentException(
+                    "Negative ROI index: " + ROIIndex);
+        }
+        if (ROIIndex >= roiIds.length)
+        {
+            int capacity = Math.max(ROIIndex + 1, roiIds.length * 2);
+            roiIds = Arrays.copyOf(roiIds, capacity);
+            roiNames = Arrays.copyOf(roiNames, capacity);
+            roiDescriptions = Arrays.copyOf(roiDescriptions, capacity);
+            roiAnnotationRefs = Arrays.copyOf(roiAnnotationRefs, capacity);
+            roiShapes = Arrays.copyOf(roiShapes, capacity);
+            shapeCounts = Arrays.copyOf(shapeCounts, capacity);
+        }
+        roiCount = Math.max(roiCount, ROIIndex + 1);
+    }
+
+    /**
+     * Finds the row of a shape.
+     * @param ROIIndex index of the ROI
+     * @param shapeIndex index of the shape within the ROI
+     * @param type expected shape type or <code>null</code> for any
+     * @return the row or <code>-1</code> if there is no such shape or it is
+     * of another type
+     */
+    private int row(int ROIIndex, int shapeIndex, ShapeType type)
+    {
+        if (!hasRoi(ROIIndex) || shapeIndex < 0
+                || shapeIndex >= shapeCounts[ROIIndex])
+        {
+            return -1;
+        }
+        int row = roiShapes[ROIIndex][shapeIndex];
+        if (row < 0 || (type != null && types[row] != type.ordinal()))
+        {
+            return -1;
+        }
+        return row;
+    }
+
+    /**
+     * Finds the row of a shape, adding it if there is none.
+     * @param ROIIndex index of the ROI
+     * @param shapeIndex index of the shape within the ROI
+     * @param type shape type
+     * @return the row or <code>-1</code> if the shape is of another type
+     */
+    private int addRow(int ROIIndex, int shapeIndex, ShapeType type)
+    {
+        if (shapeIndex < 0)
+        {
+            throw new IllegalArgumentException(
+                    "Negative shape index: " + shapeIndex);
+        }
+        addRoi(ROIIndex);
+        int[] shapes = roiShapes[ROIIndex];
+        if (shapes == null || shapeIndex >= shapes.length)
+        {
+            int length = shapes == null ? 0 : shapes.length;
+            shapes = shapes == null
+                    ? new int[Math.max(4, shapeIndex + 1)]
+                    : Arrays.copyOf(shapes,
+                            Math.max(shapeIndex + 1, length * 2));
+            Arrays.fill(shapes, length, shapes.length, -1);
+            roiShapes[ROIIndex] = shapes;
+        }
+        int row = shapes[shapeIndex];
+        if (row >= 0)
+        {
+            if (types[row] == type.ordinal())
+            {
+                return row;
+            }
+            logTypeMismatch(ROIIndex, shapeIndex, type, row);
+            return -1;
+        }
+        if (rowCount == types.length)
+        {
+            growRows(rowCount * 2);
+        }
+        row = rowCount++;
+        types[row] = (byte) type.ordinal();
+        for (double[] column : geometry)
+        {
+            column[row] = Double.NaN;
+        }
+        zIndexes[row] = -1;
+        tIndexes[row] = -1;
+        cIndexes[row] = -1;
+        strokeWidths[row] = Double.NaN;
+        vertexCounts[row] = -1;
+        shapes[shapeIndex] = row;
+        shapeCounts[ROIIndex] = Math.max(shapeCounts[ROIIndex], shapeIndex + 1);
+        return row;
+    }
+
+    /**
+     * Logs the first property set on a shape of another type, which is
+     * ignored, and any further ones at debug level.
+     */
+    private void logTypeMismatch(
+            int ROIIndex, int shapeIndex, ShapeType type, int row)
+    {
+        String message = "Ignoring {} property of shape {} of ROI {}, " +
+                "which is a {}";
+        Object[] args = new Object[] {type.getName(), shapeIndex, ROIIndex,
+                                      SHAPE_TYPES[types[row]].getName()};
+        if (typeMismatchLogged)
+        {
+            log.debug(message, args);
+            return;
+        }
+        typeMismatchLogged = true;
+        log.warn(message + "; further such properties are logged at " +
+                 "debug level", args);
+    }
+
+    private void growRows(int capacity)
+    {
+        types = Arrays.copyOf(types, capacity);
+        shapeIds = Arrays.copyOf(shapeIds, capacity);
+        for (int i = 0; i < geometry.length; i++)
+        {
+            geometry[i] = Arrays.copyOf(geometry[i], capacity);
+        }
+        zIndexes = Arrays.copyOf(zIndexes, capacity);
+        tIndexes = Arrays.copyOf(tIndexes, capacity);
+        cIndexes = Arrays.copyOf(cIndexes, capacity);
+        fillColors = Arrays.copyOf(fillColors, capacity);
+        strokeColors = Arrays.copyOf(strokeColors, capacity);
+        flags = Arrays.copyOf(flags, capacity);
+        strokeWidths = Arrays.copyOf(strokeWidths, capacity);
+        strokeWidthUnits = Arrays.copyOf(strokeWidthUnits, capacity);
+        texts = Arrays.copyOf(texts, capacity);
+        vertexOffsets = Arrays.copyOf(vertexOffsets, capacity);
+        vertexCounts = Arrays.copyOf(vertexCounts, capacity);
+        extras = Arrays.copyOf(extras, capacity);
+    }
+
+    /**
+     * @return rarely set properties of a row, created if there are none
+     */
+    private Extras extras(int row)
+    {
+        if (extras[row] == null)
+        {
+            extras[row] = new Extras();
+        }
+        return extras[row];
+    }
+
+    /**
+     * @return rarely set properties of a shape or <code>null</code> if there
+     * are none or no such shape
+     */
+    private Extras extras(int ROIIndex, int shapeIndex, ShapeType type)
+    {
+        int row = row(ROIIndex, shapeIndex, type);
+        return row < 0 ? null : extras[row];
+    }
+
+    private static String[] setRef(String[] refs, int index, String ref)
+    {
+        if (index < 0)
+        {
+            throw new IllegalArgumentException(
+                    "Negative annotation reference index: " + index);
+        }
+        if (refs == null || index >= refs.length)
+        {
+            refs = refs == null
+                    ? new String[index + 1] : Arrays.copyOf(refs, index + 1);
+        }
+        refs[index] = ref;
+        return refs;
+    }
+
+    private static String getRef(String[] refs, int index)
+    {
+        return refs == null || index < 0 || index >= refs.length
+                ? null : refs[index];
+    }
+
+    private void setShapeAnnotationRef(String annotation, int ROIIndex,
+            int shapeIndex, int annotationRefIndex, ShapeType type)
+    {
+        int row = addRow(ROIIndex, shapeIndex, type);
+        if (row >= 0)
+        {
+            Extras extra = extras(row);
+            extra.annotationRefs = setRef(
+                    extra.annotationRefs, annotationRefIndex, annotation);
+        }
+    }
+
+    private String getShapeAnnotationRef(int ROIIndex, int shapeIndex,
+            int annotationRefIndex, ShapeType type)
+    {
+        Extras extra = extras(ROIIndex, shapeIndex, type);
+        return extra == null
+                ? null : getRef(extra.annotationRefs, annotationRefIndex);
+    }
+
+    private void setShapeID(String id, int ROIIndex, int shapeIndex,
+            ShapeType type)
+    {
+        int row = addRow(ROIIndex, shapeIndex, type);
+        if (row >= 0)
+        {
+            shapeIds[row] = id;
+        }
+    }
+
+    private String getShapeID(int ROIIndex, int shapeIndex, ShapeType type)
+    {
+        int row = row(ROIIndex, shapeIndex, type);
+        return row < 0 ? null : shapeIds[row];
+    }
+
+    private void setShapeText(String text, int ROIIndex, int shapeIndex,
+            ShapeType type)
+    {
+        int row = addRow(ROIIndex, shapeIndex, type);
+        if (row >= 0)
+        {
+            texts[row] = text;
+        }
+    }
+
+    private String getShapeText(int ROIIndex, int shapeIndex, ShapeType type)
+    {
+        int row = row(ROIIndex, shapeIndex, type);
+        return row < 0 ? null : texts[row];
+    }
+
+    private void setGeometry(int column, Double value, int ROIIndex,
+            int shapeIndex, ShapeType type)
+    {
+        int row = addRow(ROIIndex, shapeIndex, type);
+        if (row >= 0)
+        {
+            geometry[column][row] = value == null ? Double.NaN : value;
+        }
+    }
+
+    private Double getGeometry(int column, int ROIIndex, int shapeIndex,
+            ShapeType type)
+    {
+        int row = row(ROIIndex, shapeIndex, type);
+        if (row < 0 || Double.isNaN(geometry[column][row]))
+        {
+            return null;
+        }
+        return geometry[column][row];
+    }
+
+    private void setShapeTheZ(NonNegativeInteger theZ, int ROIIndex,
+            int shapeIndex, ShapeType type)
+    {
+        int row = addRow(ROIIndex, shapeIndex, type);
+        if (row >= 0)
+        {
+            zIndexes[row] = toIndex(theZ);
+        }
+    }
+
+    private NonNegativeInteger getShapeTheZ(int ROIIndex, int shapeIndex,
+            ShapeType type)
+    {
+        int row = row(ROIIndex, shapeIndex, type);
+        return row < 0 ? null : fromIndex(zIndexes[row]);
+    }
+
+    private void setShapeTheT(NonNegativeInteger theT, int ROIIndex,
+            int shapeIndex, ShapeType type)
+    {
+        int row = addRow(ROIIndex, shapeIndex, type);
+        if (row >= 0)
+        {
+            tIndexes[row] = toIndex(theT);
+        }
+    }
+
+    private NonNegativeInteger getShapeTheT(int ROIIndex, int shapeIndex,
+            ShapeType type)
+    {
+        int row = row(ROIIndex, shapeIndex, type);
+        return row < 0 ? null : fromIndex(tIndexes[row]);
+    }
+
+    private void setShapeTheC(NonNegativeInteger theC, int ROIIndex,
+            int shapeIndex, ShapeType type)
+    {
+        int row = addRow(ROIIndex, shapeIndex, type);
+        if (row >= 0)
+        {
+            cIndexes[row] = toIndex(theC);
+        }
+    }
+
+    private NonNegativeInteger getShapeTheC(int ROIIndex, int shapeIndex,
+            ShapeType type)
+    {
+        int row = row(ROIIndex, shapeIndex, type);
+        return row < 0 ? null : fromIndex(cIndexes[row]);
+    }
+
+    private static int toIndex(NonNegativeInteger index)
+    {
+        return index == null ? -1 : index.getValue();
+    }
+
+    private static NonNegativeInteger fromIndex(int index)
+    {
+        return index < 0 ? null : new NonNegativeInteger(index);
+    }
+
+    private void setShapeFillColor(Color fillColor, int ROIIndex,
+            int shapeIndex, ShapeType type)
+    {
+        int row = addRow(ROIIndex, shapeIndex, type);
+        if (row >= 0)
+        {
+            fillColors[row] = fillColor == null ? 0 : fillColor.getValue();
+            setFlag(row, HAS_FILL_COLOR, fillColor != null);
+        }
+    }
+
+    private Color getShapeFillColor(int ROIIndex, int shapeIndex,
+            ShapeType type)
+    {
+        int row = row(ROIIndex, shapeIndex, type);
+        return row < 0 || (flags[row] & HAS_FILL_COLOR) == 0
+                ? null : new Color(fillColors[row]);
+    }
+
+    private void setShapeStrokeColor(Color strokeColor, int ROIIndex,
+            int shapeIndex, ShapeType type)
+    {
+        int row = addRow(ROIIndex, shapeIndex, type);
+        if (row >= 0)
+        {
+            strokeColors[row] =
+                    strokeColor == null ? 0 : strokeColor.getValue();
+            setFlag(row, HAS_STROKE_COLOR, strokeColor != null);
+        }
+    }
+
+    private Color getShapeStrokeColor(int ROIIndex, int shapeIndex,
+            ShapeType type)
+    {
+        int row = row(ROIIndex, shapeIndex, type);
+        return row < 0 || (flags[row] & HAS_STROKE_COLOR) == 0
+                ? null : new Color(strokeColors[row]);
+    }
+
+    private void setShapeLocked(Boolean locked, int ROIIndex,
+            int shapeIndex, ShapeType type)
+    {
+        int row = addRow(ROIIndex, shapeIndex, type);
+        if (row >= 0)
+        {
+            setFlag(row, HAS_LOCKED, locked != null);
+            setFlag(row, LOCKED, locked != null && locked);
+        }
+    }
+
+    private Boolean getShapeLocked(int ROIIndex, int shapeIndex,
+            ShapeType type)
+    {
+        int row = row(ROIIndex, shapeIndex, type);
+        if (row < 0 || (flags[row] & HAS_LOCKED) == 0)
+        {
+            return null;
+        }
+        return (flags[row] & LOCKED) != 0;
+    }
+
+    private void setFlag(int row, byte flag, boolean set)
+    {
+        flags[row] = (byte) (set ? flags[row] | flag : flags[row] & ~flag);
+    }
+
+    private void setShapeStrokeWidth(Length strokeWidth, int ROIIndex,
+            int shapeIndex, ShapeType type)
+    {
+        int row = addRow(ROIIndex, shapeIndex, type);
+        if (row < 0)
+        {
+            return;
+        }
+        if (strokeWidth == null || strokeWidth.value() == null)
+        {
+            strokeWidths[row] = Double.NaN;
+            strokeWidthUnits[row] = 0;
+            return;
+        }
+        int unit = units.indexOf(strokeWidth.unit());
+        if (unit < 0)
+        {
+            if (units.size() == Byte.MAX_VALUE)
+            {
+                throw new IllegalStateException("Too many length units");
+            }
+            unit = units.size();
+            units.add(strokeWidth.unit());
+        }
+        strokeWidths[row] = strokeWidth.value().doubleValue();
+        strokeWidthUnits[row] = (byte) (unit + 1);
+    }
+
+    private Length getShapeStrokeWidth(int ROIIndex, int shapeIndex,
+            ShapeType type)
+    {
+        int row = row(ROIIndex, shapeIndex, type);
+        if (row < 0 || strokeWidthUnits[row] == 0)
+        {
+            return null;
+        }
+        return new Length(
+                strokeWidths[row], units.get(strokeWidthUnits[row] - 1));
+    }
+
+    private void setShapePoints(String value, int ROIIndex, int shapeIndex,
+            ShapeType type)
+    {
+        int row = addRow(ROIIndex, shapeIndex, type);
+        if (row < 0)
+        {
+            return;
+        }
+        vertexCounts[row] = -1;
+        setFlag(row, POINTS_TO_STRING, false);
+        if (extras[row] != null)
+        {
+            extras[row].points = null;
+        }
+        if (value == null)
+        {
+            return;
+        }
+        int count;
+        try
+        {
+            count = points.parse(value);
+        }
+        catch (NumberFormatException e)
+        {
+            extras(row).points = value;
+            return;
+        }
+        vertexOffsets[row] = vertices.append(points.getCoordinates(), count);
+        vertexCounts[row] = count;
+        // Keep the form the points were written in, or else the string
+        if (!value.contentEquals(formatVertices(row, count,
+                CoordinateFormat.SHORTEST)))
+        {
+            if (value.contentEquals(formatVertices(row, count,
+                    CoordinateFormat.TO_STRING)))
+            {
+                setFlag(row, POINTS_TO_STRING, true);
+            }
+            else
+            {
+                extras(row).points = value;
+            }
+        }
+        buffer.setLength(0);
+    }
+
+    private StringBuilder formatVertices(
+            int row, int count, CoordinateFormat format)
+    {
+        buffer.setLength(0);
+        return vertices.format(buffer, vertexOffsets[row], count, format);
+    }
+
+    private String getShapePoints(int ROIIndex, int shapeIndex,
+            ShapeType type)
+    {
+        int row = row(ROIIndex, shapeIndex, type);
+        if (row < 0)
+        {
+            return null;
+        }
+        if (extras[row] != null && extras[row].points != null)
+        {
+            return extras[row].points;
+        }
+        int count = vertexCounts[row];
+        if (count < 0)
+        {
+            return null;
+        }
+        return vertices.format(new StringBuilder(16 * count),
+                vertexOffsets[row], count, vertexFormat(row)).toString();
+    }
+
+    private void setShapeFillRule(FillRule fillRule, int ROIIndex,
+            int shapeIndex, ShapeType type)
+    {
+        int row = addRow(ROIIndex, shapeIndex, type);
+        if (row >= 0 && (fillRule != null || extras[row] != null))
+        {
+            extras(row).fillRule = fillRule;
+        }
+    }
+
+    private FillRule getShapeFillRule(int ROIIndex, int shapeIndex,
+            ShapeType type)
+    {
+        Extras extra = extras(ROIIndex, shapeIndex, type);
+        return extra == null ? null : extra.fillRule;
+    }
+
+    private void setShapeFontFamily(FontFamily fontFamily, int ROIIndex,
+            int shapeIndex, ShapeType type)
+    {
+        int row = addRow(ROIIndex, shapeIndex, type);
+        if (row >= 0 && (fontFamily != null || extras[row] != null))
+        {
+            extras(row).fontFamily = fontFamily;
+        }
+    }
+
+    private FontFamily getShapeFontFamily(int ROIIndex, int shapeIndex,
+            ShapeType type)
+    {
+        Extras extra = extras(ROIIndex, shapeIndex, type);
+        return extra == null ? null : extra.fontFamily;
+    }
+
+    private void setShapeFontSize(Length fontSize, int ROIIndex,
+            int shapeIndex, ShapeType type)
+    {
+        int row = addRow(ROIIndex, shapeIndex, type);
+        if (row >= 0 && (fontSize != null || extras[row] != null))
+        {
+            extras(row).fontSize = fontSize;
+        }
+    }
+
+    private Length getShapeFontSize(int ROIIndex, int shapeIndex,
+            ShapeType type)
+    {
+        Extras extra = extras(ROIIndex, shapeIndex, type);
+        return extra == null ? null : extra.fontSize;
+    }
+
+    private void setShapeFontStyle(FontStyle fontStyle, int ROIIndex,
+            int shapeIndex, ShapeType type)
+    {
+        int row = addRow(ROIIndex, shapeIndex, type);
+        if (row >= 0 && (fontStyle != null || extras[row] != null))
+        {
+            extras(row).fontStyle = fontStyle;
+        }
+    }
+
+    private FontStyle getShapeFontStyle(int ROIIndex, int shapeIndex,
+            ShapeType type)
+    {
+        Extras extra = extras(ROIIndex, shapeIndex, type);
+        return extra == null ? null : extra.fontStyle;
+    }
+
+    private void setShapeStrokeDashArray(String strokeDashArray,
+            int ROIIndex, int shapeIndex, ShapeType type)
+    {
+        int row = addRow(ROIIndex, shapeIndex, type);
+        if (row >= 0 && (strokeDashArray != null || extras[row] != null))
+        {
+            extras(row).strokeDashArray = strokeDashArray;
+        }
+    }
+
+    private String getShapeStrokeDashArray(int ROIIndex, int shapeIndex,
+            ShapeType type)
+    {
+        Extras extra = extras(ROIIndex, shapeIndex, type);
+        return extra == null ? null : extra.strokeDashArray;
+    }
+
+    private void setShapeTransform(AffineTransform transform, int ROIIndex,
+            int shapeIndex, ShapeType type)
+    {
+        int row = addRow(ROIIndex, shapeIndex, type);
+        if (row >= 0 && (transform != null || extras[row] != null))
+        {
+            extras(row).transform = transform;
+        }
+    }
+
+    private AffineTransform getShapeTransform(int ROIIndex, int shapeIndex,
+            ShapeType type)
+    {
+        Extras extra = extras(ROIIndex, shapeIndex, type);
+        return extra == null ? null : extra.transform;
+    }
+
+    private void setShapeMarkerStart(Marker markerStart, int ROIIndex,
+            int shapeIndex, ShapeType type)
+    {
+        int row = addRow(ROIIndex, shapeIndex, type);
+        if (row >= 0 && (markerStart != null || extras[row] != null))
+        {
+            extras(row).markerStart = markerStart;
+        }
+    }
+
+    private Marker getShapeMarkerStart(int ROIIndex, int shapeIndex,
+            ShapeType type)
+    {
+        Extras extra = extras(ROIIndex, shapeIndex, type);
+        return extra == null ? null : extra.markerStart;
+    }
+
+    private void setShapeMarkerEnd(Marker markerEnd, int ROIIndex,
+            int shapeIndex, ShapeType type)
+    {
+        int row = addRow(ROIIndex, shapeIndex, type);
+        if (row >= 0 && (markerEnd != null || extras[row] != null))
+        {
+            extras(row).markerEnd = markerEnd;
+        }
+    }
+
+    private Marker getShapeMarkerEnd(int ROIIndex, int shapeIndex,
+            ShapeType type)
+    {
+        Extras extra = extras(ROIIndex, shapeIndex, type);
+        return extra == null ? null : extra.markerEnd;
+    }
+
+    @Override
+    public void setEllipseAnnotationRef(String annotation, int ROIIndex,
+            int shapeIndex, int annotationRefIndex)
+    {
+        setShapeAnnotationRef(
+                annotation, ROIIndex, shapeIndex, annotationRefIndex,
+                ShapeType.ELLIPSE);
+    }
+
+    @Override
+    public void setEllipseFillColor(Color fillColor, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFillColor(fillColor, ROIIndex, shapeIndex, ShapeType.ELLIPSE);
+    }
+
+    @Override
+    public void setEllipseFillRule(FillRule fillRule, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFillRule(fillRule, ROIIndex, shapeIndex, ShapeType.ELLIPSE);
+    }
+
+    @Override
+    public void setEllipseFontFamily(FontFamily fontFamily, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFontFamily(fontFamily, ROIIndex, shapeIndex, ShapeType.ELLIPSE);
+    }
+
+    @Override
+    public void setEllipseFontSize(Length fontSize, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFontSize(fontSize, ROIIndex, shapeIndex, ShapeType.ELLIPSE);
+    }
+
+    @Override
+    public void setEllipseFontStyle(FontStyle fontStyle, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFontStyle(fontStyle, ROIIndex, shapeIndex, ShapeType.ELLIPSE);
+    }
+
+    @Override
+    public void setEllipseID(String id, int ROIIndex, int shapeIndex)
+    {
+        setShapeID(id, ROIIndex, shapeIndex, ShapeType.ELLIPSE);
+    }
+
+    @Override
+    public void setEllipseLocked(Boolean locked, int ROIIndex, int shapeIndex)
+    {
+        setShapeLocked(locked, ROIIndex, shapeIndex, ShapeType.ELLIPSE);
+    }
+
+    @Override
+    public void setEllipseRadiusX(Double radiusX, int ROIIndex, int shapeIndex)
+    {
+        setGeometry(A, radiusX, ROIIndex, shapeIndex, ShapeType.ELLIPSE);
+    }
+
+    @Override
+    public void setEllipseRadiusY(Double radiusY, int ROIIndex, int shapeIndex)
+    {
+        setGeometry(B, radiusY, ROIIndex, shapeIndex, ShapeType.ELLIPSE);
+    }
+
+    @Override
+    public void setEllipseStrokeColor(Color strokeColor, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeStrokeColor(
+                strokeColor, ROIIndex, shapeIndex, ShapeType.ELLIPSE);
+    }
+
+    @Override
+    public void setEllipseStrokeDashArray(String strokeDashArray, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeStrokeDashArray(
+                strokeDashArray, ROIIndex, shapeIndex, ShapeType.ELLIPSE);
+    }
+
+    @Override
+    public void setEllipseStrokeWidth(Length strokeWidth, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeStrokeWidth(
+                strokeWidth, ROIIndex, shapeIndex, ShapeType.ELLIPSE);
+    }
+
+    @Override
+    public void setEllipseText(String text, int ROIIndex, int shapeIndex)
+    {
+        setShapeText(text, ROIIndex, shapeIndex, ShapeType.ELLIPSE);
+    }
+
+    @Override
+    public void setEllipseTheC(NonNegativeInteger theC, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTheC(theC, ROIIndex, shapeIndex, ShapeType.ELLIPSE);
+    }
+
+    @Override
+    public void setEllipseTheT(NonNegativeInteger theT, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTheT(theT, ROIIndex, shapeIndex, ShapeType.ELLIPSE);
+    }
+
+    @Override
+    public void setEllipseTheZ(NonNegativeInteger theZ, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTheZ(theZ, ROIIndex, shapeIndex, ShapeType.ELLIPSE);
+    }
+
+    @Override
+    public void setEllipseTransform(AffineTransform transform, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTransform(transform, ROIIndex, shapeIndex, ShapeType.ELLIPSE);
+    }
+
+    @Override
+    public void setEllipseX(Double x, int ROIIndex, int shapeIndex)
+    {
+        setGeometry(X, x, ROIIndex, shapeIndex, ShapeType.ELLIPSE);
+    }
+
+    @Override
+    public void setEllipseY(Double y, int ROIIndex, int shapeIndex)
+    {
+        setGeometry(Y, y, ROIIndex, shapeIndex, ShapeType.ELLIPSE);
+    }
+
+    @Override
+    public String getEllipseAnnotationRef(int ROIIndex, int shapeIndex,
+            int annotationRefIndex)
+    {
+        return getShapeAnnotationRef(
+                ROIIndex, shapeIndex, annotationRefIndex, ShapeType.ELLIPSE);
+    }
+
+    @Override
+    public Color getEllipseFillColor(int ROIIndex, int shapeIndex)
+    {
+        return getShapeFillColor(ROIIndex, shapeIndex, ShapeType.ELLIPSE);
+    }
+
+    @Override
+    public FillRule getEllipseFillRule(int ROIIndex, int shapeIndex)
+    {
+        return getShapeFillRule(ROIIndex, shapeIndex, ShapeType.ELLIPSE);
+    }
+
+    @Override
+    public FontFamily getEllipseFontFamily(int ROIIndex, int shapeIndex)
+    {
+        return getShapeFontFamily(ROIIndex, shapeIndex, ShapeType.ELLIPSE);
+    }
+
+    @Override
+    public Length getEllipseFontSize(int ROIIndex, int shapeIndex)
+    {
+        return getShapeFontSize(ROIIndex, shapeIndex, ShapeType.ELLIPSE);
+    }
+
+    @Override
+    public FontStyle getEllipseFontStyle(int ROIIndex, int shapeIndex)
+    {
+        return getShapeFontStyle(ROIIndex, shapeIndex, ShapeType.ELLIPSE);
+    }
+
+    @Override
+    public String getEllipseID(int ROIIndex, int shapeIndex)
+    {
+        return getShapeID(ROIIndex, shapeIndex, ShapeType.ELLIPSE);
+    }
+
+    @Override
+    public Boolean getEllipseLocked(int ROIIndex, int shapeIndex)
+    {
+        return getShapeLocked(ROIIndex, shapeIndex, ShapeType.ELLIPSE);
+    }
+
+    @Override
+    public Double getEllipseRadiusX(int ROIIndex, int shapeIndex)
+    {
+        return getGeometry(A, ROIIndex, shapeIndex, ShapeType.ELLIPSE);
+    }
+
+    @Override
+    public Double getEllipseRadiusY(int ROIIndex, int shapeIndex)
+    {
+        return getGeometry(B, ROIIndex, shapeIndex, ShapeType.ELLIPSE);
+    }
+
+    @Override
+    public Color getEllipseStrokeColor(int ROIIndex, int shapeIndex)
+    {
+        return getShapeStrokeColor(ROIIndex, shapeIndex, ShapeType.ELLIPSE);
+    }
+
+    @Override
+    public String getEllipseStrokeDashArray(int ROIIndex, int shapeIndex)
+    {
+        return getShapeStrokeDashArray(ROIIndex, shapeIndex, ShapeType.ELLIPSE);
+    }
+
+    @Override
+    public Length getEllipseStrokeWidth(int ROIIndex, int shapeIndex)
+    {
+        return getShapeStrokeWidth(ROIIndex, shapeIndex, ShapeType.ELLIPSE);
+    }
+
+    @Override
+    public String getEllipseText(int ROIIndex, int shapeIndex)
+    {
+        return getShapeText(ROIIndex, shapeIndex, ShapeType.ELLIPSE);
+    }
+
+    @Override
+    public NonNegativeInteger getEllipseTheC(int ROIIndex, int shapeIndex)
+    {
+        return getShapeTheC(ROIIndex, shapeIndex, ShapeType.ELLIPSE);
+    }
+
+    @Override
+    public NonNegativeInteger getEllipseTheT(int ROIIndex, int shapeIndex)
+    {
+        return getShapeTheT(ROIIndex, shapeIndex, ShapeType.ELLIPSE);
+    }
+
+    @Override
+    public NonNegativeInteger getEllipseTheZ(int ROIIndex, int shapeIndex)
+    {
+        return getShapeTheZ(ROIIndex, shapeIndex, ShapeType.ELLIPSE);
+    }
+
+    @Override
+    public AffineTransform getEllipseTransform(int ROIIndex, int shapeIndex)
+    {
+        return getShapeTransform(ROIIndex, shapeIndex, ShapeType.ELLIPSE);
+    }
+
+    @Override
+    public Double getEllipseX(int ROIIndex, int shapeIndex)
+    {
+        return getGeometry(X, ROIIndex, shapeIndex, ShapeType.ELLIPSE);
+    }
+
+    @Override
+    public Double getEllipseY(int ROIIndex, int shapeIndex)
+    {
+        return getGeometry(Y, ROIIndex, shapeIndex, ShapeType.ELLIPSE);
+    }
+
+    @Override
+    public void setLabelAnnotationRef(String annotation, int ROIIndex,
+            int shapeIndex, int annotationRefIndex)
+    {
+        setShapeAnnotationRef(
+                annotation, ROIIndex, shapeIndex, annotationRefIndex,
+                ShapeType.LABEL);
+    }
+
+    @Override
+    public void setLabelFillColor(Color fillColor, int ROIIndex, int shapeIndex)
+    {
+        setShapeFillColor(fillColor, ROIIndex, shapeIndex, ShapeType.LABEL);
+    }
+
+    @Override
+    public void setLabelFillRule(FillRule fillRule, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFillRule(fillRule, ROIIndex, shapeIndex, ShapeType.LABEL);
+    }
+
+    @Override
+    public void setLabelFontFamily(FontFamily fontFamily, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFontFamily(fontFamily, ROIIndex, shapeIndex, ShapeType.LABEL);
+    }
+
+    @Override
+    public void setLabelFontSize(Length fontSize, int ROIIndex, int shapeIndex)
+    {
+        setShapeFontSize(fontSize, ROIIndex, shapeIndex, ShapeType.LABEL);
+    }
+
+    @Override
+    public void setLabelFontStyle(FontStyle fontStyle, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFontStyle(fontStyle, ROIIndex, shapeIndex, ShapeType.LABEL);
+    }
+
+    @Override
+    public void setLabelID(String id, int ROIIndex, int shapeIndex)
+    {
+        setShapeID(id, ROIIndex, shapeIndex, ShapeType.LABEL);
+    }
+
+    @Override
+    public void setLabelLocked(Boolean locked, int ROIIndex, int shapeIndex)
+    {
+        setShapeLocked(locked, ROIIndex, shapeIndex, ShapeType.LABEL);
+    }
+
+    @Override
+    public void setLabelStrokeColor(Color strokeColor, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeStrokeColor(strokeColor, ROIIndex, shapeIndex, ShapeType.LABEL);
+    }
+
+    @Override
+    public void setLabelStrokeDashArray(String strokeDashArray, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeStrokeDashArray(
+                strokeDashArray, ROIIndex, shapeIndex, ShapeType.LABEL);
+    }
+
+    @Override
+    public void setLabelStrokeWidth(Length strokeWidth, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeStrokeWidth(strokeWidth, ROIIndex, shapeIndex, ShapeType.LABEL);
+    }
+
+    @Override
+    public void setLabelText(String text, int ROIIndex, int shapeIndex)
+    {
+        setShapeText(text, ROIIndex, shapeIndex, ShapeType.LABEL);
+    }
+
+    @Override
+    public void setLabelTheC(NonNegativeInteger theC, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTheC(theC, ROIIndex, shapeIndex, ShapeType.LABEL);
+    }
+
+    @Override
+    public void setLabelTheT(NonNegativeInteger theT, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTheT(theT, ROIIndex, shapeIndex, ShapeType.LABEL);
+    }
+
+    @Override
+    public void setLabelTheZ(NonNegativeInteger theZ, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTheZ(theZ, ROIIndex, shapeIndex, ShapeType.LABEL);
+    }
+
+    @Override
+    public void setLabelTransform(AffineTransform transform, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTransform(transform, ROIIndex, shapeIndex, ShapeType.LABEL);
+    }
+
+    @Override
+    public void setLabelX(Double x, int ROIIndex, int shapeIndex)
+    {
+        setGeometry(X, x, ROIIndex, shapeIndex, ShapeType.LABEL);
+    }
+
+    @Override
+    public void setLabelY(Double y, int ROIIndex, int shapeIndex)
+    {
+        setGeometry(Y, y, ROIIndex, shapeIndex, ShapeType.LABEL);
+    }
+
+    @Override
+    public String getLabelAnnotationRef(int ROIIndex, int shapeIndex,
+            int annotationRefIndex)
+    {
+        return getShapeAnnotationRef(
+                ROIIndex, shapeIndex, annotationRefIndex, ShapeType.LABEL);
+    }
+
+    @Override
+    public Color getLabelFillColor(int ROIIndex, int shapeIndex)
+    {
+        return getShapeFillColor(ROIIndex, shapeIndex, ShapeType.LABEL);
+    }
+
+    @Override
+    public FillRule getLabelFillRule(int ROIIndex, int shapeIndex)
+    {
+        return getShapeFillRule(ROIIndex, shapeIndex, ShapeType.LABEL);
+    }
+
+    @Override
+    public FontFamily getLabelFontFamily(int ROIIndex, int shapeIndex)
+    {
+        return getShapeFontFamily(ROIIndex, shapeIndex, ShapeType.LABEL);
+    }
+
+    @Override
+    public Length getLabelFontSize(int ROIIndex, int shapeIndex)
+    {
+        return getShapeFontSize(ROIIndex, shapeIndex, ShapeType.LABEL);
+    }
+
+    @Override
+    public FontStyle getLabelFontStyle(int ROIIndex, int shapeIndex)
+    {
+        return getShapeFontStyle(ROIIndex, shapeIndex, ShapeType.LABEL);
+    }
+
+    @Override
+    public String getLabelID(int ROIIndex, int shapeIndex)
+    {
+        return getShapeID(ROIIndex, shapeIndex, ShapeType.LABEL);
+    }
+
+    @Override
+    public Boolean getLabelLocked(int ROIIndex, int shapeIndex)
+    {
+        return getShapeLocked(ROIIndex, shapeIndex, ShapeType.LABEL);
+    }
+
+    @Override
+    public Color getLabelStrokeColor(int ROIIndex, int shapeIndex)
+    {
+        return getShapeStrokeColor(ROIIndex, shapeIndex, ShapeType.LABEL);
+    }
+
+    @Override
+    public String getLabelStrokeDashArray(int ROIIndex, int shapeIndex)
+    {
+        return getShapeStrokeDashArray(ROIIndex, shapeIndex, ShapeType.LABEL);
+    }
+
+    @Override
+    public Length getLabelStrokeWidth(int ROIIndex, int shapeIndex)
+    {
+        return getShapeStrokeWidth(ROIIndex, shapeIndex, ShapeType.LABEL);
+    }
+
+    @Override
+    public String getLabelText(int ROIIndex, int shapeIndex)
+    {
+        return getShapeText(ROIIndex, shapeIndex, ShapeType.LABEL);
+    }
+
+    @Override
+    public NonNegativeInteger getLabelTheC(int ROIIndex, int shapeIndex)
+    {
+        return getShapeTheC(ROIIndex, shapeIndex, ShapeType.LABEL);
+    }
+
+    @Override
+    public NonNegativeInteger getLabelTheT(int ROIIndex, int shapeIndex)
+    {
+        return getShapeTheT(ROIIndex, shapeIndex, ShapeType.LABEL);
+    }
+
+    @Override
+    public NonNegativeInteger getLabelTheZ(int ROIIndex, int shapeIndex)
+    {
+        return getShapeTheZ(ROIIndex, shapeIndex, ShapeType.LABEL);
+    }
+
+    @Override
+    public AffineTransform getLabelTransform(int ROIIndex, int shapeIndex)
+    {
+        return getShapeTransform(ROIIndex, shapeIndex, ShapeType.LABEL);
+    }
+
+    @Override
+    public Double getLabelX(int ROIIndex, int shapeIndex)
+    {
+        return getGeometry(X, ROIIndex, shapeIndex, ShapeType.LABEL);
+    }
+
+    @Override
+    public Double getLabelY(int ROIIndex, int shapeIndex)
+    {
+        return getGeometry(Y, ROIIndex, shapeIndex, ShapeType.LABEL);
+    }
+
+    @Override
+    public void setLineAnnotationRef(String annotation, int ROIIndex,
+            int shapeIndex, int annotationRefIndex)
+    {
+        setShapeAnnotationRef(
+                annotation, ROIIndex, shapeIndex, annotationRefIndex,
+                ShapeType.LINE);
+    }
+
+    @Override
+    public void setLineFillColor(Color fillColor, int ROIIndex, int shapeIndex)
+    {
+        setShapeFillColor(fillColor, ROIIndex, shapeIndex, ShapeType.LINE);
+    }
+
+    @Override
+    public void setLineFillRule(FillRule fillRule, int ROIIndex, int shapeIndex)
+    {
+        setShapeFillRule(fillRule, ROIIndex, shapeIndex, ShapeType.LINE);
+    }
+
+    @Override
+    public void setLineFontFamily(FontFamily fontFamily, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFontFamily(fontFamily, ROIIndex, shapeIndex, ShapeType.LINE);
+    }
+
+    @Override
+    public void setLineFontSize(Length fontSize, int ROIIndex, int shapeIndex)
+    {
+        setShapeFontSize(fontSize, ROIIndex, shapeIndex, ShapeType.LINE);
+    }
+
+    @Override
+    public void setLineFontStyle(FontStyle fontStyle, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFontStyle(fontStyle, ROIIndex, shapeIndex, ShapeType.LINE);
+    }
+
+    @Override
+    public void setLineID(String id, int ROIIndex, int shapeIndex)
+    {
+        setShapeID(id, ROIIndex, shapeIndex, ShapeType.LINE);
+    }
+
+    @Override
+    public void setLineLocked(Boolean locked, int ROIIndex, int shapeIndex)
+    {
+        setShapeLocked(locked, ROIIndex, shapeIndex, ShapeType.LINE);
+    }
+
+    @Override
+    public void setLineMarkerEnd(Marker markerEnd, int ROIIndex, int shapeIndex)
+    {
+        setShapeMarkerEnd(markerEnd, ROIIndex, shapeIndex, ShapeType.LINE);
+    }
+
+    @Override
+    public void setLineMarkerStart(Marker markerStart, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeMarkerStart(markerStart, ROIIndex, shapeIndex, ShapeType.LINE);
+    }
+
+    @Override
+    public void setLineStrokeColor(Color strokeColor, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeStrokeColor(strokeColor, ROIIndex, shapeIndex, ShapeType.LINE);
+    }
+
+    @Override
+    public void setLineStrokeDashArray(String strokeDashArray, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeStrokeDashArray(
+                strokeDashArray, ROIIndex, shapeIndex, ShapeType.LINE);
+    }
+
+    @Override
+    public void setLineStrokeWidth(Length strokeWidth, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeStrokeWidth(strokeWidth, ROIIndex, shapeIndex, ShapeType.LINE);
+    }
+
+    @Override
+    public void setLineText(String text, int ROIIndex, int shapeIndex)
+    {
+        setShapeText(text, ROIIndex, shapeIndex, ShapeType.LINE);
+    }
+
+    @Override
+    public void setLineTheC(NonNegativeInteger theC, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTheC(theC, ROIIndex, shapeIndex, ShapeType.LINE);
+    }
+
+    @Override
+    public void setLineTheT(NonNegativeInteger theT, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTheT(theT, ROIIndex, shapeIndex, ShapeType.LINE);
+    }
+
+    @Override
+    public void setLineTheZ(NonNegativeInteger theZ, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTheZ(theZ, ROIIndex, shapeIndex, ShapeType.LINE);
+    }
+
+    @Override
+    public void setLineTransform(AffineTransform transform, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTransform(transform, ROIIndex, shapeIndex, ShapeType.LINE);
+    }
+
+    @Override
+    public void setLineX1(Double x1, int ROIIndex, int shapeIndex)
+    {
+        setGeometry(X, x1, ROIIndex, shapeIndex, ShapeType.LINE);
+    }
+
+    @Override
+    public void setLineX2(Double x2, int ROIIndex, int shapeIndex)
+    {
+        setGeometry(A, x2, ROIIndex, shapeIndex, ShapeType.LINE);
+    }
+
+    @Override
+    public void setLineY1(Double y1, int ROIIndex, int shapeIndex)
+    {
+        setGeometry(Y, y1, ROIIndex, shapeIndex, ShapeType.LINE);
+    }
+
+    @Override
+    public void setLineY2(Double y2, int ROIIndex, int shapeIndex)
+    {
+        setGeometry(B, y2, ROIIndex, shapeIndex, ShapeType.LINE);
+    }
+
+    @Override
+    public String getLineAnnotationRef(int ROIIndex, int shapeIndex,
+            int annotationRefIndex)
+    {
+        return getShapeAnnotationRef(
+                ROIIndex, shapeIndex, annotationRefIndex, ShapeType.LINE);
+    }
+
+    @Override
+    public Color getLineFillColor(int ROIIndex, int shapeIndex)
+    {
+        return getShapeFillColor(ROIIndex, shapeIndex, ShapeType.LINE);
+    }
+
+    @Override
+    public FillRule getLineFillRule(int ROIIndex, int shapeIndex)
+    {
+        return getShapeFillRule(ROIIndex, shapeIndex, ShapeType.LINE);
+    }
+
+    @Override
+    public FontFamily getLineFontFamily(int ROIIndex, int shapeIndex)
+    {
+        return getShapeFontFamily(ROIIndex, shapeIndex, ShapeType.LINE);
+    }
+
+    @Override
+    public Length getLineFontSize(int ROIIndex, int shapeIndex)
+    {
+        return getShapeFontSize(ROIIndex, shapeIndex, ShapeType.LINE);
+    }
+
+    @Override
+    public FontStyle getLineFontStyle(int ROIIndex, int shapeIndex)
+    {
+        return getShapeFontStyle(ROIIndex, shapeIndex, ShapeType.LINE);
+    }
+
+    @Override
+    public String getLineID(int ROIIndex, int shapeIndex)
+    {
+        return getShapeID(ROIIndex, shapeIndex, ShapeType.LINE);
+    }
+
+    @Override
+    public Boolean getLineLocked(int ROIIndex, int shapeIndex)
+    {
+        return getShapeLocked(ROIIndex, shapeIndex, ShapeType.LINE);
+    }
+
+    @Override
+    public Marker getLineMarkerEnd(int ROIIndex, int shapeIndex)
+    {
+        return getShapeMarkerEnd(ROIIndex, shapeIndex, ShapeType.LINE);
+    }
+
+    @Override
+    public Marker getLineMarkerStart(int ROIIndex, int shapeIndex)
+    {
+        return getShapeMarkerStart(ROIIndex, shapeIndex, ShapeType.LINE);
+    }
+
+    @Override
+    public Color getLineStrokeColor(int ROIIndex, int shapeIndex)
+    {
+        return getShapeStrokeColor(ROIIndex, shapeIndex, ShapeType.LINE);
+    }
+
+    @Override
+    public String getLineStrokeDashArray(int ROIIndex, int shapeIndex)
+    {
+        return getShapeStrokeDashArray(ROIIndex, shapeIndex, ShapeType.LINE);
+    }
+
+    @Override
+    public Length getLineStrokeWidth(int ROIIndex, int shapeIndex)
+    {
+        return getShapeStrokeWidth(ROIIndex, shapeIndex, ShapeType.LINE);
+    }
+
+    @Override
+    public String getLineText(int ROIIndex, int shapeIndex)
+    {
+        return getShapeText(ROIIndex, shapeIndex, ShapeType.LINE);
+    }
+
+    @Override
+    public NonNegativeInteger getLineTheC(int ROIIndex, int shapeIndex)
+    {
+        return getShapeTheC(ROIIndex, shapeIndex, ShapeType.LINE);
+    }
+
+    @Override
+    public NonNegativeInteger getLineTheT(int ROIIndex, int shapeIndex)
+    {
+        return getShapeTheT(ROIIndex, shapeIndex, ShapeType.LINE);
+    }
+
+    @Override
+    public NonNegativeInteger getLineTheZ(int ROIIndex, int shapeIndex)
+    {
+        return getShapeTheZ(ROIIndex, shapeIndex, ShapeType.LINE);
+    }
+
+    @Override
+    public AffineTransform getLineTransform(int ROIIndex, int shapeIndex)
+    {
+        return getShapeTransform(ROIIndex, shapeIndex, ShapeType.LINE);
+    }
+
+    @Override
+    public Double getLineX1(int ROIIndex, int shapeIndex)
+    {
+        return getGeometry(X, ROIIndex, shapeIndex, ShapeType.LINE);
+    }
+
+    @Override
+    public Double getLineX2(int ROIIndex, int shapeIndex)
+    {
+        return getGeometry(A, ROIIndex, shapeIndex, ShapeType.LINE);
+    }
+
+    @Override
+    public Double getLineY1(int ROIIndex, int shapeIndex)
+    {
+        return getGeometry(Y, ROIIndex, shapeIndex, ShapeType.LINE);
+    }
+
+    @Override
+    public Double getLineY2(int ROIIndex, int shapeIndex)
+    {
+        return getGeometry(B, ROIIndex, shapeIndex, ShapeType.LINE);
+    }
+
+    @Override
+    public void setMaskAnnotationRef(String annotation, int ROIIndex,
+            int shapeIndex, int annotationRefIndex)
+    {
+        setShapeAnnotationRef(
+                annotation, ROIIndex, shapeIndex, annotationRefIndex,
+                ShapeType.MASK);
+    }
+
+    @Override
+    public void setMaskFillColor(Color fillColor, int ROIIndex, int shapeIndex)
+    {
+        setShapeFillColor(fillColor, ROIIndex, shapeIndex, ShapeType.MASK);
+    }
+
+    @Override
+    public void setMaskFillRule(FillRule fillRule, int ROIIndex, int shapeIndex)
+    {
+        setShapeFillRule(fillRule, ROIIndex, shapeIndex, ShapeType.MASK);
+    }
+
+    @Override
+    public void setMaskFontFamily(FontFamily fontFamily, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFontFamily(fontFamily, ROIIndex, shapeIndex, ShapeType.MASK);
+    }
+
+    @Override
+    public void setMaskFontSize(Length fontSize, int ROIIndex, int shapeIndex)
+    {
+        setShapeFontSize(fontSize, ROIIndex, shapeIndex, ShapeType.MASK);
+    }
+
+    @Override
+    public void setMaskFontStyle(FontStyle fontStyle, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFontStyle(fontStyle, ROIIndex, shapeIndex, ShapeType.MASK);
+    }
+
+    @Override
+    public void setMaskHeight(Double height, int ROIIndex, int shapeIndex)
+    {
+        setGeometry(B, height, ROIIndex, shapeIndex, ShapeType.MASK);
+    }
+
+    @Override
+    public void setMaskID(String id, int ROIIndex, int shapeIndex)
+    {
+        setShapeID(id, ROIIndex, shapeIndex, ShapeType.MASK);
+    }
+
+    @Override
+    public void setMaskLocked(Boolean locked, int ROIIndex, int shapeIndex)
+    {
+        setShapeLocked(locked, ROIIndex, shapeIndex, ShapeType.MASK);
+    }
+
+    @Override
+    public void setMaskStrokeColor(Color strokeColor, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeStrokeColor(strokeColor, ROIIndex, shapeIndex, ShapeType.MASK);
+    }
+
+    @Override
+    public void setMaskStrokeDashArray(String strokeDashArray, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeStrokeDashArray(
+                strokeDashArray, ROIIndex, shapeIndex, ShapeType.MASK);
+    }
+
+    @Override
+    public void setMaskStrokeWidth(Length strokeWidth, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeStrokeWidth(strokeWidth, ROIIndex, shapeIndex, ShapeType.MASK);
+    }
+
+    @Override
+    public void setMaskText(String text, int ROIIndex, int shapeIndex)
+    {
+        setShapeText(text, ROIIndex, shapeIndex, ShapeType.MASK);
+    }
+
+    @Override
+    public void setMaskTheC(NonNegativeInteger theC, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTheC(theC, ROIIndex, shapeIndex, ShapeType.MASK);
+    }
+
+    @Override
+    public void setMaskTheT(NonNegativeInteger theT, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTheT(theT, ROIIndex, shapeIndex, ShapeType.MASK);
+    }
+
+    @Override
+    public void setMaskTheZ(NonNegativeInteger theZ, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTheZ(theZ, ROIIndex, shapeIndex, ShapeType.MASK);
+    }
+
+    @Override
+    public void setMaskTransform(AffineTransform transform, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTransform(transform, ROIIndex, shapeIndex, ShapeType.MASK);
+    }
+
+    @Override
+    public void setMaskWidth(Double width, int ROIIndex, int shapeIndex)
+    {
+        setGeometry(A, width, ROIIndex, shapeIndex, ShapeType.MASK);
+    }
+
+    @Override
+    public void setMaskX(Double x, int ROIIndex, int shapeIndex)
+    {
+        setGeometry(X, x, ROIIndex, shapeIndex, ShapeType.MASK);
+    }
+
+    @Override
+    public void setMaskY(Double y, int ROIIndex, int shapeIndex)
+    {
+        setGeometry(Y, y, ROIIndex, shapeIndex, ShapeType.MASK);
+    }
+
+    @Override
+    public String getMaskAnnotationRef(int ROIIndex, int shapeIndex,
+            int annotationRefIndex)
+    {
+        return getShapeAnnotationRef(
+                ROIIndex, shapeIndex, annotationRefIndex, ShapeType.MASK);
+    }
+
+    @Override
+    public Color getMaskFillColor(int ROIIndex, int shapeIndex)
+    {
+        return getShapeFillColor(ROIIndex, shapeIndex, ShapeType.MASK);
+    }
+
+    @Override
+    public FillRule getMaskFillRule(int ROIIndex, int shapeIndex)
+    {
+        return getShapeFillRule(ROIIndex, shapeIndex, ShapeType.MASK);
+    }
+
+    @Override
+    public FontFamily getMaskFontFamily(int ROIIndex, int shapeIndex)
+    {
+        return getShapeFontFamily(ROIIndex, shapeIndex, ShapeType.MASK);
+    }
+
+    @Override
+    public Length getMaskFontSize(int ROIIndex, int shapeIndex)
+    {
+        return getShapeFontSize(ROIIndex, shapeIndex, ShapeType.MASK);
+    }
+
+    @Override
+    public FontStyle getMaskFontStyle(int ROIIndex, int shapeIndex)
+    {
+        return getShapeFontStyle(ROIIndex, shapeIndex, ShapeType.MASK);
+    }
+
+    @Override
+    public Double getMaskHeight(int ROIIndex, int shapeIndex)
+    {
+        return getGeometry(B, ROIIndex, shapeIndex, ShapeType.MASK);
+    }
+
+    @Override
+    public String getMaskID(int ROIIndex, int shapeIndex)
+    {
+        return getShapeID(ROIIndex, shapeIndex, ShapeType.MASK);
+    }
+
+    @Override
+    public Boolean getMaskLocked(int ROIIndex, int shapeIndex)
+    {
+        return getShapeLocked(ROIIndex, shapeIndex, ShapeType.MASK);
+    }
+
+    @Override
+    public Color getMaskStrokeColor(int ROIIndex, int shapeIndex)
+    {
+        return getShapeStrokeColor(ROIIndex, shapeIndex, ShapeType.MASK);
+    }
+
+    @Override
+    public String getMaskStrokeDashArray(int ROIIndex, int shapeIndex)
+    {
+        return getShapeStrokeDashArray(ROIIndex, shapeIndex, ShapeType.MASK);
+    }
+
+    @Override
+    public Length getMaskStrokeWidth(int ROIIndex, int shapeIndex)
+    {
+        return getShapeStrokeWidth(ROIIndex, shapeIndex, ShapeType.MASK);
+    }
+
+    @Override
+    public String getMaskText(int ROIIndex, int shapeIndex)
+    {
+        return getShapeText(ROIIndex, shapeIndex, ShapeType.MASK);
+    }
+
+    @Override
+    public NonNegativeInteger getMaskTheC(int ROIIndex, int shapeIndex)
+    {
+        return getShapeTheC(ROIIndex, shapeIndex, ShapeType.MASK);
+    }
+
+    @Override
+    public NonNegativeInteger getMaskTheT(int ROIIndex, int shapeIndex)
+    {
+        return getShapeTheT(ROIIndex, shapeIndex, ShapeType.MASK);
+    }
+
+    @Override
+    public NonNegativeInteger getMaskTheZ(int ROIIndex, int shapeIndex)
+    {
+        return getShapeTheZ(ROIIndex, shapeIndex, ShapeType.MASK);
+    }
+
+    @Override
+    public AffineTransform getMaskTransform(int ROIIndex, int shapeIndex)
+    {
+        return getShapeTransform(ROIIndex, shapeIndex, ShapeType.MASK);
+    }
+
+    @Override
+    public Double getMaskWidth(int ROIIndex, int shapeIndex)
+    {
+        return getGeometry(A, ROIIndex, shapeIndex, ShapeType.MASK);
+    }
+
+    @Override
+    public Double getMaskX(int ROIIndex, int shapeIndex)
+    {
+        return getGeometry(X, ROIIndex, shapeIndex, ShapeType.MASK);
+    }
+
+    @Override
+    public Double getMaskY(int ROIIndex, int shapeIndex)
+    {
+        return getGeometry(Y, ROIIndex, shapeIndex, ShapeType.MASK);
+    }
+
+    @Override
+    public void setPointAnnotationRef(String annotation, int ROIIndex,
+            int shapeIndex, int annotationRefIndex)
+    {
+        setShapeAnnotationRef(
+                annotation, ROIIndex, shapeIndex, annotationRefIndex,
+                ShapeType.POINT);
+    }
+
+    @Override
+    public void setPointFillColor(Color fillColor, int ROIIndex, int shapeIndex)
+    {
+        setShapeFillColor(fillColor, ROIIndex, shapeIndex, ShapeType.POINT);
+    }
+
+    @Override
+    public void setPointFillRule(FillRule fillRule, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFillRule(fillRule, ROIIndex, shapeIndex, ShapeType.POINT);
+    }
+
+    @Override
+    public void setPointFontFamily(FontFamily fontFamily, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFontFamily(fontFamily, ROIIndex, shapeIndex, ShapeType.POINT);
+    }
+
+    @Override
+    public void setPointFontSize(Length fontSize, int ROIIndex, int shapeIndex)
+    {
+        setShapeFontSize(fontSize, ROIIndex, shapeIndex, ShapeType.POINT);
+    }
+
+    @Override
+    public void setPointFontStyle(FontStyle fontStyle, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFontStyle(fontStyle, ROIIndex, shapeIndex, ShapeType.POINT);
+    }
+
+    @Override
+    public void setPointID(String id, int ROIIndex, int shapeIndex)
+    {
+        setShapeID(id, ROIIndex, shapeIndex, ShapeType.POINT);
+    }
+
+    @Override
+    public void setPointLocked(Boolean locked, int ROIIndex, int shapeIndex)
+    {
+        setShapeLocked(locked, ROIIndex, shapeIndex, ShapeType.POINT);
+    }
+
+    @Override
+    public void setPointStrokeColor(Color strokeColor, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeStrokeColor(strokeColor, ROIIndex, shapeIndex, ShapeType.POINT);
+    }
+
+    @Override
+    public void setPointStrokeDashArray(String strokeDashArray, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeStrokeDashArray(
+                strokeDashArray, ROIIndex, shapeIndex, ShapeType.POINT);
+    }
+
+    @Override
+    public void setPointStrokeWidth(Length strokeWidth, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeStrokeWidth(strokeWidth, ROIIndex, shapeIndex, ShapeType.POINT);
+    }
+
+    @Override
+    public void setPointText(String text, int ROIIndex, int shapeIndex)
+    {
+        setShapeText(text, ROIIndex, shapeIndex, ShapeType.POINT);
+    }
+
+    @Override
+    public void setPointTheC(NonNegativeInteger theC, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTheC(theC, ROIIndex, shapeIndex, ShapeType.POINT);
+    }
+
+    @Override
+    public void setPointTheT(NonNegativeInteger theT, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTheT(theT, ROIIndex, shapeIndex, ShapeType.POINT);
+    }
+
+    @Override
+    public void setPointTheZ(NonNegativeInteger theZ, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTheZ(theZ, ROIIndex, shapeIndex, ShapeType.POINT);
+    }
+
+    @Override
+    public void setPointTransform(AffineTransform transform, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTransform(transform, ROIIndex, shapeIndex, ShapeType.POINT);
+    }
+
+    @Override
+    public void setPointX(Double x, int ROIIndex, int shapeIndex)
+    {
+        setGeometry(X, x, ROIIndex, shapeIndex, ShapeType.POINT);
+    }
+
+    @Override
+    public void setPointY(Double y, int ROIIndex, int shapeIndex)
+    {
+        setGeometry(Y, y, ROIIndex, shapeIndex, ShapeType.POINT);
+    }
+
+    @Override
+    public String getPointAnnotationRef(int ROIIndex, int shapeIndex,
+            int annotationRefIndex)
+    {
+        return getShapeAnnotationRef(
+                ROIIndex, shapeIndex, annotationRefIndex, ShapeType.POINT);
+    }
+
+    @Override
+    public Color getPointFillColor(int ROIIndex, int shapeIndex)
+    {
+        return getShapeFillColor(ROIIndex, shapeIndex, ShapeType.POINT);
+    }
+
+    @Override
+    public FillRule getPointFillRule(int ROIIndex, int shapeIndex)
+    {
+        return getShapeFillRule(ROIIndex, shapeIndex, ShapeType.POINT);
+    }
+
+    @Override
+    public FontFamily getPointFontFamily(int ROIIndex, int shapeIndex)
+    {
+        return getShapeFontFamily(ROIIndex, shapeIndex, ShapeType.POINT);
+    }
+
+    @Override
+    public Length getPointFontSize(int ROIIndex, int shapeIndex)
+    {
+        return getShapeFontSize(ROIIndex, shapeIndex, ShapeType.POINT);
+    }
+
+    @Override
+    public FontStyle getPointFontStyle(int ROIIndex, int shapeIndex)
+    {
+        return getShapeFontStyle(ROIIndex, shapeIndex, ShapeType.POINT);
+    }
+
+    @Override
+    public String getPointID(int ROIIndex, int shapeIndex)
+    {
+        return getShapeID(ROIIndex, shapeIndex, ShapeType.POINT);
+    }
+
+    @Override
+    public Boolean getPointLocked(int ROIIndex, int shapeIndex)
+    {
+        return getShapeLocked(ROIIndex, shapeIndex, ShapeType.POINT);
+    }
+
+    @Override
+    public Color getPointStrokeColor(int ROIIndex, int shapeIndex)
+    {
+        return getShapeStrokeColor(ROIIndex, shapeIndex, ShapeType.POINT);
+    }
+
+    @Override
+    public String getPointStrokeDashArray(int ROIIndex, int shapeIndex)
+    {
+        return getShapeStrokeDashArray(ROIIndex, shapeIndex, ShapeType.POINT);
+    }
+
+    @Override
+    public Length getPointStrokeWidth(int ROIIndex, int shapeIndex)
+    {
+        return getShapeStrokeWidth(ROIIndex, shapeIndex, ShapeType.POINT);
+    }
+
+    @Override
+    public String getPointText(int ROIIndex, int shapeIndex)
+    {
+        return getShapeText(ROIIndex, shapeIndex, ShapeType.POINT);
+    }
+
+    @Override
+    public NonNegativeInteger getPointTheC(int ROIIndex, int shapeIndex)
+    {
+        return getShapeTheC(ROIIndex, shapeIndex, ShapeType.POINT);
+    }
+
+    @Override
+    public NonNegativeInteger getPointTheT(int ROIIndex, int shapeIndex)
+    {
+        return getShapeTheT(ROIIndex, shapeIndex, ShapeType.POINT);
+    }
+
+    @Override
+    public NonNegativeInteger getPointTheZ(int ROIIndex, int shapeIndex)
+    {
+        return getShapeTheZ(ROIIndex, shapeIndex, ShapeType.POINT);
+    }
+
+    @Override
+    public AffineTransform getPointTransform(int ROIIndex, int shapeIndex)
+    {
+        return getShapeTransform(ROIIndex, shapeIndex, ShapeType.POINT);
+    }
+
+    @Override
+    public Double getPointX(int ROIIndex, int shapeIndex)
+    {
+        return getGeometry(X, ROIIndex, shapeIndex, ShapeType.POINT);
+    }
+
+    @Override
+    public Double getPointY(int ROIIndex, int shapeIndex)
+    {
+        return getGeometry(Y, ROIIndex, shapeIndex, ShapeType.POINT);
+    }
+
+    @Override
+    public void setPolygonAnnotationRef(String annotation, int ROIIndex,
+            int shapeIndex, int annotationRefIndex)
+    {
+        setShapeAnnotationRef(
+                annotation, ROIIndex, shapeIndex, annotationRefIndex,
+                ShapeType.POLYGON);
+    }
+
+    @Override
+    public void setPolygonFillColor(Color fillColor, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFillColor(fillColor, ROIIndex, shapeIndex, ShapeType.POLYGON);
+    }
+
+    @Override
+    public void setPolygonFillRule(FillRule fillRule, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFillRule(fillRule, ROIIndex, shapeIndex, ShapeType.POLYGON);
+    }
+
+    @Override
+    public void setPolygonFontFamily(FontFamily fontFamily, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFontFamily(fontFamily, ROIIndex, shapeIndex, ShapeType.POLYGON);
+    }
+
+    @Override
+    public void setPolygonFontSize(Length fontSize, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFontSize(fontSize, ROIIndex, shapeIndex, ShapeType.POLYGON);
+    }
+
+    @Override
+    public void setPolygonFontStyle(FontStyle fontStyle, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFontStyle(fontStyle, ROIIndex, shapeIndex, ShapeType.POLYGON);
+    }
+
+    @Override
+    public void setPolygonID(String id, int ROIIndex, int shapeIndex)
+    {
+        setShapeID(id, ROIIndex, shapeIndex, ShapeType.POLYGON);
+    }
+
+    @Override
+    public void setPolygonLocked(Boolean locked, int ROIIndex, int shapeIndex)
+    {
+        setShapeLocked(locked, ROIIndex, shapeIndex, ShapeType.POLYGON);
+    }
+
+    @Override
+    public void setPolygonPoints(String points, int ROIIndex, int shapeIndex)
+    {
+        setShapePoints(points, ROIIndex, shapeIndex, ShapeType.POLYGON);
+    }
+
+    @Override
+    public void setPolygonStrokeColor(Color strokeColor, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeStrokeColor(
+                strokeColor, ROIIndex, shapeIndex, ShapeType.POLYGON);
+    }
+
+    @Override
+    public void setPolygonStrokeDashArray(String strokeDashArray, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeStrokeDashArray(
+                strokeDashArray, ROIIndex, shapeIndex, ShapeType.POLYGON);
+    }
+
+    @Override
+    public void setPolygonStrokeWidth(Length strokeWidth, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeStrokeWidth(
+                strokeWidth, ROIIndex, shapeIndex, ShapeType.POLYGON);
+    }
+
+    @Override
+    public void setPolygonText(String text, int ROIIndex, int shapeIndex)
+    {
+        setShapeText(text, ROIIndex, shapeIndex, ShapeType.POLYGON);
+    }
+
+    @Override
+    public void setPolygonTheC(NonNegativeInteger theC, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTheC(theC, ROIIndex, shapeIndex, ShapeType.POLYGON);
+    }
+
+    @Override
+    public void setPolygonTheT(NonNegativeInteger theT, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTheT(theT, ROIIndex, shapeIndex, ShapeType.POLYGON);
+    }
+
+    @Override
+    public void setPolygonTheZ(NonNegativeInteger theZ, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTheZ(theZ, ROIIndex, shapeIndex, ShapeType.POLYGON);
+    }
+
+    @Override
+    public void setPolygonTransform(AffineTransform transform, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTransform(transform, ROIIndex, shapeIndex, ShapeType.POLYGON);
+    }
+
+    @Override
+    public String getPolygonAnnotationRef(int ROIIndex, int shapeIndex,
+            int annotationRefIndex)
+    {
+        return getShapeAnnotationRef(
+                ROIIndex, shapeIndex, annotationRefIndex, ShapeType.POLYGON);
+    }
+
+    @Override
+    public Color getPolygonFillColor(int ROIIndex, int shapeIndex)
+    {
+        return getShapeFillColor(ROIIndex, shapeIndex, ShapeType.POLYGON);
+    }
+
+    @Override
+    public FillRule getPolygonFillRule(int ROIIndex, int shapeIndex)
+    {
+        return getShapeFillRule(ROIIndex, shapeIndex, ShapeType.POLYGON);
+    }
+
+    @Override
+    public FontFamily getPolygonFontFamily(int ROIIndex, int shapeIndex)
+    {
+        return getShapeFontFamily(ROIIndex, shapeIndex, ShapeType.POLYGON);
+    }
+
+    @Override
+    public Length getPolygonFontSize(int ROIIndex, int shapeIndex)
+    {
+        return getShapeFontSize(ROIIndex, shapeIndex, ShapeType.POLYGON);
+    }
+
+    @Override
+    public FontStyle getPolygonFontStyle(int ROIIndex, int shapeIndex)
+    {
+        return getShapeFontStyle(ROIIndex, shapeIndex, ShapeType.POLYGON);
+    }
+
+    @Override
+    public String getPolygonID(int ROIIndex, int shapeIndex)
+    {
+        return getShapeID(ROIIndex, shapeIndex, ShapeType.POLYGON);
+    }
+
+    @Override
+    public Boolean getPolygonLocked(int ROIIndex, int shapeIndex)
+    {
+        return getShapeLocked(ROIIndex, shapeIndex, ShapeType.POLYGON);
+    }
+
+    @Override
+    public String getPolygonPoints(int ROIIndex, int shapeIndex)
+    {
+        return getShapePoints(ROIIndex, shapeIndex, ShapeType.POLYGON);
+    }
+
+    @Override
+    public Color getPolygonStrokeColor(int ROIIndex, int shapeIndex)
+    {
+        return getShapeStrokeColor(ROIIndex, shapeIndex, ShapeType.POLYGON);
+    }
+
+    @Override
+    public String getPolygonStrokeDashArray(int ROIIndex, int shapeIndex)
+    {
+        return getShapeStrokeDashArray(ROIIndex, shapeIndex, ShapeType.POLYGON);
+    }
+
+    @Override
+    public Length getPolygonStrokeWidth(int ROIIndex, int shapeIndex)
+    {
+        return getShapeStrokeWidth(ROIIndex, shapeIndex, ShapeType.POLYGON);
+    }
+
+    @Override
+    public String getPolygonText(int ROIIndex, int shapeIndex)
+    {
+        return getShapeText(ROIIndex, shapeIndex, ShapeType.POLYGON);
+    }
+
+    @Override
+    public NonNegativeInteger getPolygonTheC(int ROIIndex, int shapeIndex)
+    {
+        return getShapeTheC(ROIIndex, shapeIndex, ShapeType.POLYGON);
+    }
+
+    @Override
+    public NonNegativeInteger getPolygonTheT(int ROIIndex, int shapeIndex)
+    {
+        return getShapeTheT(ROIIndex, shapeIndex, ShapeType.POLYGON);
+    }
+
+    @Override
+    public NonNegativeInteger getPolygonTheZ(int ROIIndex, int shapeIndex)
+    {
+        return getShapeTheZ(ROIIndex, shapeIndex, ShapeType.POLYGON);
+    }
+
+    @Override
+    public AffineTransform getPolygonTransform(int ROIIndex, int shapeIndex)
+    {
+        return getShapeTransform(ROIIndex, shapeIndex, ShapeType.POLYGON);
+    }
+
+    @Override
+    public void setPolylineAnnotationRef(String annotation, int ROIIndex,
+            int shapeIndex, int annotationRefIndex)
+    {
+        setShapeAnnotationRef(
+                annotation, ROIIndex, shapeIndex, annotationRefIndex,
+                ShapeType.POLYLINE);
+    }
+
+    @Override
+    public void setPolylineFillColor(Color fillColor, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFillColor(fillColor, ROIIndex, shapeIndex, ShapeType.POLYLINE);
+    }
+
+    @Override
+    public void setPolylineFillRule(FillRule fillRule, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFillRule(fillRule, ROIIndex, shapeIndex, ShapeType.POLYLINE);
+    }
+
+    @Override
+    public void setPolylineFontFamily(FontFamily fontFamily, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFontFamily(
+                fontFamily, ROIIndex, shapeIndex, ShapeType.POLYLINE);
+    }
+
+    @Override
+    public void setPolylineFontSize(Length fontSize, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFontSize(fontSize, ROIIndex, shapeIndex, ShapeType.POLYLINE);
+    }
+
+    @Override
+    public void setPolylineFontStyle(FontStyle fontStyle, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFontStyle(fontStyle, ROIIndex, shapeIndex, ShapeType.POLYLINE);
+    }
+
+    @Override
+    public void setPolylineID(String id, int ROIIndex, int shapeIndex)
+    {
+        setShapeID(id, ROIIndex, shapeIndex, ShapeType.POLYLINE);
+    }
+
+    @Override
+    public void setPolylineLocked(Boolean locked, int ROIIndex, int shapeIndex)
+    {
+        setShapeLocked(locked, ROIIndex, shapeIndex, ShapeType.POLYLINE);
+    }
+
+    @Override
+    public void setPolylineMarkerEnd(Marker markerEnd, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeMarkerEnd(markerEnd, ROIIndex, shapeIndex, ShapeType.POLYLINE);
+    }
+
+    @Override
+    public void setPolylineMarkerStart(Marker markerStart, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeMarkerStart(
+                markerStart, ROIIndex, shapeIndex, ShapeType.POLYLINE);
+    }
+
+    @Override
+    public void setPolylinePoints(String points, int ROIIndex, int shapeIndex)
+    {
+        setShapePoints(points, ROIIndex, shapeIndex, ShapeType.POLYLINE);
+    }
+
+    @Override
+    public void setPolylineStrokeColor(Color strokeColor, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeStrokeColor(
+                strokeColor, ROIIndex, shapeIndex, ShapeType.POLYLINE);
+    }
+
+    @Override
+    public void setPolylineStrokeDashArray(String strokeDashArray, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeStrokeDashArray(
+                strokeDashArray, ROIIndex, shapeIndex, ShapeType.POLYLINE);
+    }
+
+    @Override
+    public void setPolylineStrokeWidth(Length strokeWidth, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeStrokeWidth(
+                strokeWidth, ROIIndex, shapeIndex, ShapeType.POLYLINE);
+    }
+
+    @Override
+    public void setPolylineText(String text, int ROIIndex, int shapeIndex)
+    {
+        setShapeText(text, ROIIndex, shapeIndex, ShapeType.POLYLINE);
+    }
+
+    @Override
+    public void setPolylineTheC(NonNegativeInteger theC, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTheC(theC, ROIIndex, shapeIndex, ShapeType.POLYLINE);
+    }
+
+    @Override
+    public void setPolylineTheT(NonNegativeInteger theT, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTheT(theT, ROIIndex, shapeIndex, ShapeType.POLYLINE);
+    }
+
+    @Override
+    public void setPolylineTheZ(NonNegativeInteger theZ, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTheZ(theZ, ROIIndex, shapeIndex, ShapeType.POLYLINE);
+    }
+
+    @Override
+    public void setPolylineTransform(AffineTransform transform, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTransform(transform, ROIIndex, shapeIndex, ShapeType.POLYLINE);
+    }
+
+    @Override
+    public String getPolylineAnnotationRef(int ROIIndex, int shapeIndex,
+            int annotationRefIndex)
+    {
+        return getShapeAnnotationRef(
+                ROIIndex, shapeIndex, annotationRefIndex, ShapeType.POLYLINE);
+    }
+
+    @Override
+    public Color getPolylineFillColor(int ROIIndex, int shapeIndex)
+    {
+        return getShapeFillColor(ROIIndex, shapeIndex, ShapeType.POLYLINE);
+    }
+
+    @Override
+    public FillRule getPolylineFillRule(int ROIIndex, int shapeIndex)
+    {
+        return getShapeFillRule(ROIIndex, shapeIndex, ShapeType.POLYLINE);
+    }
+
+    @Override
+    public FontFamily getPolylineFontFamily(int ROIIndex, int shapeIndex)
+    {
+        return getShapeFontFamily(ROIIndex, shapeIndex, ShapeType.POLYLINE);
+    }
+
+    @Override
+    public Length getPolylineFontSize(int ROIIndex, int shapeIndex)
+    {
+        return getShapeFontSize(ROIIndex, shapeIndex, ShapeType.POLYLINE);
+    }
+
+    @Override
+    public FontStyle getPolylineFontStyle(int ROIIndex, int shapeIndex)
+    {
+        return getShapeFontStyle(ROIIndex, shapeIndex, ShapeType.POLYLINE);
+    }
+
+    @Override
+    public String getPolylineID(int ROIIndex, int shapeIndex)
+    {
+        return getShapeID(ROIIndex, shapeIndex, ShapeType.POLYLINE);
+    }
+
+    @Override
+    public Boolean getPolylineLocked(int ROIIndex, int shapeIndex)
+    {
+        return getShapeLocked(ROIIndex, shapeIndex, ShapeType.POLYLINE);
+    }
+
+    @Override
+    public Marker getPolylineMarkerEnd(int ROIIndex, int shapeIndex)
+    {
+        return getShapeMarkerEnd(ROIIndex, shapeIndex, ShapeType.POLYLINE);
+    }
+
+    @Override
+    public Marker getPolylineMarkerStart(int ROIIndex, int shapeIndex)
+    {
+        return getShapeMarkerStart(ROIIndex, shapeIndex, ShapeType.POLYLINE);
+    }
+
+    @Override
+    public String getPolylinePoints(int ROIIndex, int shapeIndex)
+    {
+        return getShapePoints(ROIIndex, shapeIndex, ShapeType.POLYLINE);
+    }
+
+    @Override
+    public Color getPolylineStrokeColor(int ROIIndex, int shapeIndex)
+    {
+        return getShapeStrokeColor(ROIIndex, shapeIndex, ShapeType.POLYLINE);
+    }
+
+    @Override
+    public String getPolylineStrokeDashArray(int ROIIndex, int shapeIndex)
+    {
+        return getShapeStrokeDashArray(
+                ROIIndex, shapeIndex, ShapeType.POLYLINE);
+    }
+
+    @Override
+    public Length getPolylineStrokeWidth(int ROIIndex, int shapeIndex)
+    {
+        return getShapeStrokeWidth(ROIIndex, shapeIndex, ShapeType.POLYLINE);
+    }
+
+    @Override
+    public String getPolylineText(int ROIIndex, int shapeIndex)
+    {
+        return getShapeText(ROIIndex, shapeIndex, ShapeType.POLYLINE);
+    }
+
+    @Override
+    public NonNegativeInteger getPolylineTheC(int ROIIndex, int shapeIndex)
+    {
+        return getShapeTheC(ROIIndex, shapeIndex, ShapeType.POLYLINE);
+    }
+
+    @Override
+    public NonNegativeInteger getPolylineTheT(int ROIIndex, int shapeIndex)
+    {
+        return getShapeTheT(ROIIndex, shapeIndex, ShapeType.POLYLINE);
+    }
+
+    @Override
+    public NonNegativeInteger getPolylineTheZ(int ROIIndex, int shapeIndex)
+    {
+        return getShapeTheZ(ROIIndex, shapeIndex, ShapeType.POLYLINE);
+    }
+
+    @Override
+    public AffineTransform getPolylineTransform(int ROIIndex, int shapeIndex)
+    {
+        return getShapeTransform(ROIIndex, shapeIndex, ShapeType.POLYLINE);
+    }
+
+    @Override
+    public void setRectangleAnnotationRef(String annotation, int ROIIndex,
+            int shapeIndex, int annotationRefIndex)
+    {
+        setShapeAnnotationRef(
+                annotation, ROIIndex, shapeIndex, annotationRefIndex,
+                ShapeType.RECTANGLE);
+    }
+
+    @Override
+    public void setRectangleFillColor(Color fillColor, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFillColor(fillColor, ROIIndex, shapeIndex, ShapeType.RECTANGLE);
+    }
+
+    @Override
+    public void setRectangleFillRule(FillRule fillRule, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFillRule(fillRule, ROIIndex, shapeIndex, ShapeType.RECTANGLE);
+    }
+
+    @Override
+    public void setRectangleFontFamily(FontFamily fontFamily, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFontFamily(
+                fontFamily, ROIIndex, shapeIndex, ShapeType.RECTANGLE);
+    }
+
+    @Override
+    public void setRectangleFontSize(Length fontSize, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFontSize(fontSize, ROIIndex, shapeIndex, ShapeType.RECTANGLE);
+    }
+
+    @Override
+    public void setRectangleFontStyle(FontStyle fontStyle, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFontStyle(fontStyle, ROIIndex, shapeIndex, ShapeType.RECTANGLE);
+    }
+
+    @Override
+    public void setRectangleHeight(Double height, int ROIIndex, int shapeIndex)
+    {
+        setGeometry(B, height, ROIIndex, shapeIndex, ShapeType.RECTANGLE);
+    }
+
+    @Override
+    public void setRectangleID(String id, int ROIIndex, int shapeIndex)
+    {
+        setShapeID(id, ROIIndex, shapeIndex, ShapeType.RECTANGLE);
+    }
+
+    @Override
+    public void setRectangleLocked(Boolean locked, int ROIIndex, int shapeIndex)
+    {
+        setShapeLocked(locked, ROIIndex, shapeIndex, ShapeType.RECTANGLE);
+    }
+
+    @Override
+    public void setRectangleStrokeColor(Color strokeColor, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeStrokeColor(
+                strokeColor, ROIIndex, shapeIndex, ShapeType.RECTANGLE);
+    }
+
+    @Override
+    public void setRectangleStrokeDashArray(String strokeDashArray,
+            int ROIIndex, int shapeIndex)
+    {
+        setShapeStrokeDashArray(
+                strokeDashArray, ROIIndex, shapeIndex, ShapeType.RECTANGLE);
+    }
+
+    @Override
+    public void setRectangleStrokeWidth(Length strokeWidth, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeStrokeWidth(
+                strokeWidth, ROIIndex, shapeIndex, ShapeType.RECTANGLE);
+    }
+
+    @Override
+    public void setRectangleText(String text, int ROIIndex, int shapeIndex)
+    {
+        setShapeText(text, ROIIndex, shapeIndex, ShapeType.RECTANGLE);
+    }
+
+    @Override
+    public void setRectangleTheC(NonNegativeInteger theC, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTheC(theC, ROIIndex, shapeIndex, ShapeType.RECTANGLE);
+    }
+
+    @Override
+    public void setRectangleTheT(NonNegativeInteger theT, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTheT(theT, ROIIndex, shapeIndex, ShapeType.RECTANGLE);
+    }
+
+    @Override
+    public void setRectangleTheZ(NonNegativeInteger theZ, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTheZ(theZ, ROIIndex, shapeIndex, ShapeType.RECTANGLE);
+    }
+
+    @Override
+    public void setRectangleTransform(AffineTransform transform, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTransform(transform, ROIIndex, shapeIndex, ShapeType.RECTANGLE);
+    }
+
+    @Override
+    public void setRectangleWidth(Double width, int ROIIndex, int shapeIndex)
+    {
+        setGeometry(A, width, ROIIndex, shapeIndex, ShapeType.RECTANGLE);
+    }
+
+    @Override
+    public void setRectangleX(Double x, int ROIIndex, int shapeIndex)
+    {
+        setGeometry(X, x, ROIIndex, shapeIndex, ShapeType.RECTANGLE);
+    }
+
+    @Override
+    public void setRectangleY(Double y, int ROIIndex, int shapeIndex)
+    {
+        setGeometry(Y, y, ROIIndex, shapeIndex, ShapeType.RECTANGLE);
+    }
+
+    @Override
+    public String getRectangleAnnotationRef(int ROIIndex, int shapeIndex,
+            int annotationRefIndex)
+    {
+        return getShapeAnnotationRef(
+                ROIIndex, shapeIndex, annotationRefIndex, ShapeType.RECTANGLE);
+    }
+
+    @Override
+    public Color getRectangleFillColor(int ROIIndex, int shapeIndex)
+    {
+        return getShapeFillColor(ROIIndex, shapeIndex, ShapeType.RECTANGLE);
+    }
+
+    @Override
+    public FillRule getRectangleFillRule(int ROIIndex, int shapeIndex)
+    {
+        return getShapeFillRule(ROIIndex, shapeIndex, ShapeType.RECTANGLE);
+    }
+
+    @Override
+    public FontFamily getRectangleFontFamily(int ROIIndex, int shapeIndex)
+    {
+        return getShapeFontFamily(ROIIndex, shapeIndex, ShapeType.RECTANGLE);
+    }
+
+    @Override
+    public Length getRectangleFontSize(int ROIIndex, int shapeIndex)
+    {
+        return getShapeFontSize(ROIIndex, shapeIndex, ShapeType.RECTANGLE);
+    }
+
+    @Override
+    public FontStyle getRectangleFontStyle(int ROIIndex, int shapeIndex)
+    {
+        return getShapeFontStyle(ROIIndex, shapeIndex, ShapeType.RECTANGLE);
+    }
+
+    @Override
+    public Double getRectangleHeight(int ROIIndex, int shapeIndex)
+    {
+        return getGeometry(B, ROIIndex, shapeIndex, ShapeType.RECTANGLE);
+    }
+
+    @Override
+    public String getRectangleID(int ROIIndex, int shapeIndex)
+    {
+        return getShapeID(ROIIndex, shapeIndex, ShapeType.RECTANGLE);
+    }
+
+    @Override
+    public Boolean getRectangleLocked(int ROIIndex, int shapeIndex)
+    {
+        return getShapeLocked(ROIIndex, shapeIndex, ShapeType.RECTANGLE);
+    }
+
+    @Override
+    public Color getRectangleStrokeColor(int ROIIndex, int shapeIndex)
+    {
+        return getShapeStrokeColor(ROIIndex, shapeIndex, ShapeType.RECTANGLE);
+    }
+
+    @Override
+    public String getRectangleStrokeDashArray(int ROIIndex, int shapeIndex)
+    {
+        return getShapeStrokeDashArray(
+                ROIIndex, shapeIndex, ShapeType.RECTANGLE);
+    }
+
+    @Override
+    public Length getRectangleStrokeWidth(int ROIIndex, int shapeIndex)
+    {
+        return getShapeStrokeWidth(ROIIndex, shapeIndex, ShapeType.RECTANGLE);
+    }
+
+    @Override
+    public String getRectangleText(int ROIIndex, int shapeIndex)
+    {
+        return getShapeText(ROIIndex, shapeIndex, ShapeType.RECTANGLE);
+    }
+
+    @Override
+    public NonNegativeInteger getRectangleTheC(int ROIIndex, int shapeIndex)
+    {
+        return getShapeTheC(ROIIndex, shapeIndex, ShapeType.RECTANGLE);
+    }
+
+    @Override
+    public NonNegativeInteger getRectangleTheT(int ROIIndex, int shapeIndex)
+    {
+        return getShapeTheT(ROIIndex, shapeIndex, ShapeType.RECTANGLE);
+    }
+
+    @Override
+    public NonNegativeInteger getRectangleTheZ(int ROIIndex, int shapeIndex)
+    {
+        return getShapeTheZ(ROIIndex, shapeIndex, ShapeType.RECTANGLE);
+    }
+
+    @Override
+    public AffineTransform getRectangleTransform(int ROIIndex, int shapeIndex)
+    {
+        return getShapeTransform(ROIIndex, shapeIndex, ShapeType.RECTANGLE);
+    }
+
+    @Override
+    public Double getRectangleWidth(int ROIIndex, int shapeIndex)
+    {
+        return getGeometry(A, ROIIndex, shapeIndex, ShapeType.RECTANGLE);
+    }
+
+    @Override
+    public Double getRectangleX(int ROIIndex, int shapeIndex)
+    {
+        return getGeometry(X, ROIIndex, shapeIndex, ShapeType.RECTANGLE);
+    }
+
+    @Override
+    public Double getRectangleY(int ROIIndex, int shapeIndex)
+    {
+        return getGeometry(Y, ROIIndex, shapeIndex, ShapeType.RECTANGLE);
+    }
+
+    /** Properties of a shape which are rarely set. */
+    private static class Extras
+    {
+        FillRule fillRule;
+
+        FontFamily fontFamily;
+
+        Length fontSize;
+
+        FontStyle fontStyle;
+
+        String strokeDashArray;
+
+        Marker markerStart;
+
+        Marker markerEnd;
+
+        AffineTransform transform;
+
+        /**
+         * Points which could not be parsed or which no format reproduces,
+         * kept verbatim.
+         */
+        String points;
+
+        String[] annotationRefs;
+    }
+}
@@ -0,0 +1,617 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.glencoesoftware.roitool;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import loci.formats.meta.MetadataRetrieve;
+import loci.formats.meta.MetadataStore;
+
+/**
+ * Copies the ROIs, shapes and structured annotations of OME-XML metadata
+ * into a metadata store, as <code>MetadataConverter</code> does, but only
+ * for the properties {@link ROIMetadataStoreClient} keeps and optionally
+ * for a range of ROIs at a time.  This lets the ROI index range be split
+ * across the threads of a fork/join pool, each filling a store of its own
+ * which are then merged in ROI order.
+ * <p>
+ * The source metadata is only read, so several threads may convert from
+ * it at once provided nothing modifies it meanwhile.
+ */
+public class ROIConverter
+{
+    private static final Logger log =
+            LoggerFactory.getLogger(ROIConverter.class);
+
+    /** Smallest number of ROIs converted by one task. */
+    private static final int MIN_CHUNK_SIZE = 256;
+
+    /** Number of tasks to aim for per thread, to even out uneven ROIs. */
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private ROIConverter()
+    {
+    }
+
+    /**
+     * Copies the ROIs of the source metadata into a store, converting
+     * ranges of ROIs concurrently.  The result is the same as converting
+     * sequentially: ROIs are added to the store in index order and
+     * references to annotations are kept.  Structured annotations are not
+     * copied; callers copy them with {@link #convertAnnotations} from
+     * whichever metadata holds them, such as the document the ROIs were
+     * read from when the source is {@link ROIColumns}.
+     * @param src source metadata
+     * @param dest store to fill
+     * @param pool pool to convert on
+     */
+    public static void convert(MetadataRetrieve src,
+                               ROIMetadataStoreClient dest, ForkJoinPool pool)
+    {
+        int roiCount = src.getROICount();
+        int chunkSize = Math.max(MIN_CHUNK_SIZE,
+                roiCount / (pool.getParallelism() * CHUNKS_PER_THREAD));
+        log.debug("Converting {} ROIs in chunks of {} on {} threads",
+                  roiCount, chunkSize, pool.getParallelism());
+        ROIMetadataStoreClient rois =
+                pool.invoke(new ConvertTask(src, 0, roiCount, chunkSize));
+        dest.merge(rois);
+    }
+
+    /**
+     * Copies a range of ROIs and their shapes.
+     * @param src source metadata
+     * @param dest destination metadata store
+     * @param from index of the first ROI to copy
+     * @param to index after the last ROI to copy
+     */
+    static void convertROIs(
+            MetadataRetrieve src, MetadataStore dest, int from, int to)
+    {
+        for (int roi = from; roi < to; roi++)
+        {
+            dest.setROIID(src.getROIID(roi), roi);
+            dest.setROIName(src.getROIName(roi), roi);
+            dest.setROIDescription(src.getROIDescription(roi), roi);
+            int refCount = src.getROIAnnotationRefCount(roi);
+            for (int ref = 0; ref < refCount; ref++)
+            {
+                dest.setROIAnnotationRef(
+                        src.getROIAnnotationRef(roi, ref), roi, ref);
+            }
+            int shapeCount = src.getShapeCount(roi);
+            for (int shape = 0; shape < shapeCount; shape++)
+            {
+                convertShape(src, dest, roi, shape);
+            }
+        }
+    }
+
+    /**
+     * Copies one shape of a ROI.
+     * @param src source metadata
+     * @param dest destination metadata store
+     * @param roi index of the ROI
+     * @param shape index of the shape within the ROI
+     */
+    private static void convertShape(
+            MetadataRetrieve src, MetadataStore dest, int roi, int shape)
+    {
+        String type = src.getShapeType(roi, shape);
+        if ("Ellipse".equals(type))
+        {
+            convertEllipse(src, dest, roi, shape);
+        }
+        else if ("Label".equals(type))
+        {
+            convertLabel(src, dest, roi, shape);
+        }
+        else if ("Line".equals(type))
+        {
+            convertLine(src, dest, roi, shape);
+        }
+        else if ("Mask".equals(type))
+        {
+            convertMask(src, dest, roi, shape);
+        }
+        else if ("Point".equals(type))
+        {
+            convertPoint(src, dest, roi, shape);
+        }
+        else if ("Polygon".equals(type))
+        {
+            convertPolygon(src, dest, roi, shape);
+        }
+        else if ("Polyline".equals(type))
+        {
+            convertPolyline(src, dest, roi, shape);
+        }
+        else if ("Rectangle".equals(type))
+        {
+            convertRectangle(src, dest, roi, shape);
+        }
+        else
+        {
+            log.warn("Ignoring shape {} of ROI {} of unknown type {}",
+                     shape, roi, type);
+        }
+    }
+
+    private static void convertEllipse(
+            MetadataRetrieve src, MetadataStore dest, int roi, int shape)
+    {
+        int refCount = src.getShapeAnnotationRefCount(roi, shape);
+        for (int ref = 0; ref < refCount; ref++)
+        {
+            dest.setEllipseAnnotationRef(
+                    src.getEllipseAnnotationRef(roi, shape, ref),
+                    roi, shape, ref);
+        }
+        dest.setEllipseFillColor(
+                src.getEllipseFillColor(roi, shape), roi, shape);
+        dest.setEllipseFillRule(src.getEllipseFillRule(roi, shape), roi, shape);
+        dest.setEllipseFontFamily(
+                src.getEllipseFontFamily(roi, shape), roi, shape);
+        dest.setEllipseFontSize(src.getEllipseFontSize(roi, shape), roi, shape);
+        dest.setEllipseFontStyle(
+                src.getEllipseFontStyle(roi, shape), roi, shape);
+        dest.setEllipseID(src.getEllipseID(roi, shape), roi, shape);
+        dest.setEllipseLocked(src.getEllipseLocked(roi, shape), roi, shape);
+        dest.setEllipseRadiusX(src.getEllipseRadiusX(roi, shape), roi, shape);
+        dest.setEllipseRadiusY(src.getEllipseRadiusY(roi, shape), roi, shape);
+        dest.setEllipseStrokeColor(
+                src.getEllipseStrokeColor(roi, shape), roi, shape);
+        dest.setEllipseStrokeDashArray(
+                src.getEllipseStrokeDashArray(roi, shape), roi, shape);
+        dest.setEllipseStrokeWidth(
+                src.getEllipseStrokeWidth(roi, shape), roi, shape);
+        dest.setEllipseText(src.getEllipseText(roi, shape), roi, shape);
+        dest.setEllipseTheC(src.getEllipseTheC(roi, shape), roi, shape);
+        dest.setEllipseTheT(src.getEllipseTheT(roi, shape), roi, shape);
+        dest.setEllipseTheZ(src.getEllipseTheZ(roi, shape), roi, shape);
+        dest.setEllipseTransform(
+                src.getEllipseTransform(roi, shape), roi, shape);
+        dest.setEllipseX(src.getEllipseX(roi, shape), roi, shape);
+        dest.setEllipseY(src.getEllipseY(roi, shape), roi, shape);
+    }
+
+    private static void convertLabel(
+            MetadataRetrieve src, MetadataStore dest, int roi, int shape)
+    {
+        int refCount = src.getShapeAnnotationRefCount(roi, shape);
+        for (int ref = 0; ref < refCount; ref++)
+        {
+            dest.setLabelAnnotationRef(
+                    src.getLabelAnnotationRef(roi, shape, ref),
+                    roi, shape, ref);
+        }
+        dest.setLabelFillColor(src.getLabelFillColor(roi, shape), roi, shape);
+        dest.setLabelFillRule(src.getLabelFillRule(roi, shape), roi, shape);
+        dest.setLabelFontFamily(src.getLabelFontFamily(roi, shape), roi, shape);
+        dest.setLabelFontSize(src.getLabelFontSize(roi, shape), roi, shape);
+        dest.setLabelFontStyle(src.getLabelFontStyle(roi, shape), roi, shape);
+        dest.setLabelID(src.getLabelID(roi, shape), roi, shape);
+        dest.setLabelLocked(src.getLabelLocked(roi, shape), roi, shape);
+        dest.setLabelStrokeColor(
+                src.getLabelStrokeColor(roi, shape), roi, shape);
+        dest.setLabelStrokeDashArray(
+                src.getLabelStrokeDashArray(roi, shape), roi, shape);
+        dest.setLabelStrokeWidth(
+                src.getLabelStrokeWidth(roi, shape), roi, shape);
+        dest.setLabelText(src.getLabelText(roi, shape), roi, shape);
+        dest.setLabelTheC(src.getLabelTheC(roi, shape), roi, shape);
+        dest.setLabelTheT(src.getLabelTheT(roi, shape), roi, shape);
+        dest.setLabelTheZ(src.getLabelTheZ(roi, shape), roi, shape);
+        dest.setLabelTransform(src.getLabelTransform(roi, shape), roi, shape);
+        dest.setLabelX(src.getLabelX(roi, shape), roi, shape);
+        dest.setLabelY(src.getLabelY(roi, shape), roi, shape);
+    }
+
+    private static void convertLine(
+            MetadataRetrieve src, MetadataStore dest, int roi, int shape)
+    {
+        int refCount = src.getShapeAnnotationRefCount(roi, shape);
+        for (int ref = 0; ref < refCount; ref++)
+        {
+            dest.setLineAnnotationRef(
+                    src.getLineAnnotationRef(roi, shape, ref),
+                    roi, shape, ref);
+        }
+        dest.setLineFillColor(src.getLineFillColor(roi, shape), roi, shape);
+        dest.setLineFillRule(src.getLineFillRule(roi, shape), roi, shape);
+        dest.setLineFontFamily(src.getLineFontFamily(roi, shape), roi, shape);
+        dest.setLineFontSize(src.getLineFontSize(roi, shape), roi, shape);
+        dest.setLineFontStyle(src.getLineFontStyle(roi, shape), roi, shape);
+        dest.setLineID(src.getLineID(roi, shape), roi, shape);
+        dest.setLineLocked(src.getLineLocked(roi, shape), roi, shape);
+        dest.setLineMarkerEnd(src.getLineMarkerEnd(roi, shape), roi, shape);
+        dest.setLineMarkerStart(src.getLineMarkerStart(roi, shape), roi, shape);
+        dest.setLineStrokeColor(src.getLineStrokeColor(roi, shape), roi, shape);
+        dest.setLineStrokeDashArray(
+                src.getLineStrokeDashArray(roi, shape), roi, shape);
+        dest.setLineStrokeWidth(src.getLineStrokeWidth(roi, shape), roi, shape);
+        dest.setLineText(src.getLineText(roi, shape), roi, shape);
+        dest.setLineTheC(src.getLineTheC(roi, shape), roi, shape);
+        dest.setLineTheT(src.getLineTheT(roi, shape), roi, shape);
+        dest.setLineTheZ(src.getLineTheZ(roi, shape), roi, shape);
+        dest.setLineTransform(src.getLineTransform(roi, shape), roi, shape);
+        dest.setLineX1(src.getLineX1(roi, shape), roi, shape);
+        dest.setLineX2(src.getLineX2(roi, shape), roi, shape);
+        dest.setLineY1(src.getLineY1(roi, shape), roi, shape);
+        dest.setLineY2(src.getLineY2(roi, shape), roi, shape);
+    }
+
+    private static void convertMask(
+            MetadataRetrieve src, MetadataStore dest, int roi, int shape)
+    {
+        int refCount = src.getShapeAnnotationRefCount(roi, shape);
+        for (int ref = 0; ref < refCount; ref++)
+        {
+            dest.setMaskAnnotationRef(
+                    src.getMaskAnnotationRef(roi, shape, ref),
+                    roi, shape, ref);
+        }
+        dest.setMaskFillColor(src.getMaskFillColor(roi, shape), roi, shape);
+        dest.setMaskFillRule(src.getMaskFillRule(roi, shape), roi, shape);
+        dest.setMaskFontFamily(src.getMaskFontFamily(roi, shape), roi, shape);
+        dest.setMaskFontSize(src.getMaskFontSize(roi, shape), roi, shape);
+        dest.setMaskFontStyle(src.getMaskFontStyle(roi, shape), roi, shape);
+        dest.setMaskHeight(src.getMaskHeight(roi, shape), roi, shape);
+        dest.setMaskID(src.getMaskID(roi, shape), roi, shape);
+        dest.setMaskLocked(src.getMaskLocked(roi, shape), roi, shape);
+        dest.setMaskStrokeColor(src.getMaskStrokeColor(roi, shape), roi, shape);
+        dest.setMaskStrokeDashArray(
+                src.getMaskStrokeDashArray(roi, shape), roi, shape);
+        dest.setMaskStrokeWidth(src.getMaskStrokeWidth(roi, shape), roi, shape);
+        dest.setMaskText(src.getMaskText(roi, shape), roi, shape);
+        dest.setMaskTheC(src.getMaskTheC(roi, shape), roi, shape);
+        dest.setMaskTheT(src.getMaskTheT(roi, shape), roi, shape);
+        dest.setMaskTheZ(src.getMaskTheZ(roi, shape), roi, shape);
+        dest.setMaskTransform(src.getMaskTransform(roi, shape), roi, shape);
+        dest.setMaskWidth(src.getMaskWidth(roi, shape), roi, shape);
+        dest.setMaskX(src.getMaskX(roi, shape), roi, shape);
+        dest.setMaskY(src.getMaskY(roi, shape), roi, shape);
+    }
+
+    private static void convertPoint(
+            MetadataRetrieve src, MetadataStore dest, int roi, int shape)
+    {
+        int refCount = src.getShapeAnnotationRefCount(roi, shape);
+        for (int ref = 0; ref < refCount; ref++)
+        {
+            dest.setPointAnnotationRef(
+                    src.getPointAnnotationRef(roi, shape, ref),
+                    roi, shape, ref);
+        }
+        dest.setPointFillColor(src.getPointFillColor(roi, shape), roi, shape);
+        dest.setPointFillRule(src.getPointFillRule(roi, shape), roi, shape);
+        dest.setPointFontFamily(src.getPointFontFamily(roi, shape), roi, shape);
+        dest.setPointFontSize(src.getPointFontSize(roi, shape), roi, shape);
+        dest.setPointFontStyle(src.getPointFontStyle(roi, shape), roi, shape);
+        dest.setPointID(src.getPointID(roi, shape), roi, shape);
+        dest.setPointLocked(src.getPointLocked(roi, shape), roi, shape);
+        dest.setPointStrokeColor(
+                src.getPointStrokeColor(roi, shape), roi, shape);
+        dest.setPointStrokeDashArray(
+                src.getPointStrokeDashArray(roi, shape), roi, shape);
+        dest.setPointStrokeWidth(
+                src.getPointStrokeWidth(roi, shape), roi, shape);
+        dest.setPointText(src.getPointText(roi, shape), roi, shape);
+        dest.setPointTheC(src.getPointTheC(roi, shape), roi, shape);
+        dest.setPointTheT(src.getPointTheT(roi, shape), roi, shape);
+        dest.setPointTheZ(src.getPointTheZ(roi, shape), roi, shape);
+        dest.setPointTransform(src.getPointTransform(roi, shape), roi, shape);
+        dest.setPointX(src.getPointX(roi, shape), roi, shape);
+        dest.setPointY(src.getPointY(roi, shape), roi, shape);
+    }
+
+    private static void convertPolygon(
+            MetadataRetrieve src, MetadataStore dest, int roi, int shape)
+    {
+        int refCount = src.getShapeAnnotationRefCount(roi, shape);
+        for (int ref = 0; ref < refCount; ref++)
+        {
+            dest.setPolygonAnnotationRef(
+                    src.getPolygonAnnotationRef(roi, shape, ref),
+                    roi, shape, ref);
+        }
+        dest.setPolygonFillColor(
+                src.getPolygonFillColor(roi, shape), roi, shape);
+        dest.setPolygonFillRule(src.getPolygonFillRule(roi, shape), roi, shape);
+        dest.setPolygonFontFamily(
+                src.getPolygonFontFamily(roi, shape), roi, shape);
+        dest.setPolygonFontSize(src.getPolygonFontSize(roi, shape), roi, shape);
+        dest.setPolygonFontStyle(
+                src.getPolygonFontStyle(roi, shape), roi, shape);
+        dest.setPolygonID(src.getPolygonID(roi, shape), roi, shape);
+        dest.setPolygonLocked(src.getPolygonLocked(roi, shape), roi, shape);
+        if (!convertVertices(src, dest, roi, shape, ShapeType.POLYGON))
+        {
+            dest.setPolygonPoints(
+                    src.getPolygonPoints(roi, shape), roi, shape);
+        }
+        dest.setPolygonStrokeColor(
+                src.getPolygonStrokeColor(roi, shape), roi, shape);
+        dest.setPolygonStrokeDashArray(
+                src.getPolygonStrokeDashArray(roi, shape), roi, shape);
+        dest.setPolygonStrokeWidth(
+                src.getPolygonStrokeWidth(roi, shape), roi, shape);
+        dest.setPolygonText(src.getPolygonText(roi, shape), roi, shape);
+        dest.setPolygonTheC(src.getPolygonTheC(roi, shape), roi, shape);
+        dest.setPolygonTheT(src.getPolygonTheT(roi, shape), roi, shape);
+        dest.setPolygonTheZ(src.getPolygonTheZ(roi, shape), roi, shape);
+        dest.setPolygonTransform(
+                src.getPolygonTransform(roi, shape), roi, shape);
+    }
+
+    private static void convertPolyline(
+            MetadataRetrieve src, MetadataStore dest, int roi, int shape)
+    {
+        int refCount = src.getShapeAnnotationRefCount(roi, shape);
+        for (int ref = 0; ref < refCount; ref++)
+        {
+            dest.setPolylineAnnotationRef(
+                    src.getPolylineAnnotationRef(roi, shape, ref),
+                    roi, shape, ref);
+        }
+        dest.setPolylineFillColor(
+                src.getPolylineFillColor(roi, shape), roi, shape);
+        dest.setPolylineFillRule(
+                src.getPolylineFillRule(roi, shape), roi, shape);
+        dest.setPolylineFontFamily(
+                src.getPolylineFontFamily(roi, shape), roi, shape);
+        dest.setPolylineFontSize(
+                src.getPolylineFontSize(roi, shape), roi, shape);
+        dest.setPolylineFontStyle(
+                src.getPolylineFontStyle(roi, shape), roi, shape);
+        dest.setPolylineID(src.getPolylineID(roi, shape), roi, shape);
+        dest.setPolylineLocked(src.getPolylineLocked(roi, shape), roi, shape);
+        dest.setPolylineMarkerEnd(
+                src.getPolylineMarkerEnd(roi, shape), roi, shape);
+        dest.setPolylineMarkerStart(
+                src.getPolylineMarkerStart(roi, shape), roi, shape);
+        if (!convertVertices(src, dest, roi, shape, ShapeType.POLYLINE))
+        {
+            dest.setPolylinePoints(
+                    src.getPolylinePoints(roi, shape), roi, shape);
+        }
+        dest.setPolylineStrokeColor(
+                src.getPolylineStrokeColor(roi, shape), roi, shape);
+        dest.setPolylineStrokeDashArray(
+                src.getPolylineStrokeDashArray(roi, shape), roi, shape);
+        dest.setPolylineStrokeWidth(
+                src.getPolylineStrokeWidth(roi, shape), roi, shape);
+        dest.setPolylineText(src.getPolylineText(roi, shape), roi, shape);
+        dest.setPolylineTheC(src.getPolylineTheC(roi, shape), roi, shape);
+        dest.setPolylineTheT(src.getPolylineTheT(roi, shape), roi, shape);
+        dest.setPolylineTheZ(src.getPolylineTheZ(roi, shape), roi, shape);
+        dest.setPolylineTransform(
+                src.getPolylineTransform(roi, shape), roi, shape);
+    }
+
+    /**
+     * Hands the vertices of a polygon or polyline held in columns straight
+     * to an OMERO store, which formats them only as the shape is saved,
+     * rather than through a points string.
+     * @param src source metadata
+     * @param dest destination metadata store
+     * @param roi index of the ROI
+     * @param shape index of the shape within the ROI
+     * @param type type of the shape
+     * @return whether the vertices were handed over; if not the points
+     * must be copied as a string
+     */
+    private static boolean convertVertices(MetadataRetrieve src,
+            MetadataStore dest, int roi, int shape, ShapeType type)
+    {
+        if (!(src instanceof ROIColumns)
+                || !(dest instanceof ROIMetadataStoreClient))
+        {
+            return false;
+        }
+        ROIColumns columns = (ROIColumns) src;
+        int count = columns.getVertexCount(roi, shape);
+        CoordinateFormat format = columns.getVertexFormat(roi, shape);
+        if (count < 0 || format == null)
+        {
+            return false;
+        }
+        ((ROIMetadataStoreClient) dest).setShapeVertices(type,
+                columns.getVertexStore(), columns.getVertexOffset(roi, shape),
+                count, format, roi, shape);
+        return true;
+    }
+
+    private static void convertRectangle(
+            MetadataRetrieve src, MetadataStore dest, int roi, int shape)
+    {
+        int refCount = src.getShapeAnnotationRefCount(roi, shape);
+        for (int ref = 0; ref < refCount; ref++)
+        {
+            dest.setRectangleAnnotationRef(
+                    src.getRectangleAnnotationRef(roi, shape, ref),
+                    roi, shape, ref);
+        }
+        dest.setRectangleFillColor(
+                src.getRectangleFillColor(roi, shape), roi, shape);
+        dest.setRectangleFillRule(
+                src.getRectangleFillRule(roi, shape), roi, shape);
+        dest.setRectangleFontFamily(
+                src.getRectangleFontFamily(roi, shape), roi, shape);
+        dest.setRectangleFontSize(
+                src.getRectangleFontSize(roi, shape), roi, shape);
+        dest.setRectangleFontStyle(
+                src.getRectangleFontStyle(roi, shape), roi, shape);
+        dest.setRectangleHeight(src.getRectangleHeight(roi, shape), roi, shape);
+        dest.setRectangleID(src.getRectangleID(roi, shape), roi, shape);
+        dest.setRectangleLocked(src.getRectangleLocked(roi, shape), roi, shape);
+        dest.setRectangleStrokeColor(
+                src.getRectangleStrokeColor(roi, shape), roi, shape);
+        dest.setRectangleStrokeDashArray(
+                src.getRectangleStrokeDashArray(roi, shape), roi, shape);
+        dest.setRectangleStrokeWidth(
+                src.getRectangleStrokeWidth(roi, shape), roi, shape);
+        dest.setRectangleText(src.getRectangleText(roi, shape), roi, shape);
+        dest.setRectangleTheC(src.getRectangleTheC(roi, shape), roi, shape);
+        dest.setRectangleTheT(src.getRectangleTheT(roi, shape), roi, shape);
+        dest.setRectangleTheZ(src.getRectangleTheZ(roi, shape), roi, shape);
+        dest.setRectangleTransform(
+                src.getRectangleTransform(roi, shape), roi, shape);
+        dest.setRectangleWidth(src.getRectangleWidth(roi, shape), roi, shape);
+        dest.setRectangleX(src.getRectangleX(roi, shape), roi, shape);
+        dest.setRectangleY(src.getRectangleY(roi, shape), roi, shape);
+    }
+
+    /**
+     * Copies the structured annotations which ROIs may reference.
+     * @param src source metadata
+     * @param dest destination metadata store
+     */
+    static void convertAnnotations(MetadataRetrieve src, MetadataStore dest)
+    {
+        for (int i = 0; i < src.getBooleanAnnotationCount(); i++)
+        {
+            dest.setBooleanAnnotationID(src.getBooleanAnnotationID(i), i);
+            dest.setBooleanAnnotationNamespace(
+                    src.getBooleanAnnotationNamespace(i), i);
+            dest.setBooleanAnnotationDescription(
+                    src.getBooleanAnnotationDescription(i), i);
+            dest.setBooleanAnnotationValue(src.getBooleanAnnotationValue(i), i);
+        }
+        for (int i = 0; i < src.getCommentAnnotationCount(); i++)
+        {
+            dest.setCommentAnnotationID(src.getCommentAnnotationID(i), i);
+            dest.setCommentAnnotationNamespace(
+                    src.getCommentAnnotationNamespace(i), i);
+            dest.setCommentAnnotationDescription(
+                    src.getCommentAnnotationDescription(i), i);
+            dest.setCommentAnnotationValue(src.getCommentAnnotationValue(i), i);
+        }
+        for (int i = 0; i < src.getDoubleAnnotationCount(); i++)
+        {
+            dest.setDoubleAnnotationID(src.getDoubleAnnotationID(i), i);
+            dest.setDoubleAnnotationNamespace(
+                    src.getDoubleAnnotationNamespace(i), i);
+            dest.setDoubleAnnotationDescription(
+                    src.getDoubleAnnotationDescription(i), i);
+            dest.setDoubleAnnotationValue(src.getDoubleAnnotationValue(i), i);
+        }
+        for (int i = 0; i < src.getLongAnnotationCount(); i++)
+        {
+            dest.setLongAnnotationID(src.getLongAnnotationID(i), i);
+            dest.setLongAnnotationNamespace(
+                    src.getLongAnnotationNamespace(i), i);
+            dest.setLongAnnotationDescription(
+                    src.getLongAnnotationDescription(i), i);
+            dest.setLongAnnotationValue(src.getLongAnnotationValue(i), i);
+        }
+        for (int i = 0; i < src.getMapAnnotationCount(); i++)
+        {
+            dest.setMapAnnotationID(src.getMapAnnotationID(i), i);
+            dest.setMapAnnotationNamespace(src.getMapAnnotationNamespace(i), i);
+            dest.setMapAnnotationDescription(
+                    src.getMapAnnotationDescription(i), i);
+            dest.setMapAnnotationValue(src.getMapAnnotationValue(i), i);
+        }
+        for (int i = 0; i < src.getTagAnnotationCount(); i++)
+        {
+            dest.setTagAnnotationID(src.getTagAnnotationID(i), i);
+            dest.setTagAnnotationNamespace(src.getTagAnnotationNamespace(i), i);
+            dest.setTagAnnotationDescription(
+                    src.getTagAnnotationDescription(i), i);
+            dest.setTagAnnotationValue(src.getTagAnnotationValue(i), i);
+        }
+        for (int i = 0; i < src.getTermAnnotationCount(); i++)
+        {
+            dest.setTermAnnotationID(src.getTermAnnotationID(i), i);
+            dest.setTermAnnotationNamespace(
+                    src.getTermAnnotationNamespace(i), i);
+            dest.setTermAnnotationDescription(
+                    src.getTermAnnotationDescription(i), i);
+            dest.setTermAnnotationValue(src.getTermAnnotationValue(i), i);
+        }
+        for (int i = 0; i < src.getTimestampAnnotationCount(); i++)
+        {
+            dest.setTimestampAnnotationID(src.getTimestampAnnotationID(i), i);
+            dest.setTimestampAnnotationNamespace(
+                    src.getTimestampAnnotationNamespace(i), i);
+            dest.setTimestampAnnotationDescription(
+                    src.getTimestampAnnotationDescription(i), i);
+            dest.setTimestampAnnotationValue(
+                    src.getTimestampAnnotationValue(i), i);
+        }
+        for (int i = 0; i < src.getXMLAnnotationCount(); i++)
+        {
+            dest.setXMLAnnotationID(src.getXMLAnnotationID(i), i);
+            dest.setXMLAnnotationNamespace(src.getXMLAnnotationNamespace(i), i);
+            dest.setXMLAnnotationDescription(
+                    src.getXMLAnnotationDescription(i), i);
+            dest.setXMLAnnotationValue(src.getXMLAnnotationValue(i), i);
+        }
+    }
+
+    /**
+     * Converts a range of ROIs into a store of its own, splitting the range
+     * in two and merging the halves, left first, while it is larger than
+     * the chunk size.
+     */
+    private static class ConvertTask
+            extends RecursiveTask<ROIMetadataStoreClient>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final MetadataRetrieve src;
+
+        private final int from;
+
+        private final int to;
+
+        private final int chunkSize;
+
+        ConvertTask(MetadataRetrieve src, int from, int to, int chunkSize)
+        {
+            this.src = src;
+            this.from = from;
+            this.to = to;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        protected ROIMetadataStoreClient compute()
+        {
+            if (to - from <= chunkSize)
+            {
+                ROIMetadataStoreClient partial = new ROIMetadataStoreClient();
+                convertROIs(src, partial, from, to);
+                return partial;
+            }
+            int middle = (from + to) >>> 1;
+            ConvertTask right = new ConvertTask(src, middle, to, chunkSize);
+            right.fork();
+            ROIMetadataStoreClient left =
+                    new ConvertTask(src, from, middle, chunkSize).compute();
+            left.merge(right.join());
+            return left;
+        }
+    }
+}
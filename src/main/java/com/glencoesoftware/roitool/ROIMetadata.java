@@ -48,6 +48,8 @@ import omero.model.Shape;
 
 /**
  * An instance of {@link loci.formats.meta.MetadataRetrieve} that provides metadata about OMERO ROIs.
+ * Instances are not modified once constructed, so several threads may read
+ * one at once provided the LSID function is safe for concurrent use.
  * Ported from <code>org.openmicroscopy.client.downloader.metadata</code>
  * @author m.t.b.carroll@dundee.ac.uk
  * @author Josh Moore josh at glencoesoftware.com
@@ -58,9 +60,36 @@ public class ROIMetadata extends MetadataBase {
 
     private final List<Roi> roiList;
 
+    /**
+     * Shapes of each ROI, indexed by ROI index then shape index, copied
+     * once so that getters do not copy the shape list of the ROI on every
+     * call.  <code>null</code> for a ROI whose shapes are not loaded.
+     */
+    private final Shape[][] shapeTable;
+
+    /**
+     * Type of each shape in {@link #shapeTable}, resolved once so that type
+     * checks in getters do not use reflection.
+     */
+    private final ShapeType[][] shapeTypeTable;
+
     public ROIMetadata(Function<IObject, String> lsids, List<Roi> rois) {
         super(lsids);
         this.roiList = rois;
+        this.shapeTable = new Shape[rois.size()][];
+        this.shapeTypeTable = new ShapeType[rois.size()][];
+        for (int i = 0; i < shapeTable.length; i++) {
+            final Roi roi = rois.get(i);
+            if (roi.sizeOfShapes() >= 0) {
+                final Shape[] shapes = roi.copyShapes().toArray(new Shape[0]);
+                final ShapeType[] types = new ShapeType[shapes.length];
+                for (int j = 0; j < shapes.length; j++) {
+                    types[j] = ShapeType.of(shapes[j]);
+                }
+                shapeTable[i] = shapes;
+                shapeTypeTable[i] = types;
+            }
+        }
     }
 
     private static AffineTransform toTransform(omero.model.AffineTransform omeroTransform) {
@@ -79,20 +108,26 @@ public class ROIMetadata extends MetadataBase {
         return schemaTransform;
     }
 
-    private <X extends Shape> X getShape(int ROIIndex, int shapeIndex, Class<X> expectedSubclass) {
-        if (ROIIndex < 0 || shapeIndex < 0 || ROIIndex >= roiList.size()) {
+    /**
+     * Returns a shape of a ROI if it is of the expected type.
+     * @param ROIIndex index of the ROI
+     * @param shapeIndex index of the shape within the ROI
+     * @param expectedType expected shape type or <code>null</code> for any
+     * @return the shape, or <code>null</code> if there is no such shape or
+     * it is of another type
+     */
+    private Shape getShape(int ROIIndex, int shapeIndex, ShapeType expectedType) {
+        if (ROIIndex < 0 || shapeIndex < 0 || ROIIndex >= shapeTable.length) {
             return null;
         }
-        final Roi roi = roiList.get(ROIIndex);
-        final List<Shape> shapes = roi.copyShapes();
-        if (shapeIndex >= shapes.size()) {
+        final Shape[] shapes = shapeTable[ROIIndex];
+        if (shapes == null || shapeIndex >= shapes.length) {
             return null;
         }
-        final Shape shape = shapes.get(shapeIndex);
-        if (!expectedSubclass.isAssignableFrom(shape.getClass())) {
+        if (expectedType != null && shapeTypeTable[ROIIndex][shapeIndex] != expectedType) {
             return null;
         }
-        return expectedSubclass.cast(shape);
+        return shapes[shapeIndex];
     }
 
     @Override
@@ -152,47 +187,37 @@ public class ROIMetadata extends MetadataBase {
 
     @Override
     public int getShapeCount(int ROIIndex) {
-        if (ROIIndex < 0 || ROIIndex >= roiList.size()) {
+        if (ROIIndex < 0 || ROIIndex >= shapeTable.length) {
             return -1;
         }
-        final Roi roi = roiList.get(ROIIndex);
-        return roi.sizeOfShapes();
+        final Shape[] shapes = shapeTable[ROIIndex];
+        return shapes == null ? -1 : shapes.length;
     }
 
     @Override
     public String getShapeType(int ROIIndex, int shapeIndex) {
-        final Shape shape = getShape(ROIIndex, shapeIndex, Shape.class);
-        if (shape == null) {
+        if (getShape(ROIIndex, shapeIndex, null) == null) {
             return null;
         }
-        Class<? extends Shape> shapeClass = null;
-        Class<? extends Shape> currentClass = shape.getClass();
-        while (currentClass != Shape.class) {
-            shapeClass = currentClass;
-            currentClass = currentClass.getSuperclass().asSubclass(Shape.class);
-        }
-        if (shapeClass == Rectangle.class) {
-            return "Rectangle";
-        } else {
-            return shapeClass.getSimpleName();
-        }
+        final ShapeType shapeType = shapeTypeTable[ROIIndex][shapeIndex];
+        return shapeType == null ? null : shapeType.getName();
     }
 
     @Override
     public int getShapeAnnotationRefCount(int ROIIndex, int shapeIndex) {
-        final Shape shape = getShape(ROIIndex, shapeIndex, Shape.class);
+        final Shape shape = getShape(ROIIndex, shapeIndex, null);
         if (shape == null) {
             return -1;
         }
         return shape.sizeOfAnnotationLinks();
     }
 
-    private <X extends Shape> String getShapeAnnotationRef(int ROIIndex, int shapeIndex, int annotationRefIndex,
-            Class<X> expectedSubclass) {
+    private String getShapeAnnotationRef(int ROIIndex, int shapeIndex, int annotationRefIndex,
+            ShapeType expectedType) {
         if (annotationRefIndex < 0) {
             return null;
         }
-        final X shape = getShape(ROIIndex, shapeIndex, expectedSubclass);
+        final Shape shape = getShape(ROIIndex, shapeIndex, expectedType);
         if (shape == null) {
             return null;
         }
@@ -204,8 +229,8 @@ public class ROIMetadata extends MetadataBase {
         return getLsid(annotation);
     }
 
-    private <X extends Shape> Color getShapeFillColor(int ROIIndex, int shapeIndex, Class<X> expectedSubclass) {
-        final X shape = getShape(ROIIndex, shapeIndex, expectedSubclass);
+    private Color getShapeFillColor(int ROIIndex, int shapeIndex, ShapeType expectedType) {
+        final Shape shape = getShape(ROIIndex, shapeIndex, expectedType);
         if (shape == null) {
             return null;
         }
@@ -216,8 +241,8 @@ public class ROIMetadata extends MetadataBase {
         return new Color(color);
     }
 
-    private <X extends Shape> FillRule getShapeFillRule(int ROIIndex, int shapeIndex, Class<X> expectedSubclass) {
-        final X shape = getShape(ROIIndex, shapeIndex, expectedSubclass);
+    private FillRule getShapeFillRule(int ROIIndex, int shapeIndex, ShapeType expectedType) {
+        final Shape shape = getShape(ROIIndex, shapeIndex, expectedType);
         if (shape == null) {
             return null;
         }
@@ -234,8 +259,8 @@ public class ROIMetadata extends MetadataBase {
         return fillRule;
     }
 
-    private <X extends Shape> FontFamily getShapeFontFamily(int ROIIndex, int shapeIndex, Class<X> expectedSubclass) {
-        final X shape = getShape(ROIIndex, shapeIndex, expectedSubclass);
+    private FontFamily getShapeFontFamily(int ROIIndex, int shapeIndex, ShapeType expectedType) {
+        final Shape shape = getShape(ROIIndex, shapeIndex, expectedType);
         if (shape == null) {
             return null;
         }
@@ -252,16 +277,16 @@ public class ROIMetadata extends MetadataBase {
         return fontFamily;
     }
 
-    private <X extends Shape> Length getShapeFontSize(int ROIIndex, int shapeIndex, Class<X> expectedSubclass) {
-        final X shape = getShape(ROIIndex, shapeIndex, expectedSubclass);
+    private Length getShapeFontSize(int ROIIndex, int shapeIndex, ShapeType expectedType) {
+        final Shape shape = getShape(ROIIndex, shapeIndex, expectedType);
         if (shape == null) {
             return null;
         }
         return UnitsFactory.convertLength(shape.getFontSize());
     }
 
-    private <X extends Shape> FontStyle getShapeFontStyle(int ROIIndex, int shapeIndex, Class<X> expectedSubclass) {
-        final X shape = getShape(ROIIndex, shapeIndex, expectedSubclass);
+    private FontStyle getShapeFontStyle(int ROIIndex, int shapeIndex, ShapeType expectedType) {
+        final Shape shape = getShape(ROIIndex, shapeIndex, expectedType);
         if (shape == null) {
             return null;
         }
@@ -278,24 +303,24 @@ public class ROIMetadata extends MetadataBase {
         return fontStyle;
     }
 
-    private <X extends Shape> String getShapeID(int ROIIndex, int shapeIndex, Class<X> expectedSubclass) {
-        final X shape = getShape(ROIIndex, shapeIndex, expectedSubclass);
+    private String getShapeID(int ROIIndex, int shapeIndex, ShapeType expectedType) {
+        final Shape shape = getShape(ROIIndex, shapeIndex, expectedType);
         if (shape == null) {
             return null;
         }
         return getLsid(shape);
     }
 
-    private <X extends Shape> Boolean getShapeLocked(int ROIIndex, int shapeIndex, Class<X> expectedSubclass) {
-        final X shape = getShape(ROIIndex, shapeIndex, expectedSubclass);
+    private Boolean getShapeLocked(int ROIIndex, int shapeIndex, ShapeType expectedType) {
+        final Shape shape = getShape(ROIIndex, shapeIndex, expectedType);
         if (shape == null) {
             return null;
         }
         return fromRType(shape.getLocked());
     }
 
-    private <X extends Shape> Color getShapeStrokeColor(int ROIIndex, int shapeIndex, Class<X> expectedSubclass) {
-        final X shape = getShape(ROIIndex, shapeIndex, expectedSubclass);
+    private Color getShapeStrokeColor(int ROIIndex, int shapeIndex, ShapeType expectedType) {
+        final Shape shape = getShape(ROIIndex, shapeIndex, expectedType);
         if (shape == null) {
             return null;
         }
@@ -306,48 +331,48 @@ public class ROIMetadata extends MetadataBase {
         return new Color(color);
     }
 
-    private <X extends Shape> String getShapeStrokeDashArray(int ROIIndex, int shapeIndex, Class<X> expectedSubclass) {
-        final X shape = getShape(ROIIndex, shapeIndex, expectedSubclass);
+    private String getShapeStrokeDashArray(int ROIIndex, int shapeIndex, ShapeType expectedType) {
+        final Shape shape = getShape(ROIIndex, shapeIndex, expectedType);
         if (shape == null) {
             return null;
         }
         return fromRType(shape.getStrokeDashArray());
     }
 
-    private <X extends Shape> Length getShapeStrokeWidth(int ROIIndex, int shapeIndex, Class<X> expectedSubclass) {
-        final X shape = getShape(ROIIndex, shapeIndex, expectedSubclass);
+    private Length getShapeStrokeWidth(int ROIIndex, int shapeIndex, ShapeType expectedType) {
+        final Shape shape = getShape(ROIIndex, shapeIndex, expectedType);
         if (shape == null) {
             return null;
         }
         return UnitsFactory.convertLength(shape.getStrokeWidth());
     }
 
-    private <X extends Shape> NonNegativeInteger getShapeTheC(int ROIIndex, int shapeIndex, Class<X> expectedSubclass) {
-        final X shape = getShape(ROIIndex, shapeIndex, expectedSubclass);
+    private NonNegativeInteger getShapeTheC(int ROIIndex, int shapeIndex, ShapeType expectedType) {
+        final Shape shape = getShape(ROIIndex, shapeIndex, expectedType);
         if (shape == null) {
             return null;
         }
         return toNonNegativeInteger(shape.getTheC());
     }
 
-    private <X extends Shape> NonNegativeInteger getShapeTheT(int ROIIndex, int shapeIndex, Class<X> expectedSubclass) {
-        final X shape = getShape(ROIIndex, shapeIndex, expectedSubclass);
+    private NonNegativeInteger getShapeTheT(int ROIIndex, int shapeIndex, ShapeType expectedType) {
+        final Shape shape = getShape(ROIIndex, shapeIndex, expectedType);
         if (shape == null) {
             return null;
         }
         return toNonNegativeInteger(shape.getTheT());
     }
 
-    private <X extends Shape> NonNegativeInteger getShapeTheZ(int ROIIndex, int shapeIndex, Class<X> expectedSubclass) {
-        final X shape = getShape(ROIIndex, shapeIndex, expectedSubclass);
+    private NonNegativeInteger getShapeTheZ(int ROIIndex, int shapeIndex, ShapeType expectedType) {
+        final Shape shape = getShape(ROIIndex, shapeIndex, expectedType);
         if (shape == null) {
             return null;
         }
         return toNonNegativeInteger(shape.getTheZ());
     }
 
-    private <X extends Shape> AffineTransform getShapeTransform(int ROIIndex, int shapeIndex, Class<X> expectedSubclass) {
-        final X shape = getShape(ROIIndex, shapeIndex, expectedSubclass);
+    private AffineTransform getShapeTransform(int ROIIndex, int shapeIndex, ShapeType expectedType) {
+        final Shape shape = getShape(ROIIndex, shapeIndex, expectedType);
         if (shape == null) {
             return null;
         }
@@ -356,82 +381,82 @@ public class ROIMetadata extends MetadataBase {
 
     @Override
     public String getEllipseAnnotationRef(int ROIIndex, int shapeIndex, int annotationRefIndex) {
-        return getShapeAnnotationRef(ROIIndex, shapeIndex, annotationRefIndex, Ellipse.class);
+        return getShapeAnnotationRef(ROIIndex, shapeIndex, annotationRefIndex, ShapeType.ELLIPSE);
     }
 
     @Override
     public Color getEllipseFillColor(int ROIIndex, int shapeIndex) {
-        return getShapeFillColor(ROIIndex, shapeIndex, Ellipse.class);
+        return getShapeFillColor(ROIIndex, shapeIndex, ShapeType.ELLIPSE);
     }
 
     @Override
     public FillRule getEllipseFillRule(int ROIIndex, int shapeIndex) {
-        return getShapeFillRule(ROIIndex, shapeIndex, Ellipse.class);
+        return getShapeFillRule(ROIIndex, shapeIndex, ShapeType.ELLIPSE);
     }
 
     @Override
     public FontFamily getEllipseFontFamily(int ROIIndex, int shapeIndex) {
-        return getShapeFontFamily(ROIIndex, shapeIndex, Ellipse.class);
+        return getShapeFontFamily(ROIIndex, shapeIndex, ShapeType.ELLIPSE);
     }
 
     @Override
     public Length getEllipseFontSize(int ROIIndex, int shapeIndex) {
-        return getShapeFontSize(ROIIndex, shapeIndex, Ellipse.class);
+        return getShapeFontSize(ROIIndex, shapeIndex, ShapeType.ELLIPSE);
     }
 
     @Override
     public FontStyle getEllipseFontStyle(int ROIIndex, int shapeIndex) {
-        return getShapeFontStyle(ROIIndex, shapeIndex, Ellipse.class);
+        return getShapeFontStyle(ROIIndex, shapeIndex, ShapeType.ELLIPSE);
     }
 
     @Override
     public String getEllipseID(int ROIIndex, int shapeIndex) {
-        return getShapeID(ROIIndex, shapeIndex, Ellipse.class);
+        return getShapeID(ROIIndex, shapeIndex, ShapeType.ELLIPSE);
     }
 
     @Override
     public Boolean getEllipseLocked(int ROIIndex, int shapeIndex) {
-        return getShapeLocked(ROIIndex, shapeIndex, Ellipse.class);
+        return getShapeLocked(ROIIndex, shapeIndex, ShapeType.ELLIPSE);
     }
 
     @Override
     public Color getEllipseStrokeColor(int ROIIndex, int shapeIndex) {
-        return getShapeStrokeColor(ROIIndex, shapeIndex, Ellipse.class);
+        return getShapeStrokeColor(ROIIndex, shapeIndex, ShapeType.ELLIPSE);
     }
 
     @Override
     public String getEllipseStrokeDashArray(int ROIIndex, int shapeIndex) {
-        return getShapeStrokeDashArray(ROIIndex, shapeIndex, Ellipse.class);
+        return getShapeStrokeDashArray(ROIIndex, shapeIndex, ShapeType.ELLIPSE);
     }
 
     @Override
     public Length getEllipseStrokeWidth(int ROIIndex, int shapeIndex) {
-        return getShapeStrokeWidth(ROIIndex, shapeIndex, Ellipse.class);
+        return getShapeStrokeWidth(ROIIndex, shapeIndex, ShapeType.ELLIPSE);
     }
 
     @Override
     public NonNegativeInteger getEllipseTheC(int ROIIndex, int shapeIndex) {
-        return getShapeTheC(ROIIndex, shapeIndex, Ellipse.class);
+        return getShapeTheC(ROIIndex, shapeIndex, ShapeType.ELLIPSE);
     }
 
     @Override
     public NonNegativeInteger getEllipseTheT(int ROIIndex, int shapeIndex) {
-        return getShapeTheT(ROIIndex, shapeIndex, Ellipse.class);
+        return getShapeTheT(ROIIndex, shapeIndex, ShapeType.ELLIPSE);
     }
 
     @Override
     public NonNegativeInteger getEllipseTheZ(int ROIIndex, int shapeIndex) {
-        return getShapeTheZ(ROIIndex, shapeIndex, Ellipse.class);
+        return getShapeTheZ(ROIIndex, shapeIndex, ShapeType.ELLIPSE);
     }
 
     @Override
     public AffineTransform getEllipseTransform(int ROIIndex, int shapeIndex) {
-        return getShapeTransform(ROIIndex, shapeIndex, Ellipse.class);
+        return getShapeTransform(ROIIndex, shapeIndex, ShapeType.ELLIPSE);
     }
 
     @Override
     public Double getEllipseRadiusX(int ROIIndex, int shapeIndex) {
-        final Ellipse ellipse = getShape(ROIIndex, shapeIndex, Ellipse.class);
+        final Ellipse ellipse = (Ellipse) getShape(ROIIndex, shapeIndex, ShapeType.ELLIPSE);
         if (ellipse == null) {
             return null;
         }
@@ -440,7 +465,7 @@ public class ROIMetadata extends MetadataBase {
 
     @Override
     public Double getEllipseRadiusY(int ROIIndex, int shapeIndex) {
-        final Ellipse ellipse = getShape(ROIIndex, shapeIndex, Ellipse.class);
+        final Ellipse ellipse = (Ellipse) getShape(ROIIndex, shapeIndex, ShapeType.ELLIPSE);
         if (ellipse == null) {
             return null;
         }
@@ -449,7 +474,7 @@ public class ROIMetadata extends MetadataBase {
 
     @Override
     public String getEllipseText(int ROIIndex, int shapeIndex) {
-        final Ellipse ellipse = getShape(ROIIndex, shapeIndex, Ellipse.class);
+        final Ellipse ellipse = (Ellipse) getShape(ROIIndex, shapeIndex, ShapeType.ELLIPSE);
         if (ellipse == null) {
             return null;
         }
@@ -458,7 +483,7 @@ public class ROIMetadata extends MetadataBase {
 
     @Override
     public Double getEllipseX(int ROIIndex, int shapeIndex) {
-        final Ellipse ellipse = getShape(ROIIndex, shapeIndex, Ellipse.class);
+        final Ellipse ellipse = (Ellipse) getShape(ROIIndex, shapeIndex, ShapeType.ELLIPSE);
         if (ellipse == null) {
             return null;
         }
@@ -467,7 +492,7 @@ public class ROIMetadata extends MetadataBase {
 
     @Override
     public Double getEllipseY(int ROIIndex, int shapeIndex) {
-        final Ellipse ellipse = getShape(ROIIndex, shapeIndex, Ellipse.class);
+        final Ellipse ellipse = (Ellipse) getShape(ROIIndex, shapeIndex, ShapeType.ELLIPSE);
         if (ellipse == null) {
             return null;
         }
@@ -476,82 +501,82 @@ public class ROIMetadata extends MetadataBase {
 
     @Override
     public String getLabelAnnotationRef(int ROIIndex, int shapeIndex, int annotationRefIndex) {
-        return getShapeAnnotationRef(ROIIndex, shapeIndex, annotationRefIndex, Label.class);
+        return getShapeAnnotationRef(ROIIndex, shapeIndex, annotationRefIndex, ShapeType.LABEL);
     }
 
     @Override
     public Color getLabelFillColor(int ROIIndex, int shapeIndex) {
-        return getShapeFillColor(ROIIndex, shapeIndex, Label.class);
+        return getShapeFillColor(ROIIndex, shapeIndex, ShapeType.LABEL);
     }
 
     @Override
     public FillRule getLabelFillRule(int ROIIndex, int shapeIndex) {
-        return getShapeFillRule(ROIIndex, shapeIndex, Label.class);
+        return getShapeFillRule(ROIIndex, shapeIndex, ShapeType.LABEL);
     }
 
     @Override
     public FontFamily getLabelFontFamily(int ROIIndex, int shapeIndex) {
-        return getShapeFontFamily(ROIIndex, shapeIndex, Label.class);
+        return getShapeFontFamily(ROIIndex, shapeIndex, ShapeType.LABEL);
     }
 
     @Override
     public Length getLabelFontSize(int ROIIndex, int shapeIndex) {
-        return getShapeFontSize(ROIIndex, shapeIndex, Label.class);
+        return getShapeFontSize(ROIIndex, shapeIndex, ShapeType.LABEL);
     }
 
     @Override
     public FontStyle getLabelFontStyle(int ROIIndex, int shapeIndex) {
-        return getShapeFontStyle(ROIIndex, shapeIndex, Label.class);
+        return getShapeFontStyle(ROIIndex, shapeIndex, ShapeType.LABEL);
     }
 
     @Override
     public String getLabelID(int ROIIndex, int shapeIndex) {
-        return getShapeID(ROIIndex, shapeIndex, Label.class);
+        return getShapeID(ROIIndex, shapeIndex, ShapeType.LABEL);
     }
 
     @Override
     public Boolean getLabelLocked(int ROIIndex, int shapeIndex) {
-        return getShapeLocked(ROIIndex, shapeIndex, Label.class);
+        return getShapeLocked(ROIIndex, shapeIndex, ShapeType.LABEL);
     }
 
     @Override
     public Color getLabelStrokeColor(int ROIIndex, int shapeIndex) {
-        return getShapeStrokeColor(ROIIndex, shapeIndex, Label.class);
+        return getShapeStrokeColor(ROIIndex, shapeIndex, ShapeType.LABEL);
     }
 
     @Override
     public String getLabelStrokeDashArray(int ROIIndex, int shapeIndex) {
-        return getShapeStrokeDashArray(ROIIndex, shapeIndex, Label.class);
+        return getShapeStrokeDashArray(ROIIndex, shapeIndex, ShapeType.LABEL);
     }
 
     @Override
     public Length getLabelStrokeWidth(int ROIIndex, int shapeIndex) {
-        return getShapeStrokeWidth(ROIIndex, shapeIndex, Label.class);
+        return getShapeStrokeWidth(ROIIndex, shapeIndex, ShapeType.LABEL);
     }
 
     @Override
     public NonNegativeInteger getLabelTheC(int ROIIndex, int shapeIndex) {
-        return getShapeTheC(ROIIndex, shapeIndex, Label.class);
+        return getShapeTheC(ROIIndex, shapeIndex, ShapeType.LABEL);
     }
 
     @Override
     public NonNegativeInteger getLabelTheT(int ROIIndex, int shapeIndex) {
-        return getShapeTheT(ROIIndex, shapeIndex, Label.class);
+        return getShapeTheT(ROIIndex, shapeIndex, ShapeType.LABEL);
     }
 
     @Override
     public NonNegativeInteger getLabelTheZ(int ROIIndex, int shapeIndex) {
-        return getShapeTheZ(ROIIndex, shapeIndex, Label.class);
+        return getShapeTheZ(ROIIndex, shapeIndex, ShapeType.LABEL);
     }
 
     @Override
     public AffineTransform getLabelTransform(int ROIIndex, int shapeIndex) {
-        return getShapeTransform(ROIIndex, shapeIndex, Label.class);
+        return getShapeTransform(ROIIndex, shapeIndex, ShapeType.LABEL);
     }
 
     @Override
     public String getLabelText(int ROIIndex, int shapeIndex) {
-        final Label label = getShape(ROIIndex, shapeIndex, Label.class);
+        final Label label = (Label) getShape(ROIIndex, shapeIndex, ShapeType.LABEL);
         if (label == null) {
             return null;
         }
@@ -560,7 +585,7 @@ public class ROIMetadata extends MetadataBase {
 
     @Override
     public Double getLabelX(int ROIIndex, int shapeIndex) {
-        final Label label = getShape(ROIIndex, shapeIndex, Label.class);
+        final Label label = (Label) getShape(ROIIndex, shapeIndex, ShapeType.LABEL);
         if (label == null) {
             return null;
         }
@@ -569,7 +594,7 @@ public class ROIMetadata extends MetadataBase {
 
     @Override
     public Double getLabelY(int ROIIndex, int shapeIndex) {
-        final Label label = getShape(ROIIndex, shapeIndex, Label.class);
+        final Label label = (Label) getShape(ROIIndex, shapeIndex, ShapeType.LABEL);
         if (label == null) {
             return null;
         }
@@ -578,82 +603,82 @@ public class ROIMetadata extends MetadataBase {
 
     @Override
     public String getLineAnnotationRef(int ROIIndex, int shapeIndex, int annotationRefIndex) {
-        return getShapeAnnotationRef(ROIIndex, shapeIndex, annotationRefIndex, Line.class);
+        return getShapeAnnotationRef(ROIIndex, shapeIndex, annotationRefIndex, ShapeType.LINE);
     }
 
     @Override
     public Color getLineFillColor(int ROIIndex, int shapeIndex) {
-        return getShapeFillColor(ROIIndex, shapeIndex, Line.class);
+        return getShapeFillColor(ROIIndex, shapeIndex, ShapeType.LINE);
     }
 
     @Override
     public FillRule getLineFillRule(int ROIIndex, int shapeIndex) {
-        return getShapeFillRule(ROIIndex, shapeIndex, Line.class);
+        return getShapeFillRule(ROIIndex, shapeIndex, ShapeType.LINE);
     }
 
     @Override
     public FontFamily getLineFontFamily(int ROIIndex, int shapeIndex) {
-        return getShapeFontFamily(ROIIndex, shapeIndex, Line.class);
+        return getShapeFontFamily(ROIIndex, shapeIndex, ShapeType.LINE);
     }
 
     @Override
     public Length getLineFontSize(int ROIIndex, int shapeIndex) {
-        return getShapeFontSize(ROIIndex, shapeIndex, Line.class);
+        return getShapeFontSize(ROIIndex, shapeIndex, ShapeType.LINE);
     }
 
     @Override
     public FontStyle getLineFontStyle(int ROIIndex, int shapeIndex) {
-        return getShapeFontStyle(ROIIndex, shapeIndex, Line.class);
+        return getShapeFontStyle(ROIIndex, shapeIndex, ShapeType.LINE);
     }
 
     @Override
     public String getLineID(int ROIIndex, int shapeIndex) {
-        return getShapeID(ROIIndex, shapeIndex, Line.class);
+        return getShapeID(ROIIndex, shapeIndex, ShapeType.LINE);
     }
 
     @Override
     public Boolean getLineLocked(int ROIIndex, int shapeIndex) {
-        return getShapeLocked(ROIIndex, shapeIndex, Line.class);
+        return getShapeLocked(ROIIndex, shapeIndex, ShapeType.LINE);
     }
 
     @Override
     public Color getLineStrokeColor(int ROIIndex, int shapeIndex) {
-        return getShapeStrokeColor(ROIIndex, shapeIndex, Line.class);
+        return getShapeStrokeColor(ROIIndex, shapeIndex, ShapeType.LINE);
     }
 
     @Override
     public String getLineStrokeDashArray(int ROIIndex, int shapeIndex) {
-        return getShapeStrokeDashArray(ROIIndex, shapeIndex, Line.class);
+        return getShapeStrokeDashArray(ROIIndex, shapeIndex, ShapeType.LINE);
     }
 
     @Override
     public Length getLineStrokeWidth(int ROIIndex, int shapeIndex) {
-        return getShapeStrokeWidth(ROIIndex, shapeIndex, Line.class);
+        return getShapeStrokeWidth(ROIIndex, shapeIndex, ShapeType.LINE);
     }
 
     @Override
     public NonNegativeInteger getLineTheC(int ROIIndex, int shapeIndex) {
-        return getShapeTheC(ROIIndex, shapeIndex, Line.class);
+        return getShapeTheC(ROIIndex, shapeIndex, ShapeType.LINE);
     }
 
     @Override
     public NonNegativeInteger getLineTheT(int ROIIndex, int shapeIndex) {
-        return getShapeTheT(ROIIndex, shapeIndex, Line.class);
+        return getShapeTheT(ROIIndex, shapeIndex, ShapeType.LINE);
     }
 
     @Override
     public NonNegativeInteger getLineTheZ(int ROIIndex, int shapeIndex) {
-        return getShapeTheZ(ROIIndex, shapeIndex, Line.class);
+        return getShapeTheZ(ROIIndex, shapeIndex, ShapeType.LINE);
     }
 
     @Override
     public AffineTransform getLineTransform(int ROIIndex, int shapeIndex) {
-        return getShapeTransform(ROIIndex, shapeIndex, Line.class);
+        return getShapeTransform(ROIIndex, shapeIndex, ShapeType.LINE);
     }
 
     @Override
     public Marker getLineMarkerStart(int ROIIndex, int shapeIndex) {
-        final Line line = getShape(ROIIndex, shapeIndex, Line.class);
+        final Line line = (Line) getShape(ROIIndex, shapeIndex, ShapeType.LINE);
         if (line == null) {
             return null;
         }
@@ -670,7 +695,7 @@ public class ROIMetadata extends MetadataBase {
 
     @Override
     public Marker getLineMarkerEnd(int ROIIndex, int shapeIndex) {
-        final Line line = getShape(ROIIndex, shapeIndex, Line.class);
+        final Line line = (Line) getShape(ROIIndex, shapeIndex, ShapeType.LINE);
         if (line == null) {
             return null;
         }
@@ -687,7 +712,7 @@ public class ROIMetadata extends MetadataBase {
 
     @Override
     public String getLineText(int ROIIndex, int shapeIndex) {
-        final Line line = getShape(ROIIndex, shapeIndex, Line.class);
+        final Line line = (Line) getShape(ROIIndex, shapeIndex, ShapeType.LINE);
         if (line == null) {
             return null;
         }
@@ -696,7 +721,7 @@ public class ROIMetadata extends MetadataBase {
 
     @Override
     public Double getLineX1(int ROIIndex, int shapeIndex) {
-        final Line line = getShape(ROIIndex, shapeIndex, Line.class);
+        final Line line = (Line) getShape(ROIIndex, shapeIndex, ShapeType.LINE);
         if (line == null) {
             return null;
         }
@@ -705,7 +730,7 @@ public class ROIMetadata extends MetadataBase {
 
     @Override
     public Double getLineX2(int ROIIndex, int shapeIndex) {
-        final Line line = getShape(ROIIndex, shapeIndex, Line.class);
+        final Line line = (Line) getShape(ROIIndex, shapeIndex, ShapeType.LINE);
         if (line == null) {
             return null;
         }
@@ -714,7 +739,7 @@ public class ROIMetadata extends MetadataBase {
 
     @Override
     public Double getLineY1(int ROIIndex, int shapeIndex) {
-        final Line line = getShape(ROIIndex, shapeIndex, Line.class);
+        final Line line = (Line) getShape(ROIIndex, shapeIndex, ShapeType.LINE);
         if (line == null) {
             return null;
         }
@@ -723,7 +748,7 @@ public class ROIMetadata extends MetadataBase {
 
     @Override
     public Double getLineY2(int ROIIndex, int shapeIndex) {
-        final Line line = getShape(ROIIndex, shapeIndex, Line.class);
+        final Line line = (Line) getShape(ROIIndex, shapeIndex, ShapeType.LINE);
         if (line == null) {
             return null;
         }
@@ -732,82 +757,82 @@ public class ROIMetadata extends MetadataBase {
 
     @Override
     public String getPointAnnotationRef(int ROIIndex, int shapeIndex, int annotationRefIndex) {
-        return getShapeAnnotationRef(ROIIndex, shapeIndex, annotationRefIndex, Point.class);
+        return getShapeAnnotationRef(ROIIndex, shapeIndex, annotationRefIndex, ShapeType.POINT);
     }
 
     @Override
     public Color getPointFillColor(int ROIIndex, int shapeIndex) {
-        return getShapeFillColor(ROIIndex, shapeIndex, Point.class);
+        return getShapeFillColor(ROIIndex, shapeIndex, ShapeType.POINT);
     }
 
     @Override
     public FillRule getPointFillRule(int ROIIndex, int shapeIndex) {
-        return getShapeFillRule(ROIIndex, shapeIndex, Point.class);
+        return getShapeFillRule(ROIIndex, shapeIndex, ShapeType.POINT);
     }
 
     @Override
     public FontFamily getPointFontFamily(int ROIIndex, int shapeIndex) {
-        return getShapeFontFamily(ROIIndex, shapeIndex, Point.class);
+        return getShapeFontFamily(ROIIndex, shapeIndex, ShapeType.POINT);
     }
 
     @Override
     public Length getPointFontSize(int ROIIndex, int shapeIndex) {
-        return getShapeFontSize(ROIIndex, shapeIndex, Point.class);
+        return getShapeFontSize(ROIIndex, shapeIndex, ShapeType.POINT);
     }
 
     @Override
     public FontStyle getPointFontStyle(int ROIIndex, int shapeIndex) {
-        return getShapeFontStyle(ROIIndex, shapeIndex, Point.class);
+        return getShapeFontStyle(ROIIndex, shapeIndex, ShapeType.POINT);
     }
 
     @Override
     public String getPointID(int ROIIndex, int shapeIndex) {
-        return getShapeID(ROIIndex, shapeIndex, Point.class);
+        return getShapeID(ROIIndex, shapeIndex, ShapeType.POINT);
     }
 
     @Override
     public Boolean getPointLocked(int ROIIndex, int shapeIndex) {
-        return getShapeLocked(ROIIndex, shapeIndex, Point.class);
+        return getShapeLocked(ROIIndex, shapeIndex, ShapeType.POINT);
     }
 
     @Override
     public Color getPointStrokeColor(int ROIIndex, int shapeIndex) {
-        return getShapeStrokeColor(ROIIndex, shapeIndex, Point.class);
+        return getShapeStrokeColor(ROIIndex, shapeIndex, ShapeType.POINT);
     }
 
     @Override
     public String getPointStrokeDashArray(int ROIIndex, int shapeIndex) {
-        return getShapeStrokeDashArray(ROIIndex, shapeIndex, Point.class);
+        return getShapeStrokeDashArray(ROIIndex, shapeIndex, ShapeType.POINT);
     }
 
     @Override
     public Length getPointStrokeWidth(int ROIIndex, int shapeIndex) {
-        return getShapeStrokeWidth(ROIIndex, shapeIndex, Point.class);
+        return getShapeStrokeWidth(ROIIndex, shapeIndex, ShapeType.POINT);
     }
 
     @Override
     public NonNegativeInteger getPointTheC(int ROIIndex, int shapeIndex) {
-        return getShapeTheC(ROIIndex, shapeIndex, Point.class);
+        return getShapeTheC(ROIIndex, shapeIndex, ShapeType.POINT);
     }
 
     @Override
     public NonNegativeInteger getPointTheT(int ROIIndex, int shapeIndex) {
-        return getShapeTheT(ROIIndex, shapeIndex, Point.class);
+        return getShapeTheT(ROIIndex, shapeIndex, ShapeType.POINT);
     }
 
     @Override
     public NonNegativeInteger getPointTheZ(int ROIIndex, int shapeIndex) {
-        return getShapeTheZ(ROIIndex, shapeIndex, Point.class);
+        return getShapeTheZ(ROIIndex, shapeIndex, ShapeType.POINT);
     }
 
     @Override
     public AffineTransform getPointTransform(int ROIIndex, int shapeIndex) {
-        return getShapeTransform(ROIIndex, shapeIndex, Point.class);
+        return getShapeTransform(ROIIndex, shapeIndex, ShapeType.POINT);
     }
 
     @Override
     public String getPointText(int ROIIndex, int shapeIndex) {
-        final Point point = getShape(ROIIndex, shapeIndex, Point.class);
+        final Point point = (Point) getShape(ROIIndex, shapeIndex, ShapeType.POINT);
         if (point == null) {
             return null;
         }
@@ -816,7 +841,7 @@ public class ROIMetadata extends MetadataBase {
 
     @Override
     public Double getPointX(int ROIIndex, int shapeIndex) {
-        final Point point = getShape(ROIIndex, shapeIndex, Point.class);
+        final Point point = (Point) getShape(ROIIndex, shapeIndex, ShapeType.POINT);
         if (point == null) {
             return null;
         }
@@ -825,7 +850,7 @@ public class ROIMetadata extends MetadataBase {
 
     @Override
     public Double getPointY(int ROIIndex, int shapeIndex) {
-        final Point point = getShape(ROIIndex, shapeIndex, Point.class);
+        final Point point = (Point) getShape(ROIIndex, shapeIndex, ShapeType.POINT);
         if (point == null) {
             return null;
         }
@@ -834,82 +859,82 @@ public class ROIMetadata extends MetadataBase {
 
     @Override
     public String getPolygonAnnotationRef(int ROIIndex, int shapeIndex, int annotationRefIndex) {
-        return getShapeAnnotationRef(ROIIndex, shapeIndex, annotationRefIndex, Polygon.class);
+        return getShapeAnnotationRef(ROIIndex, shapeIndex, annotationRefIndex, ShapeType.POLYGON);
     }
 
     @Override
     public Color getPolygonFillColor(int ROIIndex, int shapeIndex) {
-        return getShapeFillColor(ROIIndex, shapeIndex, Polygon.class);
+        return getShapeFillColor(ROIIndex, shapeIndex, ShapeType.POLYGON);
     }
 
     @Override
     public FillRule getPolygonFillRule(int ROIIndex, int shapeIndex) {
-        return getShapeFillRule(ROIIndex, shapeIndex, Polygon.class);
+        return getShapeFillRule(ROIIndex, shapeIndex, ShapeType.POLYGON);
     }
 
     @Override
     public FontFamily getPolygonFontFamily(int ROIIndex, int shapeIndex) {
-        return getShapeFontFamily(ROIIndex, shapeIndex, Polygon.class);
+        return getShapeFontFamily(ROIIndex, shapeIndex, ShapeType.POLYGON);
     }
 
     @Override
     public Length getPolygonFontSize(int ROIIndex, int shapeIndex) {
-        return getShapeFontSize(ROIIndex, shapeIndex, Polygon.class);
+        return getShapeFontSize(ROIIndex, shapeIndex, ShapeType.POLYGON);
     }
 
     @Override
     public FontStyle getPolygonFontStyle(int ROIIndex, int shapeIndex) {
-        return getShapeFontStyle(ROIIndex, shapeIndex, Polygon.class);
+        return getShapeFontStyle(ROIIndex, shapeIndex, ShapeType.POLYGON);
     }
 
     @Override
     public String getPolygonID(int ROIIndex, int shapeIndex) {
-        return getShapeID(ROIIndex, shapeIndex, Polygon.class);
+        return getShapeID(ROIIndex, shapeIndex, ShapeType.POLYGON);
     }
 
     @Override
     public Boolean getPolygonLocked(int ROIIndex, int shapeIndex) {
-        return getShapeLocked(ROIIndex, shapeIndex, Polygon.class);
+        return getShapeLocked(ROIIndex, shapeIndex, ShapeType.POLYGON);
     }
 
     @Override
     public Color getPolygonStrokeColor(int ROIIndex, int shapeIndex) {
-        return getShapeStrokeColor(ROIIndex, shapeIndex, Polygon.class);
+        return getShapeStrokeColor(ROIIndex, shapeIndex, ShapeType.POLYGON);
     }
 
     @Override
     public String getPolygonStrokeDashArray(int ROIIndex, int shapeIndex) {
-        return getShapeStrokeDashArray(ROIIndex, shapeIndex, Polygon.class);
+        return getShapeStrokeDashArray(ROIIndex, shapeIndex, ShapeType.POLYGON);
     }
 
     @Override
     public Length getPolygonStrokeWidth(int ROIIndex, int shapeIndex) {
-        return getShapeStrokeWidth(ROIIndex, shapeIndex, Polygon.class);
+        return getShapeStrokeWidth(ROIIndex, shapeIndex, ShapeType.POLYGON);
     }
 
     @Override
     public NonNegativeInteger getPolygonTheC(int ROIIndex, int shapeIndex) {
-        return getShapeTheC(ROIIndex, shapeIndex, Polygon.class);
+        return getShapeTheC(ROIIndex, shapeIndex, ShapeType.POLYGON);
     }
 
     @Override
     public NonNegativeInteger getPolygonTheT(int ROIIndex, int shapeIndex) {
-        return getShapeTheT(ROIIndex, shapeIndex, Polygon.class);
+        return getShapeTheT(ROIIndex, shapeIndex, ShapeType.POLYGON);
     }
 
     @Override
     public NonNegativeInteger getPolygonTheZ(int ROIIndex, int shapeIndex) {
-        return getShapeTheZ(ROIIndex, shapeIndex, Polygon.class);
+        return getShapeTheZ(ROIIndex, shapeIndex, ShapeType.POLYGON);
     }
 
     @Override
     public AffineTransform getPolygonTransform(int ROIIndex, int shapeIndex) {
-        return getShapeTransform(ROIIndex, shapeIndex, Polygon.class);
+        return getShapeTransform(ROIIndex, shapeIndex, ShapeType.POLYGON);
     }
 
     @Override
     public String getPolygonPoints(int ROIIndex, int shapeIndex) {
-        final Polygon polygon = getShape(ROIIndex, shapeIndex, Polygon.class);
+        final Polygon polygon = (Polygon) getShape(ROIIndex, shapeIndex, ShapeType.POLYGON);
         if (polygon == null) {
             return null;
         }
@@ -918,7 +943,7 @@ public class ROIMetadata extends MetadataBase {
 
     @Override
     public String getPolygonText(int ROIIndex, int shapeIndex) {
-        final Polygon polygon = getShape(ROIIndex, shapeIndex, Polygon.class);
+        final Polygon polygon = (Polygon) getShape(ROIIndex, shapeIndex, ShapeType.POLYGON);
         if (polygon == null) {
             return null;
         }
@@ -927,82 +952,82 @@ public class ROIMetadata extends MetadataBase {
 
     @Override
     public String getPolylineAnnotationRef(int ROIIndex, int shapeIndex, int annotationRefIndex) {
-        return getShapeAnnotationRef(ROIIndex, shapeIndex, annotationRefIndex, Polyline.class);
+        return getShapeAnnotationRef(ROIIndex, shapeIndex, annotationRefIndex, ShapeType.POLYLINE);
     }
 
     @Override
     public Color getPolylineFillColor(int ROIIndex, int shapeIndex) {
-        return getShapeFillColor(ROIIndex, shapeIndex, Polyline.class);
+        return getShapeFillColor(ROIIndex, shapeIndex, ShapeType.POLYLINE);
     }
 
     @Override
     public FillRule getPolylineFillRule(int ROIIndex, int shapeIndex) {
-        return getShapeFillRule(ROIIndex, shapeIndex, Polyline.class);
+        return getShapeFillRule(ROIIndex, shapeIndex, ShapeType.POLYLINE);
     }
 
     @Override
     public FontFamily getPolylineFontFamily(int ROIIndex, int shapeIndex) {
-        return getShapeFontFamily(ROIIndex, shapeIndex, Polyline.class);
+        return getShapeFontFamily(ROIIndex, shapeIndex, ShapeType.POLYLINE);
     }
 
     @Override
     public Length getPolylineFontSize(int ROIIndex, int shapeIndex) {
-        return getShapeFontSize(ROIIndex, shapeIndex, Polyline.class);
+        return getShapeFontSize(ROIIndex, shapeIndex, ShapeType.POLYLINE);
     }
 
     @Override
     public FontStyle getPolylineFontStyle(int ROIIndex, int shapeIndex) {
-        return getShapeFontStyle(ROIIndex, shapeIndex, Polyline.class);
+        return getShapeFontStyle(ROIIndex, shapeIndex, ShapeType.POLYLINE);
     }
 
     @Override
     public String getPolylineID(int ROIIndex, int shapeIndex) {
-        return getShapeID(ROIIndex, shapeIndex, Polyline.class);
+        return getShapeID(ROIIndex, shapeIndex, ShapeType.POLYLINE);
     }
 
     @Override
     public Boolean getPolylineLocked(int ROIIndex, int shapeIndex) {
-        return getShapeLocked(ROIIndex, shapeIndex, Polyline.class);
+        return getShapeLocked(ROIIndex, shapeIndex, ShapeType.POLYLINE);
     }
 
     @Override
     public Color getPolylineStrokeColor(int ROIIndex, int shapeIndex) {
-        return getShapeStrokeColor(ROIIndex, shapeIndex, Polyline.class);
+        return getShapeStrokeColor(ROIIndex, shapeIndex, ShapeType.POLYLINE);
     }
 
     @Override
     public String getPolylineStrokeDashArray(int ROIIndex, int shapeIndex) {
-        return getShapeStrokeDashArray(ROIIndex, shapeIndex, Polyline.class);
+        return getShapeStrokeDashArray(ROIIndex, shapeIndex, ShapeType.POLYLINE);
     }
 
     @Override
     public Length getPolylineStrokeWidth(int ROIIndex, int shapeIndex) {
-        return getShapeStrokeWidth(ROIIndex, shapeIndex, Polyline.class);
+        return getShapeStrokeWidth(ROIIndex, shapeIndex, ShapeType.POLYLINE);
     }
 
     @Override
     public NonNegativeInteger getPolylineTheC(int ROIIndex, int shapeIndex) {
-        return getShapeTheC(ROIIndex, shapeIndex, Polyline.class);
+        return getShapeTheC(ROIIndex, shapeIndex, ShapeType.POLYLINE);
     }
 
     @Override
     public NonNegativeInteger getPolylineTheT(int ROIIndex, int shapeIndex) {
-        return getShapeTheT(ROIIndex, shapeIndex, Polyline.class);
+        return getShapeTheT(ROIIndex, shapeIndex, ShapeType.POLYLINE);
     }
 
     @Override
     public NonNegativeInteger getPolylineTheZ(int ROIIndex, int shapeIndex) {
-        return getShapeTheZ(ROIIndex, shapeIndex, Polyline.class);
+        return getShapeTheZ(ROIIndex, shapeIndex, ShapeType.POLYLINE);
     }
 
     @Override
     public AffineTransform getPolylineTransform(int ROIIndex, int shapeIndex) {
-        return getShapeTransform(ROIIndex, shapeIndex, Polyline.class);
+        return getShapeTransform(ROIIndex, shapeIndex, ShapeType.POLYLINE);
     }
 
     @Override
     public Marker getPolylineMarkerStart(int ROIIndex, int shapeIndex) {
-        final Polyline polyline = getShape(ROIIndex, shapeIndex, Polyline.class);
+        final Polyline polyline = (Polyline) getShape(ROIIndex, shapeIndex, ShapeType.POLYLINE);
         if (polyline == null) {
             return null;
         }
@@ -1019,7 +1044,7 @@ public class ROIMetadata extends MetadataBase {
 
     @Override
     public Marker getPolylineMarkerEnd(int ROIIndex, int shapeIndex) {
-        final Polyline polyline = getShape(ROIIndex, shapeIndex, Polyline.class);
+        final Polyline polyline = (Polyline) getShape(ROIIndex, shapeIndex, ShapeType.POLYLINE);
         if (polyline == null) {
             return null;
         }
@@ -1036,7 +1061,7 @@ public class ROIMetadata extends MetadataBase {
 
     @Override
     public String getPolylinePoints(int ROIIndex, int shapeIndex) {
-        final Polyline polyline = getShape(ROIIndex, shapeIndex, Polyline.class);
+        final Polyline polyline = (Polyline) getShape(ROIIndex, shapeIndex, ShapeType.POLYLINE);
         if (polyline == null) {
             return null;
         }
@@ -1045,7 +1070,7 @@ public class ROIMetadata extends MetadataBase {
 
     @Override
     public String getPolylineText(int ROIIndex, int shapeIndex) {
-        final Polyline polyline = getShape(ROIIndex, shapeIndex, Polyline.class);
+        final Polyline polyline = (Polyline) getShape(ROIIndex, shapeIndex, ShapeType.POLYLINE);
         if (polyline == null) {
             return null;
         }
@@ -1054,82 +1079,82 @@ public class ROIMetadata extends MetadataBase {
 
     @Override
     public String getRectangleAnnotationRef(int ROIIndex, int shapeIndex, int annotationRefIndex) {
-        return getShapeAnnotationRef(ROIIndex, shapeIndex, annotationRefIndex, Rectangle.class);
+        return getShapeAnnotationRef(ROIIndex, shapeIndex, annotationRefIndex, ShapeType.RECTANGLE);
     }
 
     @Override
     public Color getRectangleFillColor(int ROIIndex, int shapeIndex) {
-        return getShapeFillColor(ROIIndex, shapeIndex, Rectangle.class);
+        return getShapeFillColor(ROIIndex, shapeIndex, ShapeType.RECTANGLE);
     }
 
     @Override
     public FillRule getRectangleFillRule(int ROIIndex, int shapeIndex) {
-        return getShapeFillRule(ROIIndex, shapeIndex, Rectangle.class);
+        return getShapeFillRule(ROIIndex, shapeIndex, ShapeType.RECTANGLE);
     }
 
     @Override
     public FontFamily getRectangleFontFamily(int ROIIndex, int shapeIndex) {
-        return getShapeFontFamily(ROIIndex, shapeIndex, Rectangle.class);
+        return getShapeFontFamily(ROIIndex, shapeIndex, ShapeType.RECTANGLE);
     }
 
     @Override
     public Length getRectangleFontSize(int ROIIndex, int shapeIndex) {
-        return getShapeFontSize(ROIIndex, shapeIndex, Rectangle.class);
+        return getShapeFontSize(ROIIndex, shapeIndex, ShapeType.RECTANGLE);
     }
 
     @Override
     public FontStyle getRectangleFontStyle(int ROIIndex, int shapeIndex) {
-        return getShapeFontStyle(ROIIndex, shapeIndex, Rectangle.class);
+        return getShapeFontStyle(ROIIndex, shapeIndex, ShapeType.RECTANGLE);
     }
 
     @Override
     public String getRectangleID(int ROIIndex, int shapeIndex) {
-        return getShapeID(ROIIndex, shapeIndex, Rectangle.class);
+        return getShapeID(ROIIndex, shapeIndex, ShapeType.RECTANGLE);
     }
 
     @Override
     public Boolean getRectangleLocked(int ROIIndex, int shapeIndex) {
-        return getShapeLocked(ROIIndex, shapeIndex, Rectangle.class);
+        return getShapeLocked(ROIIndex, shapeIndex, ShapeType.RECTANGLE);
     }
 
     @Override
     public Color getRectangleStrokeColor(int ROIIndex, int shapeIndex) {
-        return getShapeStrokeColor(ROIIndex, shapeIndex, Rectangle.class);
+        return getShapeStrokeColor(ROIIndex, shapeIndex, ShapeType.RECTANGLE);
     }
 
     @Override
     public String getRectangleStrokeDashArray(int ROIIndex, int shapeIndex) {
-        return getShapeStrokeDashArray(ROIIndex, shapeIndex, Rectangle.class);
+        return getShapeStrokeDashArray(ROIIndex, shapeIndex, ShapeType.RECTANGLE);
     }
 
     @Override
     public Length getRectangleStrokeWidth(int ROIIndex, int shapeIndex) {
-        return getShapeStrokeWidth(ROIIndex, shapeIndex, Rectangle.class);
+        return getShapeStrokeWidth(ROIIndex, shapeIndex, ShapeType.RECTANGLE);
     }
 
     @Override
     public NonNegativeInteger getRectangleTheC(int ROIIndex, int shapeIndex) {
-        return getShapeTheC(ROIIndex, shapeIndex, Rectangle.class);
+        return getShapeTheC(ROIIndex, shapeIndex, ShapeType.RECTANGLE);
     }
 
     @Override
     public NonNegativeInteger getRectangleTheT(int ROIIndex, int shapeIndex) {
-        return getShapeTheT(ROIIndex, shapeIndex, Rectangle.class);
+        return getShapeTheT(ROIIndex, shapeIndex, ShapeType.RECTANGLE);
     }
 
     @Override
     public NonNegativeInteger getRectangleTheZ(int ROIIndex, int shapeIndex) {
-        return getShapeTheZ(ROIIndex, shapeIndex, Rectangle.class);
+        return getShapeTheZ(ROIIndex, shapeIndex, ShapeType.RECTANGLE);
     }
 
     @Override
     public AffineTransform getRectangleTransform(int ROIIndex, int shapeIndex) {
-        return getShapeTransform(ROIIndex, shapeIndex, Rectangle.class);
+        return getShapeTransform(ROIIndex, shapeIndex, ShapeType.RECTANGLE);
     }
 
     @Override
     public String getRectangleText(int ROIIndex, int shapeIndex) {
-        final Rectangle rectangle = getShape(ROIIndex, shapeIndex, Rectangle.class);
+        final Rectangle rectangle = (Rectangle) getShape(ROIIndex, shapeIndex, ShapeType.RECTANGLE);
         if (rectangle == null) {
             return null;
         }
@@ -1138,7 +1163,7 @@ public class ROIMetadata extends MetadataBase {
 
     @Override
     public Double getRectangleHeight(int ROIIndex, int shapeIndex) {
-        final Rectangle rectangle = getShape(ROIIndex, shapeIndex, Rectangle.class);
+        final Rectangle rectangle = (Rectangle) getShape(ROIIndex, shapeIndex, ShapeType.RECTANGLE);
         if (rectangle == null) {
             return null;
         }
@@ -1147,7 +1172,7 @@ public class ROIMetadata extends MetadataBase {
 
     @Override
     public Double getRectangleWidth(int ROIIndex, int shapeIndex) {
-        final Rectangle rectangle = getShape(ROIIndex, shapeIndex, Rectangle.class);
+        final Rectangle rectangle = (Rectangle) getShape(ROIIndex, shapeIndex, ShapeType.RECTANGLE);
         if (rectangle == null) {
             return null;
         }
@@ -1156,7 +1181,7 @@ public class ROIMetadata extends MetadataBase {
 
     @Override
     public Double getRectangleX(int ROIIndex, int shapeIndex) {
-        final Rectangle rectangle = getShape(ROIIndex, shapeIndex, Rectangle.class);
+        final Rectangle rectangle = (Rectangle) getShape(ROIIndex, shapeIndex, ShapeType.RECTANGLE);
         if (rectangle == null) {
             return null;
         }
@@ -1165,7 +1190,7 @@ public class ROIMetadata extends MetadataBase {
 
     @Override
     public Double getRectangleY(int ROIIndex, int shapeIndex) {
-        final Rectangle rectangle = getShape(ROIIndex, shapeIndex, Rectangle.class);
+        final Rectangle rectangle = (Rectangle) getShape(ROIIndex, shapeIndex, ShapeType.RECTANGLE);
         if (rectangle == null) {
             return null;
         }
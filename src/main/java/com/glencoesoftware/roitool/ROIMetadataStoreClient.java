@@ -18,145 +18,2560 @@
 
 package com.glencoesoftware.roitool;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Supplier;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import Glacier2.CannotCreateSessionException;
+import Glacier2.PermissionDeniedException;
+import loci.formats.meta.DummyMetadata;
 import ome.conditions.ApiUsageException;
-import ome.formats.Index;
-import ome.formats.OMEROMetadataStoreClient;
+import ome.formats.model.UnitsFactory;
+import ome.units.quantity.Length;
 import ome.util.LSID;
+import ome.xml.model.AffineTransform;
+import ome.xml.model.MapPair;
+import ome.xml.model.enums.FillRule;
+import ome.xml.model.enums.FontFamily;
+import ome.xml.model.enums.FontStyle;
+import ome.xml.model.enums.Marker;
+import ome.xml.model.primitives.Color;
+import ome.xml.model.primitives.NonNegativeInteger;
+import ome.xml.model.primitives.Timestamp;
+import omero.RBool;
+import omero.RDouble;
+import omero.RInt;
+import omero.RLong;
+import omero.RString;
+import omero.RTime;
 import omero.ServerError;
+import omero.api.IQueryPrx;
+import omero.api.IUpdatePrx;
 import omero.api.ServiceFactoryPrx;
 import omero.metadatastore.IObjectContainer;
+import omero.model.AffineTransformI;
+import omero.model.Annotation;
+import omero.model.BooleanAnnotation;
+import omero.model.BooleanAnnotationI;
+import omero.model.CommentAnnotation;
+import omero.model.CommentAnnotationI;
+import omero.model.DoubleAnnotation;
+import omero.model.DoubleAnnotationI;
+import omero.model.Ellipse;
 import omero.model.IObject;
 import omero.model.Image;
 import omero.model.ImageI;
+import omero.model.Label;
+import omero.model.Line;
+import omero.model.LongAnnotation;
+import omero.model.LongAnnotationI;
+import omero.model.MapAnnotation;
+import omero.model.MapAnnotationI;
+import omero.model.Mask;
+import omero.model.NamedValue;
+import omero.model.Point;
+import omero.model.Polygon;
+import omero.model.Polyline;
+import omero.model.Rectangle;
 import omero.model.Roi;
+import omero.model.RoiI;
 import omero.model.Shape;
-import omero.model.Annotation;
+import omero.model.TagAnnotation;
+import omero.model.TagAnnotationI;
+import omero.model.TermAnnotation;
+import omero.model.TermAnnotationI;
+import omero.model.TimestampAnnotation;
+import omero.model.TimestampAnnotationI;
+import omero.model.XmlAnnotation;
+import omero.model.XmlAnnotationI;
+
+import static omero.rtypes.rbool;
+import static omero.rtypes.rdouble;
+import static omero.rtypes.rint;
+import static omero.rtypes.rlong;
+import static omero.rtypes.rstring;
+import static omero.rtypes.rtime;
+import static omero.rtypes.unwrap;
+
+/**
+ * A metadata store which builds OMERO ROI, shape and annotation graphs from
+ * the setters called on it and saves them to an OMERO server.  Unlike
+ * <code>ome.formats.OMEROMetadataStoreClient</code> it only knows about
+ * ROIs and the structured annotations they may reference; every other
+ * setter is ignored.
+ */
+public class ROIMetadataStoreClient extends DummyMetadata {
+
+    private static final Logger log =
+            LoggerFactory.getLogger(ROIMetadataStoreClient.class);
+
+    /** Type code of ROIs in {@link ObjectRegistry} keys. */
+    private static final int ROI_TYPE = 1;
+
+    /** Type code of the first shape type; the others follow in order. */
+    private static final int SHAPE_TYPE = 2;
+
+    /** Type code of the first annotation type; the others follow in order. */
+    private static final int ANNOTATION_TYPE =
+            SHAPE_TYPE + ShapeType.values().length;
+
+    /** Constructors of the annotations this store creates. */
+    private static final Map<Class<? extends IObject>, Supplier<IObject>>
+            FACTORIES =
+                new LinkedHashMap<Class<? extends IObject>, Supplier<IObject>>();
+
+    /** Type codes of the annotations. */
+    private static final Map<Class<? extends IObject>, Integer> TYPE_CODES =
+            new HashMap<Class<? extends IObject>, Integer>();
+
+    static
+    {
+        FACTORIES.put(BooleanAnnotation.class, BooleanAnnotationI::new);
+        FACTORIES.put(CommentAnnotation.class, CommentAnnotationI::new);
+        FACTORIES.put(DoubleAnnotation.class, DoubleAnnotationI::new);
+        FACTORIES.put(LongAnnotation.class, LongAnnotationI::new);
+        FACTORIES.put(MapAnnotation.class, MapAnnotationI::new);
+        FACTORIES.put(TagAnnotation.class, TagAnnotationI::new);
+        FACTORIES.put(TermAnnotation.class, TermAnnotationI::new);
+        FACTORIES.put(TimestampAnnotation.class, TimestampAnnotationI::new);
+        FACTORIES.put(XmlAnnotation.class, XmlAnnotationI::new);
+        int type = ANNOTATION_TYPE;
+        for (Class<? extends IObject> klass : FACTORIES.keySet())
+        {
+            TYPE_CODES.put(klass, type++);
+        }
+    }
+
+    /** OMERO client holding our session. */
+    private omero.client c;
+
+    /** Address of the server this client is connected to. */
+    private String server;
+
+    /** Port of the server this client is connected to. */
+    private int port;
+
+    /** Key of the session this client is connected to. */
+    private String sessionKey;
+
+    private ServiceFactoryPrx serviceFactory;
+
+    private IQueryPrx iQuery;
+
+    /**
+     * Model object containers keyed by type and indexes, in creation order,
+     * and the references from them to the IDs of other objects.
+     */
+    private ObjectRegistry registry = new ObjectRegistry();
+
+    /** All objects keyed by their ID. */
+    private Map<String, IObject> objectsById = new HashMap<String, IObject>();
+
+    /** ROIs by roiIndex, in first access order. */
+    private RoiTable roiList = new RoiTable();
+
+    /** Shapes whose points are formatted from a vertex store on save. */
+    private DeferredPoints deferredPoints = new DeferredPoints();
+
+    /**
+     * Logs in to an OMERO server.  A session may be joined by passing its
+     * key as both user name and password.  Once logged in the session is
+     * kept alive, and data is sent over an unencrypted connection.
+     * @param username OMERO user name or session key
+     * @param password OMERO password or session key
+     * @param server OMERO server address
+     * @param port OMERO server port
+     */
+    public void initialize(String username, String password,
+                           String server, int port)
+            throws CannotCreateSessionException, PermissionDeniedException,
+                   ServerError
+    {
+        this.server = server;
+        this.port = port;
+        connect(username, password);
+        sessionKey = serviceFactory.ice_getIdentity().name;
+        createRoot();
+    }
+
+    private void connect(String username, String password)
+            throws CannotCreateSessionException, PermissionDeniedException,
+                   ServerError
+    {
+        log.info("Attempting initial SSL connection to {}:{}", server, port);
+        omero.client secure = new omero.client(server, port);
+        try
+        {
+            secure.createSession(username, password);
+            log.info("Insecure connection requested, falling back");
+            c = secure.createClient(false);
+        }
+        finally
+        {
+            secure.__del__();
+        }
+        c.enableKeepAlive(60);
+        serviceFactory = c.getSession();
+        iQuery = serviceFactory.getQueryService();
+    }
+
+    /**
+     * Replaces a lost connection with a new one joined to the same
+     * session, which outlives the connection until it times out.  The
+     * object graph built so far is kept.
+     */
+    private void reconnect()
+            throws CannotCreateSessionException, PermissionDeniedException,
+                   ServerError
+    {
+        log.info("Joining session again after the connection was lost");
+        omero.client lost = c;
+        connect(sessionKey, sessionKey);
+        try
+        {
+            lost.__del__();
+        }
+        catch (RuntimeException e)
+        {
+            log.debug("Could not close the lost connection", e);
+        }
+    }
+
+    /**
+     * @return session of this client
+     */
+    public ServiceFactoryPrx getServiceFactory()
+    {
+        return serviceFactory;
+    }
+
+    /**
+     * @return query service of this client's session
+     */
+    public IQueryPrx getIQuery()
+    {
+        return iQuery;
+    }
+
+    /**
+     * Closes this client's session.
+     */
+    public void logout()
+    {
+        if (c != null)
+        {
+            log.debug("Closing session");
+            c.__del__();
+            c = null;
+            serviceFactory = null;
+            iQuery = null;
+        }
+    }
+
+    /**
+     * Returns a Roi model object based on its indexes within the
+     * OMERO data model.
+     * @param roiIndex Roi index.
+     * @return See above.
+     */
+    private Roi getRoi(int roiIndex)
+    {
+        return roiList.get(roiIndex);
+    }
+
+    /**
+     * Discards the object graph built so far, so that the client can be
+     * reused for another image.
+     */
+    @Override
+    public void createRoot()
+    {
+        registry = new ObjectRegistry();
+        objectsById = new HashMap<String, IObject>();
+        roiList = new RoiTable();
+        deferredPoints = new DeferredPoints();
+    }
+
+    /**
+     * Moves the object graph built so far in another store to the end of
+     * this one's, leaving the other store empty.  Used to combine stores
+     * filled concurrently with disjoint ranges of ROIs.
+     * @param other store which has not been saved
+     * @throws IllegalArgumentException if both stores hold the same object
+     */
+    public void merge(ROIMetadataStoreClient other)
+    {
+        registry.addAll(other.registry);
+        deferredPoints.addAll(other.deferredPoints);
+        other.createRoot();
+    }
+
+    /**
+     * @return number of model object containers
+     */
+    public int countCachedContainers()
+    {
+        return registry.size();
+    }
+
+    /**
+     * @return number of references between model objects
+     */
+    public int countCachedReferences()
+    {
+        return registry.referenceCount();
+    }
+
+    /**
+     * @return the shapes built so far, in creation order; they may be
+     * modified before the object graph is saved, although shapes set with
+     * {@link #setShapeVertices} have no points until then
+     */
+    public List<Shape> getShapes()
+    {
+        List<Shape> shapes = new ArrayList<Shape>();
+        int end = SHAPE_TYPE + ShapeType.values().length;
+        for (int i = 0; i < registry.size(); i++)
+        {
+            int type = ObjectRegistry.type(registry.keyAt(i));
+            if (type >= SHAPE_TYPE && type < end)
+            {
+                shapes.add((Shape) registry.containerAt(i).sourceObject);
+            }
+        }
+        return shapes;
+    }
+
+    /**
+     * Sets the points of a polygon or polyline from vertices held in a
+     * store.  Rather than building a points string now, the points of each
+     * shape are formatted from the store only while its batch of ROIs is
+     * sent to the server and are dropped again once sent, so the store
+     * must stay open until the ROIs are saved.
+     * @param type {@link ShapeType#POLYGON} or {@link ShapeType#POLYLINE}
+     * @param vertices store holding the vertices; every shape of this
+     * store must use the same one
+     * @param offset index of the first vertex of the shape in the store
+     * @param count number of vertices of the shape
+     * @param format format of the coordinates in the points string
+     * @param ROIIndex index of the ROI
+     * @param shapeIndex index of the shape within the ROI
+     */
+    public void setShapeVertices(ShapeType type, VertexStore vertices,
+            long offset, int count, CoordinateFormat format, int ROIIndex,
+            int shapeIndex)
+    {
+        Shape shape = getShape(type, ROIIndex, shapeIndex);
+        if (shape instanceof Polygon)
+        {
+            ((Polygon) shape).setPoints(null);
+        }
+        else if (shape instanceof Polyline)
+        {
+            ((Polyline) shape).setPoints(null);
+        }
+        else
+        {
+            throw new IllegalArgumentException("Shape has no points: " + type);
+        }
+        deferredPoints.add(ObjectRegistry.key(
+                SHAPE_TYPE + type.ordinal(), ROIIndex, shapeIndex),
+                vertices, offset, count, format);
+    }
+
+    /**
+     * Registers the container of a new model object.  Its ID defaults to
+     * an LSID built from its type and indexes.
+     * @param key registry key of the object
+     * @param lsid default ID of the object
+     * @param sourceObject model object
+     * @return See above.
+     */
+    private IObjectContainer addContainer(
+            long key, LSID lsid, IObject sourceObject)
+    {
+        IObjectContainer container = new IObjectContainer();
+        container.LSID = lsid.toString();
+        container.sourceObject = sourceObject;
+        registry.add(key, container);
+        return container;
+    }
+
+    private IObjectContainer getRoiContainer(int ROIIndex)
+    {
+        long key = ObjectRegistry.key(ROI_TYPE, ROIIndex, 0);
+        IObjectContainer container = registry.get(key);
+        if (container == null)
+        {
+            container = addContainer(
+                    key, new LSID(Roi.class, ROIIndex), new RoiI());
+        }
+        return container;
+    }
+
+    /**
+     * Finds or creates the container of a shape, and of its ROI so that the
+     * ROI is always created first.
+     */
+    private IObjectContainer getShapeContainer(
+            ShapeType type, int ROIIndex, int shapeIndex)
+    {
+        long key = ObjectRegistry.key(
+                SHAPE_TYPE + type.ordinal(), ROIIndex, shapeIndex);
+        IObjectContainer container = registry.get(key);
+        if (container == null)
+        {
+            getRoiContainer(ROIIndex);
+            container = addContainer(key,
+                    new LSID(type.getModelClass(), ROIIndex, shapeIndex),
+                    type.newInstance());
+        }
+        return container;
+    }
+
+    private IObjectContainer getAnnotationContainer(
+            Class<? extends Annotation> klass, int annotationIndex)
+    {
+        long key = ObjectRegistry.key(
+                TYPE_CODES.get(klass), annotationIndex, 0);
+        IObjectContainer container = registry.get(key);
+        if (container == null)
+        {
+            container = addContainer(key, new LSID(klass, annotationIndex),
+                                     FACTORIES.get(klass).get());
+        }
+        return container;
+    }
+
+    private Shape getShape(ShapeType type, int ROIIndex, int shapeIndex)
+    {
+        return (Shape) getShapeContainer(
+                type, ROIIndex, shapeIndex).sourceObject;
+    }
+
+    private Annotation getAnnotation(
+            Class<? extends Annotation> klass, int annotationIndex)
+    {
+        return (Annotation) getAnnotationContainer(
+                klass, annotationIndex).sourceObject;
+    }
+
+    private static RString toRType(String value)
+    {
+        return value == null ? null : rstring(value);
+    }
+
+    private static RDouble toRType(Double value)
+    {
+        return value == null ? null : rdouble(value);
+    }
+
+    private static RBool toRType(Boolean value)
+    {
+        return value == null ? null : rbool(value);
+    }
+
+    private static RLong toRType(Long value)
+    {
+        return value == null ? null : rlong(value);
+    }
+
+    private static RInt toRType(Color value)
+    {
+        return value == null ? null : rint(value.getValue());
+    }
+
+    private static RInt toRType(NonNegativeInteger value)
+    {
+        return value == null ? null : rint(value.getValue());
+    }
+
+    private static RString toRType(FillRule value)
+    {
+        return value == null ? null : rstring(value.getValue());
+    }
+
+    private static RString toRType(FontFamily value)
+    {
+        return value == null ? null : rstring(value.getValue());
+    }
+
+    private static RString toRType(FontStyle value)
+    {
+        return value == null ? null : rstring(value.getValue());
+    }
+
+    private static RString toRType(Marker value)
+    {
+        return value == null ? null : rstring(value.getValue());
+    }
+
+    private static RTime toRType(Timestamp value)
+    {
+        return value == null ? null : rtime(value.asInstant().getMillis());
+    }
+
+    private static omero.model.Length toRType(Length value)
+    {
+        return value == null ? null : UnitsFactory.convertLength(value);
+    }
+
+    private static omero.model.AffineTransform toRType(
+            AffineTransform value)
+    {
+        if (value == null)
+        {
+            return null;
+        }
+        omero.model.AffineTransform transform = new AffineTransformI();
+        transform.setA00(rdouble(value.getA00()));
+        transform.setA01(rdouble(value.getA01()));
+        transform.setA02(rdouble(value.getA02()));
+        transform.setA10(rdouble(value.getA10()));
+        transform.setA11(rdouble(value.getA11()));
+        transform.setA12(rdouble(value.getA12()));
+        return transform;
+    }
+
+    private static List<NamedValue> toNamedValues(List<MapPair> value)
+    {
+        if (value == null)
+        {
+            return null;
+        }
+        List<NamedValue> namedValues = new ArrayList<NamedValue>(value.size());
+        for (MapPair pair : value)
+        {
+            namedValues.add(new NamedValue(pair.getName(), pair.getValue()));
+        }
+        return namedValues;
+    }
+
+
+    @Override
+    public void setROIID(String id, int ROIIndex)
+    {
+        getRoiContainer(ROIIndex).LSID = id;
+    }
+
+    @Override
+    public void setROIName(String name, int ROIIndex)
+    {
+        final Roi roi = (Roi) getRoiContainer(ROIIndex).sourceObject;
+        roi.setName(toRType(name));
+    }
+
+    @Override
+    public void setROIDescription(String description, int ROIIndex)
+    {
+        final Roi roi = (Roi) getRoiContainer(ROIIndex).sourceObject;
+        roi.setDescription(toRType(description));
+    }
+
+    @Override
+    public void setROIAnnotationRef(String annotation, int ROIIndex,
+            int annotationRefIndex)
+    {
+        registry.addReference(
+                ObjectRegistry.key(ROI_TYPE, ROIIndex, 0), annotation);
+    }
+
+    private void setShapeAnnotationRef(String annotation,
+            int ROIIndex, int shapeIndex, ShapeType type)
+    {
+        registry.addReference(ObjectRegistry.key(
+                SHAPE_TYPE + type.ordinal(), ROIIndex, shapeIndex),
+                annotation);
+    }
+
+    private void setShapeID(String id, int ROIIndex, int shapeIndex,
+            ShapeType type)
+    {
+        getShapeContainer(type, ROIIndex, shapeIndex).LSID = id;
+    }
+
+    private void setShapeFillColor(Color fillColor,
+            int ROIIndex, int shapeIndex, ShapeType type)
+    {
+        getShape(type, ROIIndex, shapeIndex)
+                .setFillColor(toRType(fillColor));
+    }
+
+    private void setShapeFillRule(FillRule fillRule,
+            int ROIIndex, int shapeIndex, ShapeType type)
+    {
+        getShape(type, ROIIndex, shapeIndex)
+                .setFillRule(toRType(fillRule));
+    }
+
+    private void setShapeFontFamily(FontFamily fontFamily,
+            int ROIIndex, int shapeIndex, ShapeType type)
+    {
+        getShape(type, ROIIndex, shapeIndex)
+                .setFontFamily(toRType(fontFamily));
+    }
+
+    private void setShapeFontSize(Length fontSize,
+            int ROIIndex, int shapeIndex, ShapeType type)
+    {
+        getShape(type, ROIIndex, shapeIndex)
+                .setFontSize(toRType(fontSize));
+    }
+
+    private void setShapeFontStyle(FontStyle fontStyle,
+            int ROIIndex, int shapeIndex, ShapeType type)
+    {
+        getShape(type, ROIIndex, shapeIndex)
+                .setFontStyle(toRType(fontStyle));
+    }
+
+    private void setShapeLocked(Boolean locked,
+            int ROIIndex, int shapeIndex, ShapeType type)
+    {
+        getShape(type, ROIIndex, shapeIndex)
+                .setLocked(toRType(locked));
+    }
+
+    private void setShapeStrokeColor(Color strokeColor,
+            int ROIIndex, int shapeIndex, ShapeType type)
+    {
+        getShape(type, ROIIndex, shapeIndex)
+                .setStrokeColor(toRType(strokeColor));
+    }
+
+    private void setShapeStrokeDashArray(String strokeDashArray,
+            int ROIIndex, int shapeIndex, ShapeType type)
+    {
+        getShape(type, ROIIndex, shapeIndex)
+                .setStrokeDashArray(toRType(strokeDashArray));
+    }
+
+    private void setShapeStrokeWidth(Length strokeWidth,
+            int ROIIndex, int shapeIndex, ShapeType type)
+    {
+        getShape(type, ROIIndex, shapeIndex)
+                .setStrokeWidth(toRType(strokeWidth));
+    }
+
+    private void setShapeTheC(NonNegativeInteger theC,
+            int ROIIndex, int shapeIndex, ShapeType type)
+    {
+        getShape(type, ROIIndex, shapeIndex)
+                .setTheC(toRType(theC));
+    }
+
+    private void setShapeTheT(NonNegativeInteger theT,
+            int ROIIndex, int shapeIndex, ShapeType type)
+    {
+        getShape(type, ROIIndex, shapeIndex)
+                .setTheT(toRType(theT));
+    }
+
+    private void setShapeTheZ(NonNegativeInteger theZ,
+            int ROIIndex, int shapeIndex, ShapeType type)
+    {
+        getShape(type, ROIIndex, shapeIndex)
+                .setTheZ(toRType(theZ));
+    }
+
+    private void setShapeTransform(AffineTransform transform,
+            int ROIIndex, int shapeIndex, ShapeType type)
+    {
+        getShape(type, ROIIndex, shapeIndex)
+                .setTransform(toRType(transform));
+    }
+
+    @Override
+    public void setEllipseAnnotationRef(String annotation, int ROIIndex,
+            int shapeIndex, int annotationRefIndex)
+    {
+        setShapeAnnotationRef(annotation, ROIIndex, shapeIndex,
+                              ShapeType.ELLIPSE);
+    }
+
+    @Override
+    public void setEllipseFillColor(Color fillColor, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFillColor(fillColor, ROIIndex, shapeIndex, ShapeType.ELLIPSE);
+    }
+
+    @Override
+    public void setEllipseFillRule(FillRule fillRule, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFillRule(fillRule, ROIIndex, shapeIndex, ShapeType.ELLIPSE);
+    }
+
+    @Override
+    public void setEllipseFontFamily(FontFamily fontFamily, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFontFamily(fontFamily, ROIIndex, shapeIndex, ShapeType.ELLIPSE);
+    }
+
+    @Override
+    public void setEllipseFontSize(Length fontSize, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFontSize(fontSize, ROIIndex, shapeIndex, ShapeType.ELLIPSE);
+    }
+
+    @Override
+    public void setEllipseFontStyle(FontStyle fontStyle, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFontStyle(fontStyle, ROIIndex, shapeIndex, ShapeType.ELLIPSE);
+    }
+
+    @Override
+    public void setEllipseID(String id, int ROIIndex, int shapeIndex)
+    {
+        setShapeID(id, ROIIndex, shapeIndex, ShapeType.ELLIPSE);
+    }
+
+    @Override
+    public void setEllipseLocked(Boolean locked, int ROIIndex, int shapeIndex)
+    {
+        setShapeLocked(locked, ROIIndex, shapeIndex, ShapeType.ELLIPSE);
+    }
+
+    @Override
+    public void setEllipseRadiusX(Double radiusX, int ROIIndex, int shapeIndex)
+    {
+        final Ellipse ellipse =
+                (Ellipse) getShape(ShapeType.ELLIPSE, ROIIndex, shapeIndex);
+        ellipse.setRadiusX(toRType(radiusX));
+    }
+
+    @Override
+    public void setEllipseRadiusY(Double radiusY, int ROIIndex, int shapeIndex)
+    {
+        final Ellipse ellipse =
+                (Ellipse) getShape(ShapeType.ELLIPSE, ROIIndex, shapeIndex);
+        ellipse.setRadiusY(toRType(radiusY));
+    }
+
+    @Override
+    public void setEllipseStrokeColor(Color strokeColor, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeStrokeColor(
+                strokeColor, ROIIndex, shapeIndex, ShapeType.ELLIPSE);
+    }
+
+    @Override
+    public void setEllipseStrokeDashArray(String strokeDashArray, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeStrokeDashArray(
+                strokeDashArray, ROIIndex, shapeIndex, ShapeType.ELLIPSE);
+    }
+
+    @Override
+    public void setEllipseStrokeWidth(Length strokeWidth, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeStrokeWidth(
+                strokeWidth, ROIIndex, shapeIndex, ShapeType.ELLIPSE);
+    }
+
+    @Override
+    public void setEllipseText(String text, int ROIIndex, int shapeIndex)
+    {
+        final Ellipse ellipse =
+                (Ellipse) getShape(ShapeType.ELLIPSE, ROIIndex, shapeIndex);
+        ellipse.setTextValue(toRType(text));
+    }
+
+    @Override
+    public void setEllipseTheC(NonNegativeInteger theC, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTheC(theC, ROIIndex, shapeIndex, ShapeType.ELLIPSE);
+    }
+
+    @Override
+    public void setEllipseTheT(NonNegativeInteger theT, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTheT(theT, ROIIndex, shapeIndex, ShapeType.ELLIPSE);
+    }
+
+    @Override
+    public void setEllipseTheZ(NonNegativeInteger theZ, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTheZ(theZ, ROIIndex, shapeIndex, ShapeType.ELLIPSE);
+    }
+
+    @Override
+    public void setEllipseTransform(AffineTransform transform, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTransform(transform, ROIIndex, shapeIndex, ShapeType.ELLIPSE);
+    }
+
+    @Override
+    public void setEllipseX(Double x, int ROIIndex, int shapeIndex)
+    {
+        final Ellipse ellipse =
+                (Ellipse) getShape(ShapeType.ELLIPSE, ROIIndex, shapeIndex);
+        ellipse.setX(toRType(x));
+    }
+
+    @Override
+    public void setEllipseY(Double y, int ROIIndex, int shapeIndex)
+    {
+        final Ellipse ellipse =
+                (Ellipse) getShape(ShapeType.ELLIPSE, ROIIndex, shapeIndex);
+        ellipse.setY(toRType(y));
+    }
+
+    @Override
+    public void setLabelAnnotationRef(String annotation, int ROIIndex,
+            int shapeIndex, int annotationRefIndex)
+    {
+        setShapeAnnotationRef(annotation, ROIIndex, shapeIndex,
+                              ShapeType.LABEL);
+    }
+
+    @Override
+    public void setLabelFillColor(Color fillColor, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFillColor(fillColor, ROIIndex, shapeIndex, ShapeType.LABEL);
+    }
+
+    @Override
+    public void setLabelFillRule(FillRule fillRule, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFillRule(fillRule, ROIIndex, shapeIndex, ShapeType.LABEL);
+    }
+
+    @Override
+    public void setLabelFontFamily(FontFamily fontFamily, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFontFamily(fontFamily, ROIIndex, shapeIndex, ShapeType.LABEL);
+    }
+
+    @Override
+    public void setLabelFontSize(Length fontSize, int ROIIndex, int shapeIndex)
+    {
+        setShapeFontSize(fontSize, ROIIndex, shapeIndex, ShapeType.LABEL);
+    }
+
+    @Override
+    public void setLabelFontStyle(FontStyle fontStyle, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFontStyle(fontStyle, ROIIndex, shapeIndex, ShapeType.LABEL);
+    }
+
+    @Override
+    public void setLabelID(String id, int ROIIndex, int shapeIndex)
+    {
+        setShapeID(id, ROIIndex, shapeIndex, ShapeType.LABEL);
+    }
+
+    @Override
+    public void setLabelLocked(Boolean locked, int ROIIndex, int shapeIndex)
+    {
+        setShapeLocked(locked, ROIIndex, shapeIndex, ShapeType.LABEL);
+    }
+
+    @Override
+    public void setLabelStrokeColor(Color strokeColor, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeStrokeColor(strokeColor, ROIIndex, shapeIndex, ShapeType.LABEL);
+    }
+
+    @Override
+    public void setLabelStrokeDashArray(String strokeDashArray, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeStrokeDashArray(
+                strokeDashArray, ROIIndex, shapeIndex, ShapeType.LABEL);
+    }
+
+    @Override
+    public void setLabelStrokeWidth(Length strokeWidth, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeStrokeWidth(strokeWidth, ROIIndex, shapeIndex, ShapeType.LABEL);
+    }
+
+    @Override
+    public void setLabelText(String text, int ROIIndex, int shapeIndex)
+    {
+        final Label label =
+                (Label) getShape(ShapeType.LABEL, ROIIndex, shapeIndex);
+        label.setTextValue(toRType(text));
+    }
+
+    @Override
+    public void setLabelTheC(NonNegativeInteger theC, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTheC(theC, ROIIndex, shapeIndex, ShapeType.LABEL);
+    }
+
+    @Override
+    public void setLabelTheT(NonNegativeInteger theT, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTheT(theT, ROIIndex, shapeIndex, ShapeType.LABEL);
+    }
+
+    @Override
+    public void setLabelTheZ(NonNegativeInteger theZ, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTheZ(theZ, ROIIndex, shapeIndex, ShapeType.LABEL);
+    }
+
+    @Override
+    public void setLabelTransform(AffineTransform transform, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTransform(transform, ROIIndex, shapeIndex, ShapeType.LABEL);
+    }
+
+    @Override
+    public void setLabelX(Double x, int ROIIndex, int shapeIndex)
+    {
+        final Label label =
+                (Label) getShape(ShapeType.LABEL, ROIIndex, shapeIndex);
+        label.setX(toRType(x));
+    }
+
+    @Override
+    public void setLabelY(Double y, int ROIIndex, int shapeIndex)
+    {
+        final Label label =
+                (Label) getShape(ShapeType.LABEL, ROIIndex, shapeIndex);
+        label.setY(toRType(y));
+    }
+
+    @Override
+    public void setLineAnnotationRef(String annotation, int ROIIndex,
+            int shapeIndex, int annotationRefIndex)
+    {
+        setShapeAnnotationRef(annotation, ROIIndex, shapeIndex,
+                              ShapeType.LINE);
+    }
+
+    @Override
+    public void setLineFillColor(Color fillColor, int ROIIndex, int shapeIndex)
+    {
+        setShapeFillColor(fillColor, ROIIndex, shapeIndex, ShapeType.LINE);
+    }
+
+    @Override
+    public void setLineFillRule(FillRule fillRule, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFillRule(fillRule, ROIIndex, shapeIndex, ShapeType.LINE);
+    }
+
+    @Override
+    public void setLineFontFamily(FontFamily fontFamily, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFontFamily(fontFamily, ROIIndex, shapeIndex, ShapeType.LINE);
+    }
+
+    @Override
+    public void setLineFontSize(Length fontSize, int ROIIndex, int shapeIndex)
+    {
+        setShapeFontSize(fontSize, ROIIndex, shapeIndex, ShapeType.LINE);
+    }
+
+    @Override
+    public void setLineFontStyle(FontStyle fontStyle, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFontStyle(fontStyle, ROIIndex, shapeIndex, ShapeType.LINE);
+    }
+
+    @Override
+    public void setLineID(String id, int ROIIndex, int shapeIndex)
+    {
+        setShapeID(id, ROIIndex, shapeIndex, ShapeType.LINE);
+    }
+
+    @Override
+    public void setLineLocked(Boolean locked, int ROIIndex, int shapeIndex)
+    {
+        setShapeLocked(locked, ROIIndex, shapeIndex, ShapeType.LINE);
+    }
+
+    @Override
+    public void setLineMarkerEnd(Marker markerEnd, int ROIIndex,
+            int shapeIndex)
+    {
+        final Line line =
+                (Line) getShape(ShapeType.LINE, ROIIndex, shapeIndex);
+        line.setMarkerEnd(toRType(markerEnd));
+    }
+
+    @Override
+    public void setLineMarkerStart(Marker markerStart, int ROIIndex,
+            int shapeIndex)
+    {
+        final Line line =
+                (Line) getShape(ShapeType.LINE, ROIIndex, shapeIndex);
+        line.setMarkerStart(toRType(markerStart));
+    }
+
+    @Override
+    public void setLineStrokeColor(Color strokeColor, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeStrokeColor(strokeColor, ROIIndex, shapeIndex, ShapeType.LINE);
+    }
+
+    @Override
+    public void setLineStrokeDashArray(String strokeDashArray, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeStrokeDashArray(
+                strokeDashArray, ROIIndex, shapeIndex, ShapeType.LINE);
+    }
+
+    @Override
+    public void setLineStrokeWidth(Length strokeWidth, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeStrokeWidth(strokeWidth, ROIIndex, shapeIndex, ShapeType.LINE);
+    }
+
+    @Override
+    public void setLineText(String text, int ROIIndex, int shapeIndex)
+    {
+        final Line line =
+                (Line) getShape(ShapeType.LINE, ROIIndex, shapeIndex);
+        line.setTextValue(toRType(text));
+    }
+
+    @Override
+    public void setLineTheC(NonNegativeInteger theC, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTheC(theC, ROIIndex, shapeIndex, ShapeType.LINE);
+    }
+
+    @Override
+    public void setLineTheT(NonNegativeInteger theT, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTheT(theT, ROIIndex, shapeIndex, ShapeType.LINE);
+    }
+
+    @Override
+    public void setLineTheZ(NonNegativeInteger theZ, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTheZ(theZ, ROIIndex, shapeIndex, ShapeType.LINE);
+    }
+
+    @Override
+    public void setLineTransform(AffineTransform transform, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTransform(transform, ROIIndex, shapeIndex, ShapeType.LINE);
+    }
+
+    @Override
+    public void setLineX1(Double x1, int ROIIndex, int shapeIndex)
+    {
+        final Line line =
+                (Line) getShape(ShapeType.LINE, ROIIndex, shapeIndex);
+        line.setX1(toRType(x1));
+    }
+
+    @Override
+    public void setLineX2(Double x2, int ROIIndex, int shapeIndex)
+    {
+        final Line line =
+                (Line) getShape(ShapeType.LINE, ROIIndex, shapeIndex);
+        line.setX2(toRType(x2));
+    }
+
+    @Override
+    public void setLineY1(Double y1, int ROIIndex, int shapeIndex)
+    {
+        final Line line =
+                (Line) getShape(ShapeType.LINE, ROIIndex, shapeIndex);
+        line.setY1(toRType(y1));
+    }
+
+    @Override
+    public void setLineY2(Double y2, int ROIIndex, int shapeIndex)
+    {
+        final Line line =
+                (Line) getShape(ShapeType.LINE, ROIIndex, shapeIndex);
+        line.setY2(toRType(y2));
+    }
+
+    @Override
+    public void setMaskAnnotationRef(String annotation, int ROIIndex,
+            int shapeIndex, int annotationRefIndex)
+    {
+        setShapeAnnotationRef(annotation, ROIIndex, shapeIndex,
+                              ShapeType.MASK);
+    }
+
+    @Override
+    public void setMaskFillColor(Color fillColor, int ROIIndex, int shapeIndex)
+    {
+        setShapeFillColor(fillColor, ROIIndex, shapeIndex, ShapeType.MASK);
+    }
+
+    @Override
+    public void setMaskFillRule(FillRule fillRule, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFillRule(fillRule, ROIIndex, shapeIndex, ShapeType.MASK);
+    }
+
+    @Override
+    public void setMaskFontFamily(FontFamily fontFamily, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFontFamily(fontFamily, ROIIndex, shapeIndex, ShapeType.MASK);
+    }
+
+    @Override
+    public void setMaskFontSize(Length fontSize, int ROIIndex, int shapeIndex)
+    {
+        setShapeFontSize(fontSize, ROIIndex, shapeIndex, ShapeType.MASK);
+    }
+
+    @Override
+    public void setMaskFontStyle(FontStyle fontStyle, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFontStyle(fontStyle, ROIIndex, shapeIndex, ShapeType.MASK);
+    }
+
+    @Override
+    public void setMaskHeight(Double height, int ROIIndex, int shapeIndex)
+    {
+        final Mask mask =
+                (Mask) getShape(ShapeType.MASK, ROIIndex, shapeIndex);
+        mask.setHeight(toRType(height));
+    }
+
+    @Override
+    public void setMaskID(String id, int ROIIndex, int shapeIndex)
+    {
+        setShapeID(id, ROIIndex, shapeIndex, ShapeType.MASK);
+    }
+
+    @Override
+    public void setMaskLocked(Boolean locked, int ROIIndex, int shapeIndex)
+    {
+        setShapeLocked(locked, ROIIndex, shapeIndex, ShapeType.MASK);
+    }
+
+    @Override
+    public void setMaskStrokeColor(Color strokeColor, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeStrokeColor(strokeColor, ROIIndex, shapeIndex, ShapeType.MASK);
+    }
+
+    @Override
+    public void setMaskStrokeDashArray(String strokeDashArray, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeStrokeDashArray(
+                strokeDashArray, ROIIndex, shapeIndex, ShapeType.MASK);
+    }
+
+    @Override
+    public void setMaskStrokeWidth(Length strokeWidth, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeStrokeWidth(strokeWidth, ROIIndex, shapeIndex, ShapeType.MASK);
+    }
+
+    @Override
+    public void setMaskText(String text, int ROIIndex, int shapeIndex)
+    {
+        final Mask mask =
+                (Mask) getShape(ShapeType.MASK, ROIIndex, shapeIndex);
+        mask.setTextValue(toRType(text));
+    }
+
+    @Override
+    public void setMaskTheC(NonNegativeInteger theC, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTheC(theC, ROIIndex, shapeIndex, ShapeType.MASK);
+    }
+
+    @Override
+    public void setMaskTheT(NonNegativeInteger theT, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTheT(theT, ROIIndex, shapeIndex, ShapeType.MASK);
+    }
+
+    @Override
+    public void setMaskTheZ(NonNegativeInteger theZ, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTheZ(theZ, ROIIndex, shapeIndex, ShapeType.MASK);
+    }
+
+    @Override
+    public void setMaskTransform(AffineTransform transform, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTransform(transform, ROIIndex, shapeIndex, ShapeType.MASK);
+    }
+
+    @Override
+    public void setMaskWidth(Double width, int ROIIndex, int shapeIndex)
+    {
+        final Mask mask =
+                (Mask) getShape(ShapeType.MASK, ROIIndex, shapeIndex);
+        mask.setWidth(toRType(width));
+    }
+
+    @Override
+    public void setMaskX(Double x, int ROIIndex, int shapeIndex)
+    {
+        final Mask mask =
+                (Mask) getShape(ShapeType.MASK, ROIIndex, shapeIndex);
+        mask.setX(toRType(x));
+    }
+
+    @Override
+    public void setMaskY(Double y, int ROIIndex, int shapeIndex)
+    {
+        final Mask mask =
+                (Mask) getShape(ShapeType.MASK, ROIIndex, shapeIndex);
+        mask.setY(toRType(y));
+    }
+
+    @Override
+    public void setPointAnnotationRef(String annotation, int ROIIndex,
+            int shapeIndex, int annotationRefIndex)
+    {
+        setShapeAnnotationRef(annotation, ROIIndex, shapeIndex,
+                              ShapeType.POINT);
+    }
+
+    @Override
+    public void setPointFillColor(Color fillColor, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFillColor(fillColor, ROIIndex, shapeIndex, ShapeType.POINT);
+    }
+
+    @Override
+    public void setPointFillRule(FillRule fillRule, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFillRule(fillRule, ROIIndex, shapeIndex, ShapeType.POINT);
+    }
+
+    @Override
+    public void setPointFontFamily(FontFamily fontFamily, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFontFamily(fontFamily, ROIIndex, shapeIndex, ShapeType.POINT);
+    }
+
+    @Override
+    public void setPointFontSize(Length fontSize, int ROIIndex, int shapeIndex)
+    {
+        setShapeFontSize(fontSize, ROIIndex, shapeIndex, ShapeType.POINT);
+    }
+
+    @Override
+    public void setPointFontStyle(FontStyle fontStyle, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFontStyle(fontStyle, ROIIndex, shapeIndex, ShapeType.POINT);
+    }
+
+    @Override
+    public void setPointID(String id, int ROIIndex, int shapeIndex)
+    {
+        setShapeID(id, ROIIndex, shapeIndex, ShapeType.POINT);
+    }
+
+    @Override
+    public void setPointLocked(Boolean locked, int ROIIndex, int shapeIndex)
+    {
+        setShapeLocked(locked, ROIIndex, shapeIndex, ShapeType.POINT);
+    }
+
+    @Override
+    public void setPointStrokeColor(Color strokeColor, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeStrokeColor(strokeColor, ROIIndex, shapeIndex, ShapeType.POINT);
+    }
+
+    @Override
+    public void setPointStrokeDashArray(String strokeDashArray, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeStrokeDashArray(
+                strokeDashArray, ROIIndex, shapeIndex, ShapeType.POINT);
+    }
+
+    @Override
+    public void setPointStrokeWidth(Length strokeWidth, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeStrokeWidth(strokeWidth, ROIIndex, shapeIndex, ShapeType.POINT);
+    }
+
+    @Override
+    public void setPointText(String text, int ROIIndex, int shapeIndex)
+    {
+        final Point point =
+                (Point) getShape(ShapeType.POINT, ROIIndex, shapeIndex);
+        point.setTextValue(toRType(text));
+    }
+
+    @Override
+    public void setPointTheC(NonNegativeInteger theC, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTheC(theC, ROIIndex, shapeIndex, ShapeType.POINT);
+    }
+
+    @Override
+    public void setPointTheT(NonNegativeInteger theT, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTheT(theT, ROIIndex, shapeIndex, ShapeType.POINT);
+    }
+
+    @Override
+    public void setPointTheZ(NonNegativeInteger theZ, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTheZ(theZ, ROIIndex, shapeIndex, ShapeType.POINT);
+    }
+
+    @Override
+    public void setPointTransform(AffineTransform transform, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTransform(transform, ROIIndex, shapeIndex, ShapeType.POINT);
+    }
+
+    @Override
+    public void setPointX(Double x, int ROIIndex, int shapeIndex)
+    {
+        final Point point =
+                (Point) getShape(ShapeType.POINT, ROIIndex, shapeIndex);
+        point.setX(toRType(x));
+    }
+
+    @Override
+    public void setPointY(Double y, int ROIIndex, int shapeIndex)
+    {
+        final Point point =
+                (Point) getShape(ShapeType.POINT, ROIIndex, shapeIndex);
+        point.setY(toRType(y));
+    }
+
+    @Override
+    public void setPolygonAnnotationRef(String annotation, int ROIIndex,
+            int shapeIndex, int annotationRefIndex)
+    {
+        setShapeAnnotationRef(annotation, ROIIndex, shapeIndex,
+                              ShapeType.POLYGON);
+    }
+
+    @Override
+    public void setPolygonFillColor(Color fillColor, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFillColor(fillColor, ROIIndex, shapeIndex, ShapeType.POLYGON);
+    }
+
+    @Override
+    public void setPolygonFillRule(FillRule fillRule, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFillRule(fillRule, ROIIndex, shapeIndex, ShapeType.POLYGON);
+    }
+
+    @Override
+    public void setPolygonFontFamily(FontFamily fontFamily, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFontFamily(fontFamily, ROIIndex, shapeIndex, ShapeType.POLYGON);
+    }
+
+    @Override
+    public void setPolygonFontSize(Length fontSize, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFontSize(fontSize, ROIIndex, shapeIndex, ShapeType.POLYGON);
+    }
+
+    @Override
+    public void setPolygonFontStyle(FontStyle fontStyle, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFontStyle(fontStyle, ROIIndex, shapeIndex, ShapeType.POLYGON);
+    }
+
+    @Override
+    public void setPolygonID(String id, int ROIIndex, int shapeIndex)
+    {
+        setShapeID(id, ROIIndex, shapeIndex, ShapeType.POLYGON);
+    }
+
+    @Override
+    public void setPolygonLocked(Boolean locked, int ROIIndex, int shapeIndex)
+    {
+        setShapeLocked(locked, ROIIndex, shapeIndex, ShapeType.POLYGON);
+    }
+
+    @Override
+    public void setPolygonPoints(String points, int ROIIndex, int shapeIndex)
+    {
+        final Polygon polygon =
+                (Polygon) getShape(ShapeType.POLYGON, ROIIndex, shapeIndex);
+        polygon.setPoints(toRType(points));
+    }
+
+    @Override
+    public void setPolygonStrokeColor(Color strokeColor, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeStrokeColor(
+                strokeColor, ROIIndex, shapeIndex, ShapeType.POLYGON);
+    }
+
+    @Override
+    public void setPolygonStrokeDashArray(String strokeDashArray, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeStrokeDashArray(
+                strokeDashArray, ROIIndex, shapeIndex, ShapeType.POLYGON);
+    }
+
+    @Override
+    public void setPolygonStrokeWidth(Length strokeWidth, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeStrokeWidth(
+                strokeWidth, ROIIndex, shapeIndex, ShapeType.POLYGON);
+    }
+
+    @Override
+    public void setPolygonText(String text, int ROIIndex, int shapeIndex)
+    {
+        final Polygon polygon =
+                (Polygon) getShape(ShapeType.POLYGON, ROIIndex, shapeIndex);
+        polygon.setTextValue(toRType(text));
+    }
+
+    @Override
+    public void setPolygonTheC(NonNegativeInteger theC, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTheC(theC, ROIIndex, shapeIndex, ShapeType.POLYGON);
+    }
+
+    @Override
+    public void setPolygonTheT(NonNegativeInteger theT, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTheT(theT, ROIIndex, shapeIndex, ShapeType.POLYGON);
+    }
+
+    @Override
+    public void setPolygonTheZ(NonNegativeInteger theZ, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTheZ(theZ, ROIIndex, shapeIndex, ShapeType.POLYGON);
+    }
+
+    @Override
+    public void setPolygonTransform(AffineTransform transform, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTransform(transform, ROIIndex, shapeIndex, ShapeType.POLYGON);
+    }
+
+    @Override
+    public void setPolylineAnnotationRef(String annotation, int ROIIndex,
+            int shapeIndex, int annotationRefIndex)
+    {
+        setShapeAnnotationRef(annotation, ROIIndex, shapeIndex,
+                              ShapeType.POLYLINE);
+    }
+
+    @Override
+    public void setPolylineFillColor(Color fillColor, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFillColor(fillColor, ROIIndex, shapeIndex, ShapeType.POLYLINE);
+    }
+
+    @Override
+    public void setPolylineFillRule(FillRule fillRule, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFillRule(fillRule, ROIIndex, shapeIndex, ShapeType.POLYLINE);
+    }
+
+    @Override
+    public void setPolylineFontFamily(FontFamily fontFamily, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFontFamily(
+                fontFamily, ROIIndex, shapeIndex, ShapeType.POLYLINE);
+    }
+
+    @Override
+    public void setPolylineFontSize(Length fontSize, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFontSize(fontSize, ROIIndex, shapeIndex, ShapeType.POLYLINE);
+    }
+
+    @Override
+    public void setPolylineFontStyle(FontStyle fontStyle, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFontStyle(fontStyle, ROIIndex, shapeIndex, ShapeType.POLYLINE);
+    }
+
+    @Override
+    public void setPolylineID(String id, int ROIIndex, int shapeIndex)
+    {
+        setShapeID(id, ROIIndex, shapeIndex, ShapeType.POLYLINE);
+    }
+
+    @Override
+    public void setPolylineLocked(Boolean locked, int ROIIndex, int shapeIndex)
+    {
+        setShapeLocked(locked, ROIIndex, shapeIndex, ShapeType.POLYLINE);
+    }
+
+    @Override
+    public void setPolylineMarkerEnd(Marker markerEnd, int ROIIndex,
+            int shapeIndex)
+    {
+        final Polyline polyline =
+                (Polyline) getShape(ShapeType.POLYLINE, ROIIndex, shapeIndex);
+        polyline.setMarkerEnd(toRType(markerEnd));
+    }
+
+    @Override
+    public void setPolylineMarkerStart(Marker markerStart, int ROIIndex,
+            int shapeIndex)
+    {
+        final Polyline polyline =
+                (Polyline) getShape(ShapeType.POLYLINE, ROIIndex, shapeIndex);
+        polyline.setMarkerStart(toRType(markerStart));
+    }
+
+    @Override
+    public void setPolylinePoints(String points, int ROIIndex, int shapeIndex)
+    {
+        final Polyline polyline =
+                (Polyline) getShape(ShapeType.POLYLINE, ROIIndex, shapeIndex);
+        polyline.setPoints(toRType(points));
+    }
+
+    @Override
+    public void setPolylineStrokeColor(Color strokeColor, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeStrokeColor(
+                strokeColor, ROIIndex, shapeIndex, ShapeType.POLYLINE);
+    }
+
+    @Override
+    public void setPolylineStrokeDashArray(String strokeDashArray, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeStrokeDashArray(
+                strokeDashArray, ROIIndex, shapeIndex, ShapeType.POLYLINE);
+    }
+
+    @Override
+    public void setPolylineStrokeWidth(Length strokeWidth, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeStrokeWidth(
+                strokeWidth, ROIIndex, shapeIndex, ShapeType.POLYLINE);
+    }
+
+    @Override
+    public void setPolylineText(String text, int ROIIndex, int shapeIndex)
+    {
+        final Polyline polyline =
+                (Polyline) getShape(ShapeType.POLYLINE, ROIIndex, shapeIndex);
+        polyline.setTextValue(toRType(text));
+    }
+
+    @Override
+    public void setPolylineTheC(NonNegativeInteger theC, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTheC(theC, ROIIndex, shapeIndex, ShapeType.POLYLINE);
+    }
+
+    @Override
+    public void setPolylineTheT(NonNegativeInteger theT, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTheT(theT, ROIIndex, shapeIndex, ShapeType.POLYLINE);
+    }
+
+    @Override
+    public void setPolylineTheZ(NonNegativeInteger theZ, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTheZ(theZ, ROIIndex, shapeIndex, ShapeType.POLYLINE);
+    }
+
+    @Override
+    public void setPolylineTransform(AffineTransform transform, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTransform(transform, ROIIndex, shapeIndex, ShapeType.POLYLINE);
+    }
+
+    @Override
+    public void setRectangleAnnotationRef(String annotation, int ROIIndex,
+            int shapeIndex, int annotationRefIndex)
+    {
+        setShapeAnnotationRef(annotation, ROIIndex, shapeIndex,
+                              ShapeType.RECTANGLE);
+    }
+
+    @Override
+    public void setRectangleFillColor(Color fillColor, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFillColor(fillColor, ROIIndex, shapeIndex, ShapeType.RECTANGLE);
+    }
+
+    @Override
+    public void setRectangleFillRule(FillRule fillRule, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFillRule(fillRule, ROIIndex, shapeIndex, ShapeType.RECTANGLE);
+    }
+
+    @Override
+    public void setRectangleFontFamily(FontFamily fontFamily, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFontFamily(
+                fontFamily, ROIIndex, shapeIndex, ShapeType.RECTANGLE);
+    }
+
+    @Override
+    public void setRectangleFontSize(Length fontSize, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFontSize(fontSize, ROIIndex, shapeIndex, ShapeType.RECTANGLE);
+    }
+
+    @Override
+    public void setRectangleFontStyle(FontStyle fontStyle, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeFontStyle(fontStyle, ROIIndex, shapeIndex, ShapeType.RECTANGLE);
+    }
+
+    @Override
+    public void setRectangleHeight(Double height, int ROIIndex, int shapeIndex)
+    {
+        final Rectangle rectangle =
+                (Rectangle) getShape(ShapeType.RECTANGLE, ROIIndex, shapeIndex);
+        rectangle.setHeight(toRType(height));
+    }
+
+    @Override
+    public void setRectangleID(String id, int ROIIndex, int shapeIndex)
+    {
+        setShapeID(id, ROIIndex, shapeIndex, ShapeType.RECTANGLE);
+    }
+
+    @Override
+    public void setRectangleLocked(Boolean locked, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeLocked(locked, ROIIndex, shapeIndex, ShapeType.RECTANGLE);
+    }
+
+    @Override
+    public void setRectangleStrokeColor(Color strokeColor, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeStrokeColor(
+                strokeColor, ROIIndex, shapeIndex, ShapeType.RECTANGLE);
+    }
+
+    @Override
+    public void setRectangleStrokeDashArray(String strokeDashArray, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeStrokeDashArray(
+                strokeDashArray, ROIIndex, shapeIndex, ShapeType.RECTANGLE);
+    }
+
+    @Override
+    public void setRectangleStrokeWidth(Length strokeWidth, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeStrokeWidth(
+                strokeWidth, ROIIndex, shapeIndex, ShapeType.RECTANGLE);
+    }
+
+    @Override
+    public void setRectangleText(String text, int ROIIndex, int shapeIndex)
+    {
+        final Rectangle rectangle =
+                (Rectangle) getShape(ShapeType.RECTANGLE, ROIIndex, shapeIndex);
+        rectangle.setTextValue(toRType(text));
+    }
+
+    @Override
+    public void setRectangleTheC(NonNegativeInteger theC, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTheC(theC, ROIIndex, shapeIndex, ShapeType.RECTANGLE);
+    }
+
+    @Override
+    public void setRectangleTheT(NonNegativeInteger theT, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTheT(theT, ROIIndex, shapeIndex, ShapeType.RECTANGLE);
+    }
+
+    @Override
+    public void setRectangleTheZ(NonNegativeInteger theZ, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTheZ(theZ, ROIIndex, shapeIndex, ShapeType.RECTANGLE);
+    }
+
+    @Override
+    public void setRectangleTransform(AffineTransform transform, int ROIIndex,
+            int shapeIndex)
+    {
+        setShapeTransform(transform, ROIIndex, shapeIndex, ShapeType.RECTANGLE);
+    }
+
+    @Override
+    public void setRectangleWidth(Double width, int ROIIndex, int shapeIndex)
+    {
+        final Rectangle rectangle =
+                (Rectangle) getShape(ShapeType.RECTANGLE, ROIIndex, shapeIndex);
+        rectangle.setWidth(toRType(width));
+    }
+
+    @Override
+    public void setRectangleX(Double x, int ROIIndex, int shapeIndex)
+    {
+        final Rectangle rectangle =
+                (Rectangle) getShape(ShapeType.RECTANGLE, ROIIndex, shapeIndex);
+        rectangle.setX(toRType(x));
+    }
+
+    @Override
+    public void setRectangleY(Double y, int ROIIndex, int shapeIndex)
+    {
+        final Rectangle rectangle =
+                (Rectangle) getShape(ShapeType.RECTANGLE, ROIIndex, shapeIndex);
+        rectangle.setY(toRType(y));
+    }
+
+    @Override
+    public void setBooleanAnnotationDescription(String description,
+            int booleanAnnotationIndex)
+    {
+        getAnnotation(BooleanAnnotation.class, booleanAnnotationIndex)
+                .setDescription(toRType(description));
+    }
+
+    @Override
+    public void setBooleanAnnotationID(String id, int booleanAnnotationIndex)
+    {
+        getAnnotationContainer(BooleanAnnotation.class, booleanAnnotationIndex)
+                .LSID = id;
+    }
+
+    @Override
+    public void setBooleanAnnotationNamespace(String namespace,
+            int booleanAnnotationIndex)
+    {
+        getAnnotation(BooleanAnnotation.class, booleanAnnotationIndex)
+                .setNs(toRType(namespace));
+    }
+
+    @Override
+    public void setBooleanAnnotationValue(Boolean value,
+            int booleanAnnotationIndex)
+    {
+        final BooleanAnnotation annotation = (BooleanAnnotation)
+                getAnnotation(BooleanAnnotation.class, booleanAnnotationIndex);
+        annotation.setBoolValue(toRType(value));
+    }
+
+    @Override
+    public void setCommentAnnotationDescription(String description,
+            int commentAnnotationIndex)
+    {
+        getAnnotation(CommentAnnotation.class, commentAnnotationIndex)
+                .setDescription(toRType(description));
+    }
+
+    @Override
+    public void setCommentAnnotationID(String id, int commentAnnotationIndex)
+    {
+        getAnnotationContainer(CommentAnnotation.class, commentAnnotationIndex)
+                .LSID = id;
+    }
+
+    @Override
+    public void setCommentAnnotationNamespace(String namespace,
+            int commentAnnotationIndex)
+    {
+        getAnnotation(CommentAnnotation.class, commentAnnotationIndex)
+                .setNs(toRType(namespace));
+    }
+
+    @Override
+    public void setCommentAnnotationValue(String value,
+            int commentAnnotationIndex)
+    {
+        final CommentAnnotation annotation = (CommentAnnotation)
+                getAnnotation(CommentAnnotation.class, commentAnnotationIndex);
+        annotation.setTextValue(toRType(value));
+    }
+
+    @Override
+    public void setDoubleAnnotationDescription(String description,
+            int doubleAnnotationIndex)
+    {
+        getAnnotation(DoubleAnnotation.class, doubleAnnotationIndex)
+                .setDescription(toRType(description));
+    }
+
+    @Override
+    public void setDoubleAnnotationID(String id, int doubleAnnotationIndex)
+    {
+        getAnnotationContainer(DoubleAnnotation.class, doubleAnnotationIndex)
+                .LSID = id;
+    }
+
+    @Override
+    public void setDoubleAnnotationNamespace(String namespace,
+            int doubleAnnotationIndex)
+    {
+        getAnnotation(DoubleAnnotation.class, doubleAnnotationIndex)
+                .setNs(toRType(namespace));
+    }
+
+    @Override
+    public void setDoubleAnnotationValue(Double value,
+            int doubleAnnotationIndex)
+    {
+        final DoubleAnnotation annotation = (DoubleAnnotation)
+                getAnnotation(DoubleAnnotation.class, doubleAnnotationIndex);
+        annotation.setDoubleValue(toRType(value));
+    }
+
+    @Override
+    public void setFileAnnotationID(String id, int fileAnnotationIndex)
+    {
+        log.warn("Ignoring {}: file annotations are not imported", id);
+    }
+
+    @Override
+    public void setListAnnotationID(String id, int listAnnotationIndex)
+    {
+        log.warn("Ignoring {}: list annotations are not imported", id);
+    }
 
-import static omero.rtypes.unwrap;
+    @Override
+    public void setLongAnnotationDescription(String description,
+            int longAnnotationIndex)
+    {
+        getAnnotation(LongAnnotation.class, longAnnotationIndex)
+                .setDescription(toRType(description));
+    }
+
+    @Override
+    public void setLongAnnotationID(String id, int longAnnotationIndex)
+    {
+        getAnnotationContainer(LongAnnotation.class, longAnnotationIndex)
+                .LSID = id;
+    }
 
-public class ROIMetadataStoreClient extends OMEROMetadataStoreClient {
+    @Override
+    public void setLongAnnotationNamespace(String namespace,
+            int longAnnotationIndex)
+    {
+        getAnnotation(LongAnnotation.class, longAnnotationIndex)
+                .setNs(toRType(namespace));
+    }
 
-    private static final Logger log =
-            LoggerFactory.getLogger(ROIMetadataStoreClient.class);
+    @Override
+    public void setLongAnnotationValue(Long value, int longAnnotationIndex)
+    {
+        final LongAnnotation annotation = (LongAnnotation)
+                getAnnotation(LongAnnotation.class, longAnnotationIndex);
+        annotation.setLongValue(toRType(value));
+    }
+
+    @Override
+    public void setMapAnnotationDescription(String description,
+            int mapAnnotationIndex)
+    {
+        getAnnotation(MapAnnotation.class, mapAnnotationIndex)
+                .setDescription(toRType(description));
+    }
+
+    @Override
+    public void setMapAnnotationID(String id, int mapAnnotationIndex)
+    {
+        getAnnotationContainer(MapAnnotation.class, mapAnnotationIndex)
+                .LSID = id;
+    }
+
+    @Override
+    public void setMapAnnotationNamespace(String namespace,
+            int mapAnnotationIndex)
+    {
+        getAnnotation(MapAnnotation.class, mapAnnotationIndex)
+                .setNs(toRType(namespace));
+    }
+
+    @Override
+    public void setMapAnnotationValue(List<MapPair> value,
+            int mapAnnotationIndex)
+    {
+        final MapAnnotation annotation = (MapAnnotation)
+                getAnnotation(MapAnnotation.class, mapAnnotationIndex);
+        annotation.setMapValue(toNamedValues(value));
+    }
+
+    @Override
+    public void setTagAnnotationDescription(String description,
+            int tagAnnotationIndex)
+    {
+        getAnnotation(TagAnnotation.class, tagAnnotationIndex)
+                .setDescription(toRType(description));
+    }
+
+    @Override
+    public void setTagAnnotationID(String id, int tagAnnotationIndex)
+    {
+        getAnnotationContainer(TagAnnotation.class, tagAnnotationIndex)
+                .LSID = id;
+    }
+
+    @Override
+    public void setTagAnnotationNamespace(String namespace,
+            int tagAnnotationIndex)
+    {
+        getAnnotation(TagAnnotation.class, tagAnnotationIndex)
+                .setNs(toRType(namespace));
+    }
+
+    @Override
+    public void setTagAnnotationValue(String value, int tagAnnotationIndex)
+    {
+        final TagAnnotation annotation = (TagAnnotation)
+                getAnnotation(TagAnnotation.class, tagAnnotationIndex);
+        annotation.setTextValue(toRType(value));
+    }
+
+    @Override
+    public void setTermAnnotationDescription(String description,
+            int termAnnotationIndex)
+    {
+        getAnnotation(TermAnnotation.class, termAnnotationIndex)
+                .setDescription(toRType(description));
+    }
+
+    @Override
+    public void setTermAnnotationID(String id, int termAnnotationIndex)
+    {
+        getAnnotationContainer(TermAnnotation.class, termAnnotationIndex)
+                .LSID = id;
+    }
+
+    @Override
+    public void setTermAnnotationNamespace(String namespace,
+            int termAnnotationIndex)
+    {
+        getAnnotation(TermAnnotation.class, termAnnotationIndex)
+                .setNs(toRType(namespace));
+    }
+
+    @Override
+    public void setTermAnnotationValue(String value, int termAnnotationIndex)
+    {
+        final TermAnnotation annotation = (TermAnnotation)
+                getAnnotation(TermAnnotation.class, termAnnotationIndex);
+        annotation.setTermValue(toRType(value));
+    }
+
+    @Override
+    public void setTimestampAnnotationDescription(String description,
+            int timestampAnnotationIndex)
+    {
+        getAnnotation(TimestampAnnotation.class, timestampAnnotationIndex)
+                .setDescription(toRType(description));
+    }
+
+    @Override
+    public void setTimestampAnnotationID(String id,
+            int timestampAnnotationIndex)
+    {
+        getAnnotationContainer(TimestampAnnotation.class, timestampAnnotationIndex)
+                .LSID = id;
+    }
+
+    @Override
+    public void setTimestampAnnotationNamespace(String namespace,
+            int timestampAnnotationIndex)
+    {
+        getAnnotation(TimestampAnnotation.class, timestampAnnotationIndex)
+                .setNs(toRType(namespace));
+    }
+
+    @Override
+    public void setTimestampAnnotationValue(Timestamp value,
+            int timestampAnnotationIndex)
+    {
+        final TimestampAnnotation annotation = (TimestampAnnotation)
+                getAnnotation(TimestampAnnotation.class, timestampAnnotationIndex);
+        annotation.setTimeValue(toRType(value));
+    }
+
+    @Override
+    public void setXMLAnnotationDescription(String description,
+            int XMLAnnotationIndex)
+    {
+        getAnnotation(XmlAnnotation.class, XMLAnnotationIndex)
+                .setDescription(toRType(description));
+    }
+
+    @Override
+    public void setXMLAnnotationID(String id, int XMLAnnotationIndex)
+    {
+        getAnnotationContainer(XmlAnnotation.class, XMLAnnotationIndex)
+                .LSID = id;
+    }
 
-    /** A list of all objects their LSIDs. */
-    private Map<LSID, IObject> lsidMap = new HashMap<LSID, IObject>();
+    @Override
+    public void setXMLAnnotationNamespace(String namespace,
+            int XMLAnnotationIndex)
+    {
+        getAnnotation(XmlAnnotation.class, XMLAnnotationIndex)
+                .setNs(toRType(namespace));
+    }
 
-    /** A map of roiIndex vs. ROI object ordered by first access. */
-    private Map<Integer, Roi> roiList =
-        new LinkedHashMap<Integer, Roi>();
+    @Override
+    public void setXMLAnnotationValue(String value, int XMLAnnotationIndex)
+    {
+        final XmlAnnotation annotation = (XmlAnnotation)
+                getAnnotation(XmlAnnotation.class, XMLAnnotationIndex);
+        annotation.setTextValue(toRType(value));
+    }
 
     /**
-     * Returns a Roi model object based on its indexes within the
-     * OMERO data model.
-     * @param roiIndex Roi index.
-     * @return See above.
+     * Updates the server side MetadataStore with a list of our objects and
+     * references and saves them into the database.
+     * @param imageId id of the image to link the Rois to
+     * @return IDs of the saved Rois, indexed by <code>roiIndex</code>.
      */
-    private Roi getRoi(int roiIndex)
+    public long[] saveToDB(long imageId) throws ServerError
     {
-        return roiList.get(roiIndex);
+        return saveToDB(imageId, 0);
     }
 
     /**
      * Updates the server side MetadataStore with a list of our objects and
-     * references and saves them into the database.
+     * references and saves them into the database.  If a batch size is
+     * given the Rois are saved in chunks of that size, each in its own
+     * server transaction.  The next chunk is marshalled and sent while the
+     * previous one is still being saved.
+     * @param imageId id of the image to link the Rois to
+     * @param batchSize maximum number of Rois to save per call or
+     * <code>0</code> to save all Rois in a single call
+     * @return IDs of the saved Rois, indexed by <code>roiIndex</code>.
+     */
+    public long[] saveToDB(long imageId, int batchSize)
+            throws ServerError
+    {
+        return saveToDB(imageId, BatchSize.fixed(batchSize));
+    }
+
+    /**
+     * Updates the server side MetadataStore with a list of our objects and
+     * references and saves them into the database.  Unless the batch size is
+     * <code>0</code> the Rois are saved in chunks, each in its own server
+     * transaction.  The next chunk is marshalled and sent while the
+     * previous one is still being saved.  Only the IDs of the saved Rois
+     * are sent back by the server, rather than the whole saved graph.
+     * When saving in chunks the annotations linked to the Rois are saved
+     * first, so that an annotation shared by Rois of several chunks is
+     * only saved once.
      * @param imageId id of the image to link the Rois to
-     * @return List of Rois after database commit.
+     * @param batchSize number of Rois to save per call, which may adapt to
+     * the observed server latency
+     * @return IDs of the saved Rois, indexed by <code>roiIndex</code>.
      */
-    public List<IObject> saveToDB(long imageId) throws ServerError
-    {
-        Collection<IObjectContainer> containers =
-                this.getContainerCache().values();
-        IObjectContainer[] containerArray =
-                containers.toArray(new IObjectContainer[containers.size()]);
-        // Containers check
-        log.debug("Starting containers....");
-        for (LSID key : this.getContainerCache().keySet())
-        {
-            String s = String.format("%s == %s,%s,%s,%s",
-                    key, this.getContainerCache().get(key).sourceObject,
-                    this.getContainerCache().get(key).sourceObject.getId(),
-                    this.getContainerCache().get(key).sourceObject.isLoaded(),
-                    this.getContainerCache().get(key).LSID);
-            log.debug(s);
-        }
-        // Reference check
-        log.debug("Starting references....");
-        for (String key : this.getReferenceStringCache().keySet())
-        {
-            for (String value : this.getReferenceStringCache().get(key))
+    public long[] saveToDB(long imageId, BatchSize batchSize)
+            throws ServerError
+    {
+        return saveToDB(imageId, batchSize, false);
+    }
+
+    /**
+     * Saves the Rois built so far as {@link #saveToDB(long, BatchSize)}
+     * does and then discards them and their shapes, keeping the
+     * annotations so that Rois added later may link to them too.  The
+     * annotations linked to the Rois are always saved first, so that the
+     * Rois of later calls link to the saved annotations.  Rois added
+     * later may reuse the indexes of the discarded ones.
+     * @param imageId id of the image to link the Rois to
+     * @param batchSize number of Rois to save per call, which may adapt to
+     * the observed server latency
+     * @return IDs of the saved Rois, indexed by <code>roiIndex</code>.
+     */
+    public long[] saveRoisAndClear(long imageId, BatchSize batchSize)
+            throws ServerError
+    {
+        long[] ids = saveToDB(imageId, batchSize, true);
+        clearRois();
+        return ids;
+    }
+
+    /**
+     * Discards the Rois and shapes built so far and the references from
+     * them, keeping only the annotations.
+     */
+    private void clearRois()
+    {
+        ObjectRegistry annotations = new ObjectRegistry();
+        Map<String, IObject> annotationsById = new HashMap<String, IObject>();
+        for (int i = 0; i < registry.size(); i++)
+        {
+            long key = registry.keyAt(i);
+            if (ObjectRegistry.type(key) >= ANNOTATION_TYPE)
+            {
+                IObjectContainer container = registry.containerAt(i);
+                annotations.add(key, container);
+                annotationsById.put(container.LSID, container.sourceObject);
+            }
+        }
+        registry = annotations;
+        objectsById = annotationsById;
+        roiList = new RoiTable();
+        deferredPoints = new DeferredPoints();
+    }
+
+    private long[] saveToDB(long imageId, BatchSize batchSize,
+                            boolean annotationsFirst) throws ServerError
+    {
+        if (log.isDebugEnabled())
+        {
+            // Containers check
+            log.debug("Starting containers....");
+            for (int i = 0; i < registry.size(); i++)
             {
-                String s = String.format("%s == %s", key, value);
-                log.debug(s);
+                IObjectContainer container = registry.containerAt(i);
+                log.debug("{} == {},{},{}", container.LSID,
+                          container.sourceObject,
+                          container.sourceObject.getId(),
+                          container.sourceObject.isLoaded());
+            }
+            // Reference check
+            log.debug("Starting references....");
+            for (int i = 0; i < registry.referenceCount(); i++)
+            {
+                log.debug("{} == {}",
+                          Long.toHexString(registry.referenceSourceAt(i)),
+                          registry.referenceTargetAt(i));
             }
         }
-        log.debug("containerCache contains " + this.getContainerCache().size()
+        log.debug("containerCache contains " + countCachedContainers()
                   + " entries.");
-        log.debug("referenceCache contains " + countCachedReferences(null, null)
+        log.debug("referenceCache contains " + countCachedReferences()
                   + " entries.");
         // Object updates
-        log.debug("Handling # of containers: {}", containerArray.length);
-        for (IObjectContainer container : containerArray)
+        log.debug("Handling # of containers: {}", registry.size());
+        for (int i = 0; i < registry.size(); i++)
         {
-            log.debug("{}, {}", container.LSID, container.indexes,
-                      container.sourceObject);
+            long key = registry.keyAt(i);
+            IObjectContainer container = registry.containerAt(i);
+            log.debug("{}, {}", container.LSID, container.sourceObject);
             this.updateObject(container.LSID, container.sourceObject,
-                              container.indexes);
+                              ObjectRegistry.index(key),
+                              ObjectRegistry.subIndex(key));
         }
         // Reference updates
-        String[] referenceKeys = this.getReferenceStringCache().keySet()
-                .toArray(new String[this.getReferenceStringCache().size()]);
-        log.debug("Handling # of references: {}", referenceKeys.length);
-        this.updateReferences(this.getReferenceStringCache());
+        log.debug("Handling # of references: {}", registry.referenceCount());
+        this.updateReferences();
         // Save to DB
         log.info("Saving to DB");
 
         linkImage(imageId);
+        if (deferredPoints.size() > 0)
+        {
+            log.info("Formatting the points of {} shapes as they are sent",
+                     deferredPoints.size());
+        }
+        deferredPoints.index(registry, roiList);
         ServiceFactoryPrx sf = this.getServiceFactory();
         List<IObject> rois = new ArrayList<IObject>(roiList.values());
-        rois = sf.getUpdateService().saveAndReturnArray(rois);
-        for (IObject roi : rois)
+        long[] saved;
+        if (batchSize.get() <= 0
+                || (!batchSize.isAdaptive() && batchSize.get() >= rois.size()))
+        {
+            if (annotationsFirst)
+            {
+                saveLinkedAnnotations(sf.getUpdateService(), batchSize.get());
+            }
+            List<Long> ids;
+            deferredPoints.fill(0, rois.size());
+            try
+            {
+                ids = sf.getUpdateService().saveAndReturnIds(rois);
+            }
+            finally
+            {
+                deferredPoints.clear(0, rois.size());
+            }
+            saved = new long[ids.size()];
+            for (int i = 0; i < saved.length; i++)
+            {
+                saved[i] = ids.get(i);
+                log.info("Saved ROI with ID: {}", saved[i]);
+            }
+        }
+        else
+        {
+            saveLinkedAnnotations(sf.getUpdateService(), batchSize.get());
+            saved = saveInBatches(
+                    sf.getUpdateService(), rois, deferredPoints, batchSize);
+        }
+        // Map the IDs, which are in first access order, back to roiIndex
+        long[] ids = new long[roiList.bound()];
+        Arrays.fill(ids, -1L);
+        for (int i = 0; i < roiList.size(); i++)
+        {
+            ids[roiList.indexAt(i)] = saved[i];
+        }
+        return ids;
+    }
+
+    /**
+     * Saves the annotations linked to Rois or shapes ahead of the Rois and
+     * unloads them, so that the links sent with each batch refer to the
+     * saved annotations by ID.  Otherwise every batch with a Roi linked to
+     * a shared annotation would save its own copy of the annotation.
+     * @param iUpdate update service to save with
+     * @param batchSize number of annotations per call or <code>0</code> to
+     * save them all in a single call
+     */
+    private void saveLinkedAnnotations(IUpdatePrx iUpdate, int batchSize)
+            throws ServerError
+    {
+        Map<IObject, Boolean> linked = new IdentityHashMap<IObject, Boolean>();
+        for (int i = 0; i < registry.referenceCount(); i++)
+        {
+            long source = registry.referenceSourceAt(i);
+            IObject annotation =
+                    objectsById.get(registry.referenceTargetAt(i));
+            if (ObjectRegistry.type(source) < ANNOTATION_TYPE
+                    && registry.get(source) != null
+                    && annotation instanceof Annotation
+                    && annotation.getId() == null)
+            {
+                linked.put(annotation, Boolean.TRUE);
+            }
+        }
+        if (linked.isEmpty())
+        {
+            return;
+        }
+        List<IObject> annotations = new ArrayList<IObject>(linked.keySet());
+        int size = batchSize > 0 ? batchSize : annotations.size();
+        for (int from = 0; from < annotations.size(); from += size)
+        {
+            List<IObject> batch = annotations.subList(
+                    from, Math.min(from + size, annotations.size()));
+            List<Long> ids = iUpdate.saveAndReturnIds(
+                    new ArrayList<IObject>(batch));
+            for (int i = 0; i < ids.size(); i++)
+            {
+                batch.get(i).setId(rlong(ids.get(i)));
+                batch.get(i).unload();
+            }
+        }
+        log.info("Saved {} annotations linked to ROIs and shapes",
+                 annotations.size());
+    }
+
+    /**
+     * Saves Rois in batches, keeping at most two batches in flight: batch
+     * N + 1 is marshalled and sent before waiting for the result of batch
+     * N.  A batch the server could not handle because of its size is split
+     * in half and both halves are retried.  A server closes the connection
+     * instead of answering when a message exceeds its size limit, so if
+     * the connection is lost the session is joined again on a new one, the
+     * batch is split and the batches sent after it are sent again.  A
+     * connection lost for another reason after the server saved a batch
+     * would see that batch saved twice; such a failure is logged as a
+     * warning.  The latency of a batch is measured from when it was sent
+     * or, if a batch was ahead of it, from when that one completed.
+     * @param iUpdate update service to save with
+     * @param rois Rois to save
+     * @param points shapes of the Rois whose points are set as each batch
+     * is sent
+     * @param batchSize number of Rois per batch
+     * @return IDs of the saved Rois, in the order given.
+     */
+    private long[] saveInBatches(IUpdatePrx iUpdate, List<IObject> rois,
+                                 DeferredPoints points, BatchSize batchSize)
+                    throws ServerError
+    {
+        long lastCompleted = System.nanoTime();
+        log.info("Saving {} ROIs in {} batches of {}", rois.size(),
+                 batchSize.isAdaptive() ? "adaptive" : "fixed size",
+                 batchSize.get());
+        long[] saved = new long[rois.size()];
+        Deque<PendingBatch> retries = new ArrayDeque<PendingBatch>();
+        Deque<PendingBatch> inFlight = new ArrayDeque<PendingBatch>();
+        int next = 0;
+        int batchNumber = 0;
+        while (next < rois.size() || !retries.isEmpty()
+                || !inFlight.isEmpty())
+        {
+            while (inFlight.size() < 2
+                    && (next < rois.size() || !retries.isEmpty()))
+            {
+                PendingBatch batch = retries.pollFirst();
+                if (batch == null)
+                {
+                    int size = Math.min(batchSize.get(), rois.size() - next);
+                    batch = new PendingBatch(next, size);
+                    next += size;
+                }
+                batch.number = ++batchNumber;
+                batch.send(iUpdate, rois, points);
+                inFlight.addLast(batch);
+            }
+            PendingBatch batch = inFlight.pollFirst();
+            batch.start = Math.max(batch.start, lastCompleted);
+            try
+            {
+                List<Long> ids = batch.end(iUpdate);
+                batchSize.succeeded(batch.size, batch.latency());
+                for (int i = 0; i < ids.size(); i++)
+                {
+                    saved[batch.offset + i] = ids.get(i);
+                }
+            }
+            catch (Ice.MemoryLimitException | omero.InternalException e)
+            {
+                if (batch.size == 1)
+                {
+                    throw e;
+                }
+                log.warn("Batch {} of {} ROIs failed, splitting: {}",
+                         batch.number, batch.size, e.toString());
+                split(batch, batchSize, retries);
+            }
+            catch (Ice.ConnectionLostException e)
+            {
+                if (batch.size == 1)
+                {
+                    throw e;
+                }
+                log.warn("Connection lost saving batch {} of {} ROIs, " +
+                         "splitting: {}", batch.number, batch.size,
+                         e.toString());
+                // Batches sent after this one were lost with the connection
+                while (!inFlight.isEmpty())
+                {
+                    PendingBatch lost = inFlight.pollLast();
+                    retries.addFirst(
+                            new PendingBatch(lost.offset, lost.size));
+                }
+                split(batch, batchSize, retries);
+                try
+                {
+                    reconnect();
+                }
+                catch (CannotCreateSessionException
+                        | PermissionDeniedException reconnectFailure)
+                {
+                    e.addSuppressed(reconnectFailure);
+                    throw e;
+                }
+                iUpdate = serviceFactory.getUpdateService();
+            }
+            lastCompleted = System.nanoTime();
+        }
+        return saved;
+    }
+
+    /**
+     * Queues the two halves of a batch the server could not handle to be
+     * sent ahead of any other batch.
+     * @param batch failed batch of more than one Roi
+     * @param batchSize batch size to report the failure to
+     * @param retries batches to send again
+     */
+    private static void split(PendingBatch batch, BatchSize batchSize,
+                              Deque<PendingBatch> retries)
+    {
+        batchSize.failed(batch.size);
+        int half = batch.size / 2;
+        retries.addFirst(new PendingBatch(
+                batch.offset + half, batch.size - half));
+        retries.addFirst(new PendingBatch(batch.offset, half));
+    }
+
+    /**
+     * A contiguous range of Rois which is sent to the server as one save
+     * call.
+     */
+    private static class PendingBatch
+    {
+        final int offset;
+
+        final int size;
+
+        int number;
+
+        /**
+         * When the server may have started on the batch, from
+         * {@link System#nanoTime()}.
+         */
+        long start;
+
+        Ice.AsyncResult result;
+
+        PendingBatch(int offset, int size)
+        {
+            this.offset = offset;
+            this.size = size;
+        }
+
+        /**
+         * Marshals the batch and sends it to the server without waiting
+         * for the result.  Deferred points are only set on the shapes of
+         * the batch while it is marshalled, which the call to begin the
+         * save does before returning.
+         * @param iUpdate update service to save with
+         * @param rois all Rois being saved
+         * @param points shapes of the Rois whose points are deferred
+         */
+        void send(IUpdatePrx iUpdate, List<IObject> rois,
+                  DeferredPoints points)
+        {
+            List<IObject> batch = new ArrayList<IObject>(
+                    rois.subList(offset, offset + size));
+            points.fill(offset, offset + size);
+            try
+            {
+                start = System.nanoTime();
+                result = iUpdate.begin_saveAndReturnIds(batch);
+            }
+            finally
+            {
+                points.clear(offset, offset + size);
+            }
+        }
+
+        /**
+         * @return milliseconds since the server may have started on the
+         * batch
+         */
+        long latency()
         {
-            log.info("Saved ROI with ID: {}", unwrap(roi.getId()));
+            return (System.nanoTime() - start) / 1000000;
+        }
+
+        /**
+         * Waits for the batch to be saved and reports its timing and IDs.
+         * @param iUpdate update service the batch was sent with
+         * @return IDs of the saved Rois
+         */
+        List<Long> end(IUpdatePrx iUpdate) throws ServerError
+        {
+            List<Long> ids = iUpdate.end_saveAndReturnIds(result);
+            log.info("Saved batch {} ({} ROIs) in {} ms",
+                     number, size, latency());
+            for (Long id : ids)
+            {
+                log.info("Saved ROI with ID: {}", id);
+            }
+            return ids;
         }
-        return rois;
     }
 
     /**
      * Updates a given model object in our object graph.
      * @param lsid LSID of model object.
      * @param sourceObject Model object itself.
-     * @param indexes Any indexes that should are used to describe the model
-     * object's graph location.
+     * @param index First index of the model object: <code>roiIndex</code>
+     * for a Roi or Shape and <code>annotationIndex</code> for an Annotation.
+     * @param subIndex Second index of the model object:
+     * <code>shapeIndex</code> for a Shape, otherwise unused.
      */
     public void updateObject(String lsid, IObject sourceObject,
-                             Map<String, Integer> indexes)
+                             int index, int subIndex)
     {
-        lsidMap.put(new LSID(lsid), sourceObject);
+        objectsById.put(lsid, sourceObject);
         if (sourceObject instanceof Roi)
         {
             log.debug("Handling Roi");
-            handle(lsid, (Roi) sourceObject, indexes);
+            handle(lsid, (Roi) sourceObject, index);
         }
         else if (sourceObject instanceof Shape)
         {
             log.debug("Handling Shape");
-            handle(lsid, (Shape) sourceObject, indexes);
+            handle(lsid, (Shape) sourceObject, index, subIndex);
         }
         else if (sourceObject instanceof Annotation)
         {
             log.debug("Handling Annotation");
-            handle(lsid, (Annotation) sourceObject, indexes);
+            handle(lsid, (Annotation) sourceObject, index);
         }
         else
         {
@@ -167,79 +2582,73 @@ public class ROIMetadataStoreClient extends OMEROMetadataStoreClient {
     }
 
     /**
-     * Updates our object graph references.
-     * @param referenceCache Client side LSID reference cache.
+     * Updates our object graph references.  Must be called after every
+     * object has been passed to
+     * {@link #updateObject(String, IObject, int, int)}.
      */
-    public void updateReferences(Map<String, String[]> referenceCache)
+    public void updateReferences()
     {
         // This function is mostly processing back-references. e.g. If the OME
         // Schema has a AnnotationRef in ROI the referenceObject is Annotation
         // and the targetObject is ROI.
-        for (String target : referenceCache.keySet())
+        for (int i = 0; i < registry.referenceCount(); i++)
         {
-            for (String reference : referenceCache.get(target))
+            IObjectContainer target = registry.get(
+                    registry.referenceSourceAt(i));
+            String reference = registry.referenceTargetAt(i);
+            if (target == null)
             {
-                LSID targetLSID = new LSID(target);
-                IObject targetObject = lsidMap.get(targetLSID);
-                IObject referenceObject = lsidMap.get(
-                        new LSID(stripCustomSuffix(reference)));
-                log.debug(String.format(
-                        "Updating reference handler for %s(%s) --> %s(%s).",
-                        reference, referenceObject, target, targetObject));
-                if (targetObject instanceof Roi)
-                {
-                    if (referenceObject instanceof Annotation) {
-                        log.debug("Roi -> Annotation");
-                        handleReference((Roi) targetObject,
-                                        (Annotation) referenceObject);
-                        continue;
-                    }
-                }
+                log.warn("Ignoring reference to {} from missing object",
+                         reference);
+                continue;
+            }
+            IObject targetObject = target.sourceObject;
+            IObject referenceObject = objectsById.get(reference);
+            log.debug("Updating reference handler for {}({}) --> {}({}).",
+                      reference, referenceObject, target.LSID, targetObject);
+            if (!(referenceObject instanceof Annotation))
+            {
+                log.warn("Ignoring reference from {} to {}, which was not "
+                         + "imported", target.LSID, reference);
+                continue;
+            }
+            if (targetObject instanceof Roi)
+            {
+                log.debug("Roi -> Annotation");
+                handleReference((Roi) targetObject,
+                                (Annotation) referenceObject);
+            }
+            else if (targetObject instanceof Shape)
+            {
+                log.debug("Shape -> Annotation");
+                handleReference((Shape) targetObject,
+                                (Annotation) referenceObject);
             }
         }
     }
 
-    /**
-     * Strips custom, reference only suffixes from LSID so that the object
-     * may be correctly looked up.
-     * @param LSID The LSID string to strip the suffix from.
-     * @return A new LSID string with the suffix stripped or <code>LSID</code>.
-     */
-    private String stripCustomSuffix(String LSID)
-    {
-        if (LSID.endsWith("OMERO_EMISSION_FILTER")
-            || LSID.endsWith("OMERO_EXCITATION_FILTER"))
-        {
-            return LSID.substring(0, LSID.lastIndexOf(':'));
-        }
-        return LSID;
-    }
-
     /**
      * Handles inserting a specific type of model object into our object graph.
      * @param LSID LSID of the model object.
      * @param sourceObject Model object itself.
-     * @param indexes Any indexes that should be used to reference the model
-     * object.
+     * @param roiIndex Index of the Roi.
      */
-    private void handle(String LSID, Roi sourceObject,
-                        Map<String, Integer> indexes)
+    private void handle(String LSID, Roi sourceObject, int roiIndex)
     {
-        roiList.put(indexes.get("roiIndex"), sourceObject);
+        roiList.put(roiIndex, sourceObject);
     }
 
     /**
      * Handles inserting a specific type of model object into our object graph.
      * @param LSID LSID of the model object.
      * @param sourceObject Model object itself.
-     * @param indexes Any indexes that should be used to reference the model
-     * object.
+     * @param roiIndex Index of the Roi the Shape belongs to.
+     * @param shapeIndex Index of the Shape within its Roi.
      */
-    private void handle(String LSID, Shape sourceObject,
-                        Map<String, Integer> indexes)
+    private void handle(String LSID, Shape sourceObject, int roiIndex,
+                        int shapeIndex)
     {
         log.debug("Adding shape");
-        int roiIndex = indexes.get("roiIndex");
         Roi r = getRoi(roiIndex);
         r.addShape(sourceObject);
     }
@@ -248,11 +2657,10 @@ public class ROIMetadataStoreClient extends OMEROMetadataStoreClient {
      * Handles inserting a specific type of model object into our object graph.
      * @param LSID LSID of the model object.
      * @param sourceObject Model object itself.
-     * @param indexes Any indexes that should be used to reference the model
-     * object.
+     * @param annotationIndex Index of the Annotation.
      */
     private void handle(String LSID, Annotation sourceObject,
-                        Map<String, Integer> indexes)
+                        int annotationIndex)
     {
         // No-op.
     }
@@ -268,6 +2676,17 @@ public class ROIMetadataStoreClient extends OMEROMetadataStoreClient {
         target.linkAnnotation(reference);
     }
 
+    /**
+     * Handles linking a specific reference object to a target object in our
+     * object graph.
+     * @param target Target model object.
+     * @param reference Reference model object.
+     */
+    private void handleReference(Shape target, Annotation reference)
+    {
+        target.linkAnnotation(reference);
+    }
+
     public void linkImage(long imageId)
     {
         Image image = new ImageI(imageId, false);
@@ -278,18 +2697,4 @@ public class ROIMetadataStoreClient extends OMEROMetadataStoreClient {
             roi.setImage(image);
         }
     }
-
-    /* (non-Javadoc)
-     * @see loci.formats.meta.MetadataStore#setROIName(java.lang.String, int)
-     */
-    @Override
-    public void setROIName(String name, int ROIIndex)
-    {
-        
-        LinkedHashMap<Index, Integer> indexes =
-                new LinkedHashMap<Index, Integer>();
-        indexes.put(Index.ROI_INDEX, ROIIndex);
-        Roi o = (Roi) getIObjectContainer(Roi.class, indexes).sourceObject;
-        o.setName(toRType(name));
-    }
 }
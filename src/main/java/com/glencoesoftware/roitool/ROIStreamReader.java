@@ -0,0 +1,1146 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.glencoesoftware.roitool;
+
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import loci.formats.meta.MetadataStore;
+import ome.units.quantity.Length;
+import ome.xml.model.AffineTransform;
+import ome.xml.model.MapPair;
+import ome.xml.model.enums.EnumerationException;
+import ome.xml.model.enums.FillRule;
+import ome.xml.model.enums.FontFamily;
+import ome.xml.model.enums.FontStyle;
+import ome.xml.model.enums.Marker;
+import ome.xml.model.enums.UnitsLength;
+import ome.xml.model.enums.handlers.UnitsLengthEnumHandler;
+import ome.xml.model.primitives.Color;
+import ome.xml.model.primitives.NonNegativeInteger;
+import ome.xml.model.primitives.Timestamp;
+
+/**
+ * Reads ROIs and structured annotations from an OME-XML document with a
+ * StAX pull parser and feeds them into a {@link MetadataStore} as each
+ * element is read.  Unlike building an <code>OMEXMLMetadata</code> DOM and
+ * running <code>MetadataConverter</code> over it, only the element currently
+ * being read is held by the parser.  Properties are set with the typed
+ * setters of each shape and annotation type.
+ * <p>
+ * A caller may also take the ROIs out of the store in chunks as they are
+ * read, with {@link #read(InputStream, int, ChunkHandler)}, so that the
+ * memory of an import does not grow with the number of ROIs.  The schema
+ * places <code>StructuredAnnotations</code> before the ROIs, so every
+ * annotation a ROI refers to has normally been read by the time the ROI
+ * is.  If a ROI refers to an annotation which has not been read, the ROIs
+ * are instead held until the end of the document, where the annotation
+ * may yet be found.
+ * </p>
+ */
+public class ROIStreamReader
+{
+    private static final Logger log =
+            LoggerFactory.getLogger(ROIStreamReader.class);
+
+    /** Shape element names, as found inside an OME-XML <code>Union</code>. */
+    private static final Set<String> SHAPE_TYPES =
+            Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(
+                    "Ellipse", "Label", "Line", "Mask", "Point", "Polygon",
+                    "Polyline", "Rectangle")));
+
+    /** Structured annotation element names we are able to stream. */
+    private static final Set<String> ANNOTATION_TYPES =
+            Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(
+                    "BooleanAnnotation", "CommentAnnotation",
+                    "DoubleAnnotation", "LongAnnotation", "MapAnnotation",
+                    "TagAnnotation", "TermAnnotation",
+                    "TimestampAnnotation", "XMLAnnotation")));
+
+    private final MetadataStore store;
+
+    private final XMLInputFactory factory;
+
+    /** IDs of the annotations read so far, including skipped ones. */
+    private final Set<String> annotationIds = new HashSet<String>();
+
+    /** Whether a ROI has referred to an annotation not read yet. */
+    private boolean forwardReference;
+
+    /**
+     * Takes the ROIs read so far out of the store, so that a document's
+     * ROIs need not all be held at once.
+     */
+    public interface ChunkHandler
+    {
+        /**
+         * Called once the store holds a chunk of ROIs.  On return the store
+         * must hold no ROIs, as the next ROI read is given index
+         * <code>0</code>.
+         * @param roiCount number of ROIs in the store
+         * @return whether to go on reading
+         */
+        boolean flush(int roiCount);
+    }
+
+    /**
+     * Creates a new reader which will populate the given store.
+     * @param store metadata store to populate
+     */
+    public ROIStreamReader(MetadataStore store)
+    {
+        this.store = store;
+        this.factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(
+                XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    /**
+     * Reads every <code>ROI</code> and the <code>StructuredAnnotations</code>
+     * from an OME-XML document.  All other elements are skipped.
+     * @param in OME-XML document
+     * @return number of ROIs read
+     * @throws XMLStreamException if the document is malformed or contains
+     * invalid attribute values
+     */
+    public int read(InputStream in) throws XMLStreamException
+    {
+        return read(in, 0, null);
+    }
+
+    /**
+     * Reads every <code>ROI</code> and the <code>StructuredAnnotations</code>
+     * from an OME-XML document, handing the ROIs over each time
+     * <code>chunkSize</code> of them have been read.  The ROIs left over
+     * at the end, or all of them if a ROI refers to an annotation before
+     * it has been read, are left in the store.  All other elements are
+     * skipped.
+     * @param in OME-XML document
+     * @param chunkSize number of ROIs per chunk
+     * @param handler handler to take each chunk of ROIs out of the store
+     * or <code>null</code> to leave them all in it
+     * @return number of ROIs read or <code>-1</code> if the handler
+     * stopped the reading
+     * @throws XMLStreamException if the document is malformed or contains
+     * invalid attribute values
+     */
+    public int read(InputStream in, int chunkSize, ChunkHandler handler)
+            throws XMLStreamException
+    {
+        annotationIds.clear();
+        forwardReference = false;
+        XMLStreamReader reader = factory.createXMLStreamReader(in);
+        int roiCount = 0;
+        int roiIndex = 0;
+        try
+        {
+            while (reader.hasNext())
+            {
+                if (reader.next() != XMLStreamConstants.START_ELEMENT)
+                {
+                    continue;
+                }
+                String name = reader.getLocalName();
+                if ("ROI".equals(name))
+                {
+                    readROI(reader, roiIndex++);
+                    roiCount++;
+                    if (handler != null && !forwardReference
+                            && roiIndex >= chunkSize)
+                    {
+                        if (!handler.flush(roiIndex))
+                        {
+                            return -1;
+                        }
+                        roiIndex = 0;
+                    }
+                }
+                else if ("StructuredAnnotations".equals(name))
+                {
+                    readStructuredAnnotations(reader);
+                }
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+        return roiCount;
+    }
+
+    /**
+     * Notes a reference from a ROI or shape to an annotation, warning the
+     * first time the annotation has not been read yet.
+     * @param id ID of the annotation
+     */
+    private void checkReference(String id)
+    {
+        if (!forwardReference && !annotationIds.contains(id))
+        {
+            forwardReference = true;
+            log.warn("ROIs refer to annotation {} before it is read; " +
+                     "holding all ROIs until the end of the document", id);
+        }
+    }
+
+    /**
+     * Reads a single <code>ROI</code>; the reader is left positioned on its
+     * end element.
+     * @param reader reader positioned on the ROI start element
+     * @param roiIndex index of the ROI within the store
+     */
+    private void readROI(XMLStreamReader reader, int roiIndex)
+            throws XMLStreamException
+    {
+        store.setROIID(reader.getAttributeValue(null, "ID"), roiIndex);
+        String name = reader.getAttributeValue(null, "Name");
+        if (name != null)
+        {
+            store.setROIName(name, roiIndex);
+        }
+        int shapeIndex = 0;
+        int annotationRefIndex = 0;
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT)
+        {
+            switch (reader.getLocalName())
+            {
+                case "Union":
+                    while (reader.nextTag() == XMLStreamConstants.START_ELEMENT)
+                    {
+                        String type = reader.getLocalName();
+                        if (SHAPE_TYPES.contains(type))
+                        {
+                            readShape(reader, type, roiIndex, shapeIndex++);
+                        }
+                        else
+                        {
+                            log.warn("Skipping unknown shape type: {}", type);
+                            skipElement(reader);
+                        }
+                    }
+                    break;
+                case "AnnotationRef":
+                    String annotation = reader.getAttributeValue(null, "ID");
+                    checkReference(annotation);
+                    store.setROIAnnotationRef(
+                            annotation, roiIndex, annotationRefIndex++);
+                    skipElement(reader);
+                    break;
+                case "Description":
+                    store.setROIDescription(reader.getElementText(), roiIndex);
+                    break;
+                default:
+                    skipElement(reader);
+            }
+        }
+    }
+
+    /**
+     * Reads a single shape; the reader is left positioned on its end
+     * element.
+     * @param reader reader positioned on the shape start element
+     * @param type shape element name, e.g. <code>Rectangle</code>
+     * @param roiIndex index of the parent ROI
+     * @param shapeIndex index of the shape within its ROI
+     */
+    private void readShape(XMLStreamReader reader, String type,
+                           int roiIndex, int shapeIndex)
+            throws XMLStreamException
+    {
+        ShapeAttributes values = new ShapeAttributes();
+        for (int i = 0; i < reader.getAttributeCount(); i++)
+        {
+            String name = reader.getAttributeLocalName(i);
+            String value = reader.getAttributeValue(i);
+            try
+            {
+                values.parse(reader, name, value);
+            }
+            catch (EnumerationException | IllegalArgumentException e)
+            {
+                throw new XMLStreamException(String.format(
+                        "Invalid %s %s: %s", type, name, value),
+                        reader.getLocation(), e);
+            }
+        }
+        setShape(type, values, roiIndex, shapeIndex);
+        int annotationRefIndex = 0;
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT)
+        {
+            switch (reader.getLocalName())
+            {
+                case "Transform":
+                    setShapeTransform(type, readTransform(reader),
+                                      roiIndex, shapeIndex);
+                    skipElement(reader);
+                    break;
+                case "AnnotationRef":
+                    String annotation = reader.getAttributeValue(null, "ID");
+                    checkReference(annotation);
+                    setShapeAnnotationRef(type, annotation,
+                            roiIndex, shapeIndex, annotationRefIndex++);
+                    skipElement(reader);
+                    break;
+                default:
+                    // BinData of a Mask is not stored in OMERO
+                    skipElement(reader);
+            }
+        }
+    }
+
+    /**
+     * Populates the properties of a shape with the typed setters of its
+     * type.  The ID is set first so that the store can register the
+     * container under its LSID before any other property is populated.
+     * @param type shape element name, one of {@link #SHAPE_TYPES}
+     * @param values attributes of the shape
+     * @param roi index of the parent ROI
+     * @param index index of the shape within its ROI
+     */
+    private void setShape(String type, ShapeAttributes values,
+                          int roi, int index)
+    {
+        switch (type)
+        {
+            case "Ellipse":
+                setEllipse(values, roi, index);
+                break;
+            case "Label":
+                setLabel(values, roi, index);
+                break;
+            case "Line":
+                setLine(values, roi, index);
+                break;
+            case "Mask":
+                setMask(values, roi, index);
+                break;
+            case "Point":
+                setPoint(values, roi, index);
+                break;
+            case "Polygon":
+                setPolygon(values, roi, index);
+                break;
+            case "Polyline":
+                setPolyline(values, roi, index);
+                break;
+            case "Rectangle":
+                setRectangle(values, roi, index);
+                break;
+            default:
+                throw new IllegalArgumentException(
+                        "Unsupported shape type: " + type);
+        }
+    }
+
+    private void setEllipse(ShapeAttributes values, int roi, int index)
+    {
+        store.setEllipseID(values.id, roi, index);
+        set(store::setEllipseX, values.x, roi, index);
+        set(store::setEllipseY, values.y, roi, index);
+        set(store::setEllipseRadiusX, values.radiusX, roi, index);
+        set(store::setEllipseRadiusY, values.radiusY, roi, index);
+        set(store::setEllipseFillColor, values.fillColor, roi, index);
+        set(store::setEllipseFillRule, values.fillRule, roi, index);
+        set(store::setEllipseFontFamily, values.fontFamily, roi, index);
+        set(store::setEllipseFontSize, values.fontSize, roi, index);
+        set(store::setEllipseFontStyle, values.fontStyle, roi, index);
+        set(store::setEllipseLocked, values.locked, roi, index);
+        set(store::setEllipseStrokeColor, values.strokeColor, roi, index);
+        set(store::setEllipseStrokeDashArray,
+            values.strokeDashArray, roi, index);
+        set(store::setEllipseStrokeWidth, values.strokeWidth, roi, index);
+        set(store::setEllipseText, values.text, roi, index);
+        set(store::setEllipseTheC, values.theC, roi, index);
+        set(store::setEllipseTheT, values.theT, roi, index);
+        set(store::setEllipseTheZ, values.theZ, roi, index);
+    }
+
+    private void setLabel(ShapeAttributes values, int roi, int index)
+    {
+        store.setLabelID(values.id, roi, index);
+        set(store::setLabelX, values.x, roi, index);
+        set(store::setLabelY, values.y, roi, index);
+        set(store::setLabelFillColor, values.fillColor, roi, index);
+        set(store::setLabelFillRule, values.fillRule, roi, index);
+        set(store::setLabelFontFamily, values.fontFamily, roi, index);
+        set(store::setLabelFontSize, values.fontSize, roi, index);
+        set(store::setLabelFontStyle, values.fontStyle, roi, index);
+        set(store::setLabelLocked, values.locked, roi, index);
+        set(store::setLabelStrokeColor, values.strokeColor, roi, index);
+        set(store::setLabelStrokeDashArray, values.strokeDashArray, roi, index);
+        set(store::setLabelStrokeWidth, values.strokeWidth, roi, index);
+        set(store::setLabelText, values.text, roi, index);
+        set(store::setLabelTheC, values.theC, roi, index);
+        set(store::setLabelTheT, values.theT, roi, index);
+        set(store::setLabelTheZ, values.theZ, roi, index);
+    }
+
+    private void setLine(ShapeAttributes values, int roi, int index)
+    {
+        store.setLineID(values.id, roi, index);
+        set(store::setLineX1, values.x1, roi, index);
+        set(store::setLineY1, values.y1, roi, index);
+        set(store::setLineX2, values.x2, roi, index);
+        set(store::setLineY2, values.y2, roi, index);
+        set(store::setLineMarkerStart, values.markerStart, roi, index);
+        set(store::setLineMarkerEnd, values.markerEnd, roi, index);
+        set(store::setLineFillColor, values.fillColor, roi, index);
+        set(store::setLineFillRule, values.fillRule, roi, index);
+        set(store::setLineFontFamily, values.fontFamily, roi, index);
+        set(store::setLineFontSize, values.fontSize, roi, index);
+        set(store::setLineFontStyle, values.fontStyle, roi, index);
+        set(store::setLineLocked, values.locked, roi, index);
+        set(store::setLineStrokeColor, values.strokeColor, roi, index);
+        set(store::setLineStrokeDashArray, values.strokeDashArray, roi, index);
+        set(store::setLineStrokeWidth, values.strokeWidth, roi, index);
+        set(store::setLineText, values.text, roi, index);
+        set(store::setLineTheC, values.theC, roi, index);
+        set(store::setLineTheT, values.theT, roi, index);
+        set(store::setLineTheZ, values.theZ, roi, index);
+    }
+
+    private void setMask(ShapeAttributes values, int roi, int index)
+    {
+        store.setMaskID(values.id, roi, index);
+        set(store::setMaskX, values.x, roi, index);
+        set(store::setMaskY, values.y, roi, index);
+        set(store::setMaskWidth, values.width, roi, index);
+        set(store::setMaskHeight, values.height, roi, index);
+        set(store::setMaskFillColor, values.fillColor, roi, index);
+        set(store::setMaskFillRule, values.fillRule, roi, index);
+        set(store::setMaskFontFamily, values.fontFamily, roi, index);
+        set(store::setMaskFontSize, values.fontSize, roi, index);
+        set(store::setMaskFontStyle, values.fontStyle, roi, index);
+        set(store::setMaskLocked, values.locked, roi, index);
+        set(store::setMaskStrokeColor, values.strokeColor, roi, index);
+        set(store::setMaskStrokeDashArray, values.strokeDashArray, roi, index);
+        set(store::setMaskStrokeWidth, values.strokeWidth, roi, index);
+        set(store::setMaskText, values.text, roi, index);
+        set(store::setMaskTheC, values.theC, roi, index);
+        set(store::setMaskTheT, values.theT, roi, index);
+        set(store::setMaskTheZ, values.theZ, roi, index);
+    }
+
+    private void setPoint(ShapeAttributes values, int roi, int index)
+    {
+        store.setPointID(values.id, roi, index);
+        set(store::setPointX, values.x, roi, index);
+        set(store::setPointY, values.y, roi, index);
+        set(store::setPointFillColor, values.fillColor, roi, index);
+        set(store::setPointFillRule, values.fillRule, roi, index);
+        set(store::setPointFontFamily, values.fontFamily, roi, index);
+        set(store::setPointFontSize, values.fontSize, roi, index);
+        set(store::setPointFontStyle, values.fontStyle, roi, index);
+        set(store::setPointLocked, values.locked, roi, index);
+        set(store::setPointStrokeColor, values.strokeColor, roi, index);
+        set(store::setPointStrokeDashArray, values.strokeDashArray, roi, index);
+        set(store::setPointStrokeWidth, values.strokeWidth, roi, index);
+        set(store::setPointText, values.text, roi, index);
+        set(store::setPointTheC, values.theC, roi, index);
+        set(store::setPointTheT, values.theT, roi, index);
+        set(store::setPointTheZ, values.theZ, roi, index);
+    }
+
+    private void setPolygon(ShapeAttributes values, int roi, int index)
+    {
+        store.setPolygonID(values.id, roi, index);
+        set(store::setPolygonPoints, values.points, roi, index);
+        set(store::setPolygonFillColor, values.fillColor, roi, index);
+        set(store::setPolygonFillRule, values.fillRule, roi, index);
+        set(store::setPolygonFontFamily, values.fontFamily, roi, index);
+        set(store::setPolygonFontSize, values.fontSize, roi, index);
+        set(store::setPolygonFontStyle, values.fontStyle, roi, index);
+        set(store::setPolygonLocked, values.locked, roi, index);
+        set(store::setPolygonStrokeColor, values.strokeColor, roi, index);
+        set(store::setPolygonStrokeDashArray,
+            values.strokeDashArray, roi, index);
+        set(store::setPolygonStrokeWidth, values.strokeWidth, roi, index);
+        set(store::setPolygonText, values.text, roi, index);
+        set(store::setPolygonTheC, values.theC, roi, index);
+        set(store::setPolygonTheT, values.theT, roi, index);
+        set(store::setPolygonTheZ, values.theZ, roi, index);
+    }
+
+    private void setPolyline(ShapeAttributes values, int roi, int index)
+    {
+        store.setPolylineID(values.id, roi, index);
+        set(store::setPolylinePoints, values.points, roi, index);
+        set(store::setPolylineMarkerStart, values.markerStart, roi, index);
+        set(store::setPolylineMarkerEnd, values.markerEnd, roi, index);
+        set(store::setPolylineFillColor, values.fillColor, roi, index);
+        set(store::setPolylineFillRule, values.fillRule, roi, index);
+        set(store::setPolylineFontFamily, values.fontFamily, roi, index);
+        set(store::setPolylineFontSize, values.fontSize, roi, index);
+        set(store::setPolylineFontStyle, values.fontStyle, roi, index);
+        set(store::setPolylineLocked, values.locked, roi, index);
+        set(store::setPolylineStrokeColor, values.strokeColor, roi, index);
+        set(store::setPolylineStrokeDashArray,
+            values.strokeDashArray, roi, index);
+        set(store::setPolylineStrokeWidth, values.strokeWidth, roi, index);
+        set(store::setPolylineText, values.text, roi, index);
+        set(store::setPolylineTheC, values.theC, roi, index);
+        set(store::setPolylineTheT, values.theT, roi, index);
+        set(store::setPolylineTheZ, values.theZ, roi, index);
+    }
+
+    private void setRectangle(ShapeAttributes values, int roi, int index)
+    {
+        store.setRectangleID(values.id, roi, index);
+        set(store::setRectangleX, values.x, roi, index);
+        set(store::setRectangleY, values.y, roi, index);
+        set(store::setRectangleWidth, values.width, roi, index);
+        set(store::setRectangleHeight, values.height, roi, index);
+        set(store::setRectangleFillColor, values.fillColor, roi, index);
+        set(store::setRectangleFillRule, values.fillRule, roi, index);
+        set(store::setRectangleFontFamily, values.fontFamily, roi, index);
+        set(store::setRectangleFontSize, values.fontSize, roi, index);
+        set(store::setRectangleFontStyle, values.fontStyle, roi, index);
+        set(store::setRectangleLocked, values.locked, roi, index);
+        set(store::setRectangleStrokeColor, values.strokeColor, roi, index);
+        set(store::setRectangleStrokeDashArray,
+            values.strokeDashArray, roi, index);
+        set(store::setRectangleStrokeWidth, values.strokeWidth, roi, index);
+        set(store::setRectangleText, values.text, roi, index);
+        set(store::setRectangleTheC, values.theC, roi, index);
+        set(store::setRectangleTheT, values.theT, roi, index);
+        set(store::setRectangleTheZ, values.theZ, roi, index);
+    }
+
+    private void setShapeTransform(String type, AffineTransform transform,
+                                   int roi, int index)
+    {
+        switch (type)
+        {
+            case "Ellipse":
+                store.setEllipseTransform(transform, roi, index);
+                break;
+            case "Label":
+                store.setLabelTransform(transform, roi, index);
+                break;
+            case "Line":
+                store.setLineTransform(transform, roi, index);
+                break;
+            case "Mask":
+                store.setMaskTransform(transform, roi, index);
+                break;
+            case "Point":
+                store.setPointTransform(transform, roi, index);
+                break;
+            case "Polygon":
+                store.setPolygonTransform(transform, roi, index);
+                break;
+            case "Polyline":
+                store.setPolylineTransform(transform, roi, index);
+                break;
+            case "Rectangle":
+                store.setRectangleTransform(transform, roi, index);
+                break;
+            default:
+                throw new IllegalArgumentException(
+                        "Unsupported shape type: " + type);
+        }
+    }
+
+    private void setShapeAnnotationRef(String type, String annotation,
+                                       int roi, int index, int refIndex)
+    {
+        switch (type)
+        {
+            case "Ellipse":
+                store.setEllipseAnnotationRef(
+                        annotation, roi, index, refIndex);
+                break;
+            case "Label":
+                store.setLabelAnnotationRef(annotation, roi, index, refIndex);
+                break;
+            case "Line":
+                store.setLineAnnotationRef(annotation, roi, index, refIndex);
+                break;
+            case "Mask":
+                store.setMaskAnnotationRef(annotation, roi, index, refIndex);
+                break;
+            case "Point":
+                store.setPointAnnotationRef(annotation, roi, index, refIndex);
+                break;
+            case "Polygon":
+                store.setPolygonAnnotationRef(
+                        annotation, roi, index, refIndex);
+                break;
+            case "Polyline":
+                store.setPolylineAnnotationRef(
+                        annotation, roi, index, refIndex);
+                break;
+            case "Rectangle":
+                store.setRectangleAnnotationRef(
+                        annotation, roi, index, refIndex);
+                break;
+            default:
+                throw new IllegalArgumentException(
+                        "Unsupported shape type: " + type);
+        }
+    }
+
+    /**
+     * Invokes a shape setter unless the value is absent, so that
+     * properties missing from the document are left unset.
+     */
+    private static <T> void set(
+            ShapeSetter<T> setter, T value, int roi, int index)
+    {
+        if (value != null)
+        {
+            setter.set(value, roi, index);
+        }
+    }
+
+    private static Length toLength(
+            String value, String unit, UnitsLength defaultUnit)
+                    throws EnumerationException
+    {
+        UnitsLength units =
+                unit == null ? defaultUnit : UnitsLength.fromString(unit);
+        return new Length(Double.valueOf(value),
+                          UnitsLengthEnumHandler.getBaseUnit(units));
+    }
+
+    private static AffineTransform readTransform(XMLStreamReader reader)
+    {
+        AffineTransform transform = new AffineTransform();
+        transform.setA00(Double.valueOf(reader.getAttributeValue(null, "A00")));
+        transform.setA01(Double.valueOf(reader.getAttributeValue(null, "A01")));
+        transform.setA02(Double.valueOf(reader.getAttributeValue(null, "A02")));
+        transform.setA10(Double.valueOf(reader.getAttributeValue(null, "A10")));
+        transform.setA11(Double.valueOf(reader.getAttributeValue(null, "A11")));
+        transform.setA12(Double.valueOf(reader.getAttributeValue(null, "A12")));
+        return transform;
+    }
+
+    /**
+     * Reads all annotations from <code>StructuredAnnotations</code>; the
+     * reader is left positioned on its end element.
+     * @param reader reader positioned on the StructuredAnnotations start
+     * element
+     */
+    private void readStructuredAnnotations(XMLStreamReader reader)
+            throws XMLStreamException
+    {
+        Map<String, Integer> annotationCounts = new HashMap<String, Integer>();
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT)
+        {
+            String type = reader.getLocalName();
+            annotationIds.add(reader.getAttributeValue(null, "ID"));
+            if (!ANNOTATION_TYPES.contains(type))
+            {
+                log.warn("Streaming import does not handle annotations of " +
+                         "type {}, skipping", type);
+                skipElement(reader);
+                continue;
+            }
+            int index = annotationCounts.merge(type, 1, Integer::sum) - 1;
+            readAnnotation(reader, type, index);
+        }
+    }
+
+    /**
+     * Reads a single annotation; the reader is left positioned on its end
+     * element.
+     * @param reader reader positioned on the annotation start element
+     * @param type annotation element name, e.g. <code>MapAnnotation</code>
+     * @param index index of the annotation amongst those of the same type
+     */
+    private void readAnnotation(XMLStreamReader reader, String type, int index)
+            throws XMLStreamException
+    {
+        AnnotationElement annotation = new AnnotationElement();
+        annotation.id = reader.getAttributeValue(null, "ID");
+        annotation.namespace = reader.getAttributeValue(null, "Namespace");
+        annotation.annotator = reader.getAttributeValue(null, "Annotator");
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT)
+        {
+            switch (reader.getLocalName())
+            {
+                case "Description":
+                    annotation.description = reader.getElementText();
+                    break;
+                case "AnnotationRef":
+                    annotation.annotationRefs.add(
+                            reader.getAttributeValue(null, "ID"));
+                    skipElement(reader);
+                    break;
+                case "Value":
+                    annotation.value = readAnnotationValue(reader, type);
+                    break;
+                default:
+                    skipElement(reader);
+            }
+        }
+        setAnnotation(type, annotation, index);
+    }
+
+    /**
+     * Populates an annotation with the typed setters of its type.
+     * @param type annotation element name, one of {@link #ANNOTATION_TYPES}
+     * @param annotation properties read from the annotation element
+     * @param index index of the annotation amongst those of the same type
+     */
+    @SuppressWarnings("unchecked")
+    private void setAnnotation(
+            String type, AnnotationElement annotation, int index)
+    {
+        switch (type)
+        {
+            case "BooleanAnnotation":
+                annotation.set(index, store::setBooleanAnnotationID,
+                        store::setBooleanAnnotationNamespace,
+                        store::setBooleanAnnotationAnnotator,
+                        store::setBooleanAnnotationDescription,
+                        store::setBooleanAnnotationAnnotationRef,
+                        store::setBooleanAnnotationValue,
+                        (Boolean) annotation.value);
+                break;
+            case "CommentAnnotation":
+                annotation.set(index, store::setCommentAnnotationID,
+                        store::setCommentAnnotationNamespace,
+                        store::setCommentAnnotationAnnotator,
+                        store::setCommentAnnotationDescription,
+                        store::setCommentAnnotationAnnotationRef,
+                        store::setCommentAnnotationValue,
+                        (String) annotation.value);
+                break;
+            case "DoubleAnnotation":
+                annotation.set(index, store::setDoubleAnnotationID,
+                        store::setDoubleAnnotationNamespace,
+                        store::setDoubleAnnotationAnnotator,
+                        store::setDoubleAnnotationDescription,
+                        store::setDoubleAnnotationAnnotationRef,
+                        store::setDoubleAnnotationValue,
+                        (Double) annotation.value);
+                break;
+            case "LongAnnotation":
+                annotation.set(index, store::setLongAnnotationID,
+                        store::setLongAnnotationNamespace,
+                        store::setLongAnnotationAnnotator,
+                        store::setLongAnnotationDescription,
+                        store::setLongAnnotationAnnotationRef,
+                        store::setLongAnnotationValue,
+                        (Long) annotation.value);
+                break;
+            case "MapAnnotation":
+                annotation.set(index, store::setMapAnnotationID,
+                        store::setMapAnnotationNamespace,
+                        store::setMapAnnotationAnnotator,
+                        store::setMapAnnotationDescription,
+                        store::setMapAnnotationAnnotationRef,
+                        store::setMapAnnotationValue,
+                        (List<MapPair>) annotation.value);
+                break;
+            case "TagAnnotation":
+                annotation.set(index, store::setTagAnnotationID,
+                        store::setTagAnnotationNamespace,
+                        store::setTagAnnotationAnnotator,
+                        store::setTagAnnotationDescription,
+                        store::setTagAnnotationAnnotationRef,
+                        store::setTagAnnotationValue,
+                        (String) annotation.value);
+                break;
+            case "TermAnnotation":
+                annotation.set(index, store::setTermAnnotationID,
+                        store::setTermAnnotationNamespace,
+                        store::setTermAnnotationAnnotator,
+                        store::setTermAnnotationDescription,
+                        store::setTermAnnotationAnnotationRef,
+                        store::setTermAnnotationValue,
+                        (String) annotation.value);
+                break;
+            case "TimestampAnnotation":
+                annotation.set(index, store::setTimestampAnnotationID,
+                        store::setTimestampAnnotationNamespace,
+                        store::setTimestampAnnotationAnnotator,
+                        store::setTimestampAnnotationDescription,
+                        store::setTimestampAnnotationAnnotationRef,
+                        store::setTimestampAnnotationValue,
+                        (Timestamp) annotation.value);
+                break;
+            case "XMLAnnotation":
+                annotation.set(index, store::setXMLAnnotationID,
+                        store::setXMLAnnotationNamespace,
+                        store::setXMLAnnotationAnnotator,
+                        store::setXMLAnnotationDescription,
+                        store::setXMLAnnotationAnnotationRef,
+                        store::setXMLAnnotationValue,
+                        (String) annotation.value);
+                break;
+            default:
+                throw new IllegalArgumentException(
+                        "Unsupported annotation type: " + type);
+        }
+    }
+
+    /**
+     * Reads the <code>Value</code> of an annotation; the reader is left
+     * positioned on its end element.
+     * @param reader reader positioned on the Value start element
+     * @param type annotation element name
+     * @return value of the type expected by the corresponding setter
+     */
+    private static Object readAnnotationValue(
+            XMLStreamReader reader, String type) throws XMLStreamException
+    {
+        if ("MapAnnotation".equals(type))
+        {
+            List<MapPair> pairs = new ArrayList<MapPair>();
+            while (reader.nextTag() == XMLStreamConstants.START_ELEMENT)
+            {
+                String key = reader.getAttributeValue(null, "K");
+                pairs.add(new MapPair(key, reader.getElementText()));
+            }
+            return pairs;
+        }
+        if ("XMLAnnotation".equals(type))
+        {
+            return readXml(reader);
+        }
+        String value = reader.getElementText();
+        switch (type)
+        {
+            case "BooleanAnnotation":
+                return Boolean.valueOf(value.trim());
+            case "DoubleAnnotation":
+                return Double.valueOf(value.trim());
+            case "LongAnnotation":
+                return Long.valueOf(value.trim());
+            case "TimestampAnnotation":
+                return Timestamp.valueOf(value.trim());
+            default:
+                return value;
+        }
+    }
+
+    /**
+     * Reads the content of the current element, which may hold elements of
+     * any namespace, as a string of XML; the reader is left positioned on
+     * its end element.
+     * @param reader reader positioned on a start element
+     * @return content of the element
+     */
+    private static String readXml(XMLStreamReader reader)
+            throws XMLStreamException
+    {
+        StringWriter xml = new StringWriter();
+        XMLStreamWriter writer =
+                XMLOutputFactory.newInstance().createXMLStreamWriter(xml);
+        int depth = 1;
+        while (depth > 0)
+        {
+            switch (reader.next())
+            {
+                case XMLStreamConstants.START_ELEMENT:
+                    depth++;
+                    writer.writeStartElement(
+                            nonNull(reader.getPrefix()),
+                            reader.getLocalName(),
+                            nonNull(reader.getNamespaceURI()));
+                    for (int i = 0; i < reader.getNamespaceCount(); i++)
+                    {
+                        writer.writeNamespace(
+                                nonNull(reader.getNamespacePrefix(i)),
+                                nonNull(reader.getNamespaceURI(i)));
+                    }
+                    for (int i = 0; i < reader.getAttributeCount(); i++)
+                    {
+                        writer.writeAttribute(
+                                nonNull(reader.getAttributePrefix(i)),
+                                nonNull(reader.getAttributeNamespace(i)),
+                                reader.getAttributeLocalName(i),
+                                reader.getAttributeValue(i));
+                    }
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    if (--depth > 0)
+                    {
+                        writer.writeEndElement();
+                    }
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    writer.writeCharacters(reader.getText());
+                    break;
+                default:
+                    // Comments and processing instructions are dropped
+            }
+        }
+        writer.close();
+        return xml.toString();
+    }
+
+    private static String nonNull(String value)
+    {
+        return value == null ? "" : value;
+    }
+
+    /**
+     * Advances the reader past the end of the current element, ignoring all
+     * of its content.
+     * @param reader reader positioned on a start element
+     */
+    private static void skipElement(XMLStreamReader reader)
+            throws XMLStreamException
+    {
+        int depth = 1;
+        while (depth > 0)
+        {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT)
+            {
+                depth++;
+            }
+            else if (event == XMLStreamConstants.END_ELEMENT)
+            {
+                depth--;
+            }
+        }
+    }
+
+    /** A typed MetadataStore setter of a shape property. */
+    private interface ShapeSetter<T>
+    {
+        void set(T value, int roiIndex, int shapeIndex);
+    }
+
+    /** A typed MetadataStore setter of an annotation property. */
+    private interface AnnotationSetter<T>
+    {
+        void set(T value, int annotationIndex);
+    }
+
+    /** A typed MetadataStore setter of an annotation's references. */
+    private interface AnnotationRefSetter
+    {
+        void set(String annotation, int annotationIndex,
+                 int annotationRefIndex);
+    }
+
+    /**
+     * Attributes of a shape element, converted to the types expected by
+     * the MetadataStore setters; <code>null</code> where absent.
+     */
+    private static class ShapeAttributes
+    {
+        String id;
+
+        Double x, y, width, height, radiusX, radiusY, x1, y1, x2, y2;
+
+        String points, text, strokeDashArray;
+
+        Color fillColor, strokeColor;
+
+        FillRule fillRule;
+
+        FontFamily fontFamily;
+
+        FontStyle fontStyle;
+
+        Marker markerStart, markerEnd;
+
+        Boolean locked;
+
+        NonNegativeInteger theZ, theT, theC;
+
+        Length fontSize, strokeWidth;
+
+        /**
+         * Converts a shape attribute.  Unit attributes are read with their
+         * values and anything else which is not a property of a shape is
+         * ignored.
+         * @param reader reader positioned on the shape start element, used
+         * to look up unit attributes
+         * @param name attribute name
+         * @param value attribute value
+         */
+        void parse(XMLStreamReader reader, String name, String value)
+                throws EnumerationException
+        {
+            switch (name)
+            {
+                case "ID":
+                    id = value;
+                    break;
+                case "X":
+                    x = Double.valueOf(value);
+                    break;
+                case "Y":
+                    y = Double.valueOf(value);
+                    break;
+                case "Width":
+                    width = Double.valueOf(value);
+                    break;
+                case "Height":
+                    height = Double.valueOf(value);
+                    break;
+                case "RadiusX":
+                    radiusX = Double.valueOf(value);
+                    break;
+                case "RadiusY":
+                    radiusY = Double.valueOf(value);
+                    break;
+                case "X1":
+                    x1 = Double.valueOf(value);
+                    break;
+                case "Y1":
+                    y1 = Double.valueOf(value);
+                    break;
+                case "X2":
+                    x2 = Double.valueOf(value);
+                    break;
+                case "Y2":
+                    y2 = Double.valueOf(value);
+                    break;
+                case "Points":
+                    points = value;
+                    break;
+                case "Text":
+                    text = value;
+                    break;
+                case "StrokeDashArray":
+                    strokeDashArray = value;
+                    break;
+                case "FillColor":
+                    fillColor = new Color(Integer.parseInt(value));
+                    break;
+                case "StrokeColor":
+                    strokeColor = new Color(Integer.parseInt(value));
+                    break;
+                case "FillRule":
+                    fillRule = FillRule.fromString(value);
+                    break;
+                case "FontFamily":
+                    fontFamily = FontFamily.fromString(value);
+                    break;
+                case "FontStyle":
+                    fontStyle = FontStyle.fromString(value);
+                    break;
+                case "MarkerStart":
+                    markerStart = Marker.fromString(value);
+                    break;
+                case "MarkerEnd":
+                    markerEnd = Marker.fromString(value);
+                    break;
+                case "Locked":
+                    locked = Boolean.valueOf(value);
+                    break;
+                case "TheZ":
+                    theZ = new NonNegativeInteger(Integer.valueOf(value));
+                    break;
+                case "TheT":
+                    theT = new NonNegativeInteger(Integer.valueOf(value));
+                    break;
+                case "TheC":
+                    theC = new NonNegativeInteger(Integer.valueOf(value));
+                    break;
+                case "FontSize":
+                    fontSize = toLength(value,
+                            reader.getAttributeValue(null, "FontSizeUnit"),
+                            UnitsLength.POINT);
+                    break;
+                case "StrokeWidth":
+                    strokeWidth = toLength(value,
+                            reader.getAttributeValue(null, "StrokeWidthUnit"),
+                            UnitsLength.PIXEL);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Properties of an annotation element, held until the element has been
+     * read so that they may be set with the setters of its type.
+     */
+    private static class AnnotationElement
+    {
+        String id;
+
+        String namespace;
+
+        String annotator;
+
+        String description;
+
+        final List<String> annotationRefs = new ArrayList<String>();
+
+        /** Value of the type expected by the value setter. */
+        Object value;
+
+        /**
+         * Populates the annotation; the ID is set first and absent
+         * properties are left unset.
+         */
+        <T> void set(int index, AnnotationSetter<String> idSetter,
+                     AnnotationSetter<String> namespaceSetter,
+                     AnnotationSetter<String> annotatorSetter,
+                     AnnotationSetter<String> descriptionSetter,
+                     AnnotationRefSetter annotationRefSetter,
+                     AnnotationSetter<T> valueSetter, T value)
+        {
+            idSetter.set(id, index);
+            if (namespace != null)
+            {
+                namespaceSetter.set(namespace, index);
+            }
+            if (annotator != null)
+            {
+                annotatorSetter.set(annotator, index);
+            }
+            if (description != null)
+            {
+                descriptionSetter.set(description, index);
+            }
+            for (int i = 0; i < annotationRefs.size(); i++)
+            {
+                annotationRefSetter.set(annotationRefs.get(i), index, i);
+            }
+            if (value != null)
+            {
+                valueSetter.set(value, index);
+            }
+        }
+    }
+}
@@ -0,0 +1,1027 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.glencoesoftware.roitool;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import loci.formats.meta.MetadataRetrieve;
+import ome.units.quantity.Length;
+import ome.xml.model.AffineTransform;
+import ome.xml.model.MapPair;
+import ome.xml.model.OME;
+import ome.xml.model.enums.FillRule;
+import ome.xml.model.enums.FontFamily;
+import ome.xml.model.enums.FontStyle;
+import ome.xml.model.primitives.Color;
+import ome.xml.model.primitives.NonNegativeInteger;
+
+/**
+ * Writes an OME-XML document containing ROIs straight from a
+ * {@link MetadataRetrieve}, a page at a time, without building an OME model
+ * or a DOM.  The document is opened with {@link #writeStartDocument()},
+ * each page of ROIs is appended with {@link #write(MetadataRetrieve)} and
+ * the document is closed with {@link #writeEndDocument()}.
+ * <p>
+ * The schema places <code>StructuredAnnotations</code> before all
+ * <code>ROI</code> elements, but the annotations are only known once every
+ * page has been read.  ROIs are therefore spooled, in memory up to
+ * {@value #SPOOL_MEMORY_LIMIT} bytes and beyond that to a temporary file,
+ * and copied into the document after the annotations when it is closed.
+ * The writer must be closed to remove the temporary file.
+ * <p>
+ * Elements and attributes are written in the same order as the OME model
+ * serializes them, so that the output matches that of
+ * <code>ome.specification.XMLWriter</code> for the same ROIs, except that
+ * numbers are written by a {@link CoordinateFormat} rather than
+ * {@link Double#toString(double)}.  By default that is the shortest form
+ * which reads back as the same value; with a fixed precision the
+ * coordinates of shapes, including their <code>Points</code>, are rounded
+ * alike.  Transforms and lengths such as stroke widths are never rounded.
+ * The points of shapes held in {@link ROIColumns} are formatted straight
+ * from their vertex store.
+ * <p>
+ * A page may also be written with {@link #write(MetadataRetrieve,
+ * ForkJoinPool)}, which converts ranges of its ROIs to XML on several
+ * threads and appends the fragments in ROI order.
+ */
+public class ROIXMLWriter implements Closeable
+{
+    private static final String XSI_NAMESPACE =
+            "http://www.w3.org/2001/XMLSchema-instance";
+
+    /** Smallest number of ROIs written to XML by one task. */
+    private static final int MIN_CHUNK_SIZE = 64;
+
+    /** Number of tasks to aim for per thread, to even out uneven ROIs. */
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    /** Most bytes of ROIs spooled in memory before spilling to a file. */
+    static final int SPOOL_MEMORY_LIMIT = 16 * 1024 * 1024;
+
+    /** Stream the document is written to, beneath {@link #out}. */
+    private final OutputStream stream;
+
+    private final XMLStreamWriter out;
+
+    /** Format of shape coordinates. */
+    private final CoordinateFormat coordinates;
+
+    /** Points of the shape being written, when they are re-formatted. */
+    private final PointsCodec points = new PointsCodec();
+
+    /** Scratch buffer for formatting numbers. */
+    private final StringBuilder buffer = new StringBuilder();
+
+    /** Map annotations from all pages, written ahead of the ROIs. */
+    private final List<MapAnnotation> mapAnnotations =
+            new ArrayList<MapAnnotation>();
+
+    /** ROIs written so far, held until the annotations are written. */
+    private Spool spool;
+
+    /** Writer of ROIs to {@link #spool}. */
+    private ROIXMLWriter rois;
+
+    /**
+     * Creates a new writer.
+     * @param out stream to write the document to; it is not closed by this
+     * writer
+     * @throws XMLStreamException if the XML writer cannot be created
+     */
+    public ROIXMLWriter(OutputStream out) throws XMLStreamException
+    {
+        this(out, CoordinateFormat.SHORTEST);
+    }
+
+    /**
+     * Creates a new writer.
+     * @param out stream to write the document to; it is not closed by this
+     * writer
+     * @param coordinates format of shape coordinates
+     * @throws XMLStreamException if the XML writer cannot be created
+     */
+    public ROIXMLWriter(OutputStream out, CoordinateFormat coordinates)
+            throws XMLStreamException
+    {
+        this.stream = out;
+        this.coordinates = coordinates;
+        this.out = XMLOutputFactory.newInstance()
+                .createXMLStreamWriter(out, "UTF-8");
+    }
+
+    /**
+     * Writes the XML declaration and the opening <code>OME</code> element.
+     * @throws XMLStreamException if the document cannot be written
+     */
+    public void writeStartDocument() throws XMLStreamException
+    {
+        out.writeStartDocument("UTF-8", "1.0");
+        out.writeStartElement("OME");
+        out.writeDefaultNamespace(OME.NAMESPACE);
+        out.writeNamespace("xsi", XSI_NAMESPACE);
+        out.writeAttribute("xsi", XSI_NAMESPACE, "schemaLocation",
+                OME.NAMESPACE + " " + OME.NAMESPACE + "/ome.xsd");
+    }
+
+    /**
+     * Appends a page of ROIs to the document.  The ROIs and the map
+     * annotations described by the page are held back until
+     * {@link #writeEndDocument()}, which writes all annotations ahead of all
+     * ROIs as the schema requires.  Annotation references are only written
+     * for annotations described by the same page, as the document would not
+     * be valid otherwise.
+     * @param page metadata describing the ROIs
+     * @return number of ROIs written
+     * @throws XMLStreamException if the ROIs could not be written
+     */
+    public int write(MetadataRetrieve page) throws XMLStreamException
+    {
+        Set<String> annotationIds = readMapAnnotations(page);
+        int roiCount = Math.max(0, page.getROICount());
+        spoolWriter().writeRois(page, 0, roiCount, annotationIds);
+        return roiCount;
+    }
+
+    /**
+     * Appends a page of ROIs to the document as
+     * {@link #write(MetadataRetrieve)} does, but converts ranges of ROIs to
+     * XML fragments concurrently.  The fragments are appended in ROI order
+     * so the document is the same as if written on a single thread.  The
+     * page is read by several threads at once and must be safe for
+     * concurrent readers.
+     * @param page metadata describing the ROIs
+     * @param pool pool to convert on
+     * @return number of ROIs written
+     * @throws XMLStreamException if the ROIs could not be written
+     */
+    public int write(MetadataRetrieve page, ForkJoinPool pool)
+            throws XMLStreamException
+    {
+        int roiCount = Math.max(0, page.getROICount());
+        int chunkSize = Math.max(MIN_CHUNK_SIZE,
+                roiCount / (pool.getParallelism() * CHUNKS_PER_THREAD));
+        if (roiCount <= chunkSize)
+        {
+            return write(page);
+        }
+        Set<String> annotationIds = readMapAnnotations(page);
+        List<Future<byte[]>> fragments = new ArrayList<Future<byte[]>>();
+        for (int from = 0; from < roiCount; from += chunkSize)
+        {
+            final int start = from;
+            final int end = Math.min(roiCount, from + chunkSize);
+            fragments.add(pool.submit(
+                    () -> writeFragment(page, start, end, annotationIds)));
+        }
+        try
+        {
+            ROIXMLWriter writer = spoolWriter();
+            writer.out.flush();
+            for (Future<byte[]> fragment : fragments)
+            {
+                writer.stream.write(fragment.get());
+            }
+        }
+        catch (IOException e)
+        {
+            throw new XMLStreamException(e);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new XMLStreamException("Interrupted writing ROIs", e);
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof XMLStreamException)
+            {
+                throw (XMLStreamException) e.getCause();
+            }
+            throw new XMLStreamException(e.getCause());
+        }
+        finally
+        {
+            for (Future<byte[]> fragment : fragments)
+            {
+                fragment.cancel(true);
+            }
+        }
+        return roiCount;
+    }
+
+    /**
+     * @return writer of ROIs to the spool, created on first use
+     */
+    private ROIXMLWriter spoolWriter() throws XMLStreamException
+    {
+        if (rois == null)
+        {
+            spool = new Spool();
+            rois = new ROIXMLWriter(spool, coordinates);
+        }
+        return rois;
+    }
+
+    /**
+     * Writes a range of ROIs of a page as an XML fragment.
+     * @return the fragment, encoded as UTF-8
+     */
+    private byte[] writeFragment(MetadataRetrieve page, int from, int to,
+                                 Set<String> annotationIds)
+            throws XMLStreamException
+    {
+        ByteArrayOutputStream fragment = new ByteArrayOutputStream();
+        ROIXMLWriter writer = new ROIXMLWriter(fragment, coordinates);
+        writer.writeRois(page, from, to, annotationIds);
+        writer.out.flush();
+        return fragment.toByteArray();
+    }
+
+    /**
+     * Holds back the map annotations of a page until the end of the
+     * document, where they are written ahead of the ROIs.
+     * @return IDs of the page's map annotations
+     */
+    private Set<String> readMapAnnotations(MetadataRetrieve page)
+    {
+        Set<String> annotationIds = new HashSet<String>();
+        int annotationCount = Math.max(0, page.getMapAnnotationCount());
+        for (int i = 0; i < annotationCount; i++)
+        {
+            MapAnnotation annotation = new MapAnnotation(page, i);
+            annotationIds.add(annotation.id);
+            mapAnnotations.add(annotation);
+        }
+        return annotationIds;
+    }
+
+    private void writeRois(MetadataRetrieve page, int from, int to,
+                           Set<String> annotationIds)
+            throws XMLStreamException
+    {
+        for (int roi = from; roi < to; roi++)
+        {
+            out.writeStartElement("ROI");
+            writeAttribute("ID", page.getROIID(roi));
+            writeAttribute("Name", page.getROIName(roi));
+            int shapeCount = Math.max(0, page.getShapeCount(roi));
+            // The schema requires a union to hold at least one shape
+            if (shapeCount > 0)
+            {
+                out.writeStartElement("Union");
+                for (int shape = 0; shape < shapeCount; shape++)
+                {
+                    writeShape(page, roi, shape, annotationIds);
+                }
+                out.writeEndElement();
+            }
+            int refCount = Math.max(0, page.getROIAnnotationRefCount(roi));
+            for (int ref = 0; ref < refCount; ref++)
+            {
+                writeAnnotationRef(
+                        page.getROIAnnotationRef(roi, ref), annotationIds);
+            }
+            String description = page.getROIDescription(roi);
+            if (description != null)
+            {
+                out.writeStartElement("Description");
+                out.writeCharacters(description);
+                out.writeEndElement();
+            }
+            out.writeEndElement();
+        }
+    }
+
+    /**
+     * Writes the map annotations of all pages, then the ROIs of all pages
+     * and the closing <code>OME</code> element, then flushes the stream.
+     * @throws XMLStreamException if the document cannot be written
+     */
+    public void writeEndDocument() throws XMLStreamException
+    {
+        if (!mapAnnotations.isEmpty())
+        {
+            out.writeStartElement("StructuredAnnotations");
+            for (MapAnnotation annotation : mapAnnotations)
+            {
+                annotation.write(out);
+            }
+            out.writeEndElement();
+        }
+        if (rois != null)
+        {
+            rois.out.flush();
+            // Close the pending start tag, if any, before bypassing the
+            // XML writer
+            out.writeCharacters("");
+            out.flush();
+            try
+            {
+                spool.copyTo(stream);
+            }
+            catch (IOException e)
+            {
+                throw new XMLStreamException(e);
+            }
+        }
+        out.writeEndElement();
+        out.writeEndDocument();
+        out.flush();
+    }
+
+    /**
+     * Discards the spooled ROIs, removing their temporary file if any.
+     * The stream the document was written to is not closed.
+     * @throws IOException if the temporary file cannot be removed
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if (spool != null)
+        {
+            spool.close();
+            spool = null;
+            rois = null;
+        }
+    }
+
+    private void writeShape(MetadataRetrieve page, int roi, int shape,
+                            Set<String> annotationIds)
+            throws XMLStreamException
+    {
+        String type = page.getShapeType(roi, shape);
+        switch (type == null ? "" : type)
+        {
+            case "Ellipse":
+                writeEllipse(page, roi, shape, annotationIds);
+                break;
+            case "Label":
+                writeLabel(page, roi, shape, annotationIds);
+                break;
+            case "Line":
+                writeLine(page, roi, shape, annotationIds);
+                break;
+            case "Mask":
+                writeMask(page, roi, shape, annotationIds);
+                break;
+            case "Point":
+                writePoint(page, roi, shape, annotationIds);
+                break;
+            case "Polygon":
+                writePolygon(page, roi, shape, annotationIds);
+                break;
+            case "Polyline":
+                writePolyline(page, roi, shape, annotationIds);
+                break;
+            case "Rectangle":
+                writeRectangle(page, roi, shape, annotationIds);
+                break;
+            default:
+                throw new XMLStreamException("Unsupported shape type: " + type);
+        }
+    }
+
+    // Each shape type writes its attributes in name order, as the DOM
+    // serializes them, interleaving its own properties with those common
+    // to every shape.
+
+    private void writeEllipse(MetadataRetrieve page, int roi, int shape,
+                              Set<String> annotationIds)
+            throws XMLStreamException
+    {
+        out.writeStartElement("Ellipse");
+        writeFillAndFont(page.getEllipseFillColor(roi, shape),
+                         page.getEllipseFillRule(roi, shape),
+                         page.getEllipseFontFamily(roi, shape),
+                         page.getEllipseFontSize(roi, shape),
+                         page.getEllipseFontStyle(roi, shape));
+        writeIdAndLocked(page.getEllipseID(roi, shape),
+                         page.getEllipseLocked(roi, shape));
+        writeCoordinate("RadiusX", page.getEllipseRadiusX(roi, shape));
+        writeCoordinate("RadiusY", page.getEllipseRadiusY(roi, shape));
+        writeStrokeAndPlane(page.getEllipseStrokeColor(roi, shape),
+                            page.getEllipseStrokeDashArray(roi, shape),
+                            page.getEllipseStrokeWidth(roi, shape),
+                            page.getEllipseText(roi, shape),
+                            page.getEllipseTheC(roi, shape),
+                            page.getEllipseTheT(roi, shape),
+                            page.getEllipseTheZ(roi, shape));
+        writeCoordinate("X", page.getEllipseX(roi, shape));
+        writeCoordinate("Y", page.getEllipseY(roi, shape));
+        writeTransform(page.getEllipseTransform(roi, shape));
+        int refCount = annotationRefCount(page, roi, shape);
+        for (int ref = 0; ref < refCount; ref++)
+        {
+            writeAnnotationRef(page.getEllipseAnnotationRef(roi, shape, ref),
+                               annotationIds);
+        }
+        out.writeEndElement();
+    }
+
+    private void writeLabel(MetadataRetrieve page, int roi, int shape,
+                            Set<String> annotationIds)
+            throws XMLStreamException
+    {
+        out.writeStartElement("Label");
+        writeFillAndFont(page.getLabelFillColor(roi, shape),
+                         page.getLabelFillRule(roi, shape),
+                         page.getLabelFontFamily(roi, shape),
+                         page.getLabelFontSize(roi, shape),
+                         page.getLabelFontStyle(roi, shape));
+        writeIdAndLocked(page.getLabelID(roi, shape),
+                         page.getLabelLocked(roi, shape));
+        writeStrokeAndPlane(page.getLabelStrokeColor(roi, shape),
+                            page.getLabelStrokeDashArray(roi, shape),
+                            page.getLabelStrokeWidth(roi, shape),
+                            page.getLabelText(roi, shape),
+                            page.getLabelTheC(roi, shape),
+                            page.getLabelTheT(roi, shape),
+                            page.getLabelTheZ(roi, shape));
+        writeCoordinate("X", page.getLabelX(roi, shape));
+        writeCoordinate("Y", page.getLabelY(roi, shape));
+        writeTransform(page.getLabelTransform(roi, shape));
+        int refCount = annotationRefCount(page, roi, shape);
+        for (int ref = 0; ref < refCount; ref++)
+        {
+            writeAnnotationRef(page.getLabelAnnotationRef(roi, shape, ref),
+                               annotationIds);
+        }
+        out.writeEndElement();
+    }
+
+    private void writeLine(MetadataRetrieve page, int roi, int shape,
+                           Set<String> annotationIds)
+            throws XMLStreamException
+    {
+        out.writeStartElement("Line");
+        writeFillAndFont(page.getLineFillColor(roi, shape),
+                         page.getLineFillRule(roi, shape),
+                         page.getLineFontFamily(roi, shape),
+                         page.getLineFontSize(roi, shape),
+                         page.getLineFontStyle(roi, shape));
+        writeIdAndLocked(page.getLineID(roi, shape),
+                         page.getLineLocked(roi, shape));
+        writeAttribute("MarkerEnd", page.getLineMarkerEnd(roi, shape));
+        writeAttribute("MarkerStart", page.getLineMarkerStart(roi, shape));
+        writeStrokeAndPlane(page.getLineStrokeColor(roi, shape),
+                            page.getLineStrokeDashArray(roi, shape),
+                            page.getLineStrokeWidth(roi, shape),
+                            page.getLineText(roi, shape),
+                            page.getLineTheC(roi, shape),
+                            page.getLineTheT(roi, shape),
+                            page.getLineTheZ(roi, shape));
+        writeCoordinate("X1", page.getLineX1(roi, shape));
+        writeCoordinate("X2", page.getLineX2(roi, shape));
+        writeCoordinate("Y1", page.getLineY1(roi, shape));
+        writeCoordinate("Y2", page.getLineY2(roi, shape));
+        writeTransform(page.getLineTransform(roi, shape));
+        int refCount = annotationRefCount(page, roi, shape);
+        for (int ref = 0; ref < refCount; ref++)
+        {
+            writeAnnotationRef(page.getLineAnnotationRef(roi, shape, ref),
+                               annotationIds);
+        }
+        out.writeEndElement();
+    }
+
+    private void writeMask(MetadataRetrieve page, int roi, int shape,
+                           Set<String> annotationIds)
+            throws XMLStreamException
+    {
+        out.writeStartElement("Mask");
+        writeFillAndFont(page.getMaskFillColor(roi, shape),
+                         page.getMaskFillRule(roi, shape),
+                         page.getMaskFontFamily(roi, shape),
+                         page.getMaskFontSize(roi, shape),
+                         page.getMaskFontStyle(roi, shape));
+        writeCoordinate("Height", page.getMaskHeight(roi, shape));
+        writeIdAndLocked(page.getMaskID(roi, shape),
+                         page.getMaskLocked(roi, shape));
+        writeStrokeAndPlane(page.getMaskStrokeColor(roi, shape),
+                            page.getMaskStrokeDashArray(roi, shape),
+                            page.getMaskStrokeWidth(roi, shape),
+                            page.getMaskText(roi, shape),
+                            page.getMaskTheC(roi, shape),
+                            page.getMaskTheT(roi, shape),
+                            page.getMaskTheZ(roi, shape));
+        writeCoordinate("Width", page.getMaskWidth(roi, shape));
+        writeCoordinate("X", page.getMaskX(roi, shape));
+        writeCoordinate("Y", page.getMaskY(roi, shape));
+        writeTransform(page.getMaskTransform(roi, shape));
+        int refCount = annotationRefCount(page, roi, shape);
+        for (int ref = 0; ref < refCount; ref++)
+        {
+            writeAnnotationRef(page.getMaskAnnotationRef(roi, shape, ref),
+                               annotationIds);
+        }
+        out.writeEndElement();
+    }
+
+    private void writePoint(MetadataRetrieve page, int roi, int shape,
+                            Set<String> annotationIds)
+            throws XMLStreamException
+    {
+        out.writeStartElement("Point");
+        writeFillAndFont(page.getPointFillColor(roi, shape),
+                         page.getPointFillRule(roi, shape),
+                         page.getPointFontFamily(roi, shape),
+                         page.getPointFontSize(roi, shape),
+                         page.getPointFontStyle(roi, shape));
+        writeIdAndLocked(page.getPointID(roi, shape),
+                         page.getPointLocked(roi, shape));
+        writeStrokeAndPlane(page.getPointStrokeColor(roi, shape),
+                            page.getPointStrokeDashArray(roi, shape),
+                            page.getPointStrokeWidth(roi, shape),
+                            page.getPointText(roi, shape),
+                            page.getPointTheC(roi, shape),
+                            page.getPointTheT(roi, shape),
+                            page.getPointTheZ(roi, shape));
+        writeCoordinate("X", page.getPointX(roi, shape));
+        writeCoordinate("Y", page.getPointY(roi, shape));
+        writeTransform(page.getPointTransform(roi, shape));
+        int refCount = annotationRefCount(page, roi, shape);
+        for (int ref = 0; ref < refCount; ref++)
+        {
+            writeAnnotationRef(page.getPointAnnotationRef(roi, shape, ref),
+                               annotationIds);
+        }
+        out.writeEndElement();
+    }
+
+    private void writePolygon(MetadataRetrieve page, int roi, int shape,
+                              Set<String> annotationIds)
+            throws XMLStreamException
+    {
+        out.writeStartElement("Polygon");
+        writeFillAndFont(page.getPolygonFillColor(roi, shape),
+                         page.getPolygonFillRule(roi, shape),
+                         page.getPolygonFontFamily(roi, shape),
+                         page.getPolygonFontSize(roi, shape),
+                         page.getPolygonFontStyle(roi, shape));
+        writeIdAndLocked(page.getPolygonID(roi, shape),
+                         page.getPolygonLocked(roi, shape));
+        if (!writeVertices(page, roi, shape))
+        {
+            writePoints(page.getPolygonPoints(roi, shape));
+        }
+        writeStrokeAndPlane(page.getPolygonStrokeColor(roi, shape),
+                            page.getPolygonStrokeDashArray(roi, shape),
+                            page.getPolygonStrokeWidth(roi, shape),
+                            page.getPolygonText(roi, shape),
+                            page.getPolygonTheC(roi, shape),
+                            page.getPolygonTheT(roi, shape),
+                            page.getPolygonTheZ(roi, shape));
+        writeTransform(page.getPolygonTransform(roi, shape));
+        int refCount = annotationRefCount(page, roi, shape);
+        for (int ref = 0; ref < refCount; ref++)
+        {
+            writeAnnotationRef(page.getPolygonAnnotationRef(roi, shape, ref),
+                               annotationIds);
+        }
+        out.writeEndElement();
+    }
+
+    private void writePolyline(MetadataRetrieve page, int roi, int shape,
+                               Set<String> annotationIds)
+            throws XMLStreamException
+    {
+        out.writeStartElement("Polyline");
+        writeFillAndFont(page.getPolylineFillColor(roi, shape),
+                         page.getPolylineFillRule(roi, shape),
+                         page.getPolylineFontFamily(roi, shape),
+                         page.getPolylineFontSize(roi, shape),
+                         page.getPolylineFontStyle(roi, shape));
+        writeIdAndLocked(page.getPolylineID(roi, shape),
+                         page.getPolylineLocked(roi, shape));
+        writeAttribute("MarkerEnd", page.getPolylineMarkerEnd(roi, shape));
+        writeAttribute("MarkerStart", page.getPolylineMarkerStart(roi, shape));
+        if (!writeVertices(page, roi, shape))
+        {
+            writePoints(page.getPolylinePoints(roi, shape));
+        }
+        writeStrokeAndPlane(page.getPolylineStrokeColor(roi, shape),
+                            page.getPolylineStrokeDashArray(roi, shape),
+                            page.getPolylineStrokeWidth(roi, shape),
+                            page.getPolylineText(roi, shape),
+                            page.getPolylineTheC(roi, shape),
+                            page.getPolylineTheT(roi, shape),
+                            page.getPolylineTheZ(roi, shape));
+        writeTransform(page.getPolylineTransform(roi, shape));
+        int refCount = annotationRefCount(page, roi, shape);
+        for (int ref = 0; ref < refCount; ref++)
+        {
+            writeAnnotationRef(page.getPolylineAnnotationRef(roi, shape, ref),
+                               annotationIds);
+        }
+        out.writeEndElement();
+    }
+
+    private void writeRectangle(MetadataRetrieve page, int roi, int shape,
+                                Set<String> annotationIds)
+            throws XMLStreamException
+    {
+        out.writeStartElement("Rectangle");
+        writeFillAndFont(page.getRectangleFillColor(roi, shape),
+                         page.getRectangleFillRule(roi, shape),
+                         page.getRectangleFontFamily(roi, shape),
+                         page.getRectangleFontSize(roi, shape),
+                         page.getRectangleFontStyle(roi, shape));
+        writeCoordinate("Height", page.getRectangleHeight(roi, shape));
+        writeIdAndLocked(page.getRectangleID(roi, shape),
+                         page.getRectangleLocked(roi, shape));
+        writeStrokeAndPlane(page.getRectangleStrokeColor(roi, shape),
+                            page.getRectangleStrokeDashArray(roi, shape),
+                            page.getRectangleStrokeWidth(roi, shape),
+                            page.getRectangleText(roi, shape),
+                            page.getRectangleTheC(roi, shape),
+                            page.getRectangleTheT(roi, shape),
+                            page.getRectangleTheZ(roi, shape));
+        writeCoordinate("Width", page.getRectangleWidth(roi, shape));
+        writeCoordinate("X", page.getRectangleX(roi, shape));
+        writeCoordinate("Y", page.getRectangleY(roi, shape));
+        writeTransform(page.getRectangleTransform(roi, shape));
+        int refCount = annotationRefCount(page, roi, shape);
+        for (int ref = 0; ref < refCount; ref++)
+        {
+            writeAnnotationRef(page.getRectangleAnnotationRef(roi, shape, ref),
+                               annotationIds);
+        }
+        out.writeEndElement();
+    }
+
+    /**
+     * Writes the common shape attributes which sort before
+     * <code>Height</code> and <code>ID</code>.
+     */
+    private void writeFillAndFont(Color fillColor, FillRule fillRule,
+                                  FontFamily fontFamily, Length fontSize,
+                                  FontStyle fontStyle)
+            throws XMLStreamException
+    {
+        writeColor("FillColor", fillColor);
+        writeAttribute("FillRule", fillRule);
+        writeAttribute("FontFamily", fontFamily);
+        writeLength("FontSize", fontSize);
+        writeAttribute("FontStyle", fontStyle);
+    }
+
+    /**
+     * Writes the common shape attributes which sort between
+     * <code>Height</code> and the markers.
+     */
+    private void writeIdAndLocked(String id, Boolean locked)
+            throws XMLStreamException
+    {
+        writeAttribute("ID", id);
+        writeAttribute("Locked", locked);
+    }
+
+    /**
+     * Writes the common shape attributes which sort after
+     * <code>Points</code> and before <code>Width</code>.
+     */
+    private void writeStrokeAndPlane(
+            Color strokeColor, String strokeDashArray, Length strokeWidth,
+            String text, NonNegativeInteger theC, NonNegativeInteger theT,
+            NonNegativeInteger theZ)
+            throws XMLStreamException
+    {
+        writeColor("StrokeColor", strokeColor);
+        writeAttribute("StrokeDashArray", strokeDashArray);
+        writeLength("StrokeWidth", strokeWidth);
+        writeAttribute("Text", text);
+        writeAttribute("TheC", theC);
+        writeAttribute("TheT", theT);
+        writeAttribute("TheZ", theZ);
+    }
+
+    private void writeTransform(AffineTransform transform)
+            throws XMLStreamException
+    {
+        if (transform != null)
+        {
+            out.writeStartElement("Transform");
+            writeAttribute("A00", format(transform.getA00()));
+            writeAttribute("A01", format(transform.getA01()));
+            writeAttribute("A02", format(transform.getA02()));
+            writeAttribute("A10", format(transform.getA10()));
+            writeAttribute("A11", format(transform.getA11()));
+            writeAttribute("A12", format(transform.getA12()));
+            out.writeEndElement();
+        }
+    }
+
+    private static int annotationRefCount(
+            MetadataRetrieve page, int roi, int shape)
+    {
+        return Math.max(0, page.getShapeAnnotationRefCount(roi, shape));
+    }
+
+    private void writeAnnotationRef(String id, Set<String> annotationIds)
+            throws XMLStreamException
+    {
+        if (id != null && annotationIds.contains(id))
+        {
+            out.writeEmptyElement("AnnotationRef");
+            out.writeAttribute("ID", id);
+        }
+    }
+
+    private void writeAttribute(String name, Object value)
+            throws XMLStreamException
+    {
+        if (value != null)
+        {
+            out.writeAttribute(name, value.toString());
+        }
+    }
+
+    /**
+     * Formats a number in its shortest form, whatever the coordinate
+     * format.
+     * @return the formatted number or <code>null</code> if there is none
+     */
+    private String format(Number value)
+    {
+        if (value == null)
+        {
+            return null;
+        }
+        buffer.setLength(0);
+        return CoordinateFormat.SHORTEST.format(
+                buffer, value.doubleValue()).toString();
+    }
+
+    /**
+     * Writes a coordinate in the coordinate format of this writer.
+     * @param name attribute name
+     * @param value coordinate; <code>null</code> values are omitted
+     */
+    private void writeCoordinate(String name, Double value)
+            throws XMLStreamException
+    {
+        if (value != null)
+        {
+            buffer.setLength(0);
+            out.writeAttribute(
+                    name, coordinates.format(buffer, value).toString());
+        }
+    }
+
+    /**
+     * Writes a length as a value attribute and a unit attribute.
+     * @param name name of the value attribute
+     * @param value length; <code>null</code> values are omitted
+     */
+    private void writeLength(String name, Length value)
+            throws XMLStreamException
+    {
+        if (value != null)
+        {
+            out.writeAttribute(name, format(value.value()));
+            out.writeAttribute(name + "Unit", value.unit().getSymbol());
+        }
+    }
+
+    private void writeColor(String name, Color value)
+            throws XMLStreamException
+    {
+        if (value != null)
+        {
+            out.writeAttribute(name, String.valueOf(value.getValue()));
+        }
+    }
+
+    /**
+     * Writes a points string, with its coordinates rounded alike when the
+     * coordinate format of this writer has a fixed precision.
+     * @param value points string; <code>null</code> values are omitted
+     */
+    private void writePoints(String value) throws XMLStreamException
+    {
+        if (value != null)
+        {
+            out.writeAttribute("Points",
+                    coordinates.isFixed() ? formatPoints(value) : value);
+        }
+    }
+
+    /**
+     * Writes the points of a shape held in the vertex store of
+     * {@link ROIColumns}, formatted straight from the store in the
+     * coordinate format of this writer rather than through the points
+     * getter.
+     * @return whether the page holds the shape's vertices in a store
+     */
+    private boolean writeVertices(MetadataRetrieve page, int roi, int shape)
+            throws XMLStreamException
+    {
+        if (!(page instanceof ROIColumns))
+        {
+            return false;
+        }
+        ROIColumns columns = (ROIColumns) page;
+        int count = columns.getVertexCount(roi, shape);
+        if (count < 0)
+        {
+            return false;
+        }
+        buffer.setLength(0);
+        out.writeAttribute("Points", columns.getVertexStore().format(buffer,
+                columns.getVertexOffset(roi, shape), count, coordinates)
+                .toString());
+        return true;
+    }
+
+    /**
+     * Rounds the coordinates of a points string to the coordinate format
+     * of this writer.
+     * @return the re-formatted points or the original string if it cannot
+     * be parsed
+     */
+    private String formatPoints(String value)
+    {
+        try
+        {
+            points.parse(value);
+        }
+        catch (NumberFormatException e)
+        {
+            return value;
+        }
+        buffer.setLength(0);
+        return points.format(buffer, coordinates).toString();
+    }
+
+    /**
+     * Bytes held in memory up to {@link #SPOOL_MEMORY_LIMIT} and in a
+     * temporary file beyond that.
+     */
+    private static class Spool extends OutputStream
+    {
+        private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+
+        private Path file;
+
+        private OutputStream fileStream;
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            target(1).write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            target(len).write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException
+        {
+            if (fileStream != null)
+            {
+                fileStream.flush();
+            }
+        }
+
+        /**
+         * @return stream to append a number of bytes to, moving the bytes
+         * held in memory to a file once there are too many
+         */
+        private OutputStream target(int length) throws IOException
+        {
+            if (fileStream == null
+                    && memory.size() + length > SPOOL_MEMORY_LIMIT)
+            {
+                file = Files.createTempFile("roitool", ".xml");
+                fileStream = new BufferedOutputStream(
+                        Files.newOutputStream(file));
+                memory.writeTo(fileStream);
+                memory = null;
+            }
+            return fileStream == null ? memory : fileStream;
+        }
+
+        /**
+         * Copies the bytes written so far to a stream.
+         * @param out stream to copy to
+         */
+        void copyTo(OutputStream out) throws IOException
+        {
+            if (fileStream == null)
+            {
+                memory.writeTo(out);
+            }
+            else
+            {
+                fileStream.flush();
+                Files.copy(file, out);
+            }
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            if (fileStream != null)
+            {
+                fileStream.close();
+                Files.deleteIfExists(file);
+                fileStream = null;
+            }
+            memory = null;
+        }
+    }
+
+    /**
+     * A map annotation read from a page, held until the end of the
+     * document.
+     */
+    private static class MapAnnotation
+    {
+        final String id;
+
+        final String namespace;
+
+        final String description;
+
+        final List<MapPair> value;
+
+        MapAnnotation(MetadataRetrieve page, int index)
+        {
+            id = page.getMapAnnotationID(index);
+            namespace = page.getMapAnnotationNamespace(index);
+            description = page.getMapAnnotationDescription(index);
+            value = page.getMapAnnotationValue(index);
+        }
+
+        void write(XMLStreamWriter out) throws XMLStreamException
+        {
+            out.writeStartElement("MapAnnotation");
+            out.writeAttribute("ID", id);
+            if (namespace != null)
+            {
+                out.writeAttribute("Namespace", namespace);
+            }
+            if (description != null)
+            {
+                out.writeStartElement("Description");
+                out.writeCharacters(description);
+                out.writeEndElement();
+            }
+            if (value != null)
+            {
+                out.writeStartElement("Value");
+                for (MapPair pair : value)
+                {
+                    out.writeStartElement("M");
+                    if (pair.getName() != null)
+                    {
+                        out.writeAttribute("K", pair.getName());
+                    }
+                    if (pair.getValue() != null)
+                    {
+                        out.writeCharacters(pair.getValue());
+                    }
+                    out.writeEndElement();
+                }
+                out.writeEndElement();
+            }
+            out.writeEndElement();
+        }
+    }
+}
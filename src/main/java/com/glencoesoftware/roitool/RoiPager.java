@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.glencoesoftware.roitool;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import omero.RLong;
+import omero.RType;
+import omero.ServerError;
+import omero.api.IQueryPrx;
+import omero.model.IObject;
+import omero.model.Roi;
+import omero.sys.ParametersI;
+
+/**
+ * Pages through the ROIs of an image in ascending ID order.  The IDs of a
+ * page are found first so that the limit is applied by the database
+ * rather than to the rows of the shape join, and the next page starts
+ * after the last of those IDs whether or not the ROI could be loaded.
+ * Ported from <code>org.openmicroscopy.client.downloader.XmlGenerator</code>
+ */
+class RoiPager
+{
+    private final IQueryPrx iQuery;
+
+    private final long imageId;
+
+    private final int pageSize;
+
+    /** ID of the last ROI of the previous page; <code>-1</code> at first. */
+    private long lastId = -1;
+
+    /**
+     * Creates a new pager.
+     * @param iQuery query service to find ROIs with
+     * @param imageId OMERO Image ID to find the ROIs of
+     * @param pageSize maximum number of ROIs per page
+     */
+    RoiPager(IQueryPrx iQuery, long imageId, int pageSize)
+    {
+        this.iQuery = iQuery;
+        this.imageId = imageId;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Query the server for the next page of ROIs.  ROIs without shapes are
+     * included.  A page may hold fewer ROIs than were selected for it if
+     * some are deleted meanwhile, and may even be empty; only a
+     * <code>null</code> page marks the end.
+     * @return the ROIs, in ascending ID order, hydrated sufficiently for
+     * conversion to XML, or <code>null</code> if there are no more
+     * @throws ServerError if the ROIs could not be retrieved
+     */
+    public List<Roi> next() throws ServerError
+    {
+        final ParametersI params = new ParametersI().addId(imageId);
+        params.addLong("last", lastId);
+        params.page(0, pageSize);
+        final List<Long> roiIds = new ArrayList<Long>();
+        for (final List<RType> row : iQuery.projection(
+                "SELECT r.id FROM Roi r " +
+                "WHERE r.image.id = :id AND r.id > :last " +
+                "ORDER BY r.id",
+                params, OMEOMEROConverter.ALL_GROUPS_CONTEXT))
+        {
+            roiIds.add(((RLong) row.get(0)).getValue());
+        }
+        if (roiIds.isEmpty())
+        {
+            return null;
+        }
+        lastId = roiIds.get(roiIds.size() - 1);
+        final List<Roi> rois = new ArrayList<Roi>(roiIds.size());
+        for (final IObject result : iQuery.findAllByQuery(
+                "FROM Roi r " +
+                "LEFT OUTER JOIN FETCH r.shapes AS s " +
+                "WHERE r.id IN (:ids) " +
+                "ORDER BY r.id",
+                new ParametersI().addIds(roiIds),
+                OMEOMEROConverter.ALL_GROUPS_CONTEXT))
+        {
+            rois.add((Roi) result);
+        }
+        return rois;
+    }
+
+    /**
+     * @return ID of the last ROI selected for the previous page or
+     * <code>-1</code> if no page has been read
+     */
+    public long getLastId()
+    {
+        return lastId;
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.glencoesoftware.roitool;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+import omero.model.Roi;
+
+/**
+ * ROIs keyed by <code>roiIndex</code>, stored in an array that grows as
+ * needed, which also remembers the order in which indexes were first
+ * used.  ROI indexes are dense in practice so a lookup is an array access
+ * rather than the boxing and hashing of a map.
+ */
+class RoiTable
+{
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** ROIs by <code>roiIndex</code>; <code>null</code> where unused. */
+    private Roi[] rois = new Roi[INITIAL_CAPACITY];
+
+    /** ROI indexes in first access order. */
+    private int[] order = new int[INITIAL_CAPACITY];
+
+    private int size;
+
+    /** One more than the largest ROI index in use. */
+    private int bound;
+
+    /**
+     * Adds or replaces the ROI with the given index.
+     * @param roiIndex index of the ROI
+     * @param roi ROI model object
+     */
+    public void put(int roiIndex, Roi roi)
+    {
+        if (roiIndex < 0)
+        {
+            throw new IllegalArgumentException(
+                    "Negative ROI index: " + roiIndex);
+        }
+        if (roiIndex >= rois.length)
+        {
+            rois = Arrays.copyOf(
+                    rois, Math.max(roiIndex + 1, rois.length * 2));
+        }
+        if (rois[roiIndex] == null)
+        {
+            if (size == order.length)
+            {
+                order = Arrays.copyOf(order, size * 2);
+            }
+            order[size++] = roiIndex;
+            bound = Math.max(bound, roiIndex + 1);
+        }
+        rois[roiIndex] = roi;
+    }
+
+    /**
+     * @param roiIndex index of the ROI
+     * @return the ROI or <code>null</code> if there is none with the index
+     */
+    public Roi get(int roiIndex)
+    {
+        return roiIndex >= 0 && roiIndex < rois.length ? rois[roiIndex] : null;
+    }
+
+    /**
+     * @return number of ROIs
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * @return one more than the largest ROI index in use
+     */
+    public int bound()
+    {
+        return bound;
+    }
+
+    /**
+     * @param position position in first access order
+     * @return index of the ROI at that position
+     */
+    public int indexAt(int position)
+    {
+        if (position >= size)
+        {
+            throw new IndexOutOfBoundsException(
+                    "Position: " + position + ", size: " + size);
+        }
+        return order[position];
+    }
+
+    /**
+     * @return read-only view of the ROIs in first access order
+     */
+    public List<Roi> values()
+    {
+        return new AbstractList<Roi>()
+        {
+            @Override
+            public Roi get(int position)
+            {
+                return rois[indexAt(position)];
+            }
+
+            @Override
+            public int size()
+            {
+                return size;
+            }
+        };
+    }
+}
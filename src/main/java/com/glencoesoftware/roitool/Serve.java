@@ -0,0 +1,383 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.glencoesoftware.roitool;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+
+/**
+ * Keeps a pool of logged in metadata store clients and serves ROI import
+ * and export over HTTP on the loopback interface:
+ * <ul>
+ *   <li><code>POST /images/{id}/rois</code> imports the OME-XML request
+ *   body and responds with the IDs of the saved ROIs as JSON</li>
+ *   <li><code>GET /images/{id}/rois</code> responds with the image's ROIs
+ *   as OME-XML</li>
+ * </ul>
+ * Request bodies are streamed; an export is written to a temporary file
+ * first so that a failure is answered with an error status rather than a
+ * truncated document.  The clients keep their session alive between
+ * requests.
+ * <p>
+ * Every request acts with the OMERO session of the user who started the
+ * service, so it must carry the bearer token which is written, readable
+ * only by that user, to the token file when the service starts.  Any
+ * local user or process able to read the token file may use the session.
+ * A new token is made for each run and the file is removed on shutdown.
+ * </p>
+ */
+@Command(
+    name = "serve",
+    description = "Serve ROI import and export over HTTP on localhost"
+)
+
+public class Serve extends OMEROCommand implements Callable<Integer>
+{
+    private static final Logger log =
+            LoggerFactory.getLogger(Serve.class);
+
+    private static final Pattern ROIS_PATH =
+            Pattern.compile("^/images/(\\d+)/rois/?$");
+
+    /** Number of random bytes in a bearer token. */
+    private static final int TOKEN_BYTES = 32;
+
+    @Option(
+        names = "--help",
+        usageHelp = true,
+        description = "Display this help and exit"
+    )
+    boolean help;
+
+    @Option(
+        names = "--http-port",
+        description = "Local port to listen on (default: 8080)"
+    )
+    int httpPort = 8080;
+
+    @Option(
+        names = "--token-file",
+        description = "File to write the bearer token requests must " +
+                      "carry to, readable only by the current user " +
+                      "(default: ~/.omero-roitool/serve-<httpPort>.token)"
+    )
+    File tokenFile;
+
+    @Option(
+        names = "--workers",
+        description = "Number of requests to handle concurrently, each " +
+                      "with its own client joined to a single session " +
+                      "(default: 4)"
+    )
+    int workers = 4;
+
+    @Option(
+        names = "--batch-size",
+        description = "Maximum number of ROIs to save per server call; " +
+                      "0 saves all ROIs of a request in a single call " +
+                      "(default: 0). With --target-latency this is the " +
+                      "initial size."
+    )
+    int batchSize = 0;
+
+    @Option(
+        names = "--target-latency",
+        description = "Adapt the batch size so that each save call " +
+                      "completes within this many milliseconds"
+    )
+    long targetLatency = 0;
+
+    @Option(
+        names = "--page-size",
+        description = "Number of ROIs to fetch from the server per " +
+                      "query (default: " +
+                      OMEOMEROConverter.DEFAULT_PAGE_SIZE + ")"
+    )
+    int pageSize = OMEOMEROConverter.DEFAULT_PAGE_SIZE;
+
+    private SessionPool pool;
+
+    private LsidCache lsids;
+
+    /** Batch size each import starts from with a copy of its own. */
+    private BatchSize initialBatchSize;
+
+    /** <code>Authorization</code> header value requests must carry. */
+    private byte[] authorization;
+
+    @Override
+    public Integer call() throws Exception
+    {
+        // Options which may be rejected are checked before connecting, so
+        // that a session is never opened only to be left behind
+        initialBatchSize = BatchSize.of(batchSize, targetLatency);
+        if (tokenFile == null)
+        {
+            tokenFile = new File(
+                    SessionKeyCache.DEFAULT_FILE.getParentFile(),
+                    "serve-" + httpPort + ".token");
+        }
+        pool = createSessionPool(Math.max(1, workers));
+        if (pool == null)
+        {
+            return -1;
+        }
+        ROIMetadataStoreClient client = pool.acquire();
+        try
+        {
+            lsids = ServerConfigCache.getDefault().getLsids(
+                        client.getServiceFactory(), server, port);
+        }
+        finally
+        {
+            pool.release(client);
+        }
+
+        HttpServer httpServer = HttpServer.create(new InetSocketAddress(
+                InetAddress.getLoopbackAddress(), httpPort), 0);
+        ExecutorService executor = Executors.newFixedThreadPool(pool.size());
+        httpServer.setExecutor(executor);
+        httpServer.createContext("/images/", this::handle);
+        String token = createToken();
+        authorization = ("Bearer " + token).getBytes(StandardCharsets.UTF_8);
+        PrivateFiles.write(
+                tokenFile, (token + "\n").getBytes(StandardCharsets.UTF_8));
+        httpServer.start();
+        log.info("Serving ROIs on {}, bearer token in {}",
+                 httpServer.getAddress(), tokenFile);
+
+        CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            log.info("Stopping");
+            httpServer.stop(1);
+            executor.shutdownNow();
+            pool.close();
+            tokenFile.delete();
+            stopped.countDown();
+        }));
+        stopped.await();
+        return 0;
+    }
+
+    /**
+     * @return a new random bearer token
+     */
+    private static String createToken()
+    {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    /**
+     * @param exchange HTTP request
+     * @return whether the request carries the bearer token of this run
+     */
+    private boolean isAuthorized(HttpExchange exchange)
+    {
+        String header =
+                exchange.getRequestHeaders().getFirst("Authorization");
+        return header != null && MessageDigest.isEqual(
+                authorization, header.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Dispatches a request to import or export the ROIs of an image.
+     * @param exchange HTTP request and response
+     */
+    private void handle(HttpExchange exchange) throws IOException
+    {
+        long start = System.currentTimeMillis();
+        try
+        {
+            if (!isAuthorized(exchange))
+            {
+                exchange.getResponseHeaders().set(
+                        "WWW-Authenticate", "Bearer");
+                sendError(exchange, 401, "Unauthorized");
+                return;
+            }
+            Matcher path = ROIS_PATH.matcher(exchange.getRequestURI().getPath());
+            if (!path.matches())
+            {
+                sendError(exchange, 404, "Not found");
+                return;
+            }
+            long imageId = Long.parseLong(path.group(1));
+            String method = exchange.getRequestMethod();
+            if ("POST".equals(method))
+            {
+                importRois(exchange, imageId);
+            }
+            else if ("GET".equals(method))
+            {
+                exportRois(exchange, imageId);
+            }
+            else
+            {
+                exchange.getResponseHeaders().set("Allow", "GET, POST");
+                sendError(exchange, 405, "Method not allowed");
+            }
+        }
+        catch (Exception e)
+        {
+            log.error("{} {} failed", exchange.getRequestMethod(),
+                      exchange.getRequestURI(), e);
+            if (exchange.getResponseCode() < 0)
+            {
+                sendError(exchange, 500, e.toString());
+            }
+        }
+        finally
+        {
+            log.info("{} {} {} in {} ms", exchange.getRequestMethod(),
+                     exchange.getRequestURI(), exchange.getResponseCode(),
+                     System.currentTimeMillis() - start);
+            exchange.close();
+        }
+    }
+
+    private void importRois(HttpExchange exchange, long imageId)
+            throws Exception
+    {
+        long[] ids;
+        ROIMetadataStoreClient client = pool.acquire();
+        try
+        {
+            OMEOMEROConverter converter =
+                    new OMEOMEROConverter(imageId, client);
+            converter.setBatchSize(initialBatchSize.copy());
+            try (InputStream in =
+                    new BufferedInputStream(exchange.getRequestBody()))
+            {
+                ids = converter.streamRois(in);
+            }
+            catch (XMLStreamException e)
+            {
+                sendError(exchange, 400, e.getMessage());
+                return;
+            }
+        }
+        finally
+        {
+            pool.release(client);
+        }
+        if (ids == null)
+        {
+            sendError(exchange, 500, "ROIs could not be saved");
+            return;
+        }
+        StringBuilder json = new StringBuilder("{\"imageId\":")
+                .append(imageId).append(",\"roiIds\":[");
+        for (int i = 0; i < ids.length; i++)
+        {
+            if (i > 0)
+            {
+                json.append(',');
+            }
+            json.append(ids[i]);
+        }
+        json.append("]}");
+        send(exchange, 200, "application/json", json.toString());
+    }
+
+    private void exportRois(HttpExchange exchange, long imageId)
+            throws Exception
+    {
+        ROIMetadataStoreClient client = pool.acquire();
+        try
+        {
+            OMEOMEROConverter converter =
+                    new OMEOMEROConverter(imageId, client);
+            converter.setLsids(lsids.fork());
+            converter.setPageSize(pageSize);
+            Path document = Files.createTempFile("roitool", ".ome.xml");
+            try
+            {
+                try (OutputStream out = new BufferedOutputStream(
+                        Files.newOutputStream(document)))
+                {
+                    converter.exportRois(out);
+                }
+                exchange.getResponseHeaders().set(
+                        "Content-Type", "application/xml; charset=UTF-8");
+                exchange.sendResponseHeaders(200, Files.size(document));
+                try (OutputStream out = exchange.getResponseBody())
+                {
+                    Files.copy(document, out);
+                }
+            }
+            finally
+            {
+                Files.delete(document);
+            }
+        }
+        finally
+        {
+            pool.release(client);
+        }
+    }
+
+    private void sendError(HttpExchange exchange, int status, String message)
+            throws IOException
+    {
+        send(exchange, status, "text/plain; charset=UTF-8", message + "\n");
+    }
+
+    private void send(HttpExchange exchange, int status, String contentType,
+                      String body) throws IOException
+    {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody())
+        {
+            out.write(bytes);
+        }
+    }
+}
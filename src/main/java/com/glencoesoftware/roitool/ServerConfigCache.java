@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.glencoesoftware.roitool;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import omero.ServerError;
+import omero.api.ServiceFactoryPrx;
+
+/**
+ * Remembers, on disk, the configuration each OMERO server needs for LSIDs
+ * to be generated so that short-lived invocations need not query it.
+ * Entries are keyed by server address and port and are used without
+ * querying the server for a fixed time.  Once that has passed an entry is
+ * checked against the server before it is used again: its time is
+ * renewed if the server's configuration is unchanged, and it is replaced
+ * otherwise.
+ */
+public class ServerConfigCache
+{
+    private static final Logger log =
+            LoggerFactory.getLogger(ServerConfigCache.class);
+
+    /** Default location of the cache file. */
+    public static final File DEFAULT_FILE = new File(
+            System.getProperty("user.home"),
+            ".omero-roitool" + File.separator + "server-config.properties");
+
+    /** Default time, in milliseconds, for which an entry is used. */
+    public static final long DEFAULT_TTL = TimeUnit.DAYS.toMillis(1);
+
+    private final File file;
+
+    private final long ttl;
+
+    /**
+     * @param file cache file
+     * @param ttl time, in milliseconds, for which an entry is used
+     */
+    public ServerConfigCache(File file, long ttl)
+    {
+        this.file = file;
+        this.ttl = ttl;
+    }
+
+    /**
+     * @return cache in the default location with the default time to live
+     */
+    public static ServerConfigCache getDefault()
+    {
+        return new ServerConfigCache(DEFAULT_FILE, DEFAULT_TTL);
+    }
+
+    /**
+     * Creates an LSID cache for a server, from the cached configuration if
+     * there is an entry which has not expired, otherwise from the server.
+     * @param serviceFactory session connected to the server
+     * @param server OMERO server address
+     * @param port OMERO server port
+     * @return See above.
+     * @throws ServerError if the configuration could not be
+     * retrieved from the server
+     */
+    public LsidCache getLsids(
+            ServiceFactoryPrx serviceFactory, String server, int port)
+                    throws ServerError
+    {
+        String key = server + ':' + port;
+        Properties properties = load();
+        LsidCache cached = get(properties, key);
+        if (cached != null && !isExpired(properties, key))
+        {
+            log.debug("Using cached configuration of {}", key);
+            return cached;
+        }
+        LsidCache current = LsidCache.forSession(serviceFactory);
+        if (cached != null)
+        {
+            if (current.getAuthority().equals(cached.getAuthority())
+                    && current.getDatabaseUuid().equals(
+                            cached.getDatabaseUuid()))
+            {
+                log.debug("Cached configuration of {} is up to date", key);
+            }
+            else
+            {
+                log.info("Configuration of {} has changed; replacing the " +
+                         "cached entry", key);
+            }
+        }
+        put(key, current);
+        return current;
+    }
+
+    /**
+     * @return the cached configuration of a server, whether or not it has
+     * expired, or <code>null</code> if there is none
+     */
+    private static LsidCache get(Properties properties, String key)
+    {
+        String authority = properties.getProperty(key + ".authority");
+        String databaseUuid = properties.getProperty(key + ".uuid");
+        if (authority == null || databaseUuid == null)
+        {
+            return null;
+        }
+        return new LsidCache(authority, databaseUuid);
+    }
+
+    /**
+     * @return whether the cached configuration of a server was last
+     * checked against the server more than the time to live ago
+     */
+    private boolean isExpired(Properties properties, String key)
+    {
+        String timestamp = properties.getProperty(key + ".timestamp");
+        try
+        {
+            return timestamp == null || System.currentTimeMillis()
+                    - Long.parseLong(timestamp) > ttl;
+        }
+        catch (NumberFormatException e)
+        {
+            return true;
+        }
+    }
+
+    private synchronized void put(String key, LsidCache lsids)
+    {
+        Properties properties = load();
+        properties.setProperty(key + ".authority", lsids.getAuthority());
+        properties.setProperty(key + ".uuid", lsids.getDatabaseUuid());
+        properties.setProperty(key + ".timestamp",
+                Long.toString(System.currentTimeMillis()));
+        try
+        {
+            File directory = file.getAbsoluteFile().getParentFile();
+            Files.createDirectories(directory.toPath());
+            // Replace the file atomically so that concurrent readers never
+            // see it half written
+            Path temporary = Files.createTempFile(
+                    directory.toPath(), file.getName(), ".tmp");
+            try (OutputStream out = Files.newOutputStream(temporary))
+            {
+                properties.store(out, "OMERO server configuration");
+            }
+            Files.move(temporary, file.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e)
+        {
+            log.warn("Could not write {}", file, e);
+        }
+    }
+
+    private Properties load()
+    {
+        Properties properties = new Properties();
+        if (file.isFile())
+        {
+            try (InputStream in = Files.newInputStream(file.toPath()))
+            {
+                properties.load(in);
+            }
+            catch (IOException | IllegalArgumentException e)
+            {
+                log.warn("Could not read {}", file, e);
+            }
+        }
+        return properties;
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.glencoesoftware.roitool;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Remembers, on disk, the key of the session a user last logged in to
+ * each OMERO server with, so that later runs can join that session rather
+ * than log in again.  The file is readable only by its owner.
+ */
+public class SessionKeyCache
+{
+    private static final Logger log =
+            LoggerFactory.getLogger(SessionKeyCache.class);
+
+    /** Default location of the cache file. */
+    public static final File DEFAULT_FILE = new File(
+            System.getProperty("user.home"),
+            ".omero-roitool" + File.separator + "sessions.properties");
+
+    private final File file;
+
+    /**
+     * @param file cache file
+     */
+    public SessionKeyCache(File file)
+    {
+        this.file = file;
+    }
+
+    /**
+     * @return cache in the default location
+     */
+    public static SessionKeyCache getDefault()
+    {
+        return new SessionKeyCache(DEFAULT_FILE);
+    }
+
+    /**
+     * @param username OMERO user name
+     * @param server OMERO server address
+     * @param port OMERO server port
+     * @return key of the user's cached session or <code>null</code> if
+     * there is none
+     */
+    public synchronized String get(String username, String server, int port)
+    {
+        return load().getProperty(key(username, server, port));
+    }
+
+    /**
+     * Caches the key of a user's session, replacing any previous one.
+     * @param username OMERO user name
+     * @param server OMERO server address
+     * @param port OMERO server port
+     * @param sessionKey OMERO session key
+     */
+    public synchronized void put(
+            String username, String server, int port, String sessionKey)
+    {
+        Properties properties = load();
+        properties.setProperty(key(username, server, port), sessionKey);
+        store(properties);
+    }
+
+    /**
+     * Forgets a user's cached session.
+     * @param username OMERO user name
+     * @param server OMERO server address
+     * @param port OMERO server port
+     */
+    public synchronized void remove(String username, String server, int port)
+    {
+        Properties properties = load();
+        if (properties.remove(key(username, server, port)) != null)
+        {
+            store(properties);
+        }
+    }
+
+    private String key(String username, String server, int port)
+    {
+        return username + '@' + server + ':' + port;
+    }
+
+    private void store(Properties properties)
+    {
+        try
+        {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            properties.store(out, "OMERO session keys");
+            PrivateFiles.write(file, out.toByteArray());
+        }
+        catch (IOException e)
+        {
+            log.warn("Could not write {}", file, e);
+        }
+    }
+
+    private Properties load()
+    {
+        Properties properties = new Properties();
+        if (file.isFile())
+        {
+            try (InputStream in = Files.newInputStream(file.toPath()))
+            {
+                properties.load(in);
+            }
+            catch (IOException | IllegalArgumentException e)
+            {
+                log.warn("Could not read {}", file, e);
+            }
+        }
+        return properties;
+    }
+}
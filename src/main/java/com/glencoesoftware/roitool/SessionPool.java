@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.glencoesoftware.roitool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import Glacier2.CannotCreateSessionException;
+import Glacier2.PermissionDeniedException;
+import omero.ServerError;
+
+/**
+ * A fixed number of metadata store clients connected to an OMERO server,
+ * which are lent to workers one at a time.  Only the first client logs in;
+ * the others join its session so that a batch of images costs a single
+ * login.  A client is reset when it is returned so that the next image
+ * starts with an empty object graph.
+ */
+public class SessionPool implements AutoCloseable
+{
+    private static final Logger log =
+            LoggerFactory.getLogger(SessionPool.class);
+
+    private final List<ROIMetadataStoreClient> clients;
+
+    private final BlockingQueue<ROIMetadataStoreClient> idle;
+
+    /**
+     * @param size number of clients in the pool
+     */
+    public SessionPool(int size)
+    {
+        if (size < 1)
+        {
+            throw new IllegalArgumentException(
+                    "Session pool size must be positive: " + size);
+        }
+        this.clients = new ArrayList<ROIMetadataStoreClient>(size);
+        this.idle = new ArrayBlockingQueue<ROIMetadataStoreClient>(size);
+        for (int i = 0; i < size; i++)
+        {
+            clients.add(new ROIMetadataStoreClient());
+        }
+    }
+
+    /**
+     * Logs the first client in and joins the others to its session.
+     * @param username OMERO user name
+     * @param password OMERO password
+     * @param server OMERO server address
+     * @param port OMERO server port
+     */
+    public void initialize(
+            String username, String password, String server, int port)
+                    throws CannotCreateSessionException,
+                           PermissionDeniedException, ServerError
+    {
+        ROIMetadataStoreClient first = clients.get(0);
+        first.initialize(username, password, server, port);
+        join(first.getServiceFactory().ice_getIdentity().name, server, port);
+    }
+
+    /**
+     * Joins every client to an existing session.
+     * @param server OMERO server address
+     * @param port OMERO server port
+     * @param sessionKey OMERO session key
+     */
+    public void initialize(String server, int port, String sessionKey)
+            throws CannotCreateSessionException, PermissionDeniedException,
+                   ServerError
+    {
+        clients.get(0).initialize(sessionKey, sessionKey, server, port);
+        join(sessionKey, server, port);
+    }
+
+    private void join(String sessionKey, String server, int port)
+            throws CannotCreateSessionException, PermissionDeniedException,
+                   ServerError
+    {
+        idle.add(clients.get(0));
+        for (int i = 1; i < clients.size(); i++)
+        {
+            ROIMetadataStoreClient client = clients.get(i);
+            client.initialize(sessionKey, sessionKey, server, port);
+            idle.add(client);
+        }
+        log.info("Session pool of {} clients ready", clients.size());
+    }
+
+    /**
+     * Keeps the session open on the server when the pool is closed so that
+     * a later run can join it.
+     * @return key of the session
+     */
+    public String detachSession()
+    {
+        for (ROIMetadataStoreClient client : clients)
+        {
+            client.getServiceFactory().detachOnDestroy();
+        }
+        return clients.get(0).getServiceFactory().ice_getIdentity().name;
+    }
+
+    /**
+     * @return number of clients in the pool
+     */
+    public int size()
+    {
+        return clients.size();
+    }
+
+    /**
+     * Borrows a client, waiting for one to be returned if all are in use.
+     * @return a client with an empty object graph
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public ROIMetadataStoreClient acquire() throws InterruptedException
+    {
+        return idle.take();
+    }
+
+    /**
+     * Returns a borrowed client to the pool, discarding the object graph
+     * left in it.
+     * @param client client obtained from {@link #acquire()}
+     */
+    public void release(ROIMetadataStoreClient client)
+    {
+        client.createRoot();
+        idle.add(client);
+    }
+
+    /**
+     * Logs out every client, the one that owns the session last.
+     */
+    @Override
+    public void close()
+    {
+        for (int i = clients.size() - 1; i >= 0; i--)
+        {
+            try
+            {
+                clients.get(i).logout();
+            }
+            catch (Exception e)
+            {
+                log.warn("Failed to log out client {}", i, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,416 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.glencoesoftware.roitool;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import omero.RString;
+import omero.model.Polygon;
+import omero.model.Polyline;
+import omero.model.Shape;
+
+import static omero.rtypes.rstring;
+
+/**
+ * Reduces the vertices of polygons and polylines with the Douglas-Peucker
+ * algorithm: a vertex is dropped when it lies within a tolerance, in
+ * pixels, of the simplified outline.  The first vertex of every shape is
+ * kept, as is the last vertex of a polyline, and a shape is left as it is
+ * if simplifying would leave too few vertices to describe it.  Other
+ * shapes are never modified.
+ * <p>
+ * Shapes may be simplified across the threads of a fork/join pool; each
+ * shape is only touched by one thread.  Shapes held in {@link ROIColumns}
+ * are simplified in place in their vertex store, without formatting
+ * their points.
+ */
+public class ShapeSimplifier
+{
+    private static final Logger log =
+            LoggerFactory.getLogger(ShapeSimplifier.class);
+
+    /** Smallest number of shapes simplified by one task. */
+    private static final int MIN_CHUNK_SIZE = 256;
+
+    /** Number of tasks to aim for per thread, to even out uneven shapes. */
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    /** Square of the largest distance of a dropped vertex. */
+    private final double toleranceSquared;
+
+    private final double tolerance;
+
+    /**
+     * @param tolerance largest distance, in pixels, of a dropped vertex from
+     * the simplified outline
+     */
+    public ShapeSimplifier(double tolerance)
+    {
+        if (!(tolerance >= 0) || Double.isInfinite(tolerance))
+        {
+            throw new IllegalArgumentException(
+                    "Tolerance must be a non-negative number: " + tolerance);
+        }
+        this.tolerance = tolerance;
+        this.toleranceSquared = tolerance * tolerance;
+    }
+
+    /**
+     * @return largest distance, in pixels, of a dropped vertex from the
+     * simplified outline
+     */
+    public double getTolerance()
+    {
+        return tolerance;
+    }
+
+    /**
+     * Simplifies the polygons and polylines amongst some shapes, replacing
+     * their points, and logs the reduction in vertices.
+     * @param shapes shapes to simplify
+     * @param pool pool to simplify on or <code>null</code> to simplify on
+     * the calling thread
+     * @return number of vertices dropped
+     */
+    public long simplify(List<? extends Shape> shapes, ForkJoinPool pool)
+    {
+        long start = System.nanoTime();
+        Counts counts;
+        if (pool == null)
+        {
+            counts = simplify(shapes, 0, shapes.size());
+        }
+        else
+        {
+            int chunkSize = Math.max(MIN_CHUNK_SIZE, shapes.size()
+                    / (pool.getParallelism() * CHUNKS_PER_THREAD));
+            counts = pool.invoke(
+                    new SimplifyTask(shapes, 0, shapes.size(), chunkSize));
+        }
+        log.info("Simplified {} polygons and polylines from {} to {} " +
+                 "vertices in {} ms", counts.shapes, counts.before,
+                 counts.after, (System.nanoTime() - start) / 1000000);
+        return counts.before - counts.after;
+    }
+
+    /**
+     * Simplifies the polygons and polylines held in columns, in place in
+     * their vertex store, and logs the reduction in vertices.
+     * @param columns columns to simplify
+     * @return number of vertices dropped
+     */
+    public long simplify(ROIColumns columns)
+    {
+        long start = System.nanoTime();
+        Counts counts = new Counts();
+        VertexStore vertices = columns.getVertexStore();
+        double[] xy = new double[0];
+        for (int roi = 0; roi < columns.getROICount(); roi++)
+        {
+            for (int shape = 0; shape < columns.getShapeCount(roi); shape++)
+            {
+                int count = columns.getVertexCount(roi, shape);
+                if (count < 0)
+                {
+                    continue;
+                }
+                if (xy.length < 2 * count)
+                {
+                    xy = new double[Math.max(2 * count, 2 * xy.length)];
+                }
+                long offset = columns.getVertexOffset(roi, shape);
+                vertices.get(offset, xy, count);
+                boolean closed = ShapeType.POLYGON.getName().equals(
+                        columns.getShapeType(roi, shape));
+                int kept = simplify(xy, count, closed);
+                counts.shapes++;
+                counts.before += count;
+                counts.after += kept;
+                if (kept < count)
+                {
+                    vertices.set(offset, xy, kept);
+                    columns.setVertexCount(roi, shape, kept);
+                }
+            }
+        }
+        log.info("Simplified {} polygons and polylines from {} to {} " +
+                 "vertices in {} ms", counts.shapes, counts.before,
+                 counts.after, (System.nanoTime() - start) / 1000000);
+        return counts.before - counts.after;
+    }
+
+    /**
+     * Simplifies a range of shapes on the calling thread.
+     * @return vertex counts of the polygons and polylines in the range
+     */
+    private Counts simplify(List<? extends Shape> shapes, int from, int to)
+    {
+        Counts counts = new Counts();
+        PointsCodec points = new PointsCodec();
+        for (int i = from; i < to; i++)
+        {
+            Shape shape = shapes.get(i);
+            if (shape instanceof Polygon)
+            {
+                Polygon polygon = (Polygon) shape;
+                RString simplified = simplify(
+                        points, polygon.getPoints(), true, counts);
+                if (simplified != null)
+                {
+                    polygon.setPoints(simplified);
+                }
+            }
+            else if (shape instanceof Polyline)
+            {
+                Polyline polyline = (Polyline) shape;
+                RString simplified = simplify(
+                        points, polyline.getPoints(), false, counts);
+                if (simplified != null)
+                {
+                    polyline.setPoints(simplified);
+                }
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Simplifies the points of one shape.
+     * @return the simplified points or <code>null</code> if they are
+     * unchanged
+     */
+    private RString simplify(PointsCodec points, RString value,
+                             boolean closed, Counts counts)
+    {
+        if (value == null)
+        {
+            return null;
+        }
+        int count;
+        try
+        {
+            count = points.parse(value.getValue());
+        }
+        catch (NumberFormatException e)
+        {
+            log.debug("Leaving unparseable points: {}", e.getMessage());
+            return null;
+        }
+        int kept = simplify(points.getCoordinates(), count, closed);
+        counts.shapes++;
+        counts.before += count;
+        counts.after += kept;
+        if (kept == count)
+        {
+            return null;
+        }
+        points.set(points.getCoordinates(), kept);
+        return rstring(points.format());
+    }
+
+    /**
+     * Simplifies a list of points in place.
+     * @param xy x and y of each point, interleaved; the kept points are
+     * moved to the front, in order
+     * @param count number of points
+     * @param closed whether the last point joins the first, as in a
+     * polygon
+     * @return number of points kept
+     */
+    private int simplify(double[] xy, int count, boolean closed)
+    {
+        int minimum = closed ? 3 : 2;
+        if (count <= minimum)
+        {
+            return count;
+        }
+        boolean[] keep = new boolean[count];
+        // Index count of a closed outline stands for the first point again
+        int last = closed ? count : count - 1;
+        int[] stack = new int[2 * (last + 1)];
+        int top = 0;
+        keep[0] = true;
+        if (closed)
+        {
+            // Split the outline at the point furthest from the first, as
+            // the first and the closing point coincide
+            int furthest = 1;
+            double furthestDistance = -1;
+            for (int i = 1; i < count; i++)
+            {
+                double dx = xy[2 * i] - xy[0];
+                double dy = xy[2 * i + 1] - xy[1];
+                double distance = dx * dx + dy * dy;
+                if (distance > furthestDistance)
+                {
+                    furthest = i;
+                    furthestDistance = distance;
+                }
+            }
+            keep[furthest] = true;
+            stack[top++] = 0;
+            stack[top++] = furthest;
+            stack[top++] = furthest;
+            stack[top++] = last;
+        }
+        else
+        {
+            keep[last] = true;
+            stack[top++] = 0;
+            stack[top++] = last;
+        }
+        while (top > 0)
+        {
+            int b = stack[--top];
+            int a = stack[--top];
+            int split = -1;
+            double splitDistance = toleranceSquared;
+            for (int i = a + 1; i < b; i++)
+            {
+                double distance = distanceSquared(xy, count, i, a, b);
+                if (distance > splitDistance)
+                {
+                    split = i;
+                    splitDistance = distance;
+                }
+            }
+            if (split >= 0)
+            {
+                keep[split] = true;
+                stack[top++] = a;
+                stack[top++] = split;
+                stack[top++] = split;
+                stack[top++] = b;
+            }
+        }
+        int kept = 0;
+        for (int i = 0; i < count; i++)
+        {
+            if (keep[i])
+            {
+                kept++;
+            }
+        }
+        if (kept < minimum)
+        {
+            return count;
+        }
+        kept = 0;
+        for (int i = 0; i < count; i++)
+        {
+            if (keep[i])
+            {
+                xy[2 * kept] = xy[2 * i];
+                xy[2 * kept + 1] = xy[2 * i + 1];
+                kept++;
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * @return square of the distance of point <code>p</code> from the
+     * segment between points <code>a</code> and <code>b</code>; indexes
+     * wrap around at <code>count</code>
+     */
+    private static double distanceSquared(
+            double[] xy, int count, int p, int a, int b)
+    {
+        a %= count;
+        b %= count;
+        double px = xy[2 * p] - xy[2 * a];
+        double py = xy[2 * p + 1] - xy[2 * a + 1];
+        double dx = xy[2 * b] - xy[2 * a];
+        double dy = xy[2 * b + 1] - xy[2 * a + 1];
+        double length = dx * dx + dy * dy;
+        if (length > 0)
+        {
+            double t = (px * dx + py * dy) / length;
+            t = Math.max(0, Math.min(1, t));
+            px -= t * dx;
+            py -= t * dy;
+        }
+        return px * px + py * py;
+    }
+
+    /** Number of shapes simplified and their vertices. */
+    private static class Counts
+    {
+        long shapes;
+
+        long before;
+
+        long after;
+
+        Counts add(Counts other)
+        {
+            shapes += other.shapes;
+            before += other.before;
+            after += other.after;
+            return this;
+        }
+    }
+
+    /**
+     * Simplifies a range of shapes, splitting it in two while it is larger
+     * than the chunk size.
+     */
+    private class SimplifyTask extends RecursiveTask<Counts>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final List<? extends Shape> shapes;
+
+        private final int from;
+
+        private final int to;
+
+        private final int chunkSize;
+
+        SimplifyTask(List<? extends Shape> shapes, int from, int to,
+                     int chunkSize)
+        {
+            this.shapes = shapes;
+            this.from = from;
+            this.to = to;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        protected Counts compute()
+        {
+            if (to - from <= chunkSize)
+            {
+                return simplify(shapes, from, to);
+            }
+            int middle = (from + to) >>> 1;
+            SimplifyTask right =
+                    new SimplifyTask(shapes, middle, to, chunkSize);
+            right.fork();
+            Counts left =
+                    new SimplifyTask(shapes, from, middle, chunkSize).compute();
+            return left.add(right.join());
+        }
+    }
+}
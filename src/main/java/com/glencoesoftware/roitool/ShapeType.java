@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.glencoesoftware.roitool;
+
+import java.util.function.Supplier;
+
+import omero.model.Ellipse;
+import omero.model.EllipseI;
+import omero.model.Label;
+import omero.model.LabelI;
+import omero.model.Line;
+import omero.model.LineI;
+import omero.model.Mask;
+import omero.model.MaskI;
+import omero.model.Point;
+import omero.model.PointI;
+import omero.model.Polygon;
+import omero.model.PolygonI;
+import omero.model.Polyline;
+import omero.model.PolylineI;
+import omero.model.Rectangle;
+import omero.model.RectangleI;
+import omero.model.Shape;
+
+/**
+ * The kinds of shape a ROI may contain, with their OME-XML element names
+ * and OMERO model types.
+ */
+public enum ShapeType
+{
+    ELLIPSE("Ellipse", Ellipse.class, EllipseI::new),
+    LABEL("Label", Label.class, LabelI::new),
+    LINE("Line", Line.class, LineI::new),
+    MASK("Mask", Mask.class, MaskI::new),
+    POINT("Point", Point.class, PointI::new),
+    POLYGON("Polygon", Polygon.class, PolygonI::new),
+    POLYLINE("Polyline", Polyline.class, PolylineI::new),
+    RECTANGLE("Rectangle", Rectangle.class, RectangleI::new);
+
+    /** Shape type of each OMERO model class, resolved once per class. */
+    private static final ClassValue<ShapeType> TYPES =
+            new ClassValue<ShapeType>()
+    {
+        @Override
+        protected ShapeType computeValue(Class<?> type)
+        {
+            for (ShapeType shapeType : values())
+            {
+                if (shapeType.modelClass.isAssignableFrom(type))
+                {
+                    return shapeType;
+                }
+            }
+            return null;
+        }
+    };
+
+    private final String name;
+
+    private final Class<? extends Shape> modelClass;
+
+    private final Supplier<Shape> factory;
+
+    ShapeType(String name, Class<? extends Shape> modelClass,
+              Supplier<Shape> factory)
+    {
+        this.name = name;
+        this.modelClass = modelClass;
+        this.factory = factory;
+    }
+
+    /**
+     * @return OME-XML element name of this shape type
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * @return OMERO model type of this shape type
+     */
+    public Class<? extends Shape> getModelClass()
+    {
+        return modelClass;
+    }
+
+    /**
+     * @return new, unsaved OMERO shape of this type
+     */
+    public Shape newInstance()
+    {
+        return factory.get();
+    }
+
+    /**
+     * Finds the type of an OMERO shape.
+     * @param shape OMERO shape
+     * @return shape type or <code>null</code> if the shape is of a type
+     * without an OME-XML equivalent
+     */
+    public static ShapeType of(Shape shape)
+    {
+        return TYPES.get(shape.getClass());
+    }
+}
@@ -0,0 +1,417 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.glencoesoftware.roitool;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An append-only store of polygon and polyline vertices, each an x and y
+ * coordinate, addressed by a <code>long</code> index.  Vertices are kept in
+ * fixed size chunks of {@value #CHUNK_SIZE} vertices, so the store grows
+ * without copying and a shape's vertices may span two chunks.
+ * <p>
+ * A store created with {@link #VertexStore()} keeps its chunks on the
+ * heap.  Its first chunk starts small and doubles as it fills, so that a
+ * store of a few shapes does not take a whole chunk.  One created with
+ * {@link #offHeap(long, File)} keeps them in direct buffers, outside the
+ * heap, until a memory limit is reached and then spills further chunks
+ * to a temporary file which is mapped into memory, so that the operating
+ * system pages them in and out as needed.
+ * Direct buffers count against <code>-XX:MaxDirectMemorySize</code>, which
+ * defaults to the maximum heap size.
+ * <p>
+ * Vertices are only read by absolute index, so several threads may read a
+ * store at once provided nothing is appended meanwhile.
+ */
+public class VertexStore implements Closeable
+{
+    private static final Logger log =
+            LoggerFactory.getLogger(VertexStore.class);
+
+    /** Number of bits of the index of a vertex within its chunk. */
+    private static final int CHUNK_BITS = 17;
+
+    /** Number of vertices per chunk. */
+    static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    /** Bytes per chunk: two doubles per vertex. */
+    private static final long CHUNK_BYTES = 16L * CHUNK_SIZE;
+
+    /** Smallest number of vertices of the first chunk on the heap. */
+    static final int MIN_FIRST_CHUNK_SIZE = 1024;
+
+    /** Whether chunks are kept outside the heap. */
+    private final boolean offHeap;
+
+    /** Most bytes of direct buffers before chunks are spilled to a file. */
+    private final long memoryLimit;
+
+    /** Directory of the spill file; <code>null</code> for the default. */
+    private final File directory;
+
+    /** x and y of each vertex, interleaved, chunk by chunk. */
+    private final List<DoubleBuffer> chunks = new ArrayList<DoubleBuffer>();
+
+    /** Number of chunks held in direct buffers or on the heap. */
+    private int memoryChunks;
+
+    /** File chunks are spilled to; <code>null</code> until the first. */
+    private File spillFile;
+
+    private FileChannel spillChannel;
+
+    private long size;
+
+    private boolean closed;
+
+    /**
+     * Creates a store which keeps its vertices on the heap.
+     */
+    public VertexStore()
+    {
+        this(false, 0, null);
+    }
+
+    private VertexStore(boolean offHeap, long memoryLimit, File directory)
+    {
+        this.offHeap = offHeap;
+        this.memoryLimit = memoryLimit;
+        this.directory = directory;
+    }
+
+    /**
+     * Creates a store which keeps its vertices outside the heap.
+     * @param memoryLimit most bytes of vertices to keep in direct buffers
+     * before spilling to a temporary file; <code>0</code> to spill every
+     * vertex
+     * @param directory directory to create the temporary file in or
+     * <code>null</code> for the default temporary directory
+     * @return See above.
+     */
+    public static VertexStore offHeap(long memoryLimit, File directory)
+    {
+        if (memoryLimit < 0)
+        {
+            throw new IllegalArgumentException(
+                    "Memory limit must not be negative: " + memoryLimit);
+        }
+        return new VertexStore(true, memoryLimit, directory);
+    }
+
+    /**
+     * @return whether vertices are kept outside the heap
+     */
+    public boolean isOffHeap()
+    {
+        return offHeap;
+    }
+
+    /**
+     * @return number of vertices held
+     */
+    public long size()
+    {
+        return size;
+    }
+
+    /**
+     * @return number of vertices held in a temporary file rather than in
+     * memory
+     */
+    public long spilled()
+    {
+        return Math.max(0, size - (long) memoryChunks * CHUNK_SIZE);
+    }
+
+    /**
+     * Estimates the heap used by this store, which is only that of its
+     * chunks when they are kept on the heap.
+     * @return approximate number of bytes
+     */
+    public long estimateSize()
+    {
+        long size = 8L * chunks.size();
+        if (!offHeap)
+        {
+            for (DoubleBuffer chunk : chunks)
+            {
+                size += 8L * chunk.capacity();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Appends vertices to the store.
+     * @param xy x and y of each vertex, interleaved
+     * @param count number of vertices
+     * @return index of the first vertex appended
+     */
+    public long append(double[] xy, int count)
+    {
+        checkOpen();
+        long first = size;
+        if (!offHeap)
+        {
+            growFirstChunk(size + count);
+        }
+        for (int i = 0; i < count; i++)
+        {
+            if (size >> CHUNK_BITS == chunks.size())
+            {
+                chunks.add(allocate());
+            }
+            DoubleBuffer chunk = chunk(size);
+            int position = 2 * (int) (size & CHUNK_MASK);
+            chunk.put(position, xy[2 * i]);
+            chunk.put(position + 1, xy[2 * i + 1]);
+            size++;
+        }
+        return first;
+    }
+
+    /**
+     * Replaces vertices already held.
+     * @param index index of the first vertex to replace
+     * @param xy x and y of each vertex, interleaved
+     * @param count number of vertices
+     */
+    public void set(long index, double[] xy, int count)
+    {
+        checkRange(index, count);
+        for (int i = 0; i < count; i++)
+        {
+            DoubleBuffer chunk = chunk(index + i);
+            int position = 2 * (int) ((index + i) & CHUNK_MASK);
+            chunk.put(position, xy[2 * i]);
+            chunk.put(position + 1, xy[2 * i + 1]);
+        }
+    }
+
+    /**
+     * Copies vertices out of the store.
+     * @param index index of the first vertex to copy
+     * @param xy array to copy x and y of each vertex into, interleaved
+     * @param count number of vertices
+     */
+    public void get(long index, double[] xy, int count)
+    {
+        checkRange(index, count);
+        for (int i = 0; i < count; i++)
+        {
+            DoubleBuffer chunk = chunk(index + i);
+            int position = 2 * (int) ((index + i) & CHUNK_MASK);
+            xy[2 * i] = chunk.get(position);
+            xy[2 * i + 1] = chunk.get(position + 1);
+        }
+    }
+
+    /**
+     * @param index index of a vertex
+     * @return x of the vertex
+     */
+    public double getX(long index)
+    {
+        checkRange(index, 1);
+        return chunk(index).get(2 * (int) (index & CHUNK_MASK));
+    }
+
+    /**
+     * @param index index of a vertex
+     * @return y of the vertex
+     */
+    public double getY(long index)
+    {
+        checkRange(index, 1);
+        return chunk(index).get(2 * (int) (index & CHUNK_MASK) + 1);
+    }
+
+    /**
+     * Appends vertices to a buffer in the form of a points string,
+     * <code>x1,y1 x2,y2 ...</code>, reading them straight from the store.
+     * @param buffer buffer to append to
+     * @param index index of the first vertex
+     * @param count number of vertices
+     * @param coordinates format of each coordinate
+     * @return <code>buffer</code>
+     */
+    public StringBuilder format(StringBuilder buffer, long index, int count,
+                                CoordinateFormat coordinates)
+    {
+        checkRange(index, count);
+        for (int i = 0; i < count; i++)
+        {
+            if (i > 0)
+            {
+                buffer.append(' ');
+            }
+            DoubleBuffer chunk = chunk(index + i);
+            int position = 2 * (int) ((index + i) & CHUNK_MASK);
+            coordinates.format(buffer, chunk.get(position));
+            buffer.append(',');
+            coordinates.format(buffer, chunk.get(position + 1));
+        }
+        return buffer;
+    }
+
+    /**
+     * Releases the chunks of this store and deletes its temporary file, if
+     * any.  Direct and mapped buffers are freed once they are garbage
+     * collected; the store may not be used afterwards.
+     */
+    @Override
+    public void close()
+    {
+        if (closed)
+        {
+            return;
+        }
+        closed = true;
+        chunks.clear();
+        if (spillChannel != null)
+        {
+            try
+            {
+                spillChannel.close();
+            }
+            catch (IOException e)
+            {
+                log.warn("Failed to close {}", spillFile, e);
+            }
+            spillChannel = null;
+        }
+        if (spillFile != null && !spillFile.delete())
+        {
+            log.warn("Failed to delete temporary vertex file {}; it must " +
+                     "be deleted by hand", spillFile);
+        }
+    }
+
+    private DoubleBuffer chunk(long index)
+    {
+        return chunks.get((int) (index >> CHUNK_BITS));
+    }
+
+    private void checkOpen()
+    {
+        if (closed)
+        {
+            throw new IllegalStateException("Vertex store is closed");
+        }
+    }
+
+    private void checkRange(long index, int count)
+    {
+        checkOpen();
+        if (index < 0 || count < 0 || index + count > size)
+        {
+            throw new IndexOutOfBoundsException(
+                    "Vertices: " + index + " to " + (index + count)
+                    + ", size: " + size);
+        }
+    }
+
+    /**
+     * Sizes the first chunk of a heap store to hold a number of vertices,
+     * doubling it, up to a whole chunk, when it must grow.
+     * @param capacity number of vertices to hold
+     */
+    private void growFirstChunk(long capacity)
+    {
+        if (chunks.size() > 1)
+        {
+            return;
+        }
+        int current = chunks.isEmpty() ? 0 : chunks.get(0).capacity() / 2;
+        if (capacity <= current || current == CHUNK_SIZE)
+        {
+            return;
+        }
+        int grown = (int) Math.min(CHUNK_SIZE, Math.max(capacity,
+                Math.max(MIN_FIRST_CHUNK_SIZE, 2L * current)));
+        DoubleBuffer chunk = DoubleBuffer.allocate(2 * grown);
+        if (chunks.isEmpty())
+        {
+            memoryChunks++;
+            chunks.add(chunk);
+        }
+        else
+        {
+            DoubleBuffer previous = chunks.get(0).duplicate();
+            previous.clear();
+            chunk.put(previous);
+            chunks.set(0, chunk);
+        }
+    }
+
+    /**
+     * Allocates the next chunk: on the heap, in a direct buffer while the
+     * memory limit allows or else in the spill file.
+     */
+    private DoubleBuffer allocate()
+    {
+        if (!offHeap)
+        {
+            memoryChunks++;
+            return DoubleBuffer.allocate(2 * CHUNK_SIZE);
+        }
+        if (spillChannel == null
+                && CHUNK_BYTES * (memoryChunks + 1) <= memoryLimit)
+        {
+            memoryChunks++;
+            return ByteBuffer.allocateDirect((int) CHUNK_BYTES)
+                    .order(ByteOrder.nativeOrder()).asDoubleBuffer();
+        }
+        try
+        {
+            if (spillChannel == null)
+            {
+                spillFile = File.createTempFile("vertices", ".bin", directory);
+                spillChannel = new RandomAccessFile(spillFile, "rw")
+                        .getChannel();
+                log.info("Spilling vertices beyond {} to {}",
+                         (long) memoryChunks * CHUNK_SIZE, spillFile);
+            }
+            long offset = CHUNK_BYTES * (chunks.size() - memoryChunks);
+            return spillChannel.map(
+                    FileChannel.MapMode.READ_WRITE, offset, CHUNK_BYTES)
+                    .order(ByteOrder.nativeOrder()).asDoubleBuffer();
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(
+                    "Failed to spill vertices to a temporary file", e);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.glencoesoftware.roitool;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class BatchImportTest
+{
+    private File directory;
+
+    private File manifest;
+
+    @BeforeMethod
+    public void setUp() throws IOException
+    {
+        directory = Files.createTempDirectory("manifest").toFile();
+        manifest = new File(directory, "manifest.txt");
+    }
+
+    @AfterMethod
+    public void tearDown()
+    {
+        manifest.delete();
+        directory.delete();
+    }
+
+    private List<BatchImport.Item> read(String content) throws IOException
+    {
+        Files.write(manifest.toPath(),
+                    content.getBytes(StandardCharsets.UTF_8));
+        return BatchImport.readManifest(manifest);
+    }
+
+    @Test
+    public void testTabSeparated() throws IOException
+    {
+        List<BatchImport.Item> items = read(
+                "imageId\tpath\n" +
+                "1\ta/b, \"c\".ome.xml\n" +
+                "\n" +
+                "# comment\n" +
+                "2\t/data/d.ome.xml\n");
+        Assert.assertEquals(items.size(), 2);
+        Assert.assertEquals(items.get(0).imageId, 1L);
+        Assert.assertEquals(items.get(0).input,
+                new File(directory, "a/b, \"c\".ome.xml"));
+        Assert.assertEquals(items.get(1).imageId, 2L);
+        Assert.assertEquals(items.get(1).input, new File("/data/d.ome.xml"));
+    }
+
+    @Test
+    public void testCommaSeparated() throws IOException
+    {
+        List<BatchImport.Item> items = read(
+                "imageId,path\n" +
+                "3,e.ome.xml\n" +
+                "4, \"f,g.ome.xml\"\n");
+        Assert.assertEquals(items.size(), 2);
+        Assert.assertEquals(items.get(0).imageId, 3L);
+        Assert.assertEquals(items.get(0).input,
+                new File(directory, "e.ome.xml"));
+        Assert.assertEquals(items.get(1).imageId, 4L);
+        Assert.assertEquals(items.get(1).input,
+                new File(directory, "f,g.ome.xml"));
+    }
+
+    @Test
+    public void testWithoutHeader() throws IOException
+    {
+        List<BatchImport.Item> items = read("5\th.ome.xml\n");
+        Assert.assertEquals(items.size(), 1);
+        Assert.assertEquals(items.get(0).imageId, 5L);
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testInvalidImageId() throws IOException
+    {
+        read("imageId\tpath\nx\th.ome.xml\n");
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testMissingSeparator() throws IOException
+    {
+        read("6 h.ome.xml\n");
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.glencoesoftware.roitool;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class BatchSizeTest
+{
+    @Test
+    public void testFixed()
+    {
+        BatchSize size = BatchSize.fixed(50);
+        Assert.assertFalse(size.isAdaptive());
+        size.succeeded(50, 1);
+        size.succeeded(50, 100000);
+        size.failed(50);
+        Assert.assertEquals(size.get(), 50);
+        Assert.assertEquals(BatchSize.fixed(0).get(), 0);
+    }
+
+    @Test
+    public void testAdaptiveInitial()
+    {
+        Assert.assertTrue(BatchSize.adaptive(10, 1000).isAdaptive());
+        Assert.assertEquals(BatchSize.adaptive(10, 1000).get(), 10);
+        Assert.assertEquals(BatchSize.adaptive(0, 1000).get(),
+                            BatchSize.DEFAULT_INITIAL_SIZE);
+        Assert.assertEquals(
+                BatchSize.adaptive(BatchSize.DEFAULT_MAXIMUM_SIZE + 1, 1000)
+                        .get(),
+                BatchSize.DEFAULT_MAXIMUM_SIZE);
+    }
+
+    @Test
+    public void testOf()
+    {
+        Assert.assertFalse(BatchSize.of(50, 0).isAdaptive());
+        Assert.assertEquals(BatchSize.of(50, 0).get(), 50);
+        Assert.assertTrue(BatchSize.of(50, 1000).isAdaptive());
+        Assert.assertEquals(BatchSize.of(0, 1000).get(),
+                            BatchSize.DEFAULT_INITIAL_SIZE);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testOfNegativeSize()
+    {
+        BatchSize.of(-1, 0);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testOfNegativeLatency()
+    {
+        BatchSize.of(100, -1);
+    }
+
+    @Test
+    public void testCopyAdaptsIndependently()
+    {
+        BatchSize size = BatchSize.adaptive(100, 1000);
+        BatchSize copy = size.copy();
+        Assert.assertTrue(copy.isAdaptive());
+        copy.succeeded(100, 10);
+        Assert.assertEquals(copy.get(), 200);
+        Assert.assertEquals(size.get(), 100);
+    }
+
+    @Test
+    public void testFastSavesDouble()
+    {
+        BatchSize size = BatchSize.adaptive(100, 1000);
+        size.succeeded(100, 500);
+        Assert.assertEquals(size.get(), 200);
+        for (int i = 0; i < 20; i++)
+        {
+            size.succeeded(size.get(), 10);
+        }
+        Assert.assertEquals(size.get(), BatchSize.DEFAULT_MAXIMUM_SIZE);
+    }
+
+    @Test
+    public void testSavesWithinTargetGrowByAQuarter()
+    {
+        BatchSize size = BatchSize.adaptive(100, 1000);
+        size.succeeded(100, 1000);
+        Assert.assertEquals(size.get(), 125);
+        size = BatchSize.adaptive(1, 1000);
+        size.succeeded(1, 800);
+        Assert.assertEquals(size.get(), 2);
+    }
+
+    @Test
+    public void testSlowSavesShrinkProportionally()
+    {
+        BatchSize size = BatchSize.adaptive(400, 1000);
+        size.succeeded(400, 4000);
+        Assert.assertEquals(size.get(), 100);
+        size.succeeded(100, 1000000);
+        Assert.assertEquals(size.get(), 1);
+    }
+
+    @Test
+    public void testFailuresHalve()
+    {
+        BatchSize size = BatchSize.adaptive(100, 1000);
+        size.failed(100);
+        Assert.assertEquals(size.get(), 50);
+        // A failed batch smaller than the current size halves that batch
+        size.failed(20);
+        Assert.assertEquals(size.get(), 10);
+        for (int i = 0; i < 10; i++)
+        {
+            size.failed(size.get());
+        }
+        Assert.assertEquals(size.get(), 1);
+    }
+}
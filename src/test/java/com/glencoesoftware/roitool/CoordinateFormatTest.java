@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.glencoesoftware.roitool;
+
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+public class CoordinateFormatTest
+{
+    @DataProvider
+    public Object[][] shortest()
+    {
+        return new Object[][] {
+            {0.0, "0"},
+            {2.0, "2"},
+            {-2.0, "-2"},
+            {0.1, "0.1"},
+            {1.5, "1.5"},
+            {-1.125, "-1.125"},
+            {0.05, "0.05"},
+            {123456.789, "123456.789"},
+            {1e-7, "1.0E-7"},
+            {1e300, "1.0E300"}
+        };
+    }
+
+    @Test(dataProvider = "shortest")
+    public void testShortest(double value, String expected)
+    {
+        Assert.assertEquals(CoordinateFormat.SHORTEST.format(value), expected);
+    }
+
+    @Test
+    public void testShortestRoundTrips()
+    {
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++)
+        {
+            double value = (random.nextDouble() - 0.5) * 20000;
+            String formatted = CoordinateFormat.SHORTEST.format(value);
+            Assert.assertEquals(Double.parseDouble(formatted), value,
+                                formatted);
+            Assert.assertTrue(formatted.length()
+                    <= Double.toString(value).length(), formatted);
+        }
+    }
+
+    @DataProvider
+    public Object[][] fixed()
+    {
+        return new Object[][] {
+            {2, 1.0, "1"},
+            {2, 1.234, "1.23"},
+            {2, 1.235, "1.24"},
+            {2, 1.005, "1"},
+            {2, 0.001, "0"},
+            {2, -0.001, "0"},
+            {0, 0.5, "1"},
+            {0, -0.5, "-1"},
+            {0, 2.5, "3"},
+            {0, -2.5, "-3"},
+            {1, 0.25, "0.3"},
+            {1, -0.25, "-0.3"},
+            {3, 0.0625, "0.063"},
+            {3, -0.0625, "-0.063"}
+        };
+    }
+
+    @Test(dataProvider = "fixed")
+    public void testFixed(int precision, double value, String expected)
+    {
+        Assert.assertEquals(
+                CoordinateFormat.fixed(precision).format(value), expected);
+    }
+
+    @Test
+    public void testFixedIsSymmetric()
+    {
+        Random random = new Random(42);
+        CoordinateFormat format = CoordinateFormat.fixed(2);
+        for (int i = 0; i < 100000; i++)
+        {
+            // Multiples of 1/8 include many exact halves at two places
+            double value = random.nextInt(100000) / 8.0;
+            Assert.assertEquals(format.format(-value),
+                                value == 0 || format.format(value).equals("0")
+                                ? "0" : "-" + format.format(value));
+        }
+    }
+
+    @Test
+    public void testToString()
+    {
+        Assert.assertEquals(CoordinateFormat.TO_STRING.format(2.0), "2.0");
+        Assert.assertEquals(CoordinateFormat.TO_STRING.format(-0.5), "-0.5");
+        Assert.assertFalse(CoordinateFormat.TO_STRING.isFixed());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testNegativePrecision()
+    {
+        CoordinateFormat.fixed(-1);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testExcessivePrecision()
+    {
+        CoordinateFormat.fixed(CoordinateFormat.MAX_PRECISION + 1);
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.glencoesoftware.roitool;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import omero.metadatastore.IObjectContainer;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+public class ObjectRegistryTest
+{
+    private static final int MAX_INDEX = (1 << ObjectRegistry.INDEX_BITS) - 1;
+
+    @DataProvider
+    public Object[][] keys()
+    {
+        return new Object[][] {
+            {1, 0, 0},
+            {1, 1, 2},
+            {ObjectRegistry.MAX_TYPE, MAX_INDEX, MAX_INDEX},
+            {3, MAX_INDEX, 0},
+            {3, 0, MAX_INDEX}
+        };
+    }
+
+    @Test(dataProvider = "keys")
+    public void testKey(int type, int index, int subIndex)
+    {
+        long key = ObjectRegistry.key(type, index, subIndex);
+        Assert.assertTrue(key > 0);
+        Assert.assertEquals(ObjectRegistry.type(key), type);
+        Assert.assertEquals(ObjectRegistry.index(key), index);
+        Assert.assertEquals(ObjectRegistry.subIndex(key), subIndex);
+    }
+
+    @DataProvider
+    public Object[][] invalidKeys()
+    {
+        return new Object[][] {
+            {0, 0, 0},
+            {ObjectRegistry.MAX_TYPE + 1, 0, 0},
+            {1, -1, 0},
+            {1, 0, -1},
+            {1, MAX_INDEX + 1, 0},
+            {1, 0, MAX_INDEX + 1}
+        };
+    }
+
+    @Test(dataProvider = "invalidKeys",
+          expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidKey(int type, int index, int subIndex)
+    {
+        ObjectRegistry.key(type, index, subIndex);
+    }
+
+    @Test
+    public void testAddAndGet()
+    {
+        ObjectRegistry registry = new ObjectRegistry();
+        Map<Long, IObjectContainer> expected = new HashMap<>();
+        Random random = new Random(42);
+        long[] order = new long[10000];
+        for (int i = 0; i < order.length; i++)
+        {
+            long key;
+            do
+            {
+                key = ObjectRegistry.key(1 + random.nextInt(4),
+                        random.nextInt(1000), random.nextInt(10));
+            }
+            while (expected.containsKey(key));
+            IObjectContainer container = new IObjectContainer();
+            registry.add(key, container);
+            expected.put(key, container);
+            order[i] = key;
+        }
+        Assert.assertEquals(registry.size(), order.length);
+        for (int i = 0; i < order.length; i++)
+        {
+            Assert.assertEquals(registry.keyAt(i), order[i]);
+            Assert.assertSame(registry.containerAt(i), expected.get(order[i]));
+            Assert.assertSame(registry.get(order[i]), expected.get(order[i]));
+        }
+        for (int i = 0; i < 1000; i++)
+        {
+            long key = ObjectRegistry.key(5, random.nextInt(1000), 0);
+            Assert.assertNull(registry.get(key));
+        }
+    }
+
+    @Test
+    public void testReferences()
+    {
+        ObjectRegistry registry = new ObjectRegistry();
+        int count = 1000;
+        for (int i = 0; i < count; i++)
+        {
+            registry.addReference(ObjectRegistry.key(2, i, i % 3), "A:" + i);
+        }
+        Assert.assertEquals(registry.referenceCount(), count);
+        for (int i = 0; i < count; i++)
+        {
+            Assert.assertEquals(registry.referenceSourceAt(i),
+                                ObjectRegistry.key(2, i, i % 3));
+            Assert.assertEquals(registry.referenceTargetAt(i), "A:" + i);
+        }
+    }
+
+    @Test
+    public void testAddAll()
+    {
+        ObjectRegistry first = new ObjectRegistry();
+        IObjectContainer a = new IObjectContainer();
+        first.add(ObjectRegistry.key(1, 0, 0), a);
+        first.addReference(ObjectRegistry.key(1, 0, 0), "A:0");
+        ObjectRegistry second = new ObjectRegistry();
+        IObjectContainer b = new IObjectContainer();
+        second.add(ObjectRegistry.key(1, 1, 0), b);
+        second.addReference(ObjectRegistry.key(1, 1, 0), "A:1");
+        first.addAll(second);
+        Assert.assertEquals(first.size(), 2);
+        Assert.assertSame(first.containerAt(1), b);
+        Assert.assertSame(first.get(ObjectRegistry.key(1, 1, 0)), b);
+        Assert.assertEquals(first.referenceCount(), 2);
+        Assert.assertEquals(first.referenceTargetAt(1), "A:1");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testAddAllDuplicate()
+    {
+        ObjectRegistry first = new ObjectRegistry();
+        first.add(ObjectRegistry.key(1, 0, 0), new IObjectContainer());
+        ObjectRegistry second = new ObjectRegistry();
+        second.add(ObjectRegistry.key(1, 0, 0), new IObjectContainer());
+        first.addAll(second);
+    }
+
+    @Test(expectedExceptions = IndexOutOfBoundsException.class)
+    public void testOutOfRange()
+    {
+        ObjectRegistry registry = new ObjectRegistry();
+        registry.add(ObjectRegistry.key(1, 0, 0), new IObjectContainer());
+        registry.keyAt(1);
+    }
+}
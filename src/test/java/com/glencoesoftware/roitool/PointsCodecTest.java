@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.glencoesoftware.roitool;
+
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+public class PointsCodecTest
+{
+    private PointsCodec codec;
+
+    @BeforeMethod
+    public void setUp()
+    {
+        codec = new PointsCodec();
+    }
+
+    @DataProvider
+    public Object[][] valid()
+    {
+        return new Object[][] {
+            {"", new double[] {}},
+            {"   ", new double[] {}},
+            {"1,2", new double[] {1, 2}},
+            {"1.5,-2.25 3,4", new double[] {1.5, -2.25, 3, 4}},
+            {"  1 , 2\n\t3,4  ", new double[] {1, 2, 3, 4}},
+            {"+1,.5 1.,-0", new double[] {1, 0.5, 1, -0.0}},
+            {"1e2,2.5E-3 1E+1,0.000", new double[] {100, 0.0025, 10, 0}},
+            {"0.1,0.2 0.30000000000000004,7",
+                new double[] {0.1, 0.2, 0.30000000000000004, 7}},
+            {"12345678901234567890,1",
+                new double[] {12345678901234567890.0, 1}},
+            {"1e300,-1e-300", new double[] {1e300, -1e-300}},
+            {"Infinity,NaN", new double[] {Double.POSITIVE_INFINITY,
+                                           Double.NaN}}
+        };
+    }
+
+    @Test(dataProvider = "valid")
+    public void testParse(String points, double[] expected)
+    {
+        Assert.assertEquals(codec.parse(points), expected.length / 2);
+        Assert.assertEquals(codec.getPointCount(), expected.length / 2);
+        for (int i = 0; i < expected.length / 2; i++)
+        {
+            Assert.assertEquals(codec.getX(i), expected[2 * i]);
+            Assert.assertEquals(codec.getY(i), expected[2 * i + 1]);
+        }
+    }
+
+    @Test
+    public void testParseNull()
+    {
+        codec.parse("1,2");
+        Assert.assertEquals(codec.parse(null), 0);
+        Assert.assertEquals(codec.getPointCount(), 0);
+    }
+
+    @DataProvider
+    public Object[][] malformed()
+    {
+        return new Object[][] {
+            {"1"},
+            {"1,"},
+            {",2"},
+            {"1 2"},
+            {"1,2,3"},
+            {"1,23,4"},
+            {"a,b"},
+            {"1e,2"},
+            {"1..5,2"},
+            {"1,2;3,4"}
+        };
+    }
+
+    @Test(dataProvider = "malformed",
+          expectedExceptions = NumberFormatException.class)
+    public void testParseMalformed(String points)
+    {
+        codec.parse(points);
+    }
+
+    @Test
+    public void testParseMatchesParseDouble()
+    {
+        Random random = new Random(42);
+        StringBuilder points = new StringBuilder();
+        double[] expected = new double[2000];
+        for (int i = 0; i < expected.length; i++)
+        {
+            double value = (random.nextDouble() - 0.5) * 20000;
+            String text;
+            switch (i % 4)
+            {
+                case 0:
+                    text = Double.toString(value);
+                    break;
+                case 1:
+                    text = CoordinateFormat.SHORTEST.format(value);
+                    break;
+                case 2:
+                    text = CoordinateFormat.fixed(3).format(value);
+                    break;
+                default:
+                    text = String.format("%.6e", value);
+                    break;
+            }
+            expected[i] = Double.parseDouble(text);
+            points.append(text).append(i % 2 == 0 ? "," : " ");
+        }
+        Assert.assertEquals(codec.parse(points), expected.length / 2);
+        for (int i = 0; i < expected.length / 2; i++)
+        {
+            Assert.assertEquals(codec.getX(i), expected[2 * i]);
+            Assert.assertEquals(codec.getY(i), expected[2 * i + 1]);
+        }
+    }
+
+    @Test
+    public void testFormat()
+    {
+        codec.parse("1.0,2.50 -3,0.1");
+        Assert.assertEquals(codec.format(), "1,2.5 -3,0.1");
+        Assert.assertEquals(codec.format(new StringBuilder("x"),
+                CoordinateFormat.fixed(0)).toString(), "x1,3 -3,0");
+        codec.parse("");
+        Assert.assertEquals(codec.format(), "");
+    }
+
+    @Test
+    public void testSet()
+    {
+        double[] xy = new double[1000];
+        for (int i = 0; i < xy.length; i++)
+        {
+            xy[i] = i;
+        }
+        codec.set(xy, 3);
+        Assert.assertEquals(codec.format(), "0,1 2,3 4,5");
+        codec.set(xy, xy.length / 2);
+        Assert.assertEquals(codec.getPointCount(), xy.length / 2);
+        Assert.assertEquals(codec.getY(xy.length / 2 - 1), 999.0);
+        Assert.assertTrue(codec.getCoordinates().length >= xy.length);
+    }
+
+    @Test(expectedExceptions = IndexOutOfBoundsException.class)
+    public void testOutOfRange()
+    {
+        codec.parse("1,2");
+        codec.getX(1);
+    }
+}
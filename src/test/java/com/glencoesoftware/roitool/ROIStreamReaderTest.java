@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.glencoesoftware.roitool;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamException;
+
+import loci.formats.meta.DummyMetadata;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class ROIStreamReaderTest
+{
+    /** Records the IDs of the ROIs set, which are indexed from 0 per chunk. */
+    private static class RecordingStore extends DummyMetadata
+    {
+        private final List<String> roiIds = new ArrayList<String>();
+
+        @Override
+        public void setROIID(String id, int roiIndex)
+        {
+            Assert.assertEquals(roiIndex, roiIds.size());
+            roiIds.add(id);
+        }
+    }
+
+    private RecordingStore store;
+
+    /** ROI IDs of each chunk taken out of {@link #store}. */
+    private List<List<String>> chunks;
+
+    @BeforeMethod
+    public void setUp()
+    {
+        store = new RecordingStore();
+        chunks = new ArrayList<List<String>>();
+    }
+
+    private boolean flush(int roiCount)
+    {
+        Assert.assertEquals(roiCount, store.roiIds.size());
+        chunks.add(new ArrayList<String>(store.roiIds));
+        store.roiIds.clear();
+        return true;
+    }
+
+    private static InputStream document(String... elements)
+    {
+        String xml = "<OME>" + String.join("", elements) + "</OME>";
+        return new ByteArrayInputStream(
+                xml.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String rois(int count, String annotationRef)
+    {
+        StringBuilder rois = new StringBuilder();
+        for (int i = 0; i < count; i++)
+        {
+            rois.append("<ROI ID=\"ROI:").append(i).append("\">");
+            rois.append(annotationRef).append("</ROI>");
+        }
+        return rois.toString();
+    }
+
+    private static final String ANNOTATIONS =
+            "<StructuredAnnotations>" +
+            "<CommentAnnotation ID=\"Annotation:0\">" +
+            "<Value>comment</Value></CommentAnnotation>" +
+            "</StructuredAnnotations>";
+
+    private static final String ANNOTATION_REF =
+            "<AnnotationRef ID=\"Annotation:0\"/>";
+
+    @Test
+    public void testChunks() throws XMLStreamException
+    {
+        int roiCount = new ROIStreamReader(store).read(
+                document(ANNOTATIONS, rois(5, ANNOTATION_REF)), 2,
+                this::flush);
+        Assert.assertEquals(roiCount, 5);
+        Assert.assertEquals(chunks, Arrays.asList(
+                Arrays.asList("ROI:0", "ROI:1"),
+                Arrays.asList("ROI:2", "ROI:3")));
+        Assert.assertEquals(store.roiIds, Arrays.asList("ROI:4"));
+    }
+
+    @Test
+    public void testForwardReference() throws XMLStreamException
+    {
+        int roiCount = new ROIStreamReader(store).read(
+                document(rois(3, ANNOTATION_REF), ANNOTATIONS), 2,
+                this::flush);
+        Assert.assertEquals(roiCount, 3);
+        Assert.assertTrue(chunks.isEmpty());
+        Assert.assertEquals(store.roiIds.size(), 3);
+    }
+
+    @Test
+    public void testWithoutHandler() throws XMLStreamException
+    {
+        int roiCount = new ROIStreamReader(store).read(
+                document(ANNOTATIONS, rois(3, "")));
+        Assert.assertEquals(roiCount, 3);
+        Assert.assertEquals(store.roiIds.size(), 3);
+    }
+
+    @Test
+    public void testStopped() throws XMLStreamException
+    {
+        int roiCount = new ROIStreamReader(store).read(
+                document(rois(5, "")), 2, count -> false);
+        Assert.assertEquals(roiCount, -1);
+        Assert.assertEquals(store.roiIds, Arrays.asList("ROI:0", "ROI:1"));
+    }
+}
@@ -0,0 +1,448 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.glencoesoftware.roitool;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+
+import loci.formats.meta.MetadataRetrieve;
+import loci.formats.meta.MetadataStore;
+import loci.formats.ome.OMEXMLMetadata;
+import loci.formats.ome.OMEXMLMetadataImpl;
+import ome.units.UNITS;
+import ome.units.quantity.Length;
+import ome.xml.model.AffineTransform;
+import ome.xml.model.MapPair;
+import ome.xml.model.enums.FillRule;
+import ome.xml.model.enums.FontFamily;
+import ome.xml.model.enums.FontStyle;
+import ome.xml.model.enums.Marker;
+import ome.xml.model.primitives.Color;
+import ome.xml.model.primitives.NonNegativeInteger;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * Compares the documents written by {@link ROIXMLWriter} with those the OME
+ * model serializes for the same ROIs.  Numbers are compared by value, as
+ * the two format them differently.
+ */
+public class ROIXMLWriterTest
+{
+    @Test
+    public void testMatchesModel() throws Exception
+    {
+        OMEXMLMetadata expected = newMetadata();
+        populate(expected, true);
+        expected.resolveReferences();
+        OMEXMLMetadata page = newMetadata();
+        populate(page, true);
+        assertSameRois(parse(expected.dumpXML()), parse(write(page)));
+    }
+
+    @Test
+    public void testMatchesModelConcurrently() throws Exception
+    {
+        OMEXMLMetadata expected = newMetadata();
+        OMEXMLMetadata page = newMetadata();
+        for (int i = 0; i < 100; i++)
+        {
+            populateRoi(expected, i);
+            populateRoi(page, i);
+        }
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try
+        {
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            try (ROIXMLWriter writer = new ROIXMLWriter(stream))
+            {
+                writer.writeStartDocument();
+                Assert.assertEquals(writer.write(page, pool), 100);
+                writer.writeEndDocument();
+            }
+            assertSameRois(parse(expected.dumpXML()), parse(
+                    new String(stream.toByteArray(), StandardCharsets.UTF_8)));
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testMatchesModelFromColumns() throws Exception
+    {
+        OMEXMLMetadata expected = newMetadata();
+        populate(expected, false);
+        ROIColumns page = new ROIColumns();
+        populate(page, false);
+        assertSameRois(parse(expected.dumpXML()), parse(write(page)));
+    }
+
+    @Test
+    public void testAnnotationsPrecedeRoisOfAllPages() throws Exception
+    {
+        OMEXMLMetadata first = newMetadata();
+        populate(first, true);
+        OMEXMLMetadata second = newMetadata();
+        populateRoi(second, 0);
+        second.setROIID("ROI:10", 0);
+        second.setMapAnnotationID("Annotation:1", 0);
+        second.setMapAnnotationValue(
+                Arrays.asList(new MapPair("c", "3")), 0);
+        second.setROIAnnotationRef("Annotation:1", 0, 0);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        try (ROIXMLWriter writer = new ROIXMLWriter(stream))
+        {
+            writer.writeStartDocument();
+            writer.write(first);
+            writer.write(second);
+            writer.writeEndDocument();
+        }
+        Element document = parse(
+                new String(stream.toByteArray(), StandardCharsets.UTF_8));
+        assertSchemaOrder(document);
+        Assert.assertEquals(children(document, "ROI").size(), 4);
+        Element annotations = child(document, "StructuredAnnotations", 0);
+        Assert.assertNotNull(annotations);
+        Assert.assertEquals(children(annotations, "MapAnnotation").size(), 2);
+        Assert.assertEquals(child(child(document, "ROI", 3),
+                "AnnotationRef", 0).getAttribute("ID"), "Annotation:1");
+    }
+
+    @Test
+    public void testEmptyRoiHasNoUnion() throws Exception
+    {
+        OMEXMLMetadata page = newMetadata();
+        populate(page, true);
+        Element roi = child(parse(write(page)), "ROI", 2);
+        Assert.assertEquals(roi.getAttribute("ID"), "ROI:2");
+        Assert.assertNull(child(roi, "Union", 0));
+    }
+
+    @Test
+    public void testAttributesInNameOrder() throws Exception
+    {
+        OMEXMLMetadata page = newMetadata();
+        populate(page, true);
+        XMLStreamReader reader = XMLInputFactory.newInstance()
+                .createXMLStreamReader(new ByteArrayInputStream(
+                        write(page).getBytes(StandardCharsets.UTF_8)));
+        while (reader.hasNext())
+        {
+            if (reader.next() != XMLStreamConstants.START_ELEMENT)
+            {
+                continue;
+            }
+            List<String> names = new ArrayList<String>();
+            for (int i = 0; i < reader.getAttributeCount(); i++)
+            {
+                if (reader.getAttributeNamespace(i) == null)
+                {
+                    names.add(reader.getAttributeLocalName(i));
+                }
+            }
+            List<String> sorted = new ArrayList<String>(names);
+            sorted.sort(null);
+            Assert.assertEquals(names, sorted, reader.getLocalName());
+        }
+    }
+
+    private static OMEXMLMetadata newMetadata()
+    {
+        OMEXMLMetadata metadata = new OMEXMLMetadataImpl();
+        metadata.createRoot();
+        return metadata;
+    }
+
+    /**
+     * Describes three ROIs: one holding a shape of every type with every
+     * property set, one holding a single point and one without shapes.
+     * @param annotated whether to describe a map annotation and reference
+     * it from the first ROI and its rectangle
+     */
+    private static void populate(MetadataStore store, boolean annotated)
+    {
+        store.setROIID("ROI:0", 0);
+        store.setROIName("all shapes", 0);
+        store.setROIDescription("every shape type", 0);
+
+        store.setRectangleID("Shape:0:0", 0, 0);
+        store.setRectangleFillColor(new Color(0x11223344), 0, 0);
+        store.setRectangleFillRule(FillRule.EVENODD, 0, 0);
+        store.setRectangleFontFamily(FontFamily.SANSSERIF, 0, 0);
+        store.setRectangleFontSize(new Length(12.5, UNITS.POINT), 0, 0);
+        store.setRectangleFontStyle(FontStyle.BOLD, 0, 0);
+        store.setRectangleLocked(Boolean.TRUE, 0, 0);
+        store.setRectangleStrokeColor(new Color(-1), 0, 0);
+        store.setRectangleStrokeDashArray("2 2", 0, 0);
+        store.setRectangleStrokeWidth(new Length(1.5, UNITS.PIXEL), 0, 0);
+        store.setRectangleText("rectangle", 0, 0);
+        store.setRectangleTheC(new NonNegativeInteger(1), 0, 0);
+        store.setRectangleTheT(new NonNegativeInteger(2), 0, 0);
+        store.setRectangleTheZ(new NonNegativeInteger(3), 0, 0);
+        store.setRectangleX(10.0, 0, 0);
+        store.setRectangleY(20.25, 0, 0);
+        store.setRectangleWidth(30.0, 0, 0);
+        store.setRectangleHeight(40.5, 0, 0);
+        AffineTransform transform = new AffineTransform();
+        transform.setA00(1.0);
+        transform.setA01(0.5);
+        transform.setA02(-3.0);
+        transform.setA10(0.0);
+        transform.setA11(2.0);
+        transform.setA12(7.25);
+        store.setRectangleTransform(transform, 0, 0);
+
+        store.setEllipseID("Shape:0:1", 0, 1);
+        store.setEllipseX(5.0, 0, 1);
+        store.setEllipseY(6.0, 0, 1);
+        store.setEllipseRadiusX(7.5, 0, 1);
+        store.setEllipseRadiusY(8.5, 0, 1);
+        store.setEllipseTheZ(new NonNegativeInteger(0), 0, 1);
+
+        store.setLineID("Shape:0:2", 0, 2);
+        store.setLineX1(0.0, 0, 2);
+        store.setLineY1(1.0, 0, 2);
+        store.setLineX2(2.0, 0, 2);
+        store.setLineY2(3.0, 0, 2);
+        store.setLineMarkerEnd(Marker.ARROW, 0, 2);
+        store.setLineMarkerStart(Marker.ARROW, 0, 2);
+
+        store.setLabelID("Shape:0:3", 0, 3);
+        store.setLabelX(4.0, 0, 3);
+        store.setLabelY(5.0, 0, 3);
+        store.setLabelText("label", 0, 3);
+
+        store.setPolygonID("Shape:0:4", 0, 4);
+        store.setPolygonPoints("1.5,2 3,4.25 -1,0", 0, 4);
+        store.setPolygonStrokeWidth(new Length(2.0, UNITS.PIXEL), 0, 4);
+
+        store.setPolylineID("Shape:0:5", 0, 5);
+        store.setPolylinePoints("0,0 10,10", 0, 5);
+        store.setPolylineMarkerEnd(Marker.ARROW, 0, 5);
+
+        store.setMaskID("Shape:0:6", 0, 6);
+        store.setMaskX(0.0, 0, 6);
+        store.setMaskY(0.0, 0, 6);
+        store.setMaskWidth(8.0, 0, 6);
+        store.setMaskHeight(8.0, 0, 6);
+
+        populateRoi(store, 1);
+
+        store.setROIID("ROI:2", 2);
+        store.setROIName("empty", 2);
+
+        if (annotated)
+        {
+            store.setMapAnnotationID("Annotation:0", 0);
+            store.setMapAnnotationNamespace("openmicroscopy.org/test", 0);
+            store.setMapAnnotationValue(Arrays.asList(
+                    new MapPair("a", "1"), new MapPair("b", "2")), 0);
+            store.setROIAnnotationRef("Annotation:0", 0, 0);
+            store.setRectangleAnnotationRef("Annotation:0", 0, 0, 0);
+        }
+    }
+
+    /**
+     * Describes a ROI holding a single point.
+     */
+    private static void populateRoi(MetadataStore store, int roi)
+    {
+        store.setROIID("ROI:" + roi, roi);
+        store.setPointID("Shape:" + roi + ":0", roi, 0);
+        store.setPointX(roi + 0.5, roi, 0);
+        store.setPointY(roi * 2.0, roi, 0);
+    }
+
+    private static String write(MetadataRetrieve page) throws Exception
+    {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        try (ROIXMLWriter writer = new ROIXMLWriter(stream))
+        {
+            writer.writeStartDocument();
+            writer.write(page);
+            writer.writeEndDocument();
+        }
+        return new String(stream.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static Element parse(String xml) throws Exception
+    {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        return factory.newDocumentBuilder().parse(new ByteArrayInputStream(
+                xml.getBytes(StandardCharsets.UTF_8))).getDocumentElement();
+    }
+
+    /**
+     * Compares the ROIs and structured annotations of two documents and
+     * checks that the actual document orders them as the schema does.
+     */
+    private static void assertSameRois(Element expected, Element actual)
+    {
+        assertSchemaOrder(actual);
+        for (String name : new String[] {"ROI", "StructuredAnnotations"})
+        {
+            List<Element> expectedChildren = children(expected, name);
+            List<Element> actualChildren = children(actual, name);
+            Assert.assertEquals(actualChildren.size(),
+                                expectedChildren.size(), name);
+            for (int i = 0; i < actualChildren.size(); i++)
+            {
+                assertSameElement(
+                        expectedChildren.get(i), actualChildren.get(i));
+            }
+        }
+    }
+
+    /**
+     * Checks that structured annotations precede all ROIs, as the
+     * <code>OME</code> element's sequence in the schema requires.
+     */
+    private static void assertSchemaOrder(Element document)
+    {
+        boolean seenRoi = false;
+        for (Element child : children(document))
+        {
+            if ("ROI".equals(child.getLocalName()))
+            {
+                seenRoi = true;
+            }
+            else if ("StructuredAnnotations".equals(child.getLocalName()))
+            {
+                Assert.assertFalse(seenRoi,
+                        "StructuredAnnotations follows a ROI");
+            }
+        }
+    }
+
+    private static void assertSameElement(Element expected, Element actual)
+    {
+        String name = expected.getLocalName();
+        Assert.assertEquals(actual.getLocalName(), name);
+        Map<String, String> expectedAttributes = attributes(expected);
+        Map<String, String> actualAttributes = attributes(actual);
+        Assert.assertEquals(actualAttributes.keySet(),
+                            expectedAttributes.keySet(), name);
+        for (Map.Entry<String, String> entry : expectedAttributes.entrySet())
+        {
+            assertSameValue(actualAttributes.get(entry.getKey()),
+                            entry.getValue(), name + "/@" + entry.getKey());
+        }
+        List<Element> expectedChildren = children(expected);
+        List<Element> actualChildren = children(actual);
+        Assert.assertEquals(actualChildren.size(), expectedChildren.size(),
+                            name);
+        if (expectedChildren.isEmpty())
+        {
+            Assert.assertEquals(actual.getTextContent().trim(),
+                                expected.getTextContent().trim(), name);
+        }
+        for (int i = 0; i < actualChildren.size(); i++)
+        {
+            assertSameElement(expectedChildren.get(i), actualChildren.get(i));
+        }
+    }
+
+    private static void assertSameValue(
+            String actual, String expected, String message)
+    {
+        try
+        {
+            Assert.assertEquals(Double.parseDouble(actual),
+                                Double.parseDouble(expected), message);
+        }
+        catch (NumberFormatException e)
+        {
+            Assert.assertEquals(actual, expected, message);
+        }
+    }
+
+    /**
+     * @return attributes without a namespace, keyed by name
+     */
+    private static Map<String, String> attributes(Element element)
+    {
+        Map<String, String> attributes = new TreeMap<String, String>();
+        NamedNodeMap nodes = element.getAttributes();
+        for (int i = 0; i < nodes.getLength(); i++)
+        {
+            Node node = nodes.item(i);
+            if (node.getNamespaceURI() == null)
+            {
+                attributes.put(node.getLocalName(), node.getNodeValue());
+            }
+        }
+        return attributes;
+    }
+
+    private static List<Element> children(Element element)
+    {
+        List<Element> children = new ArrayList<Element>();
+        for (Node node = element.getFirstChild(); node != null;
+                node = node.getNextSibling())
+        {
+            if (node instanceof Element)
+            {
+                children.add((Element) node);
+            }
+        }
+        return children;
+    }
+
+    private static List<Element> children(Element element, String name)
+    {
+        List<Element> children = new ArrayList<Element>();
+        for (Element child : children(element))
+        {
+            if (name.equals(child.getLocalName()))
+            {
+                children.add(child);
+            }
+        }
+        return children;
+    }
+
+    /**
+     * @return the child element with a name at an index among those with
+     * the name, or <code>null</code> if there is none
+     */
+    private static Element child(Element element, String name, int index)
+    {
+        List<Element> children = children(element, name);
+        return index < children.size() ? children.get(index) : null;
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.glencoesoftware.roitool;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import omero.RList;
+import omero.RLong;
+import omero.RType;
+import omero.ServerError;
+import omero.api.IQueryPrx;
+import omero.model.IObject;
+import omero.model.RectangleI;
+import omero.model.Roi;
+import omero.model.RoiI;
+import omero.sys.ParametersI;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static omero.rtypes.rlong;
+
+public class RoiPagerTest
+{
+    /** ROIs of the image by ID. */
+    private SortedMap<Long, Roi> rois;
+
+    /** IDs of ROIs deleted between the ID projection and the fetch. */
+    private Set<Long> deleted;
+
+    @BeforeMethod
+    public void setUp()
+    {
+        rois = new TreeMap<Long, Roi>();
+        deleted = new HashSet<Long>();
+    }
+
+    private void addRoi(long id, boolean withShape)
+    {
+        Roi roi = new RoiI(id, true);
+        if (withShape)
+        {
+            roi.addShape(new RectangleI());
+        }
+        rois.put(id, roi);
+    }
+
+    /**
+     * @return a query service answering the two queries of the pager from
+     * {@link #rois}; the fetch behaves as an inner join on the shapes
+     * unless asked for an outer join
+     */
+    private IQueryPrx newQueryService()
+    {
+        return (IQueryPrx) Proxy.newProxyInstance(
+                IQueryPrx.class.getClassLoader(),
+                new Class<?>[] { IQueryPrx.class },
+                (proxy, method, args) -> {
+                    String query = (String) args[0];
+                    ParametersI params = (ParametersI) args[1];
+                    switch (method.getName())
+                    {
+                        case "projection":
+                            return project(params);
+                        case "findAllByQuery":
+                            return fetch(query, params);
+                        default:
+                            throw new UnsupportedOperationException(
+                                    method.getName());
+                    }
+                });
+    }
+
+    private List<List<RType>> project(ParametersI params)
+    {
+        long last = ((RLong) params.map.get("last")).getValue();
+        int limit = params.theFilter.limit.getValue();
+        List<List<RType>> rows = new ArrayList<List<RType>>();
+        for (Long id : rois.tailMap(last + 1).keySet())
+        {
+            if (rows.size() == limit)
+            {
+                break;
+            }
+            rows.add(Collections.<RType>singletonList(rlong(id)));
+        }
+        return rows;
+    }
+
+    private List<IObject> fetch(String query, ParametersI params)
+    {
+        boolean outer = query.contains("LEFT OUTER JOIN FETCH");
+        List<IObject> results = new ArrayList<IObject>();
+        for (RType id : ((RList) params.map.get("ids")).getValue())
+        {
+            Roi roi = rois.get(((RLong) id).getValue());
+            if (!deleted.contains(roi.getId().getValue())
+                    && (outer || roi.sizeOfShapes() > 0))
+            {
+                results.add(roi);
+            }
+        }
+        return results;
+    }
+
+    private List<List<Roi>> readAll(int pageSize) throws ServerError
+    {
+        RoiPager pager = new RoiPager(newQueryService(), 1L, pageSize);
+        List<List<Roi>> pages = new ArrayList<List<Roi>>();
+        List<Roi> page;
+        while ((page = pager.next()) != null)
+        {
+            pages.add(page);
+        }
+        return pages;
+    }
+
+    private static List<Long> ids(List<Roi> page)
+    {
+        List<Long> ids = new ArrayList<Long>();
+        for (Roi roi : page)
+        {
+            ids.add(roi.getId().getValue());
+        }
+        return ids;
+    }
+
+    @Test
+    public void testEmpty() throws ServerError
+    {
+        Assert.assertTrue(readAll(2).isEmpty());
+    }
+
+    @Test
+    public void testPages() throws ServerError
+    {
+        for (long id = 1; id <= 5; id++)
+        {
+            addRoi(id, true);
+        }
+        List<List<Roi>> pages = readAll(2);
+        Assert.assertEquals(pages.size(), 3);
+        Assert.assertEquals(ids(pages.get(0)), Arrays.asList(1L, 2L));
+        Assert.assertEquals(ids(pages.get(1)), Arrays.asList(3L, 4L));
+        Assert.assertEquals(ids(pages.get(2)), Arrays.asList(5L));
+    }
+
+    @Test
+    public void testShapelessPage() throws ServerError
+    {
+        addRoi(1, true);
+        addRoi(2, true);
+        addRoi(3, false);
+        addRoi(4, false);
+        addRoi(5, true);
+        addRoi(6, false);
+        List<List<Roi>> pages = readAll(2);
+        Assert.assertEquals(pages.size(), 3);
+        Assert.assertEquals(ids(pages.get(1)), Arrays.asList(3L, 4L));
+        Assert.assertEquals(pages.get(1).get(0).sizeOfShapes(), 0);
+        Assert.assertEquals(ids(pages.get(2)), Arrays.asList(5L, 6L));
+    }
+
+    @Test
+    public void testPageOfDeletedRois() throws ServerError
+    {
+        for (long id = 1; id <= 6; id++)
+        {
+            addRoi(id, true);
+        }
+        deleted.add(3L);
+        deleted.add(4L);
+        RoiPager pager = new RoiPager(newQueryService(), 1L, 2);
+        Assert.assertEquals(ids(pager.next()), Arrays.asList(1L, 2L));
+        Assert.assertTrue(pager.next().isEmpty());
+        Assert.assertEquals(pager.getLastId(), 4L);
+        Assert.assertEquals(ids(pager.next()), Arrays.asList(5L, 6L));
+        Assert.assertNull(pager.next());
+    }
+}
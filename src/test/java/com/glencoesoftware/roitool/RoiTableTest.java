@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.glencoesoftware.roitool;
+
+import java.util.List;
+
+import omero.model.Roi;
+import omero.model.RoiI;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class RoiTableTest
+{
+    private RoiTable table;
+
+    @BeforeMethod
+    public void setUp()
+    {
+        table = new RoiTable();
+    }
+
+    @Test
+    public void testEmpty()
+    {
+        Assert.assertEquals(table.size(), 0);
+        Assert.assertEquals(table.bound(), 0);
+        Assert.assertNull(table.get(0));
+        Assert.assertNull(table.get(-1));
+        Assert.assertTrue(table.values().isEmpty());
+    }
+
+    @Test
+    public void testFirstAccessOrder()
+    {
+        Roi[] rois = new Roi[100];
+        for (int i = 0; i < rois.length; i++)
+        {
+            rois[i] = new RoiI();
+        }
+        // Out of order and sparse, across several resizes
+        int[] indexes = {5, 0, 99, 17, 3};
+        for (int index : indexes)
+        {
+            table.put(index, rois[index]);
+        }
+        Assert.assertEquals(table.size(), indexes.length);
+        Assert.assertEquals(table.bound(), 100);
+        List<Roi> values = table.values();
+        Assert.assertEquals(values.size(), indexes.length);
+        for (int i = 0; i < indexes.length; i++)
+        {
+            Assert.assertEquals(table.indexAt(i), indexes[i]);
+            Assert.assertSame(table.get(indexes[i]), rois[indexes[i]]);
+            Assert.assertSame(values.get(i), rois[indexes[i]]);
+        }
+        Assert.assertNull(table.get(4));
+        Assert.assertNull(table.get(1000));
+    }
+
+    @Test
+    public void testReplace()
+    {
+        Roi first = new RoiI();
+        Roi second = new RoiI();
+        table.put(2, first);
+        table.put(7, new RoiI());
+        table.put(2, second);
+        Assert.assertEquals(table.size(), 2);
+        Assert.assertEquals(table.indexAt(0), 2);
+        Assert.assertSame(table.get(2), second);
+        Assert.assertSame(table.values().get(0), second);
+    }
+
+    @Test
+    public void testManyRois()
+    {
+        int count = 100000;
+        for (int i = 0; i < count; i++)
+        {
+            table.put(i, new RoiI());
+        }
+        Assert.assertEquals(table.size(), count);
+        Assert.assertEquals(table.bound(), count);
+        Assert.assertEquals(table.indexAt(count - 1), count - 1);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testNegativeIndex()
+    {
+        table.put(-1, new RoiI());
+    }
+
+    @Test(expectedExceptions = IndexOutOfBoundsException.class)
+    public void testOutOfRange()
+    {
+        table.put(0, new RoiI());
+        table.indexAt(1);
+    }
+
+    @Test(expectedExceptions = UnsupportedOperationException.class)
+    public void testValuesReadOnly()
+    {
+        table.values().add(new RoiI());
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.glencoesoftware.roitool;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import omero.RString;
+import omero.model.Polygon;
+import omero.model.PolygonI;
+import omero.model.Polyline;
+import omero.model.PolylineI;
+import omero.model.Shape;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import static omero.rtypes.rstring;
+
+public class ShapeSimplifierTest
+{
+    private static Polygon polygon(String points)
+    {
+        Polygon polygon = new PolygonI();
+        polygon.setPoints(rstring(points));
+        return polygon;
+    }
+
+    private static Polyline polyline(String points)
+    {
+        Polyline polyline = new PolylineI();
+        polyline.setPoints(rstring(points));
+        return polyline;
+    }
+
+    private static String points(Shape shape)
+    {
+        RString points = shape instanceof Polygon
+                ? ((Polygon) shape).getPoints()
+                : ((Polyline) shape).getPoints();
+        return points == null ? null : points.getValue();
+    }
+
+    /**
+     * @return wobbly outline of a circle, of a radius and number of
+     * vertices derived from a random number generator
+     */
+    private static String outline(Random random)
+    {
+        int count = 3 + random.nextInt(200);
+        double radius = 1 + random.nextInt(100);
+        StringBuilder points = new StringBuilder();
+        for (int i = 0; i < count; i++)
+        {
+            double angle = 2 * Math.PI * i / count;
+            double r = radius + random.nextDouble() - 0.5;
+            if (i > 0)
+            {
+                points.append(' ');
+            }
+            points.append(r * Math.cos(angle)).append(',')
+                  .append(r * Math.sin(angle));
+        }
+        return points.toString();
+    }
+
+    @DataProvider
+    public Object[][] polylines()
+    {
+        return new Object[][] {
+            {"0,0 1,0 2,0 3,0", "0,0 3,0"},
+            {"0,0 1,0.05 2,-0.05 3,0", "0,0 3,0"},
+            {"0,0 1,0 2,5 3,0 4,0", "0,0 1,0 2,5 3,0 4,0"},
+            {"0,0 1,0 2,1 3,2", "0,0 1,0 3,2"},
+            {"0,0 0,0 0,0", "0,0 0,0"}
+        };
+    }
+
+    @Test(dataProvider = "polylines")
+    public void testPolyline(String points, String expected)
+    {
+        Polyline shape = polyline(points);
+        new ShapeSimplifier(0.1).simplify(
+                Collections.singletonList(shape), null);
+        Assert.assertEquals(points(shape), expected);
+    }
+
+    @DataProvider
+    public Object[][] polygons()
+    {
+        return new Object[][] {
+            {"0,0 5,0 10,0 10,10 0,10", "0,0 10,0 10,10 0,10"},
+            {"0,0 5,0.05 10,0 10,10 5,10 0,10 0,5",
+                "0,0 10,0 10,10 0,10"},
+            {"0,0 10,0 10,10 0,10", "0,0 10,0 10,10 0,10"}
+        };
+    }
+
+    @Test(dataProvider = "polygons")
+    public void testPolygon(String points, String expected)
+    {
+        Polygon shape = polygon(points);
+        new ShapeSimplifier(0.1).simplify(
+                Collections.singletonList(shape), null);
+        Assert.assertEquals(points(shape), expected);
+    }
+
+    @Test
+    public void testTooFewVerticesLeftAsIs()
+    {
+        // A polygon whose vertices all lie on a line would become a line
+        Polygon line = polygon("0,0 1,0 2,0 3,0");
+        Polygon triangle = polygon("0.0,0.0 1.0,0.0 0.0,1.0");
+        Polyline segment = polyline("0.0,0.0 1.0,0.0");
+        RString trianglePoints = triangle.getPoints();
+        RString segmentPoints = segment.getPoints();
+        long dropped = new ShapeSimplifier(10).simplify(
+                Arrays.<Shape>asList(line, triangle, segment), null);
+        Assert.assertEquals(dropped, 0);
+        Assert.assertEquals(points(line), "0,0 1,0 2,0 3,0");
+        Assert.assertSame(triangle.getPoints(), trianglePoints);
+        Assert.assertSame(segment.getPoints(), segmentPoints);
+    }
+
+    @Test
+    public void testUnchangedPointsKept()
+    {
+        Polyline shape = polyline("0.0,0.0 1.0,5.0 2.0,0.0");
+        RString points = shape.getPoints();
+        long dropped = new ShapeSimplifier(0.5).simplify(
+                Collections.singletonList(shape), null);
+        Assert.assertEquals(dropped, 0);
+        Assert.assertSame(shape.getPoints(), points);
+    }
+
+    @Test
+    public void testUnparseableAndMissingPointsLeftAsIs()
+    {
+        Polyline unparseable = polyline("0,0 1,0 a,b 3,0");
+        Polyline missing = new PolylineI();
+        long dropped = new ShapeSimplifier(1).simplify(
+                Arrays.<Shape>asList(unparseable, missing), null);
+        Assert.assertEquals(dropped, 0);
+        Assert.assertEquals(points(unparseable), "0,0 1,0 a,b 3,0");
+        Assert.assertNull(missing.getPoints());
+    }
+
+    @Test
+    public void testPoolMatchesCallingThread()
+    {
+        Random random = new Random(42);
+        List<Shape> serial = new ArrayList<Shape>();
+        List<Shape> parallel = new ArrayList<Shape>();
+        for (int i = 0; i < 5000; i++)
+        {
+            String points = outline(random);
+            serial.add(i % 2 == 0 ? polygon(points) : polyline(points));
+            parallel.add(i % 2 == 0 ? polygon(points) : polyline(points));
+        }
+        ShapeSimplifier simplifier = new ShapeSimplifier(0.5);
+        long dropped = simplifier.simplify(serial, null);
+        Assert.assertTrue(dropped > 0);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try
+        {
+            Assert.assertEquals(simplifier.simplify(parallel, pool), dropped);
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+        for (int i = 0; i < serial.size(); i++)
+        {
+            Assert.assertEquals(points(parallel.get(i)),
+                                points(serial.get(i)));
+        }
+    }
+
+    @Test
+    public void testColumnsMatchModel()
+    {
+        Random random = new Random(42);
+        List<Shape> shapes = new ArrayList<Shape>();
+        ROIColumns columns = new ROIColumns();
+        for (int roi = 0; roi < 100; roi++)
+        {
+            columns.setROIID("ROI:" + roi, roi);
+            for (int shape = 0; shape < 3; shape++)
+            {
+                String points = outline(random);
+                String id = "Shape:" + roi + ":" + shape;
+                if (shape == 1)
+                {
+                    columns.setPolylineID(id, roi, shape);
+                    columns.setPolylinePoints(points, roi, shape);
+                    shapes.add(polyline(points));
+                }
+                else
+                {
+                    columns.setPolygonID(id, roi, shape);
+                    columns.setPolygonPoints(points, roi, shape);
+                    shapes.add(polygon(points));
+                }
+            }
+        }
+        ShapeSimplifier simplifier = new ShapeSimplifier(0.5);
+        long dropped = simplifier.simplify(shapes, null);
+        Assert.assertTrue(dropped > 0);
+        Assert.assertEquals(simplifier.simplify(columns), dropped);
+        // Columns keep the style of the coordinates they were given, so
+        // compare values rather than strings
+        PointsCodec expected = new PointsCodec();
+        PointsCodec actual = new PointsCodec();
+        for (int i = 0; i < shapes.size(); i++)
+        {
+            int roi = i / 3;
+            int shape = i % 3;
+            expected.parse(points(shapes.get(i)));
+            actual.parse(shape == 1
+                    ? columns.getPolylinePoints(roi, shape)
+                    : columns.getPolygonPoints(roi, shape));
+            Assert.assertEquals(actual.getPointCount(),
+                                expected.getPointCount());
+            Assert.assertEquals(
+                    Arrays.copyOf(actual.getCoordinates(),
+                                  2 * actual.getPointCount()),
+                    Arrays.copyOf(expected.getCoordinates(),
+                                  2 * expected.getPointCount()));
+        }
+    }
+
+    @DataProvider
+    public Object[][] invalidTolerances()
+    {
+        return new Object[][] {
+            {-1.0},
+            {Double.NaN},
+            {Double.POSITIVE_INFINITY}
+        };
+    }
+
+    @Test(dataProvider = "invalidTolerances",
+          expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidTolerance(double tolerance)
+    {
+        new ShapeSimplifier(tolerance);
+    }
+}
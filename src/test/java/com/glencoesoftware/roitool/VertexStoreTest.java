@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2019 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.glencoesoftware.roitool;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class VertexStoreTest
+{
+    private File directory;
+
+    @BeforeMethod
+    public void setUp() throws IOException
+    {
+        directory = Files.createTempDirectory("vertices").toFile();
+    }
+
+    @AfterMethod
+    public void tearDown()
+    {
+        directory.delete();
+    }
+
+    /**
+     * Appends a number of vertices, a shape at a time, whose coordinates
+     * are derived from their index.
+     */
+    private static void fill(VertexStore store, int count, int perShape)
+    {
+        double[] xy = new double[2 * perShape];
+        for (int first = 0; first < count; first += perShape)
+        {
+            int n = Math.min(perShape, count - first);
+            for (int i = 0; i < n; i++)
+            {
+                xy[2 * i] = first + i;
+                xy[2 * i + 1] = -(first + i) - 0.5;
+            }
+            Assert.assertEquals(store.append(xy, n), first);
+        }
+    }
+
+    private static void assertVertices(VertexStore store, int count)
+    {
+        Assert.assertEquals(store.size(), count);
+        for (int i = 0; i < count; i += 997)
+        {
+            Assert.assertEquals(store.getX(i), (double) i);
+            Assert.assertEquals(store.getY(i), -i - 0.5);
+        }
+        Assert.assertEquals(store.getX(count - 1), (double) (count - 1));
+    }
+
+    @Test
+    public void testHeap()
+    {
+        int count = 2 * VertexStore.CHUNK_SIZE + 10;
+        try (VertexStore store = new VertexStore())
+        {
+            fill(store, count, 333);
+            assertVertices(store, count);
+            Assert.assertFalse(store.isOffHeap());
+            Assert.assertEquals(store.spilled(), 0);
+        }
+    }
+
+    @Test
+    public void testFirstChunkSizedToDemand()
+    {
+        try (VertexStore store = new VertexStore();
+             VertexStore grown = new VertexStore())
+        {
+            fill(store, 10, 10);
+            long small = store.estimateSize();
+            Assert.assertTrue(small
+                    < 16L * VertexStore.MIN_FIRST_CHUNK_SIZE + 64, "" + small);
+            Assert.assertEquals(store.append(new double[20], 10), 10);
+            Assert.assertEquals(store.estimateSize(), small);
+            // Growing keeps the vertices already held
+            int count = 5 * VertexStore.MIN_FIRST_CHUNK_SIZE;
+            fill(grown, count, 100);
+            assertVertices(grown, count);
+        }
+    }
+
+    @Test
+    public void testOffHeapSpills()
+    {
+        int count = 3 * VertexStore.CHUNK_SIZE;
+        long limit = 16L * VertexStore.CHUNK_SIZE;
+        File spill;
+        try (VertexStore store = VertexStore.offHeap(limit, directory))
+        {
+            fill(store, count, 1000);
+            assertVertices(store, count);
+            Assert.assertTrue(store.isOffHeap());
+            Assert.assertEquals(store.spilled(),
+                                count - VertexStore.CHUNK_SIZE);
+            File[] files = directory.listFiles();
+            Assert.assertEquals(files.length, 1);
+            spill = files[0];
+        }
+        Assert.assertFalse(spill.exists());
+    }
+
+    @Test
+    public void testFormat()
+    {
+        try (VertexStore store = new VertexStore())
+        {
+            store.append(new double[] {1, 2.5, -3, 4, 0.125, 6}, 3);
+            Assert.assertEquals(store.format(new StringBuilder(), 0, 3,
+                    CoordinateFormat.SHORTEST).toString(),
+                    "1,2.5 -3,4 0.125,6");
+            Assert.assertEquals(store.format(new StringBuilder(), 1, 2,
+                    CoordinateFormat.fixed(1)).toString(),
+                    "-3,4 0.1,6");
+            double[] xy = new double[4];
+            store.get(1, xy, 2);
+            Assert.assertEquals(xy, new double[] {-3, 4, 0.125, 6});
+            store.set(2, new double[] {7, 8}, 1);
+            Assert.assertEquals(store.getX(2), 7.0);
+        }
+    }
+
+    @Test(expectedExceptions = IndexOutOfBoundsException.class)
+    public void testOutOfRange()
+    {
+        try (VertexStore store = new VertexStore())
+        {
+            store.append(new double[] {1, 2}, 1);
+            store.getX(1);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testClosed()
+    {
+        VertexStore store = new VertexStore();
+        store.close();
+        store.append(new double[] {1, 2}, 1);
+    }
+}